@@ -40,6 +40,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.Iterator;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
 import javax.imageio.ImageReader;
 import javax.imageio.stream.FileCacheImageInputStream;
 import javax.imageio.stream.ImageInputStream;
@@ -150,6 +151,63 @@ public final class ImageUtil {
         return ret;
     }
 
+    /**
+     * Calculate the source subsampling factor used by 
+     * {@link #readSubsampled(InputStream, int)} for an image of the given 
+     * width. The factor keeps the decoded image at least twice as wide as 
+     * the target width, leaving a final downscale to smooth out the 
+     * aliasing caused by subsampling.
+     * 
+     * @param sourceWidth width of the encoded image in pixels
+     * @param targetWidth the desired width in pixels
+     * @return the subsampling factor, <code>1</code> for no subsampling
+     */
+    public static int subsamplingFactor(int sourceWidth, int targetWidth) {
+        if (targetWidth < 1) {
+            return 1;
+        }
+        return Math.max(1, sourceWidth / (targetWidth * 2));
+    }
+    
+    /**
+     * Decode an image from an encoded data stream, subsampling pixels while 
+     * decoding, so that the full size image is never held in memory. The 
+     * decoded image is approximately between two and four times as wide as
+     * the target width (or the original size if the image is smaller), and
+     * should be further scaled with {@link #downscaleToWidth(BufferedImage, int)}.
+     * 
+     * @param stream the input stream with the encoded image data (any format).
+     * @param targetWidth the width in pixels the image will be scaled to
+     * @return the decoded image, or <code>null</code> if no reader could 
+     * be found for the image data
+     * @throws IOException 
+     */
+    public static BufferedImage readSubsampled(InputStream stream, int targetWidth) throws IOException {
+        ImageInputStream iis = ImageIO.createImageInputStream(stream);
+        if (iis == null) {
+            return null;
+        }
+        try {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true, true);
+                int index = reader.getMinIndex();
+                int factor = subsamplingFactor(reader.getWidth(index), targetWidth);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(factor, factor, 0, 0);
+                return reader.read(index, param);
+            } finally {
+                reader.dispose();
+            }
+        } finally {
+            iis.close();
+        }
+    }
+
     /**
      * Encode a {@link BufferedImage} to given format and return the data.
      * @param image image in memory
@@ -32,12 +32,20 @@ package vtk.js;
 
 import java.io.Reader;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
 
@@ -48,103 +56,145 @@ import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.SimpleScriptContext;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
 import jdk.nashorn.api.scripting.NashornScriptEngineFactory;
 import jdk.nashorn.api.scripting.ScriptObjectMirror;
 import vtk.util.Result;
 import vtk.util.io.InputSource;
 import vtk.util.io.InputSourceProvider;
 
+/**
+ * Pool of Nashorn engines, each confined to its own thread.
+ *
+ * <p>Nashorn globals are not thread safe, so every script object must
+ * only be touched from the thread of the engine that created it. Callers
+ * that need to run several steps against the same script (obtaining a
+ * function, invoking it and later invoking callbacks handed out to it)
+ * should first obtain a {@link #pin() pinned} engine and use that for the
+ * whole call.
+ *
+ * <p>Each worker caches compiled scripts together with the global
+ * bindings produced by evaluating them. The cached entry is reused as long
+ * as the last modified time of the script source is unchanged. Script
+ * sources are loaded by a separate pool of threads, so that slow source
+ * loading does not hold up the engine threads.
+ */
 public class JavascriptEngine {
-    private ScriptEngine engine;
-    private InputSourceProvider sourceProvider;
-    private Map<String, Script> scripts = new HashMap<>();
-    
-    private ExecutorService jsExecutor = 
-            Executors.newSingleThreadExecutor(new JSThreadFactory());
-    
-    @SuppressWarnings("restriction")
+    private final InputSourceProvider sourceProvider;
+    private final ExecutorService sourceExecutor;
+    private final List<Worker> workers;
+    private final Optional<Worker> pinned;
+    private final AtomicInteger nextWorker;
+    private Optional<Timer> compileTimer = Optional.empty();
+
     public JavascriptEngine(InputSourceProvider sourceProvider) {
-        NashornScriptEngineFactory factory = new NashornScriptEngineFactory();
-        engine = factory.getScriptEngine("--language=es6", "--no-java");
-        this.sourceProvider = sourceProvider;
+        this(sourceProvider, 0);
     }
-    
-    private static final class Script {
-        public final Result<CompiledScript> compiled;
-        public final Instant timestamp;
-        public Script(Result<CompiledScript> script) {
-            this.compiled = script;
-            this.timestamp = Instant.now();
+
+    /**
+     * @param sourceProvider provider of script sources
+     * @param poolSize number of engines, or <code>0</code> to use 
+     * the number of available processors
+     */
+    public JavascriptEngine(InputSourceProvider sourceProvider, int poolSize) {
+        if (poolSize < 0) {
+            throw new IllegalArgumentException("Pool size cannot be negative");
+        }
+        if (poolSize == 0) {
+            poolSize = Runtime.getRuntime().availableProcessors();
+        }
+        this.sourceProvider = Objects.requireNonNull(sourceProvider);
+        this.sourceExecutor = Executors.newFixedThreadPool(poolSize, new JSThreadFactory("js-source-"));
+        JSThreadFactory threadFactory = new JSThreadFactory("js-engine-");
+        List<Worker> workers = new ArrayList<>(poolSize);
+        for (int i = 0; i < poolSize; i++) {
+            workers.add(new Worker(threadFactory));
+        }
+        this.workers = Collections.unmodifiableList(workers);
+        this.pinned = Optional.empty();
+        this.nextWorker = new AtomicInteger(0);
+    }
+
+    private JavascriptEngine(JavascriptEngine pool, Worker worker) {
+        this.sourceProvider = pool.sourceProvider;
+        this.sourceExecutor = pool.sourceExecutor;
+        this.workers = pool.workers;
+        this.nextWorker = pool.nextWorker;
+        this.compileTimer = pool.compileTimer;
+        this.pinned = Optional.of(worker);
+    }
+
+    public void setMetricRegistry(MetricRegistry registry) {
+        this.compileTimer = Optional.of(registry.timer("javascriptEngine.compile.time"));
+        registry.register("javascriptEngine.queued", (Gauge<Integer>) () -> 
+            workers.stream().mapToInt(w -> w.pending.get()).sum());
+    }
+
+    /**
+     * Returns a view of this engine which runs everything on a single
+     * worker. The least loaded worker is chosen.
+     */
+    public JavascriptEngine pin() {
+        if (pinned.isPresent()) {
+            return this;
+        }
+        int offset = Math.floorMod(nextWorker.getAndIncrement(), workers.size());
+        Worker worker = workers.get(offset);
+        for (int i = 1; i < workers.size(); i++) {
+            Worker candidate = workers.get((offset + i) % workers.size());
+            if (candidate.pending.get() < worker.pending.get()) {
+                worker = candidate;
+            }
         }
+        return new JavascriptEngine(this, worker);
+    }
+
+    public int getPoolSize() {
+        return workers.size();
+    }
+
+    private Worker worker() {
+        return pinned.orElseGet(() -> workers.stream()
+                .min(Comparator.comparingInt(w -> w.pending.get())).get());
     }
 
     @SuppressWarnings("restriction")
     public CompletableFuture<ScriptObjectMirror> compiledFunction(String scriptName, String functionName) {
-        CompletableFuture<Script> scriptFuture = script(scriptName);
-        
-        return scriptFuture.thenComposeAsync(script -> {
-            CompletableFuture<ScriptObjectMirror> future = new CompletableFuture<>();
-            if (script.compiled.failure().isPresent()) {
-                future.completeExceptionally(script.compiled.failure().get());
+        Worker worker = worker();
+        CompletableFuture<Result<InputSource>> sourceFuture = 
+                CompletableFuture.supplyAsync(() -> sourceProvider.apply(scriptName), sourceExecutor);
+
+        return sourceFuture.thenCompose(source -> worker.submit(() -> {
+            if (source.failure().isPresent()) {
+                throw new CompletionException(source.failure().get());
             }
-            else {
-                CompiledScript compiledScript = script.compiled.result().get();
-                Bindings bindings = engine.createBindings();
-                ScriptContext scriptContext = new SimpleScriptContext();
-                scriptContext.setBindings(bindings, ScriptContext.ENGINE_SCOPE);
-                try {
-                    compiledScript.eval(scriptContext);
-                    ScriptObjectMirror object = (ScriptObjectMirror) 
-                            scriptContext.getBindings(ScriptContext.ENGINE_SCOPE).get(functionName);
-                    if (object == null) {
-                        throw new RuntimeException("No such object: " + functionName);
-                    }
-                    if (!object.isFunction()) {
-                        throw new RuntimeException("Not a function: " + object);
-                    }
-                    future.complete(object);
-                }
-                catch (Throwable t) {
-                    future.completeExceptionally(t);
-                }
+            Script script = worker.script(scriptName, source.result().get());
+            if (script.bindings.failure().isPresent()) {
+                throw new CompletionException(script.bindings.failure().get());
             }
-            return future;
-        }, jsExecutor);
-    }
-    
-    private CompletableFuture<Script> script(String identifier) {
-        
-        CompletableFuture<Map<String,Script>> 
-            cache = CompletableFuture.supplyAsync(() -> scripts, jsExecutor);
-        
-        return cache.thenCompose(map -> {
-            Script cached = scripts.get(identifier);
-            Result<InputSource> source = sourceProvider.apply(identifier);
-            if (cached != null) {
-                try {
-                    if (source.result().isPresent() && source.get().getLastModified().isPresent()) {
-                        if (cached.timestamp.isAfter(source.get().getLastModified().get())) {
-                            return CompletableFuture.completedFuture(cached);
-                        }
-                    }
-                }
-                catch (Throwable t) {
-                    CompletableFuture<Script> failure = new CompletableFuture<>();
-                    failure.completeExceptionally(t);
-                    return failure;
-                }
+            Bindings bindings = script.bindings.result().get();
+            ScriptObjectMirror object = (ScriptObjectMirror) bindings.get(functionName);
+            if (object == null) {
+                throw new RuntimeException("No such object: " + functionName);
             }
-            Result<CompiledScript> compiled = source.flatMap(src -> compile(src.getReader()));
-            Script script = new Script(compiled);
-            scripts.put(identifier, script);
-            return CompletableFuture.completedFuture(script);
-        });
+            if (!object.isFunction()) {
+                throw new RuntimeException("Not a function: " + object);
+            }
+            return object;
+        }));
     }
 
+    /**
+     * Runs code on the engine thread. If this engine is pinned, the code
+     * is run on the thread of the pinned worker.
+     */
     public <T> CompletableFuture<T> execute(Supplier<T> code) {
-        return CompletableFuture.supplyAsync(() -> code.get(), jsExecutor);
+        return worker().submit(code);
     }
-    
+
     @SuppressWarnings("restriction")
     public CompletableFuture<Object> toJsObject(Object o) {
         Object converted = ScriptObjectMirror.wrapAsJSONCompatible(o, null);
@@ -168,23 +218,94 @@ public class JavascriptEngine {
         return t.getMessage();
     }
     
-    private Result<CompiledScript> compile(Reader reader) {
-        try {
-            CompiledScript compiled = ((Compilable) engine).compile(reader);
-            return Result.success(compiled);
+    private static final class Script {
+        public final Optional<Instant> version;
+        public final Result<Bindings> bindings;
+        public Script(Optional<Instant> version, Result<Bindings> bindings) {
+            this.version = version;
+            this.bindings = bindings;
+        }
+    }
+
+    private final class Worker {
+        private final ScriptEngine engine;
+        private final ExecutorService executor;
+        private final Map<String, Script> scripts = new HashMap<>();
+        private final AtomicInteger pending = new AtomicInteger(0);
+
+        @SuppressWarnings("restriction")
+        Worker(ThreadFactory threadFactory) {
+            NashornScriptEngineFactory factory = new NashornScriptEngineFactory();
+            this.engine = factory.getScriptEngine("--language=es6", "--no-java");
+            this.executor = Executors.newSingleThreadExecutor(threadFactory);
+        }
+
+        <T> CompletableFuture<T> submit(Supplier<T> code) {
+            pending.incrementAndGet();
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return code.get();
+                }
+                finally {
+                    pending.decrementAndGet();
+                }
+            }, executor);
         }
-        catch (Throwable t) {
-            return Result.failure(t);
+
+        // Must be called on the worker thread
+        Script script(String identifier, InputSource source) {
+            Optional<Instant> lastModified = source.getLastModified();
+            Script cached = scripts.get(identifier);
+            if (cached != null && lastModified.isPresent() 
+                    && lastModified.equals(cached.version)) {
+                return cached;
+            }
+            Result<Bindings> bindings = compile(source.getReader())
+                    .flatMap(compiled -> {
+                        Bindings b = engine.createBindings();
+                        ScriptContext scriptContext = new SimpleScriptContext();
+                        scriptContext.setBindings(b, ScriptContext.ENGINE_SCOPE);
+                        try {
+                            compiled.eval(scriptContext);
+                            return Result.success(b);
+                        }
+                        catch (Throwable t) {
+                            return Result.failure(t);
+                        }
+                    });
+            Script script = new Script(lastModified, bindings);
+            scripts.put(identifier, script);
+            return script;
+        }
+
+        private Result<CompiledScript> compile(Reader reader) {
+            long start = System.nanoTime();
+            try {
+                CompiledScript compiled = ((Compilable) engine).compile(reader);
+                return Result.success(compiled);
+            }
+            catch (Throwable t) {
+                return Result.failure(t);
+            }
+            finally {
+                compileTimer.ifPresent(timer -> 
+                    timer.update(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+            }
         }
     }
-    
+
     private static class JSThreadFactory implements ThreadFactory {
+        private final String namePrefix;
         private final AtomicInteger threadNumber = new AtomicInteger(1);
 
+        JSThreadFactory(String namePrefix) {
+            this.namePrefix = namePrefix;
+        }
+
         public Thread newThread(Runnable r) {
-          return new Thread(r, "js-engine-" + threadNumber.getAndIncrement());
+            Thread thread = new Thread(r, namePrefix + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
         }
     }
-
-    
 }
@@ -32,6 +32,7 @@ package vtk.repository;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.EnumMap;
 import java.util.EnumSet;
@@ -41,6 +42,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import vtk.security.GroupClosure;
 import vtk.security.Principal;
 import vtk.security.PrincipalFactory;
 
@@ -60,6 +62,11 @@ public final class Acl implements Serializable {
      * map: [Privilege --> Set(Principal)]
      */
     private final Map<Privilege, Set<Principal>> actionSets;
+
+    /**
+     * map: [Privilege --> interned group ids], computed on first use
+     */
+    private transient volatile Map<Privilege, BitSet> groupIds;
     
     public Acl(Map<Privilege, Set<Principal>> actionSets) {
         if (actionSets == null) {
@@ -107,6 +114,25 @@ public final class Acl implements Serializable {
         return Collections.unmodifiableSet(set);
     }
 
+    /**
+     * Returns the interned ids (see {@link GroupClosure#groupId(Principal)}) 
+     * of the groups which have the provided privilege in this ACL.
+     */
+    BitSet getGroupIds(Privilege action) {
+        Map<Privilege, BitSet> ids = this.groupIds;
+        if (ids == null) {
+            ids = new EnumMap<>(Privilege.class);
+            for (Map.Entry<Privilege, Set<Principal>> entry: this.actionSets.entrySet()) {
+                ids.put(entry.getKey(), GroupClosure.groupIds(entry.getValue()));
+            }
+            this.groupIds = ids;
+        }
+        BitSet set = ids.get(action);
+        return set != null ? set : EMPTY_IDS;
+    }
+    
+    private static final BitSet EMPTY_IDS = new BitSet(0);
+
     /**
      * Returns <code>true</code> if this ACL is empty.
      */
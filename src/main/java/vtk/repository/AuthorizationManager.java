@@ -33,15 +33,18 @@ package vtk.repository;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.EnumMap;
 import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -49,10 +52,13 @@ import vtk.cluster.ClusterAware;
 import vtk.cluster.ClusterRole;
 import vtk.repository.store.DataAccessor;
 import vtk.security.AuthenticationException;
+import vtk.security.GroupClosure;
 import vtk.security.Principal;
 import vtk.security.PrincipalFactory;
 import vtk.security.PrincipalManager;
 import vtk.security.roles.RoleManager;
+import vtk.util.cache.SimpleCache;
+import vtk.util.cache.SimpleCacheImpl;
 
 /**
  * Manager for authorizing principals at specific authorization level.
@@ -72,6 +78,13 @@ public final class AuthorizationManager implements ClusterAware {
     private Map<Privilege, List<Pattern>> groupsBlacklist =
             new EnumMap<>(Privilege.class);
 
+    private final SimpleCache<Principal, GroupClosure> groupClosures;
+
+    public AuthorizationManager() {
+        SimpleCacheImpl<Principal, GroupClosure> cache = new SimpleCacheImpl<>(600);
+        cache.afterPropertiesSet();
+        this.groupClosures = cache;
+    }
 
     @Override
     public void roleChange(ClusterRole role) {
@@ -801,6 +814,73 @@ public final class AuthorizationManager implements ClusterAware {
      *         to the provided ACL, <code>false</code> otherwise.
      */
     public boolean authorize(Principal principal, Acl acl, Privilege privilege) {
+        if (hasRoleFor(principal, privilege)) {
+            return true;
+        }
+        Privilege[] privs = PRIVILEGE_HIERARCHY.get(privilege);
+        return aclGranted(acl, principal, privs, () -> groupClosure(principal));
+    }
+
+    /**
+     * Tests if a principal has the provided privilege on each of a list of 
+     * resources.
+     * 
+     * <p>Resources are grouped by the resource they inherit their ACL from 
+     * (or by the ACL itself if not inherited), and each distinct ACL is 
+     * evaluated only once. Group memberships of the principal are resolved 
+     * at most once for the whole list.
+     * 
+     * @param principal the principal (may be <code>null</code>)
+     * @param resources the resources to test
+     * @param privilege the privilege to be tested
+     * @return a bit set where bit <code>i</code> is set if the principal 
+     * has the privilege on resource <code>i</code>
+     */
+    public BitSet authorize(Principal principal, List<? extends Resource> resources, 
+            Privilege privilege) {
+        BitSet result = new BitSet(resources.size());
+        if (hasRoleFor(principal, privilege)) {
+            result.set(0, resources.size());
+            return result;
+        }
+        Privilege[] privs = PRIVILEGE_HIERARCHY.get(privilege);
+        GroupClosure[] closure = new GroupClosure[1];
+        Supplier<GroupClosure> groups = () -> {
+            if (closure[0] == null) {
+                closure[0] = groupClosure(principal);
+            }
+            return closure[0];
+        };
+        Map<Object, Boolean> decisions = new HashMap<>();
+
+        int i = 0;
+        for (Resource resource: resources) {
+            Acl acl = resource.getAcl();
+            Object key = aclKey(resource, acl);
+            Boolean granted = decisions.get(key);
+            if (granted == null) {
+                granted = aclGranted(acl, principal, privs, groups);
+                decisions.put(key, granted);
+            }
+            if (granted) {
+                result.set(i);
+            }
+            i++;
+        }
+        return result;
+    }
+
+    private Object aclKey(Resource resource, Acl acl) {
+        if (resource instanceof PropertySetImpl && resource.isInheritedAcl()) {
+            int inheritedFrom = ((PropertySetImpl) resource).getAclInheritedFrom();
+            if (inheritedFrom != PropertySetImpl.NULL_RESOURCE_ID) {
+                return inheritedFrom;
+            }
+        }
+        return acl;
+    }
+
+    private boolean hasRoleFor(Principal principal, Privilege privilege) {
         if (this.roleManager.hasRole(principal, RoleManager.Role.ROOT)) {
             return true;
         }
@@ -809,13 +889,51 @@ public final class AuthorizationManager implements ClusterAware {
                 return true;
             }
         }
-        Privilege[] privs = PRIVILEGE_HIERARCHY.get(privilege);
-        try {
-            aclAuthorize(acl, principal, privs);
-            return true;
-        } catch (Exception e) {
+        return false;
+    }
+
+    /**
+     * Non-throwing variant of {@link #aclAuthorize(Acl, Principal, Privilege...)}.
+     */
+    private boolean aclGranted(Acl acl, Principal principal, Privilege[] privileges, 
+            Supplier<GroupClosure> groups) {
+        for (Privilege privilege: privileges) {
+            Set<Principal> principalSet = acl.getPrincipalSet(privilege);
+            if (principalSet.contains(PrincipalFactory.ALL)) {
+                return true;
+            }
+            if (principal != null && principalSet.contains(principal)) {
+                return true;
+            }
+        }
+        if (principal == null) {
             return false;
         }
+        for (Privilege privilege: privileges) {
+            BitSet groupIds = acl.getGroupIds(privilege);
+            if (!groupIds.isEmpty() && groups.get().intersects(groupIds)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the (cached) group closure of a principal. A cached closure is 
+     * rebuilt when the principal manager has refreshed the principal's 
+     * group memberships.
+     */
+    private GroupClosure groupClosure(Principal principal) {
+        Set<Principal> groups = this.principalManager.getMemberGroups(principal);
+        if (groups == null) {
+            groups = Collections.emptySet();
+        }
+        GroupClosure closure = this.groupClosures.get(principal);
+        if (closure == null || !closure.isCurrent(groups)) {
+            closure = GroupClosure.of(groups);
+            this.groupClosures.put(principal, closure);
+        }
+        return closure;
     }
     
     /**
@@ -868,12 +986,17 @@ public final class AuthorizationManager implements ClusterAware {
                     + acl + " for any of privilege(s) " + Arrays.asList(privileges));
         }
 
+        GroupClosure groups = null;
         for (int i = 0; i < privileges.length; i++) {
-            Privilege action = privileges[i];
-            Set<Principal> principalSet = acl.getPrincipalSet(action);
-            
+            BitSet groupIds = acl.getGroupIds(privileges[i]);
+            if (groupIds.isEmpty()) {
+                continue;
+            }
+            if (groups == null) {
+                groups = groupClosure(principal);
+            }
             // Condition 3:
-            if (groupMatch(principalSet, principal)) {
+            if (groups.intersects(groupIds)) {
                 return;
             }
         }
@@ -891,17 +1014,6 @@ public final class AuthorizationManager implements ClusterAware {
         return resource;
     }
 
-    private boolean groupMatch(Set<Principal> principalList, Principal principal) {
-        for (Principal p: principalList) {
-            if (p.getType() == Principal.Type.GROUP) {
-                if (this.principalManager.isMember(principal, p)) {
-                    return true;
-                }
-            }
-        }
-        return false;
-    }
-
     public boolean isBlackListed(Principal principal, Privilege action) {
         Map<Privilege, List<Pattern>> map = principal.isUser() ? this.usersBlacklist : this.groupsBlacklist;
         if (map == null) {
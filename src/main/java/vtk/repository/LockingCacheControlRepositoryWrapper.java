@@ -37,6 +37,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Optional;
 
@@ -579,6 +580,35 @@ public class LockingCacheControlRepositoryWrapper implements Repository, Cluster
         }
     }
 
+    @Override
+    public List<Resource> store(String token, List<Resource> resources, SystemChangeContext context) throws ResourceNotFoundException, AuthorizationException, AuthenticationException, ResourceLockedException, IllegalOperationException, ReadOnlyException, IOException {
+        // Synchronize on:
+        // - URI of every resource in batch
+        List<Path> lockUris = new ArrayList<>(resources.size());
+        for (Resource resource: resources) {
+            lockUris.add(resource.getURI());
+        }
+
+        final List<Path> locked = this.lockManager.lock(lockUris, true);
+
+        try {
+            return this.wrappedRepository.store(token, resources, context); // Tx
+        }
+        finally {
+            // Flush also on failure, since resources stored before the
+            // failing one may have been committed:
+            try {
+                for (Path uri: lockUris) {
+                    flushFromCache(uri, false, "store");
+                    notifyFlush(uri, false, "store");
+                }
+            }
+            finally {
+                this.lockManager.unlock(locked, true);
+            }
+        }
+    }
+
     @Override
     public Resource store(String token, String lockToken, Resource resource) throws ResourceNotFoundException, AuthorizationException,
             AuthenticationException, ResourceLockedException, IllegalOperationException, ReadOnlyException, IOException {
@@ -767,6 +797,12 @@ public class LockingCacheControlRepositoryWrapper implements Repository, Cluster
         return this.wrappedRepository.authorize(principal, acl, privilege);
     }
 
+    @Override
+    public BitSet authorize(Principal principal, List<? extends Resource> resources, 
+            Privilege privilege) {
+        return this.wrappedRepository.authorize(principal, resources, privilege);
+    }
+
     @Override
     public boolean isAuthorized(Resource resource, RepositoryAction action, Principal principal, boolean considerLocks)
             throws IOException {
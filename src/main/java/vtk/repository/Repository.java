@@ -32,6 +32,7 @@ package vtk.repository;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.BitSet;
 import java.util.List;
 
 import vtk.repository.resourcetype.PropertyType;
@@ -281,6 +282,24 @@ public interface Repository {
      */
     public Resource store(String token, String lockToken, Resource resource, StoreContext storeContext) throws ResourceNotFoundException, AuthorizationException,
             AuthenticationException, ResourceLockedException, IllegalOperationException, ReadOnlyException, IOException;
+
+    /**
+     * Store properties of several resources with a system change context in
+     * a single transaction. Either all resources are stored, or, if an
+     * exception is thrown, none of them are. Callers may then fall back to
+     * storing the resources one at a time.
+     *
+     * <p>This is intended for system jobs making property-only updates to
+     * many resources.
+     *
+     * @param token security token, must have root role
+     * @param resources the modified resources to store, with distinct URIs
+     * @param context the system change context
+     * @return the stored resources, in the same order
+     * @see #store(String, String, Resource, StoreContext)
+     */
+    public List<Resource> store(String token, List<Resource> resources, SystemChangeContext context) throws ResourceNotFoundException, AuthorizationException,
+            AuthenticationException, ResourceLockedException, IllegalOperationException, ReadOnlyException, IOException;
     
     /**
      * Requests that a a byte stream be written to the content of a resource in
@@ -904,6 +923,19 @@ public interface Repository {
     public boolean isBlacklisted(Privilege privilege, Principal principal);
 
     public boolean authorize(Principal principal, Acl acl, Privilege privilege);
+
+    /**
+     * Tests if a principal has a privilege on each of a list of resources.
+     * Resources sharing an (inherited) ACL are evaluated only once.
+     * 
+     * @param principal the principal (may be <code>null</code>)
+     * @param resources the resources
+     * @param privilege the privilege
+     * @return a bit set where bit <code>i</code> is set if the principal 
+     * has the privilege on resource <code>i</code>
+     */
+    public BitSet authorize(Principal principal, List<? extends Resource> resources, 
+            Privilege privilege);
     
     /**
      * Checks whether a principal is allowed to perform an operation on a
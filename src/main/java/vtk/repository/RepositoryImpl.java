@@ -31,13 +31,13 @@
 package vtk.repository;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
@@ -1105,6 +1105,32 @@ public class RepositoryImpl implements Repository, ApplicationContextAware,
         }
     }
 
+    @Transactional(readOnly=false)
+    @OpLog(write = true)
+    @Override
+    public List<Resource> store(@OpLogParam(name = "token") String token, List<Resource> resources, @OpLogParam SystemChangeContext context) 
+            throws ResourceNotFoundException, AuthorizationException, ResourceLockedException, 
+            AuthenticationException, IllegalOperationException, ReadOnlyException, IOException {
+
+        final Principal principal = getPrincipal(token);
+        if (context == null) {
+            throw new IllegalArgumentException("System change context cannot be null");
+        }
+        List<Resource> result = new ArrayList<>(resources.size());
+        for (Resource resource: resources) {
+            if (!(resource instanceof ResourceImpl)) {
+                throw new IllegalOperationException("Can't store unknown implementation of Resource..");
+            }
+            final Path uri = resource.getURI();
+            final ResourceImpl original = this.dao.load(uri);
+            if (original == null) {
+                throw new ResourceNotFoundException(uri);
+            }
+            result.add(storeSystemChange(uri, resource, original, principal, null, context));
+        }
+        return result;
+    }
+
     private Resource storeSystemChange(Path uri, Resource resource, ResourceImpl original, Principal principal, String lockToken,
             SystemChangeContext context) throws IOException {
         // Require root role for system change
@@ -1420,19 +1446,20 @@ public class RepositoryImpl implements Repository, ApplicationContextAware,
                     .perform();
             checksum = wrapper.compute();
 
+            // The revision store may move the temporary file into place:
             contentInput = ContentInputSources.fromFile(tempFile, true);
 
             Revision.Builder builder = Revision.newBuilder();
             Revision rev = builder.id(revisionId).acl(acl).checksum(checksum).name(name)
                     .type(type).timestamp(timestamp).uid(uid).build();
-            this.revisionStore.store(r, rev, contentInput.stream());
+            this.revisionStore.store(r, rev, contentInput);
 
             Content content = getContent(r, existing);
             ResourceImpl result = this.resourceHelper.contentModification(r, principal, content);
             return result;
 
         } finally {
-            if (tempFile != null) {
+            if (tempFile != null && tempFile.exists()) {
                 if (!tempFile.delete()) {
                     throw new DataAccessException("Failed to delete temporary file " + tempFile);
                 }
@@ -1445,6 +1472,12 @@ public class RepositoryImpl implements Repository, ApplicationContextAware,
         return this.authorizationManager.authorize(principal, acl, privilege);
     }
 
+    @Override
+    public BitSet authorize(Principal principal, List<? extends Resource> resources, 
+            Privilege privilege) {
+        return this.authorizationManager.authorize(principal, resources, privilege);
+    }
+
     private boolean isAuthorizedInternal(Resource r, RepositoryAction a, Principal p, boolean considerLocks, String lockToken) throws IOException {
 
         if (r == null) {
@@ -1720,12 +1753,13 @@ public class RepositoryImpl implements Repository, ApplicationContextAware,
             
             checksum = wrapper.compute();
 
-            content = new FileInputStream(tempFile);
             Revision.Builder builder = Revision.newBuilder();
 
             Revision revision = builder.id(revisionId).acl(acl).checksum(checksum)
                     .name(name).type(type).timestamp(timestamp).uid(uid).build();
-            this.revisionStore.create(resource, revision, content);
+            // The revision store may move the temporary file into place:
+            this.revisionStore.create(resource, revision, 
+                    ContentInputSources.fromFile(tempFile, true));
             return revision;
 
         } finally {
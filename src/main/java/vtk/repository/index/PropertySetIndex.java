@@ -31,6 +31,7 @@
 package vtk.repository.index;
 
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 import vtk.repository.Acl;
 
@@ -136,6 +137,28 @@ public interface PropertySetIndex {
      */
     public Iterator<Path> orderedUriIterator() throws IndexException;
     
+    /**
+     * Get an {@link java.util.Iterator} over URI paths of a subtree in index, 
+     * including the subtree root itself. 
+     * 
+     * The iteration is ordered by URI lexicographically. Any URI-duplicates are included. 
+     * 
+     * @param subtree the root URI of the subtree
+     * @return an iterator of paths 
+     * @throws IndexException
+     */
+    public Iterator<Path> orderedUriIterator(Path subtree) throws IndexException;
+    
+    /**
+     * List URIs of children of a URI, for which the child or any of its 
+     * descendants exist in index.
+     * 
+     * @param uri the parent URI
+     * @return list of child URIs
+     * @throws IndexException
+     */
+    public List<Path> childUris(Path uri) throws IndexException;
+    
     /**
      * Count all property set instances currently in index. This number includes any multiples
      * for a single URI.
@@ -33,6 +33,7 @@ package vtk.repository.index;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Optional;
 
 import org.slf4j.Logger;
@@ -270,6 +271,25 @@ public class PropertySetIndexImpl implements PropertySetIndex, ClusterAware, Ini
     }
 
 
+    @Override
+    public Iterator<Path> orderedUriIterator(Path subtree) throws IndexException {
+        try {
+            return new UriIterator(index, subtree);
+        } catch (IOException io) {
+            throw new IndexException(io);
+        }
+    }
+
+    @Override
+    public List<Path> childUris(Path uri) throws IndexException {
+        try {
+            return UriIterator.childUris(index, uri);
+        } catch (IOException io) {
+            throw new IndexException(io);
+        }
+    }
+
+
     @SuppressWarnings("unchecked")
     @Override
     public void close(Iterator<?> iterator) throws IndexException {
@@ -32,6 +32,10 @@
 package vtk.repository.index;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
 import org.apache.lucene.index.AtomicReader;
 import org.apache.lucene.index.DocsEnum;
 import org.apache.lucene.index.SlowCompositeReaderWrapper;
@@ -39,11 +43,13 @@ import org.apache.lucene.index.Terms;
 import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.util.BytesRef;
 import vtk.repository.Path;
 import vtk.repository.index.mapping.ResourceFields;
 
 /**
- * Ordered iteratin on all URIs of property sets present in index
+ * Ordered iteratin on all URIs of property sets present in index, or in
+ * a single subtree.
  */
 public class UriIterator implements CloseableIterator<Path> {
 
@@ -53,9 +59,22 @@ public class UriIterator implements CloseableIterator<Path> {
     private TermsEnum te;
     private DocsEnum de;
     private Path next;
+    // Subtree root URI, or null for all URIs
+    private final String subtree;
     
     public UriIterator(IndexManager index) throws IOException {
+        this(index, Path.ROOT);
+    }
+
+    /**
+     * Iterate URIs of a subtree.
+     * @param index the index
+     * @param subtree the subtree root, which is included in the iteration
+     * @throws IOException 
+     */
+    public UriIterator(IndexManager index, Path subtree) throws IOException {
         this.index = index;
+        this.subtree = subtree.isRoot() ? null : subtree.toString();
         searcher = index.getIndexSearcher();
         // We need this to get global lexicographic term ordering across all index segments:
         reader = SlowCompositeReaderWrapper.wrap(searcher.getIndexReader());
@@ -69,7 +88,12 @@ public class UriIterator implements CloseableIterator<Path> {
                 return null;
             }
             te = terms.iterator(null);
-            if (te.next() == null) {
+            if (subtree == null) {
+                if (te.next() == null) {
+                    return null;
+                }
+            } else if (te.seekCeil(new BytesRef(subtree)) == TermsEnum.SeekStatus.END
+                    || !skipToSubtreeTerm()) {
                 return null;
             }
         }
@@ -77,7 +101,7 @@ public class UriIterator implements CloseableIterator<Path> {
             de = te.docs(reader.getLiveDocs(), de, DocsEnum.FLAG_NONE);
         }
         while (de.nextDoc() == DocIdSetIterator.NO_MORE_DOCS) {
-            if (te.next() == null) {
+            if (te.next() == null || !skipToSubtreeTerm()) {
                 return null;
             } else {
                 de = te.docs(reader.getLiveDocs(), de, DocsEnum.FLAG_NONE);
@@ -87,6 +111,84 @@ public class UriIterator implements CloseableIterator<Path> {
         return Path.fromString(te.term().utf8ToString());
     }
     
+    // Skip terms sharing the subtree root as string prefix, but which are not
+    // in the subtree (like '/a-b' for subtree '/a'). All terms with the prefix
+    // are ordered together, so the subtree ends at the first term without it.
+    private boolean skipToSubtreeTerm() throws IOException {
+        if (subtree == null) {
+            return true;
+        }
+        BytesRef term = te.term();
+        while (term != null) {
+            String uri = term.utf8ToString();
+            if (!uri.startsWith(subtree)) {
+                return false;
+            }
+            if (uri.length() == subtree.length() || uri.charAt(subtree.length()) == '/') {
+                return true;
+            }
+            term = te.next();
+        }
+        return false;
+    }
+
+    /**
+     * List URIs of the children of a URI having property sets in index,
+     * either for the child itself or for any of its descendants. Descendant
+     * terms are skipped by seeking, so this is cheap compared to iterating
+     * all URIs.
+     * 
+     * @param index the index
+     * @param parent the parent URI
+     * @return list of child URIs in lexicographic order
+     * @throws IOException 
+     */
+    public static List<Path> childUris(IndexManager index, Path parent) throws IOException {
+        // Descendants of a child may come after its siblings in term order
+        // (like '/a/b' after '/a-b'), so children are collected in a sorted set
+        Set<String> children = new TreeSet<>();
+        IndexSearcher searcher = index.getIndexSearcher();
+        try {
+            AtomicReader reader = SlowCompositeReaderWrapper.wrap(searcher.getIndexReader());
+            Terms terms = reader.terms(ResourceFields.URI_FIELD_NAME);
+            if (terms == null) {
+                return new ArrayList<>();
+            }
+            String prefix = parent.isRoot() ? "/" : parent.toString() + "/";
+            TermsEnum te = terms.iterator(null);
+            BytesRef term = te.seekCeil(new BytesRef(prefix)) == TermsEnum.SeekStatus.END ? null : te.term();
+            while (term != null) {
+                String uri = term.utf8ToString();
+                if (!uri.startsWith(prefix)) {
+                    break;
+                }
+                String rest = uri.substring(prefix.length());
+                if (rest.isEmpty()) {
+                    term = te.next();
+                    continue;
+                }
+                int slash = rest.indexOf('/');
+                String child = prefix + (slash == -1 ? rest : rest.substring(0, slash));
+                children.add(child);
+                if (slash == -1) {
+                    term = te.next();
+                }
+                else {
+                    // Past all descendants of child, '0' follows '/' 
+                    term = te.seekCeil(new BytesRef(child + "0")) == TermsEnum.SeekStatus.END 
+                            ? null : te.term();
+                }
+            }
+            List<Path> result = new ArrayList<>(children.size());
+            for (String child: children) {
+                result.add(Path.fromString(child));
+            }
+            return result;
+        } finally {
+            index.releaseIndexSearcher(searcher);
+        }
+    }
+
     @Override
     public void close() throws Exception {
         index.releaseIndexSearcher(searcher);
@@ -37,6 +37,13 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -63,6 +70,11 @@ import vtk.repository.store.PropertySetHandler;
  * so that the index isn't modified during testing, or between testing
  * and the call to {@link #repairErrors(boolean)} (in case of errors present).
  *
+ * The check can be run as one ordered pass over the whole index and database, or
+ * split into subtrees which are checked separately, optionally in parallel. A
+ * subtree check can also be limited to a set of subtrees, for instance those
+ * with changes since the last check.
+ *
  * TODO clean up messy exception handling
  * 
  * @author oyviste
@@ -84,7 +96,8 @@ public class ConsistencyCheck {
 
     // List of detected inconsistencies
     private final List<AbstractConsistencyError> errors = new ArrayList<>();
-    private boolean completed = false; 
+    private volatile boolean completed = false; 
+    private final AtomicInteger progressCount = new AtomicInteger();
 
     /**
      * 
@@ -112,32 +125,57 @@ public class ConsistencyCheck {
             ConsistencyCheckException, StorageCorruptionException {
 
         ConsistencyCheck check = new ConsistencyCheck(index, indexDao, tempDir);
-        check.runInternal();
+        check.runInternal(check::checkAll);
         return check;
     }
 
-    @SuppressWarnings("unchecked")
-    private void runInternal() throws IndexException {
+    /**
+     * Prepare a ConsistencyCheck instance by running the check on separate subtrees.
+     * 
+     * <p>Each subtree is checked with an ordered pass over its property sets
+     * in database and its URIs in index. When checking all subtrees, the URI
+     * space is split into the root resource and the subtrees of each child of
+     * the root, as found in either database or index.
+     * 
+     * @param index
+     * @param indexDao
+     * @param tempDir
+     * @param subtrees the subtrees to check, or <code>null</code> to check all. The
+     * root path denotes the root resource alone, not the whole tree.
+     * @param executor executor for checking subtrees in parallel, or <code>null</code>
+     * to check them one at a time in the calling thread.
+     * @return
+     */
+    public static ConsistencyCheck run(PropertySetIndex index,
+            IndexDao indexDao, File tempDir, Set<Path> subtrees, ExecutorService executor) 
+            throws IndexException, ConsistencyCheckException, StorageCorruptionException {
+
+        ConsistencyCheck check = new ConsistencyCheck(index, indexDao, tempDir);
+        check.runInternal(() -> check.checkSubtrees(
+                subtrees != null ? subtrees : check.allSubtrees(), executor));
+        return check;
+    }
+
+    @FunctionalInterface
+    private interface CheckPass {
+        void run() throws IOException;
+    }
+
+    private void runInternal(CheckPass pass) throws IndexException {
 
         String indexId = this.index.getId();
 
         LOG.info("Running consistency check on index '" + indexId + "'");
 
-        Iterator<Path> indexUriIterator = null;
-        PropertySetIndexRandomAccessor randomIndexAccessor = null;
-
-        try (OrderedIndexSet databaseUriSet = new OrderedIndexSet(this.tempDir)) {
+        try {
             
             LOG.info("Running storage corruption test ..");
             // This has the positive side effect of warming up the Lucene reader cache
             this.index.validateStorageFacility();
             LOG.info("Storage corruption test passed.");
 
-            indexUriIterator = this.index.orderedUriIterator();
-            randomIndexAccessor = this.index.randomAccessor();
-            
             LOG.info("Running consistency check ..");
-            runConsistencyCheck(randomIndexAccessor, indexUriIterator, databaseUriSet);
+            pass.run();
             
             if (this.errors.size() > 0) {
                 LOG.warn("Consistency check completed, " + this.errors.size() + " inconsistencies detected.");
@@ -165,25 +203,110 @@ public class ConsistencyCheck {
             }
             throw e;
 
+        }
+
+        this.completed = true;
+    }
+
+    private void checkAll() throws IOException {
+        Iterator<Path> indexUriIterator = null;
+        PropertySetIndexRandomAccessor randomIndexAccessor = null;
+
+        try (OrderedIndexSet databaseUriSet = new OrderedIndexSet(this.tempDir)) {
+            indexUriIterator = this.index.orderedUriIterator();
+            randomIndexAccessor = this.index.randomAccessor();
+            
+            runConsistencyCheck(randomIndexAccessor, indexUriIterator, databaseUriSet,
+                    this.indexDao::orderedPropertySetIteration);
         } finally {
             // Clean up resources
             if (indexUriIterator != null) this.index.close(indexUriIterator);
             if (randomIndexAccessor != null) randomIndexAccessor.close();
         }
+    }
 
-        this.completed = true;
+    private Set<Path> allSubtrees() {
+        Set<Path> subtrees = new TreeSet<>();
+        subtrees.add(Path.ROOT);
+        subtrees.addAll(this.indexDao.loadChildUris(Path.ROOT));
+        subtrees.addAll(this.index.childUris(Path.ROOT));
+        return subtrees;
+    }
+
+    private void checkSubtrees(Set<Path> subtrees, ExecutorService executor) throws IOException {
+        LOG.info("Checking " + subtrees.size() + " subtrees" 
+                + (executor != null ? " in parallel" : "") + " ..");
+        if (executor == null) {
+            for (Path subtree: subtrees) {
+                checkSubtree(subtree);
+            }
+            return;
+        }
+
+        List<Future<?>> futures = new ArrayList<>(subtrees.size());
+        try {
+            for (Path subtree: subtrees) {
+                futures.add(executor.submit(() -> {
+                    checkSubtree(subtree);
+                    return null;
+                }));
+            }
+            for (Future<?> f: futures) {
+                try {
+                    f.get();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new IndexException("Interrupted during consistency check");
+                } catch (ExecutionException ee) {
+                    Throwable cause = ee.getCause();
+                    if (cause instanceof IOException) throw (IOException)cause;
+                    if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+                    if (cause instanceof Error) throw (Error)cause;
+                    throw new ConsistencyCheckException("Error while running consistency check", cause);
+                }
+            }
+        } finally {
+            // Stop remaining subtree checks on failure
+            for (Future<?> f: futures) {
+                f.cancel(true);
+            }
+        }
+    }
+
+    private void checkSubtree(Path subtree) throws IOException {
+        Iterator<Path> indexUriIterator = null;
+        PropertySetIndexRandomAccessor randomIndexAccessor = null;
+
+        try (OrderedIndexSet databaseUriSet = new OrderedIndexSet(this.tempDir)) {
+            randomIndexAccessor = this.index.randomAccessor();
+            
+            if (subtree.isRoot()) {
+                // Root resource only
+                Iterator<Path> indexUris = Collections.nCopies(
+                        randomIndexAccessor.countInstances(subtree), subtree).iterator();
+                runConsistencyCheck(randomIndexAccessor, indexUris, databaseUriSet, 
+                        handler -> this.indexDao.orderedPropertySetIterationForUris(
+                                Collections.singletonList(subtree), handler));
+            } else {
+                indexUriIterator = this.index.orderedUriIterator(subtree);
+                runConsistencyCheck(randomIndexAccessor, indexUriIterator, databaseUriSet, 
+                        handler -> this.indexDao.orderedPropertySetIteration(subtree, handler));
+            }
+        } finally {
+            // Clean up resources
+            if (indexUriIterator != null) this.index.close(indexUriIterator);
+            if (randomIndexAccessor != null) randomIndexAccessor.close();
+        }
     }
     
-    @SuppressWarnings("unchecked")
     private void runConsistencyCheck(final PropertySetIndexRandomAccessor randomIndexAccessor,
                                      final Iterator<Path> indexUriIterator,
-                                     final OrderedIndexSet databaseUriSet)
+                                     final OrderedIndexSet databaseUriSet,
+                                     final Consumer<PropertySetHandler> databaseIteration)
         throws IndexException, IOException {
         
         PropertySetHandler handler = new PropertySetHandler() {
 
-            private int progressCount = 0;
-            
             @Override
             public void handlePropertySet(PropertySet propertySet, 
                                           Acl acl) {
@@ -222,8 +345,9 @@ public class ConsistencyCheck {
                 }
                 
                 // Progress logging
-                if (++this.progressCount % 10000 == 0) {
-                    LOG.info("Progress: " + this.progressCount + " property sets checked");
+                int count = ConsistencyCheck.this.progressCount.incrementAndGet();
+                if (count % 10000 == 0) {
+                    LOG.info("Progress: " + count + " property sets checked");
                 }
 
                 // Interrupt checking
@@ -233,7 +357,7 @@ public class ConsistencyCheck {
             }
         };
         
-        this.indexDao.orderedPropertySetIteration(handler);
+        databaseIteration.accept(handler);
 
         databaseUriSet.commit();
         
@@ -378,7 +502,7 @@ public class ConsistencyCheck {
         this.index.commit();
     }
     
-    private void addError(AbstractConsistencyError error) throws ConsistencyCheckException {
+    private synchronized void addError(AbstractConsistencyError error) throws ConsistencyCheckException {
 
         if (this.errors.size() > ERROR_LIMIT) {
             this.completed = true;
@@ -390,7 +514,7 @@ public class ConsistencyCheck {
         this.errors.add(error);
     }
 
-    public List<AbstractConsistencyError> getErrors() {
+    public synchronized List<AbstractConsistencyError> getErrors() {
         return Collections.unmodifiableList(this.errors);
     }
     
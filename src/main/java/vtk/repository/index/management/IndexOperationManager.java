@@ -151,6 +151,16 @@ public interface IndexOperationManager {
      */
     public void checkConsistency(boolean asynchronous) throws IllegalStateException;
 
+    /**
+     * Initiate a consistency check of only those subtrees which have changed 
+     * since the last incremental check. Changes are read from a dedicated 
+     * repository changelog, which is consumed when the check completes.
+     * @param asynchronous
+     * @throws IllegalStateException if reindexing is already running, if consistency check is already running,
+     * if closed, or if incremental checks are not configured
+     */
+    public void checkConsistencyIncremental(boolean asynchronous) throws IllegalStateException;
+
     /**
      * Get result of last consistency check.
      * @return
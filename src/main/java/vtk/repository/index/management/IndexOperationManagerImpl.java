@@ -32,10 +32,15 @@ package vtk.repository.index.management;
 
 import java.io.File;
 import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -44,6 +49,10 @@ import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Required;
 import org.springframework.context.ApplicationListener;
 import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import vtk.repository.ChangeLogEntry;
+import vtk.repository.Path;
 import vtk.repository.index.DirectReindexer;
 import vtk.repository.index.IndexException;
 import vtk.repository.index.IndirectReindexer;
@@ -51,6 +60,7 @@ import vtk.repository.index.PropertySetIndex;
 import vtk.repository.index.PropertySetIndexReindexer;
 import vtk.repository.index.consistency.ConsistencyCheck;
 import vtk.repository.index.consistency.TooManyErrorsException;
+import vtk.repository.store.ChangeLogDao;
 import vtk.repository.store.IndexDao;
 
 /**
@@ -119,6 +129,15 @@ public class IndexOperationManagerImpl implements IndexOperationManager, Disposa
     private IndexDao indexDao;
     private File tempDir;
     private AutoReindex autoReindex = AutoReindex.AFTER_INIT_IF_INCOMPATIBLE;
+    private int consistencyCheckThreads = 1;
+
+    // Changelog for incremental consistency checks
+    private ChangeLogDao changeLogDao;
+    private int consistencyLoggerType = 3;
+    private int consistencyLoggerId = -1;
+    private int maxIncrementalChanges = 40000;
+    private int incrementalCheckDelaySeconds = 60;
+    private TransactionTemplate transactionTemplate;
 
     private ConsistencyCheck lastConsistencyCheck = null;
     private boolean isCheckingConsistency = false;
@@ -136,6 +155,19 @@ public class IndexOperationManagerImpl implements IndexOperationManager, Disposa
     @Override
     public synchronized void checkConsistency(boolean asynchronous)
             throws IllegalStateException {
+        checkConsistency(asynchronous, false);
+    }
+
+    @Override
+    public synchronized void checkConsistencyIncremental(boolean asynchronous)
+            throws IllegalStateException {
+        if (changeLogDao == null || consistencyLoggerId < 0) {
+            throw new IllegalStateException("Incremental consistency check is not configured");
+        }
+        checkConsistency(asynchronous, true);
+    }
+
+    private void checkConsistency(boolean asynchronous, boolean incremental) {
         if (isCheckingConsistency) {
             throw new IllegalStateException("Consistency check is already running");
         } else if (isReindexing) {
@@ -145,9 +177,9 @@ public class IndexOperationManagerImpl implements IndexOperationManager, Disposa
         }
         
         if (asynchronous) {
-            executor.submit(this::runConsistencyCheckInternal);
+            executor.submit(() -> runConsistencyCheckInternal(incremental));
         } else {
-            runConsistencyCheckInternal();
+            runConsistencyCheckInternal(incremental);
         }
     }
     
@@ -160,7 +192,7 @@ public class IndexOperationManagerImpl implements IndexOperationManager, Disposa
         return (lastConsistencyCheckException == null);
     }
     
-    private void runConsistencyCheckInternal() {
+    private void runConsistencyCheckInternal(boolean incremental) {
         isCheckingConsistency = true;
         lastConsistencyCheckException = null;
         
@@ -168,12 +200,25 @@ public class IndexOperationManagerImpl implements IndexOperationManager, Disposa
         index.lock();
         logger.info("Lock acquired");
         
+        ExecutorService checkExecutor = null;
+        if (consistencyCheckThreads > 1) {
+            AtomicInteger threadCount = new AtomicInteger();
+            checkExecutor = Executors.newFixedThreadPool(consistencyCheckThreads, 
+                    r -> new Thread(r, "consistency-check-" + threadCount.incrementAndGet()));
+        }
         try {
-            lastConsistencyCheck = 
-                ConsistencyCheck.run(
-                    IndexOperationManagerImpl.this.index,
-                    IndexOperationManagerImpl.this.indexDao,
-                    IndexOperationManagerImpl.this.tempDir);
+            if (incremental) {
+                runIncrementalConsistencyCheck(checkExecutor);
+            } else if (checkExecutor != null) {
+                lastConsistencyCheck = 
+                    ConsistencyCheck.run(index, indexDao, tempDir, null, checkExecutor);
+            } else {
+                lastConsistencyCheck = 
+                    ConsistencyCheck.run(
+                        IndexOperationManagerImpl.this.index,
+                        IndexOperationManagerImpl.this.indexDao,
+                        IndexOperationManagerImpl.this.tempDir);
+            }
         } catch (TooManyErrorsException tme) {
             logger.info("Consistency check found too many errors");
             lastConsistencyCheck = tme.getPartialCheck();
@@ -182,6 +227,9 @@ public class IndexOperationManagerImpl implements IndexOperationManager, Disposa
             logger.info("Error running consistency check: " + e.getClass().getSimpleName() + ": " + e.getMessage());
             lastConsistencyCheckException = e;
         } finally {
+            if (checkExecutor != null) {
+                checkExecutor.shutdownNow();
+            }
             index.unlock();
             logger.info("Lock released");
             isCheckingConsistency = false;
@@ -189,6 +237,38 @@ public class IndexOperationManagerImpl implements IndexOperationManager, Disposa
         }
     }
 
+    /**
+     * Check the top level subtrees with changes in the consistency check
+     * changelog, and consume the changes afterwards. Only changes older than
+     * {@link #setIncrementalCheckDelaySeconds(int) a delay} are considered, so
+     * that the incremental index updater has had time to apply them.
+     */
+    private void runIncrementalConsistencyCheck(ExecutorService checkExecutor) {
+        Date olderThan = new Date(System.currentTimeMillis() - incrementalCheckDelaySeconds * 1000L);
+        List<ChangeLogEntry> changes = changeLogDao.getChangeLogEntries(
+                consistencyLoggerType, consistencyLoggerId, olderThan, maxIncrementalChanges);
+
+        Set<Path> subtrees = new TreeSet<>();
+        for (ChangeLogEntry change: changes) {
+            Path uri = change.getUri();
+            subtrees.add(uri.getDepth() <= 1 ? uri : uri.getPaths().get(1));
+        }
+        logger.info("Incremental consistency check of " + subtrees.size() 
+                + " subtrees for " + changes.size() + " changes");
+
+        lastConsistencyCheck = ConsistencyCheck.run(index, indexDao, tempDir, subtrees, checkExecutor);
+
+        // Check completed, so the checked changes are done with
+        if (transactionTemplate != null) {
+            transactionTemplate.execute(ts -> changeLogDao.removeChangeLogEntries(changes));
+        } else {
+            changeLogDao.removeChangeLogEntries(changes);
+        }
+        if (changes.size() == maxIncrementalChanges) {
+            logger.info("More changes remain for next incremental consistency check");
+        }
+    }
+
     @Override
     public ConsistencyCheck getLastConsistencyCheck() {
         return lastConsistencyCheck;
@@ -444,5 +524,62 @@ public class IndexOperationManagerImpl implements IndexOperationManager, Disposa
     public void setAutoReindex(AutoReindex autoReindex) {
         this.autoReindex = autoReindex;
     }
+
+    /**
+     * Set number of threads used for consistency checks. With more than one
+     * thread, the check is split into subtrees below the root, which are
+     * checked in parallel.
+     *
+     * <p>Default is <code>1</code>, a single ordered pass over the whole index.
+     * @param consistencyCheckThreads
+     */
+    public void setConsistencyCheckThreads(int consistencyCheckThreads) {
+        if (consistencyCheckThreads < 1) {
+            throw new IllegalArgumentException("consistencyCheckThreads must be >= 1");
+        }
+        this.consistencyCheckThreads = consistencyCheckThreads;
+    }
+
+    public void setChangeLogDao(ChangeLogDao changeLogDao) {
+        this.changeLogDao = changeLogDao;
+    }
+
+    public void setConsistencyLoggerType(int consistencyLoggerType) {
+        this.consistencyLoggerType = consistencyLoggerType;
+    }
+
+    /**
+     * Set changelog logger id for incremental consistency checks. The logger 
+     * id must be dedicated to consistency checks, since the changelog entries
+     * are removed when checked. A negative value disables incremental checks.
+     *
+     * <p>Default is <code>-1</code>.
+     * @param consistencyLoggerId
+     */
+    public void setConsistencyLoggerId(int consistencyLoggerId) {
+        this.consistencyLoggerId = consistencyLoggerId;
+    }
+
+    public void setMaxIncrementalChanges(int maxIncrementalChanges) {
+        if (maxIncrementalChanges < 1) {
+            throw new IllegalArgumentException("maxIncrementalChanges must be >= 1");
+        }
+        this.maxIncrementalChanges = maxIncrementalChanges;
+    }
+
+    /**
+     * Set minimum age of changes considered by incremental consistency 
+     * checks, to avoid reporting changes not yet applied to index.
+     *
+     * <p>Default is <code>60</code> seconds.
+     * @param incrementalCheckDelaySeconds
+     */
+    public void setIncrementalCheckDelaySeconds(int incrementalCheckDelaySeconds) {
+        this.incrementalCheckDelaySeconds = incrementalCheckDelaySeconds;
+    }
+
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
     
 }
@@ -30,6 +30,7 @@
  */
 package vtk.repository.index.update;
 
+import java.io.Serializable;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
@@ -37,10 +38,13 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -53,10 +57,10 @@ import org.springframework.context.ApplicationListener;
 import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.TransactionDefinition;
-import org.springframework.transaction.TransactionStatus;
-import org.springframework.transaction.support.TransactionCallbackWithoutResult;
 import org.springframework.transaction.support.TransactionTemplate;
 
+import vtk.cluster.ClusterAware;
+import vtk.cluster.ClusterContext;
 import vtk.repository.Acl;
 import vtk.repository.ChangeLogEntry;
 import vtk.repository.ChangeLogEntry.Operation;
@@ -71,8 +75,22 @@ import vtk.repository.store.DataAccessException;
 
 /**
  * Executes incremental repository index updates periodically.
+ *
+ * <p>As each batch is committed the updater publishes an <em>applied watermark</em>:
+ * a point in time such that all changes committed before it are visible to
+ * index searchers. Searches that need to see their own writes can
+ * wait on this watermark using {@link #awaitApplied(Instant, Duration) }, instead
+ * of polling the changelog table. The watermark is also sent to other cluster
+ * nodes sharing the same index storage, which refresh their searchers before
+ * advancing their local copy of it.
+ *
+ * <p>The watermark is derived from database time, never from the clock of this
+ * node. When a batch is not full, the watermark is the database time read before
+ * the changelog. Changes stamped before the read but committed after it are not
+ * covered by the batch. They remain in the changelog, which is queried without
+ * a lower time bound, and are applied by the next batch.
  */
-public class IncrementalUpdater implements DisposableBean, ApplicationListener<ContextRefreshedEvent> {
+public class IncrementalUpdater implements DisposableBean, ApplicationListener<ContextRefreshedEvent>, ClusterAware {
 
     private final Logger logger = LoggerFactory.getLogger(IncrementalUpdater.class);
 
@@ -88,12 +106,17 @@ public class IncrementalUpdater implements DisposableBean, ApplicationListener<C
     private TransactionTemplate transactionTemplate;
     private final ScheduledExecutorService executor =
             Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "incremental-index-updater"));
-    private ScheduledFuture<?> task = null;
+    private volatile ScheduledFuture<?> task = null;
 
     // Syncro between threads waiting for current update batch to complete and incremental update thread
     private final Lock batchProcessingLock = new ReentrantLock();
     private final Condition processingBatchFinished = batchProcessingLock.newCondition();
 
+    // Highest point in time for which all changes are known to be visible in index (null if unknown)
+    private volatile Instant appliedWatermark = null;
+    private final AtomicBoolean updateRequested = new AtomicBoolean(false);
+    private Optional<ClusterContext> clusterContext = Optional.empty();
+
     public synchronized void start() {
         if (task != null) {
             logger.info("Restarting");
@@ -102,26 +125,119 @@ public class IncrementalUpdater implements DisposableBean, ApplicationListener<C
             logger.info("Starting");
         }
 
-        task = executor.scheduleAtFixedRate(() -> {
+        task = executor.scheduleAtFixedRate(this::runUpdateBatch, 1, updateIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    private void runUpdateBatch() {
+        updateRequested.set(false);
+        BatchResult result = null;
+        try {
+            // Rollback occurs automatically on any exceptions thrown
+            result = transactionTemplate.execute(ts -> executeUpdateBatch());
+        } catch (Throwable t) { // Must never let exceptions propagate to keep scheduled task active
+            logger.error("Unexpected error during index update", t);
+        } finally {
+            if (result != null) {
+                advanceWatermark(result.watermark);
+                if (clusterContext.isPresent()) {
+                    clusterContext.get().clusterMessage(new IndexApplied(result.watermark.toEpochMilli(), result.changed));
+                }
+            }
+            // Signal any waiting searcher threads to continue
+            signalBatchFinished();
+        }
+    }
+
+    private void signalBatchFinished() {
+        batchProcessingLock.lock();
+        try {
+            processingBatchFinished.signalAll();
+        } finally {
+            batchProcessingLock.unlock();
+        }
+    }
+
+    private void advanceWatermark(Instant watermark) {
+        batchProcessingLock.lock();
+        try {
+            if (appliedWatermark == null || watermark.isAfter(appliedWatermark)) {
+                appliedWatermark = watermark;
+            }
+        } finally {
+            batchProcessingLock.unlock();
+        }
+    }
+
+    /**
+     * Request that an update batch is executed as soon as possible, without waiting
+     * for the next scheduled round. Multiple requests are coalesced into a single
+     * extra batch. Has no effect if the updater is not started or if this node
+     * does not write to the index, in which case the request is forwarded to the
+     * other cluster nodes.
+     */
+    public void requestUpdate() {
+        if (index.isClusterSharedReadOnly()) {
+            if (clusterContext.isPresent() && updateRequested.compareAndSet(false, true)) {
+                clusterContext.get().clusterMessage(new UpdateRequest());
+            }
+            return;
+        }
+        if (task == null) {
+            return;
+        }
+        if (updateRequested.compareAndSet(false, true)) {
             try {
-                transactionTemplate.execute(new TransactionCallbackWithoutResult() {
-                    @Override
-                    protected void doInTransactionWithoutResult(TransactionStatus ts) {
-                        executeUpdateBatch(); // Rollback occurs automatically on any exceptions thrown
-                    }
-                });
-            } catch (Throwable t) { // Must never let exceptions propagate to keep scheduled task active
-                logger.error("Unexpected error during index update", t);
-            } finally {
-                // Signal any waiting searcher threads to continue
-                batchProcessingLock.lock();
-                try {
-                    processingBatchFinished.signalAll();
-                } finally {
-                    batchProcessingLock.unlock();
+                executor.execute(this::runUpdateBatch);
+            } catch (RejectedExecutionException e) {
+                updateRequested.set(false);
+            }
+        }
+    }
+
+    /**
+     * Get the current applied watermark.
+     *
+     * @return the point in time for which all changes stamped at or before it
+     * are visible in index, or empty if no update batch has been observed yet.
+     */
+    public Optional<Instant> getAppliedWatermark() {
+        return Optional.ofNullable(appliedWatermark);
+    }
+
+    /**
+     * Blocks the calling thread until all changes committed before the
+     * provided timestamp are visible in index, or until timeout. A single
+     * immediate update batch is requested if the watermark is behind the
+     * timestamp, so callers normally do not have to wait for the next
+     * scheduled round. After that, the calling thread only waits for batches
+     * to complete.
+     *
+     * @param timestamp the timestamp of the changes to wait for
+     * @param timeout max time to wait
+     * @return the applied watermark at the time of return, which is not before
+     * <code>timestamp</code> unless a timeout occured. Empty if unknown.
+     * @throws InterruptedException if thread is interrupted during wait
+     */
+    public Optional<Instant> awaitApplied(Instant timestamp, Duration timeout) throws InterruptedException {
+        Instant watermark = appliedWatermark;
+        if (watermark != null && !watermark.isBefore(timestamp)) {
+            return Optional.of(watermark);
+        }
+
+        requestUpdate();
+
+        final Date deadline = Date.from(Instant.now().plus(timeout));
+        batchProcessingLock.lock();
+        try {
+            while (appliedWatermark == null || appliedWatermark.isBefore(timestamp)) {
+                if (!processingBatchFinished.awaitUntil(deadline)) {
+                    break;
                 }
             }
-        }, 1, updateIntervalSeconds, TimeUnit.SECONDS);
+            return Optional.ofNullable(appliedWatermark);
+        } finally {
+            batchProcessingLock.unlock();
+        }
     }
 
     public synchronized void stop() {
@@ -159,18 +275,28 @@ public class IncrementalUpdater implements DisposableBean, ApplicationListener<C
 
     /**
      * Executes a single incremental update round with batch size limited by {@link #maxChangesPerUpdate}.
+     *
+     * @return the outcome of the batch, or <code>null</code> if no update was attempted
      */
-    private synchronized void executeUpdateBatch() throws DataAccessException, IndexException {
+    private synchronized BatchResult executeUpdateBatch() throws DataAccessException, IndexException {
 
         if (index.isClusterSharedReadOnly()) {
             // We are probably not cluster MASTER, so do nothing.
             logger.debug("update(): index is not available for writing on this node, aborting update round");
-            return;
+            return null;
         }
         
+        final Instant readTime = changeLog.getCurrentTime().toInstant();
         List<ChangeLogEntry> changes
                 = changeLog.getChangeLogEntries(loggerType, loggerId, maxChangesPerUpdate);
 
+        // If the batch was not full, every change committed before the read is
+        // now applied. Otherwise only changes up to the last one in the batch are.
+        Instant watermark = readTime;
+        if (changes.size() >= maxChangesPerUpdate) {
+            watermark = changes.get(changes.size() - 1).getTimestamp().toInstant().minusMillis(1);
+        }
+
         if (logger.isDebugEnabled() && changes.size() > 0) {
             logger.debug("");
             logger.debug("--- update(): Start of window");
@@ -211,6 +337,16 @@ public class IncrementalUpdater implements DisposableBean, ApplicationListener<C
             }
         }
 
+        return new BatchResult(watermark, !changes.isEmpty());
+    }
+
+    private static final class BatchResult {
+        final Instant watermark;
+        final boolean changed;
+        BatchResult(Instant watermark, boolean changed) {
+            this.watermark = watermark;
+            this.changed = changed;
+        }
     }
 
     private void applyChanges(final List<ChangeLogEntry> changes) throws IndexException, DataAccessException {
@@ -363,6 +499,52 @@ public class IncrementalUpdater implements DisposableBean, ApplicationListener<C
         start();
     }
 
+    @Override
+    public void clusterContext(ClusterContext context) {
+        this.clusterContext = Optional.of(context);
+        context.subscribe(IndexApplied.class);
+        context.subscribe(UpdateRequest.class);
+    }
+
+    @Override
+    public void clusterMessage(Object message) {
+        if (message instanceof UpdateRequest) {
+            if (!index.isClusterSharedReadOnly()) {
+                requestUpdate();
+            }
+        } else if (message instanceof IndexApplied && index.isClusterSharedReadOnly()) {
+            IndexApplied applied = (IndexApplied) message;
+            // Make sure searchers on this node see the changes before advancing
+            // the watermark, independent of any reinitialize message from index.
+            if (applied.changed) {
+                index.reinitialize();
+            }
+            updateRequested.set(false);
+            advanceWatermark(Instant.ofEpochMilli(applied.watermark));
+            signalBatchFinished();
+        }
+    }
+
+    /**
+     * Sent by the node writing to the index after each committed update batch.
+     */
+    public static class IndexApplied implements Serializable {
+        private static final long serialVersionUID = 4183659176538412290L;
+        public final long watermark;
+        public final boolean changed;
+        public IndexApplied(long watermark, boolean changed) {
+            this.watermark = watermark;
+            this.changed = changed;
+        }
+    }
+
+    /**
+     * Sent by read-only nodes to request an immediate update batch.
+     */
+    public static class UpdateRequest implements Serializable {
+        private static final long serialVersionUID = -2278510914368135876L;
+    }
+
     @Required
     public void setTransactionManager(PlatformTransactionManager txManager) {
         this.transactionTemplate = new TransactionTemplate(txManager);
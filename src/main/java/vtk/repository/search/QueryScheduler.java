@@ -0,0 +1,299 @@
+/* Copyright (c) 2017, University of Oslo, Norway
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ *  * Neither the name of the University of Oslo nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package vtk.repository.search;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import vtk.repository.search.Search.Priority;
+
+/**
+ * Admission control for index searches.
+ *
+ * <p>Each {@link Priority priority class} has its own FIFO queue. When a permit
+ * becomes available, waiting searches of the highest priority class are
+ * admitted first. Classes other than {@link Priority#INTERACTIVE} may only
+ * occupy a share of the concurrency limit, so that heavy reports and
+ * background jobs cannot starve page views.
+ *
+ * <p>The concurrency limit adapts to observed latency of interactive searches
+ * (AIMD): it grows additively while interactive searches complete within the
+ * latency target and there is demand for more permits, and is cut
+ * multiplicatively (at most once per latency target period) when they do not.
+ *
+ * <p>A search is rejected if its class queue is full, or if it has waited
+ * longer than the max queue wait of its class. By then the client which
+ * caused the search has most likely given up.
+ */
+final class QueryScheduler {
+
+    private static final double DECREASE_FACTOR = 0.9;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<Priority, PriorityClass> classes = new EnumMap<>(Priority.class);
+    private final int minLimit;
+    private final int maxLimit;
+    private final long latencyTargetNanos;
+
+    private double limit;
+    private int inFlight = 0;
+    private long lastDecrease = 0;
+
+    /**
+     * @param minLimit lower bound for the adaptive concurrency limit
+     * @param maxLimit upper bound (and initial value) for the concurrency limit
+     * @param latencyTargetMillis target response time for interactive searches
+     * @param maxQueued max number of waiting searches per priority class
+     * @param maxQueueWaitSeconds max time a search of a priority class may wait for admission
+     * @param metrics registry for scheduler metrics
+     */
+    QueryScheduler(int minLimit, int maxLimit, long latencyTargetMillis, int maxQueued,
+            Map<Priority, Integer> maxQueueWaitSeconds, MetricRegistry metrics) {
+        if (minLimit <= 0 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Must have 0 < minLimit <= maxLimit");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = maxLimit;
+        this.latencyTargetNanos = TimeUnit.MILLISECONDS.toNanos(latencyTargetMillis);
+
+        for (Priority p: Priority.values()) {
+            double share = p == Priority.INTERACTIVE ? 1.0 : 0.5;
+            Integer wait = maxQueueWaitSeconds.get(p);
+            if (wait == null) {
+                throw new IllegalArgumentException("No max queue wait configured for priority class " + p);
+            }
+            classes.put(p, new PriorityClass(p, share, maxQueued, TimeUnit.SECONDS.toNanos(wait), metrics));
+        }
+        metrics.register("repository.query.scheduler.limit", (Gauge<Integer>) this::getLimit);
+    }
+
+    /**
+     * Acquire a search permit, waiting if necessary.
+     *
+     * @param priority priority class of search
+     * @return a permit which must be released when the search is done
+     * @throws QueryException if search is rejected or thread is interrupted while waiting
+     */
+    Permit acquire(Priority priority) throws QueryException {
+        final PriorityClass pc = classes.get(priority);
+        final long start = System.nanoTime();
+        lock.lock();
+        try {
+            if (pc.queue.isEmpty() && admissible(pc)) {
+                admit(pc);
+                pc.waitTimer.update(0, TimeUnit.NANOSECONDS);
+                return new Permit(pc);
+            }
+            if (pc.queue.size() >= pc.maxQueued) {
+                pc.rejected.mark();
+                throw new QueryException("Search rejected: too many queued searches of priority " + priority);
+            }
+
+            Waiter w = new Waiter(lock.newCondition());
+            pc.queue.addLast(w);
+            long remaining = pc.maxWaitNanos;
+            try {
+                while (!w.admitted && remaining > 0) {
+                    remaining = w.condition.awaitNanos(remaining);
+                }
+            } catch (InterruptedException e) {
+                if (w.admitted) {
+                    release(pc, 0, false);
+                } else {
+                    pc.queue.remove(w);
+                }
+                Thread.currentThread().interrupt();
+                throw new QueryException("Thread interrupted while waiting for search permit");
+            }
+            if (!w.admitted) {
+                pc.queue.remove(w);
+                pc.rejected.mark();
+                throw new QueryException("Search rejected: waited too long for permit, priority " + priority);
+            }
+            pc.waitTimer.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return new Permit(pc);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getQueued(Priority priority) {
+        lock.lock();
+        try {
+            return classes.get(priority).queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Must hold lock
+    private boolean admissible(PriorityClass pc) {
+        int total = (int) limit;
+        int classLimit = Math.max(1, (int) (limit * pc.share));
+        return inFlight < total && pc.inFlight < classLimit;
+    }
+
+    // Must hold lock
+    private void admit(PriorityClass pc) {
+        inFlight++;
+        pc.inFlight++;
+    }
+
+    // Must hold lock
+    private void dispatch() {
+        for (PriorityClass pc: classes.values()) {
+            while (!pc.queue.isEmpty() && admissible(pc)) {
+                Waiter w = pc.queue.pollFirst();
+                admit(pc);
+                w.admitted = true;
+                w.condition.signal();
+            }
+        }
+    }
+
+    private void release(PriorityClass pc, long latencyNanos, boolean adapt) {
+        lock.lock();
+        try {
+            inFlight--;
+            pc.inFlight--;
+            if (adapt && pc.priority == Priority.INTERACTIVE) {
+                long now = System.nanoTime();
+                if (latencyNanos > latencyTargetNanos) {
+                    if (now - lastDecrease >= latencyTargetNanos) {
+                        limit = Math.max(minLimit, limit * DECREASE_FACTOR);
+                        lastDecrease = now;
+                    }
+                } else if (limit < maxLimit && (inFlight + 1 >= (int) limit || hasWaiters())) {
+                    limit = Math.min(maxLimit, limit + 1.0 / limit);
+                }
+            }
+            dispatch();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Must hold lock
+    private boolean hasWaiters() {
+        for (PriorityClass pc: classes.values()) {
+            if (!pc.queue.isEmpty()) return true;
+        }
+        return false;
+    }
+
+    /**
+     * A search permit. Must be released exactly once.
+     */
+    final class Permit {
+        private final PriorityClass pc;
+        private final long start = System.nanoTime();
+        private boolean released = false;
+
+        private Permit(PriorityClass pc) {
+            this.pc = pc;
+        }
+
+        void release() {
+            if (released) return;
+            released = true;
+            QueryScheduler.this.release(pc, System.nanoTime() - start, true);
+        }
+    }
+
+    private static final class Waiter {
+        final Condition condition;
+        boolean admitted = false;
+        Waiter(Condition condition) {
+            this.condition = condition;
+        }
+    }
+
+    private final class PriorityClass {
+        final Priority priority;
+        final double share;
+        final int maxQueued;
+        final long maxWaitNanos;
+        final ArrayDeque<Waiter> queue = new ArrayDeque<>();
+        int inFlight = 0;
+
+        final Timer waitTimer;
+        final Meter rejected;
+
+        PriorityClass(Priority priority, double share, int maxQueued, long maxWaitNanos, MetricRegistry metrics) {
+            this.priority = priority;
+            this.share = share;
+            this.maxQueued = maxQueued;
+            this.maxWaitNanos = maxWaitNanos;
+
+            String prefix = "repository.query.scheduler." + priority.name().toLowerCase(Locale.ENGLISH);
+            this.waitTimer = metrics.timer(prefix + ".waitTime");
+            this.rejected = metrics.meter(prefix + ".rejected");
+            metrics.register(prefix + ".queued", (Gauge<Integer>) () -> getQueued(priority));
+            metrics.register(prefix + ".inFlight", (Gauge<Integer>) () -> {
+                lock.lock();
+                try {
+                    return this.inFlight;
+                } finally {
+                    lock.unlock();
+                }
+            });
+        }
+    }
+}
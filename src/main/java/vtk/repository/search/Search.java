@@ -65,6 +65,21 @@ public final class Search {
         UNPUBLISHED_COLLECTIONS,
     }
 
+    /**
+     * Scheduling priority class for searches. When the index is under load,
+     * searches of a higher priority class are started before searches of
+     * a lower class, and lower classes are limited to a share of the
+     * available concurrency.
+     */
+    public enum Priority {
+        /** Searches serving interactive page views (default). */
+        INTERACTIVE,
+        /** Heavier on-demand searches, like admin reports. */
+        REPORT,
+        /** Searches from system jobs and other background processing. */
+        BACKGROUND
+    }
+
     /**
      * Specifies duration and timeout when waiting for pending updates
      * is specified for the search.
@@ -124,6 +139,7 @@ public final class Search {
     private int cursor = 0;
     private final EnumSet<FilterFlag> filterFlags;
     private WaitSpec waitForPendingUpdatesSpec = null;
+    private Priority priority = Priority.INTERACTIVE;
 
     public Search() {
         Sorting defaultSorting = new Sorting();
@@ -178,6 +194,22 @@ public final class Search {
         return Optional.ofNullable(waitForPendingUpdatesSpec);
     }
 
+    /**
+     * Set the scheduling priority class of this search. Priority does not
+     * affect search results, and is not part of search equality.
+     *
+     * @param priority the priority class, default is {@link Priority#INTERACTIVE}
+     * @return this search instance for easy setter-chaining.
+     */
+    public Search setPriority(Priority priority) {
+        this.priority = Objects.requireNonNull(priority, "priority must not be null");
+        return this;
+    }
+
+    public Priority getPriority() {
+        return priority;
+    }
+
     public Search setCursor(int cursor) {
         if (cursor < 0) {
             throw new IllegalArgumentException("Cursor cannot be negative");
@@ -249,7 +281,8 @@ public final class Search {
     public String toString() {
         return "Search{" + "propertySelect=" + propertySelect + ", query=" + query
                 + ", sorting=" + sorting + ", limit=" + limit + ", cursor=" + cursor
-                + ", filterFlags=" + filterFlags + ", waitForPendingUpdatesSpec=" + waitForPendingUpdatesSpec + '}';
+                + ", filterFlags=" + filterFlags + ", waitForPendingUpdatesSpec=" + waitForPendingUpdatesSpec
+                + ", priority=" + priority + '}';
     }
 
     @Override
@@ -32,28 +32,28 @@ package vtk.repository.search;
 
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
-import java.time.Duration;
 import java.time.Instant;
-import java.util.Date;
-import java.util.List;
-import java.util.concurrent.Semaphore;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Required;
-import vtk.repository.ChangeLogEntry;
 import vtk.repository.index.update.IncrementalUpdater;
-import vtk.repository.store.ChangeLogDao;
 
 /**
  * A <code>Searcher</code> that wraps another <code>Searcher</code> and 
  * that has the following responsibilities:
  *
  * <ul>
- * <li>Ensures the maximum limit on number of concurrent searches is upheld.
+ * <li>Ensures the limit on number of concurrent searches is upheld.
  * When this limit is exceeded, search threads will be blocked until other
- * searches finish first.
+ * searches finish first. Waiting searches are admitted by
+ * {@link Search#getPriority() priority class}, and the limit adapts to
+ * observed latency between the configured min and max values
+ * (see {@link QueryScheduler}).
  * <li>Supports handling of threads for searches which have
  * {@link Search#isWaitForPendingUpdates() } set. Those are potentially delayed
  * and synchronized with the incremental updater before search is actually
@@ -65,11 +65,12 @@ public class SearchDispatcher implements Searcher, InitializingBean {
 
     private Searcher searcher;
     private int maxConcurrentQueries = 16;
-    private Semaphore searchPermits;
+    private int minConcurrentQueries = 4;
+    private long latencyTargetMillis = 1000;
+    private int maxQueued = 1000;
+    private final Map<Search.Priority, Integer> maxQueueWaitSeconds = new EnumMap<>(Search.Priority.class);
+    private QueryScheduler scheduler;
     private IncrementalUpdater incrementalUpdater;
-    private ChangeLogDao changeLog;
-    private int loggerType;
-    private int loggerId;
 
     private MetricRegistry metrics;
     private Timer timer;
@@ -77,10 +78,16 @@ public class SearchDispatcher implements Searcher, InitializingBean {
     private final Logger logger = LoggerFactory.getLogger(SearchDispatcher.class.getName());
 
 
+    public SearchDispatcher() {
+        maxQueueWaitSeconds.put(Search.Priority.INTERACTIVE, 30);
+        maxQueueWaitSeconds.put(Search.Priority.REPORT, 120);
+        maxQueueWaitSeconds.put(Search.Priority.BACKGROUND, 600);
+    }
+
     @Override
     public void afterPropertiesSet() {
-        // Use fair queueing if contention
-        this.searchPermits = new Semaphore(this.maxConcurrentQueries, true);
+        this.scheduler = new QueryScheduler(Math.min(minConcurrentQueries, maxConcurrentQueries),
+                maxConcurrentQueries, latencyTargetMillis, maxQueued, maxQueueWaitSeconds, metrics);
         this.timer = metrics.timer("repository.query.responseTimer");
     }
 
@@ -93,10 +100,12 @@ public class SearchDispatcher implements Searcher, InitializingBean {
 
         final Timer.Context timerContext = timer.time();
 
+        final QueryScheduler.Permit permit;
         try {
-            searchPermits.acquire();
-        } catch (InterruptedException e) {
-            throw new QueryException("Thread interrupted while waiting for search permit");
+            permit = scheduler.acquire(search.getPriority());
+        } catch (QueryException e) {
+            timerContext.stop();
+            throw e;
         }
         
         try {
@@ -106,7 +115,7 @@ public class SearchDispatcher implements Searcher, InitializingBean {
             }
             return rs;
         } finally {
-            searchPermits.release();
+            permit.release();
             timerContext.stop();
         }
     }
@@ -117,60 +126,34 @@ public class SearchDispatcher implements Searcher, InitializingBean {
             waitForPendingUpdates(search.getWaitForPendingUpdates().get());
         }
 
-        try {
-            searchPermits.acquire();
-        } catch (InterruptedException e) {
-            throw new QueryException("Thread interrupted while waiting for search permit");
-        }
-        
+        final QueryScheduler.Permit permit = scheduler.acquire(search.getPriority());
         try {
             searcher.iterateMatching(token, search, callback);
         } finally {
-            searchPermits.release();
+            permit.release();
         }
     }
 
     /**
      * Wait for pending updates.
      *
+     * <p>Waits on the applied watermark published by the incremental updater,
+     * which is advanced only after changes are committed and visible to index
+     * searchers. No database access is required.
+     *
      * @return an instant reflecting the estimated freshness/recency of the search
-     * if executed just after this method returns.
+     * if executed just after this method returns, or <code>null</code> if unknown.
      */
     private Instant waitForPendingUpdates(Search.WaitSpec waitSpec) throws QueryException {
-        final Instant deadline = Instant.now().plus(waitSpec.timeout());
-
-        Instant recencyEstimate = Instant.now();
-        while (Instant.now().isBefore(deadline)) {
-            // Check if changelog has anything unprocessed and older than provided timestamp
-            List<ChangeLogEntry> oldest = changeLog.getChangeLogEntries(loggerType, loggerId, Date.from(waitSpec.timestamp()), 1);
-
-            if (oldest.isEmpty()) {
-                // No pending changes before (or equal to) provided timestamp
-                return recencyEstimate;
-            }
-
-            recencyEstimate = oldest.get(0).getTimestamp().toInstant();
+        try {
+            Optional<Instant> watermark = incrementalUpdater.awaitApplied(waitSpec.timestamp(), waitSpec.timeout());
             if (logger.isDebugEnabled()) {
-                logger.debug("Updated recency estimate to: " + recencyEstimate);
-            }
-
-            Duration waitForIncrementalUpdateTimeout = Duration.between(Instant.now(), deadline);
-            // Extra deadline check
-            if (waitForIncrementalUpdateTimeout.isNegative() || waitForIncrementalUpdateTimeout.isZero()) {
-                return recencyEstimate;
-            }
-            try {
-                boolean withinTimeout = incrementalUpdater.waitForNextBatch(waitForIncrementalUpdateTimeout);
-                if (!withinTimeout) {
-                    // We timed out before next batch of updates was complete
-                    break;
-                }
-            } catch (InterruptedException e) {
-                throw new QueryException("Search thread interrupted while waiting for incremental update");
+                logger.debug("Waited for " + waitSpec + ", applied watermark is " + watermark.orElse(null));
             }
+            return watermark.orElse(null);
+        } catch (InterruptedException e) {
+            throw new QueryException("Search thread interrupted while waiting for incremental update");
         }
-
-        return recencyEstimate;
     }
 
     @Required
@@ -188,24 +171,49 @@ public class SearchDispatcher implements Searcher, InitializingBean {
         this.maxConcurrentQueries = maxConcurrentQueries;
     }
 
-    @Required
-    public void setIncrementalUpdater(IncrementalUpdater incrementalUpdater) {
-        this.incrementalUpdater = incrementalUpdater;
+    /**
+     * Set the lower bound for the adaptive concurrency limit.
+     * Default is <code>4</code>.
+     * @param minConcurrentQueries
+     */
+    public void setMinConcurrentQueries(int minConcurrentQueries) {
+        if (minConcurrentQueries <= 0) throw new IllegalArgumentException("minConcurrentQueries must be > 0");
+        this.minConcurrentQueries = minConcurrentQueries;
     }
 
-    @Required
-    public void setChangeLogDao(ChangeLogDao changeLog) {
-        this.changeLog = changeLog;
+    /**
+     * Set target response time for interactive searches. The concurrency
+     * limit is reduced when it is exceeded. Default is <code>1000</code>.
+     * @param latencyTargetMillis
+     */
+    public void setLatencyTargetMillis(long latencyTargetMillis) {
+        if (latencyTargetMillis <= 0) throw new IllegalArgumentException("latencyTargetMillis must be > 0");
+        this.latencyTargetMillis = latencyTargetMillis;
     }
 
-    @Required
-    public void setLoggerType(int loggerType) {
-        this.loggerType = loggerType;
+    /**
+     * Set max number of queued searches per priority class, before
+     * new searches are rejected. Default is <code>1000</code>.
+     * @param maxQueued
+     */
+    public void setMaxQueued(int maxQueued) {
+        if (maxQueued < 0) throw new IllegalArgumentException("maxQueued must be >= 0");
+        this.maxQueued = maxQueued;
+    }
+
+    /**
+     * Set max time searches may wait for a permit per priority class, before
+     * they are rejected. Defaults are 30 seconds for interactive, 120 seconds for
+     * report and 600 seconds for background searches.
+     * @param maxQueueWaitSeconds map from priority class to seconds
+     */
+    public void setMaxQueueWaitSeconds(Map<Search.Priority, Integer> maxQueueWaitSeconds) {
+        this.maxQueueWaitSeconds.putAll(maxQueueWaitSeconds);
     }
 
     @Required
-    public void setLoggerId(int loggerId) {
-        this.loggerId = loggerId;
+    public void setIncrementalUpdater(IncrementalUpdater incrementalUpdater) {
+        this.incrementalUpdater = incrementalUpdater;
     }
 
     @Required
@@ -121,6 +121,17 @@ public interface ChangeLogDao {
      */
     public List<ChangeLogEntry> getChangeLogEntries(int loggerType, int loggerId, int limit);
 
+    /**
+     * Get the current time of the database.
+     *
+     * <p>Provides a clock common to all nodes using the same database, to which
+     * changelog entry timestamps can be compared.
+     *
+     * @return the current database time
+     * @throws DataAccessException 
+     */
+    public Date getCurrentTime();
+
     /**
      * Remove changelog entries from persistent storage.
      * @param entries
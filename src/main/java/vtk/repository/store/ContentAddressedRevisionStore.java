@@ -0,0 +1,450 @@
+/* Copyright (c) 2017, University of Oslo, Norway
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ *  * Neither the name of the University of Oslo nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package vtk.repository.store;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import vtk.repository.ContentInputSource;
+import vtk.repository.ResourceImpl;
+import vtk.repository.Revision;
+import vtk.util.codec.Digest;
+import vtk.util.io.IO;
+
+/**
+ * Revision store which keeps revision content in blobs addressed by the 
+ * revision checksum (see {@link Revisions}), so that identical revisions, 
+ * reverts and copies share a single blob.
+ * 
+ * <p>The revisions referring to a blob are the rows in the revision table 
+ * having the blob's checksum, so a blob's reference count is derived from 
+ * those rows (including rows removed by cascading deletes of resources). 
+ * Stored blobs are registered in a separate table, which {@link #gc()} uses 
+ * to find and remove blobs no longer referenced by any revision.
+ * 
+ * <p>Content is hashed while it is stored, and must match the revision 
+ * checksum. Content of a revision whose blob already exists is not written
+ * again, it is only read to verify the checksum and to compare it byte for 
+ * byte with the blob, so that content with a colliding checksum is rejected
+ * instead of sharing the blob. Blob files left 
+ * without a registration (by a rolled back transaction) are registered again
+ * when reused, or removed by {@link #gc()} when unreferenced.
+ * 
+ * <p>Revisions written by {@link DefaultRevisionStore} (one file per 
+ * revision under the revision directory) are still readable. A legacy 
+ * working copy is moved to a blob when it is next stored.
+ * 
+ * <p>Configurable JavaBean properties, in addition to those of 
+ * {@link DefaultRevisionStore}:
+ * <ul>
+ *   <li><code>blobDirectory</code> - directory of blobs, defaults to 
+ *   <code>blobs</code> under the revision directory</li>
+ *   <li><code>gcGracePeriodSeconds</code> - minimum age of an 
+ *   unreferenced blob before it is deleted, default one hour</li>
+ *   <li><code>legacyGc</code> - whether {@link #gc()} should also purge 
+ *   per-resource revision files of deleted resources, default 
+ *   <code>true</code></li>
+ * </ul>
+ */
+public class ContentAddressedRevisionStore extends DefaultRevisionStore {
+
+    private static final int COPY_BUF_SIZE = 122880;
+    private static final Pattern CHECKSUM = Pattern.compile("[0-9a-f]{8,}");
+
+    private File blobDirectory;
+    private File blobTempDirectory;
+    private long gcGracePeriodMillis = 3600 * 1000;
+    private boolean legacyGc = true;
+
+    // Guards blob creation/reuse against concurrent removal in gc()
+    private final Object blobLock = new Object();
+
+    @Override
+    protected void initDao() throws Exception {
+        if (this.blobDirectory == null) {
+            this.blobDirectory = new File(getRevisionDirectory(), "blobs");
+        }
+        this.blobTempDirectory = new File(this.blobDirectory, "tmp");
+        if (!this.blobTempDirectory.exists() && !this.blobTempDirectory.mkdirs()) {
+            throw new IllegalStateException("Unable to create directory " 
+                    + this.blobTempDirectory);
+        }
+    }
+
+    @Override
+    protected void writeContent(ResourceImpl resource, Revision revision, ContentInputSource content) {
+        try {
+            writeBlob(revision, content);
+        } catch (IOException e) {
+            throw new DataAccessException("Create revision content [" + revision + "] failed", e);
+        }
+    }
+
+    @Override
+    protected void replaceContent(ResourceImpl resource, Revision revision, ContentInputSource content)
+            throws IOException {
+        writeBlob(revision, content);
+
+        // Previous content is either a blob (removed by gc when 
+        // unreferenced) or a legacy revision file:
+        File legacy = revisionFile(resource, revision);
+        if (legacy.exists() && !legacy.delete()) {
+            logger.warn("Unable to delete legacy revision file " + legacy);
+        }
+    }
+
+    @Override
+    protected void deleteContent(ResourceImpl resource, Revision revision) {
+        File legacy = revisionFile(resource, revision);
+        if (legacy.exists() && !legacy.delete()) {
+            throw new DataAccessException("Cannot delete revision " + revision.getID() 
+                    + ", unable to delete file: " + legacy.getAbsolutePath());
+        }
+    }
+
+    @Override
+    protected File contentFile(ResourceImpl resource, Revision revision) {
+        String checksum = revision.getChecksum();
+        if (checksum == null) {
+            for (Revision r: list(resource)) {
+                if (r.getID() == revision.getID()) {
+                    checksum = r.getChecksum();
+                    break;
+                }
+            }
+        }
+        if (checksum != null && CHECKSUM.matcher(checksum).matches()) {
+            File blob = blobFile(checksum);
+            if (blob.exists()) {
+                return blob;
+            }
+        }
+        return super.contentFile(resource, revision);
+    }
+
+    private void writeBlob(Revision revision, ContentInputSource content) throws IOException {
+        String checksum = revision.getChecksum();
+        if (checksum == null || !CHECKSUM.matcher(checksum).matches()) {
+            throw new DataAccessException("Invalid checksum for revision " + revision);
+        }
+        File blob = blobFile(checksum);
+
+        if (blobRegistered(checksum)) {
+            boolean reused;
+            synchronized (this.blobLock) {
+                // Mark as recently used, protecting it from a concurrent gc
+                reused = blob.exists() && touch(blob);
+            }
+            if (reused) {
+                // Only verify content, no need to store it again
+                String digest;
+                boolean same;
+                try (Digest.StreamWrapper in = Revisions.wrap(content.stream());
+                        InputStream existing = new FileInputStream(blob)) {
+                    same = sameContent(in, existing);
+                    digest = digest(in);
+                }
+                verifyChecksum(revision, digest);
+                if (!same) {
+                    throw collision(revision, blob);
+                }
+                if (content.isFile() && content.canDeleteSourceFile()) {
+                    content.file().delete();
+                }
+                return;
+            }
+        }
+
+        File tmp = File.createTempFile("blob-", null, this.blobTempDirectory);
+        try {
+            verifyChecksum(revision, stage(content, tmp));
+
+            synchronized (this.blobLock) {
+                if (blob.exists()) {
+                    // Stored concurrently, or left by a rolled back transaction
+                    if (!sameContent(tmp, blob)) {
+                        throw collision(revision, blob);
+                    }
+                    touch(blob);
+                } else {
+                    File dir = blob.getParentFile();
+                    if (!dir.exists() && !dir.mkdirs()) {
+                        throw new DataAccessException("Unable to create directory: " + dir);
+                    }
+                    Files.move(tmp.toPath(), blob.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                }
+                if (!blobRegistered(checksum)) {
+                    insertBlob(checksum, blob.length());
+                }
+            }
+        } finally {
+            if (tmp.exists()) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * Stores content in file, returning the digest of the content.
+     */
+    private String stage(ContentInputSource content, File dest) throws IOException {
+        if (content.isFile() && content.canDeleteSourceFile()) {
+            transfer(content, dest);
+            try (InputStream in = new FileInputStream(dest)) {
+                return digest(in);
+            }
+        }
+        Digest.StreamWrapper in = Revisions.wrap(content.stream());
+        IO.copy(in, new FileOutputStream(dest)).bufferSize(COPY_BUF_SIZE).perform();
+        return in.compute();
+    }
+
+    private String digest(InputStream input) throws IOException {
+        return digest(Revisions.wrap(input));
+    }
+
+    /**
+     * Reads the rest of a digesting stream, returning the digest of all
+     * content read through it.
+     */
+    private String digest(Digest.StreamWrapper in) throws IOException {
+        byte[] buffer = new byte[COPY_BUF_SIZE];
+        while (in.read(buffer) != -1) {
+        }
+        return in.compute();
+    }
+
+    private boolean sameContent(File a, File b) throws IOException {
+        if (a.length() != b.length()) {
+            return false;
+        }
+        try (InputStream in1 = new FileInputStream(a); InputStream in2 = new FileInputStream(b)) {
+            return sameContent(in1, in2);
+        }
+    }
+
+    /**
+     * Compares two streams, reading both until the first difference.
+     */
+    private boolean sameContent(InputStream in1, InputStream in2) throws IOException {
+        byte[] buf1 = new byte[COPY_BUF_SIZE];
+        byte[] buf2 = new byte[COPY_BUF_SIZE];
+        int n;
+        while ((n = in1.read(buf1)) != -1) {
+            int read = 0;
+            while (read < n) {
+                int m = in2.read(buf2, read, n - read);
+                if (m == -1) {
+                    return false;
+                }
+                read += m;
+            }
+            for (int i = 0; i < n; i++) {
+                if (buf1[i] != buf2[i]) {
+                    return false;
+                }
+            }
+        }
+        return in2.read() == -1;
+    }
+
+    private DataAccessException collision(Revision revision, File blob) {
+        return new DataAccessException("Checksum collision for revision " 
+                + revision + ": content differs from existing blob " + blob);
+    }
+
+    private void verifyChecksum(Revision revision, String digest) {
+        if (!revision.getChecksum().equals(digest)) {
+            throw new DataAccessException("Checksum mismatch for revision " 
+                    + revision + ": content has checksum " + digest);
+        }
+    }
+
+    private boolean touch(File blob) {
+        if (!blob.setLastModified(System.currentTimeMillis())) {
+            logger.warn("Unable to update timestamp of " + blob);
+        }
+        return blob.exists();
+    }
+
+    private boolean blobRegistered(String checksum) {
+        Integer count = getSqlSession().selectOne(getSqlMap("countRevisionBlobs"), 
+                Collections.singletonMap("checksum", checksum));
+        return count != null && count > 0;
+    }
+
+    private void insertBlob(String checksum, long length) {
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("checksum", checksum);
+        parameters.put("contentLength", length);
+        parameters.put("created", new Date());
+        getSqlSession().insert(getSqlMap("insertRevisionBlob"), parameters);
+    }
+
+    private File blobFile(String checksum) {
+        return new File(this.blobDirectory, checksum.substring(0, 2) + File.separator 
+                + checksum.substring(2, 4) + File.separator + checksum);
+    }
+
+    @Override
+    public synchronized void gc() throws IOException {
+        logger.info("Starting revision blobs GC");
+        long threshold = System.currentTimeMillis() - this.gcGracePeriodMillis;
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("createdBefore", new Date(threshold));
+        List<String> unreferenced = getSqlSession()
+                .selectList(getSqlMap("listUnreferencedRevisionBlobs"), parameters);
+
+        int purged = 0;
+        for (String checksum: unreferenced) {
+            if (!CHECKSUM.matcher(checksum).matches()) {
+                continue;
+            }
+            File blob = blobFile(checksum);
+            synchronized (this.blobLock) {
+                if (blob.exists() && blob.lastModified() > threshold) {
+                    // Reused since listed
+                    continue;
+                }
+                int deleted = getSqlSession().delete(getSqlMap("deleteRevisionBlob"), 
+                        Collections.singletonMap("checksum", checksum));
+                if (deleted != 1) {
+                    // Referenced by a revision since listed
+                    continue;
+                }
+                if (blob.exists() && !blob.delete()) {
+                    throw new IllegalStateException("Unable to delete: " + blob);
+                }
+                purged++;
+            }
+        }
+        logger.info("Finished revision blobs GC, purged " + purged + " blobs");
+
+        purgeUnregisteredBlobs(threshold);
+
+        if (this.legacyGc) {
+            super.gc();
+        }
+    }
+
+    /**
+     * Removes blob files which are not registered, as left by rolled back 
+     * transactions, unless referenced by a revision. Blob directories are 
+     * compared to registered blobs one top level directory at a time.
+     */
+    private void purgeUnregisteredBlobs(long threshold) {
+        File[] dirs = this.blobDirectory.listFiles(File::isDirectory);
+        if (dirs == null) {
+            return;
+        }
+        int purged = 0;
+        for (File dir: dirs) {
+            if (dir.equals(this.blobTempDirectory)) {
+                File[] stale = dir.listFiles(f -> f.lastModified() < threshold);
+                if (stale != null) {
+                    for (File f: stale) {
+                        f.delete();
+                    }
+                }
+                continue;
+            }
+            List<String> registered = getSqlSession().selectList(getSqlMap("listRevisionBlobsWithPrefix"), 
+                    Collections.singletonMap("prefix", dir.getName() + "%"));
+            Set<String> registeredSet = new HashSet<>(registered);
+            File[] subdirs = dir.listFiles(File::isDirectory);
+            if (subdirs == null) {
+                continue;
+            }
+            for (File subdir: subdirs) {
+                File[] blobs = subdir.listFiles(f -> f.isFile() 
+                        && CHECKSUM.matcher(f.getName()).matches()
+                        && !registeredSet.contains(f.getName()));
+                if (blobs == null) {
+                    continue;
+                }
+                for (File blob: blobs) {
+                    String checksum = blob.getName();
+                    synchronized (this.blobLock) {
+                        if (!blob.exists() || blob.lastModified() > threshold) {
+                            continue;
+                        }
+                        Integer references = getSqlSession().selectOne(
+                                getSqlMap("countRevisionsWithChecksum"), 
+                                Collections.singletonMap("checksum", checksum));
+                        if (references != null && references > 0) {
+                            if (!blobRegistered(checksum)) {
+                                logger.warn("Registering unregistered blob " + blob);
+                                insertBlob(checksum, blob.length());
+                            }
+                            continue;
+                        }
+                        if (blobRegistered(checksum)) {
+                            continue;
+                        }
+                        if (!blob.delete()) {
+                            throw new IllegalStateException("Unable to delete: " + blob);
+                        }
+                        purged++;
+                    }
+                }
+            }
+        }
+        logger.info("Purged " + purged + " unregistered revision blobs");
+    }
+
+    public void setBlobDirectory(String blobDirectory) {
+        this.blobDirectory = new File(blobDirectory);
+    }
+
+    public void setGcGracePeriodSeconds(int seconds) {
+        if (seconds < 0) {
+            throw new IllegalArgumentException("Grace period must be >= 0");
+        }
+        this.gcGracePeriodMillis = seconds * 1000L;
+    }
+
+    public void setLegacyGc(boolean legacyGc) {
+        this.legacyGc = legacyGc;
+    }
+}
@@ -35,6 +35,8 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -50,6 +52,7 @@ import org.apache.ibatis.session.SqlSession;
 import org.springframework.beans.factory.annotation.Required;
 
 import vtk.repository.Acl;
+import vtk.repository.ContentInputSource;
 import vtk.repository.Privilege;
 import vtk.repository.Resource;
 import vtk.repository.ResourceImpl;
@@ -136,17 +139,23 @@ public class DefaultRevisionStore extends AbstractSqlMapDataAccessor implements
     }
 
     @Override
-    public void create(ResourceImpl resource, Revision revision, InputStream content) {
+    public void create(ResourceImpl resource, Revision revision, ContentInputSource content) {
         SqlSession sqlSession = getSqlSession();
         insertRevision(resource, revision, sqlSession);
+        writeContent(resource, revision, content);
+    }
+
+    /**
+     * Writes the content of a newly created revision.
+     */
+    protected void writeContent(ResourceImpl resource, Revision revision, ContentInputSource content) {
         File revisionFile = revisionFile(resource, revision, true);
         if (!revisionFile.exists()) {
             throw new DataAccessException("Cannot create revision " + revision.getID() 
                     + ", unable to create file: " + revisionFile.getAbsolutePath());
         }
         try {
-            FileOutputStream out = new FileOutputStream(revisionFile);
-            IO.copy(content, out).bufferSize(COPY_BUF_SIZE).perform();
+            transfer(content, revisionFile);
         } catch (IOException e) {
             throw new DataAccessException(e);
         }
@@ -188,7 +197,13 @@ public class DefaultRevisionStore extends AbstractSqlMapDataAccessor implements
         parameters.put("revisionId", revision.getID());
         String sqlMap = getSqlMap("deleteRevision");
         getSqlSession().delete(sqlMap, parameters);
-        
+        deleteContent(resource, revision);
+    }
+
+    /**
+     * Deletes the content of a revision which has been removed.
+     */
+    protected void deleteContent(ResourceImpl resource, Revision revision) {
         File revisionFile = revisionFile(resource, revision, false);
         if (!revisionFile.exists()) {
             throw new DataAccessException("Cannot delete revision " + revision.getID() 
@@ -204,11 +219,7 @@ public class DefaultRevisionStore extends AbstractSqlMapDataAccessor implements
     @Override
     public InputStream getContent(ResourceImpl resource, Revision revision)
             throws DataAccessException {
-        File revisionFile = revisionFile(resource, revision, false);
-        if (!revisionFile.exists()) {
-            throw new DataAccessException("Unable to find revision " + revision 
-                    + ": no file: " + revisionFile.getAbsolutePath());
-        }
+        File revisionFile = contentFile(resource, revision);
         try {
             return new FileInputStream(revisionFile);
         } catch (IOException e) {
@@ -218,18 +229,25 @@ public class DefaultRevisionStore extends AbstractSqlMapDataAccessor implements
 
     @Override
     public long getContentLength(ResourceImpl resource, Revision revision) throws DataAccessException {
+        return contentFile(resource, revision).length();
+    }
+
+    /**
+     * Gets the file holding the content of an existing revision.
+     */
+    protected File contentFile(ResourceImpl resource, Revision revision) {
         File revisionFile = revisionFile(resource, revision, false);
         if (!revisionFile.exists()) {
             throw new DataAccessException("Unable to find revision " + revision 
                     + ": no file: " + revisionFile.getAbsolutePath());
         }
-        return revisionFile.length();
+        return revisionFile;
     }
     
     
 
     @Override
-    public void store(ResourceImpl resource, Revision revision, InputStream content)
+    public void store(ResourceImpl resource, Revision revision, ContentInputSource content)
             throws DataAccessException {
         try {
             
@@ -243,30 +261,58 @@ public class DefaultRevisionStore extends AbstractSqlMapDataAccessor implements
             
             String sqlMap = getSqlMap("updateRevision");
             getSqlSession().update(sqlMap, parameters);
-            
-            File dest = revisionFile(resource, revision, true);
-            
-            // Go via a temporary file in case the source input stream is 
-            // passed as the content parameter:
-            File tmp = File.createTempFile("revision-" + revision.getID() + "-", null, this.tempDir);
+            replaceContent(resource, revision, content);
+        } catch (IOException e) {
+            throw new DataAccessException("Store revision content [" + revision + "] failed", e);
+        }
+    }
 
-            try {
-                FileOutputStream outputStream = new FileOutputStream(tmp);
-                IO.copy(content, outputStream).bufferSize(COPY_BUF_SIZE).perform();
+    /**
+     * Replaces the content of an existing revision.
+     */
+    protected void replaceContent(ResourceImpl resource, Revision revision, ContentInputSource content)
+            throws IOException {
+        File dest = revisionFile(resource, revision, true);
+        if (content.isFile() && content.canDeleteSourceFile()) {
+            transfer(content, dest);
+            return;
+        }
 
-                FileInputStream srcStream = new FileInputStream(tmp);
-                FileOutputStream destStream = new FileOutputStream(dest);
-                IO.copy(srcStream, destStream).bufferSize(COPY_BUF_SIZE).perform();
+        // Go via a temporary file in case the source input stream is 
+        // passed as the content parameter:
+        File tmp = File.createTempFile("revision-" + revision.getID() + "-", null, this.tempDir);
 
-            } finally {
-                tmp.delete();
-            }
-        } catch (IOException e) {
-            throw new DataAccessException("Store revision content [" + revision + "] failed", e);
+        try {
+            FileOutputStream outputStream = new FileOutputStream(tmp);
+            IO.copy(content.stream(), outputStream).bufferSize(COPY_BUF_SIZE).perform();
+
+            FileInputStream srcStream = new FileInputStream(tmp);
+            FileOutputStream destStream = new FileOutputStream(dest);
+            IO.copy(srcStream, destStream).bufferSize(COPY_BUF_SIZE).perform();
+
+        } finally {
+            tmp.delete();
         }
     }
     
     
+    /**
+     * Writes content to a file, moving the source file into place if it is 
+     * a file which may be deleted, and copying it otherwise.
+     */
+    protected void transfer(ContentInputSource content, File dest) throws IOException {
+        if (content.isFile() && content.canDeleteSourceFile()) {
+            try {
+                Files.move(content.file().toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                return;
+            } catch (IOException e) {
+                logger.warn("Failed to move source file " + content.file() + " to " + dest 
+                        + ", copying: " + e.getMessage());
+            }
+        }
+        IO.copy(content.stream(), new FileOutputStream(dest)).bufferSize(COPY_BUF_SIZE).perform();
+    }
+
     private void insertAcl(final ResourceImpl resource, final Revision revision, SqlSession sqlSession) {
         final Map<String, Integer> actionTypes = loadActionTypes();
         final Acl acl = revision.getAcl();
@@ -334,6 +380,15 @@ public class DefaultRevisionStore extends AbstractSqlMapDataAccessor implements
     }
         
     
+    /**
+     * Gets the per-resource file of a revision, without checking that it
+     * exists.
+     */
+    protected File revisionFile(ResourceImpl resource, Revision revision) {
+        return new File(revisionPath(resource.getNumericId()) 
+                + File.separator + String.valueOf(revision.getID()));
+    }
+
     private File revisionFile(ResourceImpl resource, Revision revision, boolean create) {
         long resourceID = resource.getNumericId();
         long revisionID = revision.getID();
@@ -376,6 +431,14 @@ public class DefaultRevisionStore extends AbstractSqlMapDataAccessor implements
     }
     
 
+    protected String getRevisionDirectory() {
+        return this.revisionDirectory;
+    }
+
+    protected File getTempDir() {
+        return this.tempDir;
+    }
+
     @Required
     public void setRevisionDirectory(String revisionDirectory) {
         this.revisionDirectory = revisionDirectory;
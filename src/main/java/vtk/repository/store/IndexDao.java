@@ -53,4 +53,6 @@ public interface IndexDao {
                                                 PropertySetHandler handler)
         throws DataAccessException;
 
+    public List<Path> loadChildUris(Path uri) throws DataAccessException;
+
 }
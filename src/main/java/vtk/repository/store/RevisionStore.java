@@ -34,20 +34,29 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.List;
 
+import vtk.repository.ContentInputSource;
 import vtk.repository.Resource;
 import vtk.repository.ResourceImpl;
 import vtk.repository.Revision;
 
-// TODO consider switching from InputStream to ContentInputSource
 public interface RevisionStore {
 
     public List<Revision> list(Resource resource) throws DataAccessException;
 
     public long newRevisionID() throws DataAccessException;
 
-    public void create(ResourceImpl resource, Revision revision, InputStream content) throws DataAccessException;
+    /**
+     * Creates a revision with the given content. If the content is a
+     * file which may be deleted, the store may move it into place instead
+     * of copying it.
+     */
+    public void create(ResourceImpl resource, Revision revision, ContentInputSource content) throws DataAccessException;
 
-    public void store(ResourceImpl resource, Revision revision, InputStream inputStream) throws DataAccessException;
+    /**
+     * Updates a revision with new content. If the content is a file which
+     * may be deleted, the store may move it into place instead of copying it.
+     */
+    public void store(ResourceImpl resource, Revision revision, ContentInputSource content) throws DataAccessException;
 
     public void delete(ResourceImpl resource, Revision revision) throws DataAccessException;
 
@@ -115,6 +115,12 @@ public class SqlMapChangeLogDao extends AbstractSqlMapDataAccessor implements Ch
         return client.<Integer>selectOne(getSqlMap("countChangeLogEntries"), params);
     }
 
+    @Override
+    @Transactional(readOnly = true)
+    public Date getCurrentTime() {
+        return getSqlSession().selectOne(getSqlMap("currentTime"));
+    }
+
     @Override
     @Transactional(readOnly = false)
     public int removeChangeLogEntries(final List<ChangeLogEntry> entries)
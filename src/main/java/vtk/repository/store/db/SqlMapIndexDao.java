@@ -153,6 +153,16 @@ public class SqlMapIndexDao extends AbstractSqlMapDataAccessor implements IndexD
         client.delete(statement, sessionID);
     }
     
+    @Override
+    public List<Path> loadChildUris(Path uri) throws DataAccessException {
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("uriWildcard", SqlDaoUtils.getUriSqlWildcard(uri,
+                                      AbstractSqlMapDataAccessor.SQL_ESCAPE_CHAR));
+        parameters.put("depth", uri.getDepth() + 1);
+
+        return getSqlSession().selectList(getSqlMap("loadChildUrisForChildren"), parameters);
+    }
+    
     List<Map<String,Object>> loadInheritablePropertyRows(List<Path> paths) {
         String sqlMap = getSqlMap("loadInheritablePropertiesWithBinaryValue");
         Map<String, Object> parameterMap = new HashMap<>();
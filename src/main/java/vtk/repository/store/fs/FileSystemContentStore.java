@@ -58,6 +58,11 @@ import vtk.web.service.URL;
 /**
  * File system content store implementation operating directly on the repository
  * data.
+ *
+ * <p>Content files are never modified in place: new content is always written
+ * to a new file which replaces the old one. This allows resource copies to
+ * share content files through hard links (see {@link #setCopyMode(CopyMode)}),
+ * so that copying large trees does not duplicate content on disk.
  */
 public class FileSystemContentStore implements InitializingBean, ContentStore {
 
@@ -68,6 +73,19 @@ public class FileSystemContentStore implements InitializingBean, ContentStore {
 
     private boolean urlEncodeFileNames = false;
 
+    /**
+     * How content files are copied.
+     */
+    public enum CopyMode {
+        /** Copy all bytes to a new file */
+        STREAM,
+        /** Create a hard link to the source file, falling back to 
+         * {@link #STREAM} if not supported for the file */
+        HARDLINK
+    }
+
+    private CopyMode copyMode = CopyMode.STREAM;
+
     @Override
     public void afterPropertiesSet() throws Exception {
         createRootDirectory(this.repositoryDataDirectory);
@@ -184,16 +202,25 @@ public class FileSystemContentStore implements InitializingBean, ContentStore {
             }
         }
 
+        // Write to a new file and replace, since the existing file may be 
+        // shared with copies of the resource:
+        File tmp = null;
         try {
-            FileOutputStream outFileStream = new FileOutputStream(dest);
+            tmp = File.createTempFile("." + dest.getName() + "-", ".tmp", dest.getParentFile());
+            FileOutputStream outFileStream = new FileOutputStream(tmp);
             Copy<InputStream,OutputStream> copyOp = IO.copy(content.stream(), outFileStream);
             if (progressCallback != null) {
                 copyOp.progress(progressCallback).progressInterval(progressInterval);
             }
             copyOp.perform();
+            Files.move(tmp.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
             applyAttributes(dest);
         } catch (IOException e) {
             throw new DataAccessException("Store content [" + uri + "] failed", e);
+        } finally {
+            if (tmp != null && tmp.exists()) {
+                tmp.delete();
+            }
         }
     }
 
@@ -227,7 +254,21 @@ public class FileSystemContentStore implements InitializingBean, ContentStore {
     }
 
     private void copyFile(File from, String fsPathTo) throws IOException {
-        File to = createFile(fsPathTo, false);
+        // Never write through an existing destination, it may be a link
+        File to = new File(fsPathTo);
+        Files.deleteIfExists(to.toPath());
+
+        if (this.copyMode == CopyMode.HARDLINK) {
+            try {
+                Files.createLink(to.toPath(), from.toPath());
+                applyAttributes(to);
+                return;
+            } catch (IOException | UnsupportedOperationException e) {
+                // Not supported by file system, across file systems, or link count exceeded
+                logger.debug("Unable to link {} to {}, copying: {}", to, from, e.getMessage());
+            }
+        }
+        to = createFile(fsPathTo, false);
         IO.copy(new FileInputStream(from), new FileOutputStream(to)).perform();
     }
 
@@ -335,6 +376,16 @@ public class FileSystemContentStore implements InitializingBean, ContentStore {
         this.urlEncodeFileNames = urlEncodeFileNames;
     }
 
+    /**
+     * Set how content files are copied when copying resources. Default is
+     * {@link CopyMode#STREAM}.
+     *
+     * @param copyMode the copy mode
+     */
+    public void setCopyMode(CopyMode copyMode) {
+        this.copyMode = copyMode;
+    }
+
     private void createRootDirectory(String directoryPath) {
         File root = new File(directoryPath);
 
@@ -31,8 +31,13 @@
 
 package vtk.repository.systemjob;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -64,6 +69,8 @@ import vtk.security.SecurityContext;
  * <code>true</code> and a selected resource is locked at the time of execution.
  * <li><code>executeWhenReadOnly</code> - controls whether to execute jobs when
  * repository is in read-only mode.
+ * <li><code>workers</code> - number of threads processing selected resources
+ * in parallel.
  * </ul>
  *
  */
@@ -74,6 +81,9 @@ public abstract class AbstractResourceJob extends RepositoryJob {
     private boolean abortOnInterrupt = true;
     private boolean skipLockedResources = true;
     private boolean executeWhenReadOnly = false;
+    private int workers = 1;
+    
+    private static final int WORKER_QUEUE_SIZE = 100;
     
     private final Logger logger = LoggerFactory.getLogger(AbstractResourceJob.class);
     
@@ -90,6 +100,7 @@ public abstract class AbstractResourceJob extends RepositoryJob {
         final String token = securityContext.getToken();
 
         final ExecutionContext ctx = new ExecutionContext(repository, token, context);
+        final Workers workers = this.workers > 1 ? new Workers(ctx, this.workers) : null;
         PathSelectCallback pathCallback = new PathSelectCallback() {
             
             @Override
@@ -109,26 +120,11 @@ public abstract class AbstractResourceJob extends RepositoryJob {
                             + " [" + ctx.getCount() + "/" + ctx.getTotal() + "]");
                 }
                 
-                try {
-                    Resource resource = repository.retrieve(token, path, false);
-                    if (resource.getLock() != null && isSkipLockedResources()) {
-                        logger.warn("Job " + getId() 
-                            + ": resource is currently locked and will be skipped: " + path);
-                        return;
-                    }
-
-                    executeForResource(resource, ctx);
+                if (workers != null) {
+                    workers.submit(path);
                 }
-                catch (ResourceNotFoundException rnfe) {
-                    logger.warn("Job " + getId() 
-                        + ": resource in selection not found in repository: " + path);
-                }
-                catch (Exception e) {
-                    logger.warn("Job " + getId() 
-                            + ": exception during execution for resource " + path, e);
-                    if (isAbortOnException()) {
-                        throw e;
-                    }
+                else {
+                    process(path, ctx);
                 }
 
                 if (isAbortOnInterrupt()) {
@@ -138,11 +134,136 @@ public abstract class AbstractResourceJob extends RepositoryJob {
         };
         
         // Start execution by invoking path selector with callback
-        pathSelector.selectWithCallback(repository, context, pathCallback);
+        try {
+            pathSelector.selectWithCallback(repository, context, pathCallback);
+            if (workers != null) {
+                workers.finish();
+            }
+        }
+        finally {
+            if (workers != null) {
+                workers.abort();
+            }
+        }
         
         executeEnd(ctx);
     }
     
+    private void process(Path path, ExecutionContext ctx) throws Exception {
+        try {
+            Resource resource = ctx.getRepository().retrieve(ctx.getToken(), path, false);
+            if (resource.getLock() != null && isSkipLockedResources()) {
+                logger.warn("Job " + getId() 
+                    + ": resource is currently locked and will be skipped: " + path);
+                return;
+            }
+
+            executeForResource(resource, ctx);
+        }
+        catch (ResourceNotFoundException rnfe) {
+            logger.warn("Job " + getId() 
+                + ": resource in selection not found in repository: " + path);
+        }
+        catch (Exception e) {
+            logger.warn("Job " + getId() 
+                    + ": exception during execution for resource " + path, e);
+            if (isAbortOnException()) {
+                throw e;
+            }
+        }
+    }
+    
+    /**
+     * Worker threads for parallel execution. Paths are partitioned among 
+     * the workers by hash, so that the same path is never processed by 
+     * two workers at the same time. Each worker has a bounded queue, which
+     * makes path selection wait for workers that fall behind.
+     */
+    private final class Workers {
+        private final ExecutionContext ctx;
+        private final List<BlockingQueue<Optional<Path>>> queues = new ArrayList<>();
+        private final List<Thread> threads = new ArrayList<>();
+        private volatile Exception failure = null;
+        private volatile boolean aborted = false;
+        
+        Workers(ExecutionContext ctx, int n) {
+            this.ctx = ctx;
+            for (int i = 0; i < n; i++) {
+                final BlockingQueue<Optional<Path>> queue = new ArrayBlockingQueue<>(WORKER_QUEUE_SIZE);
+                Thread t = new Thread(() -> run(queue), getId() + "-worker-" + i);
+                t.setDaemon(true);
+                queues.add(queue);
+                threads.add(t);
+                t.start();
+            }
+        }
+        
+        private void run(BlockingQueue<Optional<Path>> queue) {
+            try {
+                while (true) {
+                    Optional<Path> next = queue.take();
+                    if (!next.isPresent() || aborted) {
+                        return;
+                    }
+                    if (failure != null) {
+                        continue;
+                    }
+                    try {
+                        process(next.get(), ctx);
+                    }
+                    catch (Exception e) {
+                        failure = e;
+                    }
+                }
+            }
+            catch (InterruptedException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        
+        void submit(Path path) throws Exception {
+            if (failure != null) {
+                throw failure;
+            }
+            int i = Math.floorMod(path.hashCode(), queues.size());
+            queues.get(i).put(Optional.of(path));
+        }
+        
+        /**
+         * Wait for workers to process all submitted paths.
+         */
+        void finish() throws Exception {
+            for (BlockingQueue<Optional<Path>> queue: queues) {
+                queue.put(Optional.empty());
+            }
+            for (Thread t: threads) {
+                t.join();
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+        
+        /**
+         * Stop any workers still running.
+         */
+        void abort() throws InterruptedException {
+            aborted = true;
+            for (BlockingQueue<Optional<Path>> queue: queues) {
+                queue.clear();
+                queue.offer(Optional.empty());
+            }
+            for (Thread t: threads) {
+                t.interrupt();
+            }
+            for (Thread t: threads) {
+                t.join();
+            }
+        }
+    }
+    
     /**
      * Common execution context for current set of resources being processed
      * by a job. Gives access to commonly needed objects
@@ -338,5 +459,29 @@ public abstract class AbstractResourceJob extends RepositoryJob {
     public void setExecuteWhenReadOnly(boolean executeWhenReadOnly) {
         this.executeWhenReadOnly = executeWhenReadOnly;
     }
+
+    /**
+     * @return the number of worker threads
+     */
+    public int getWorkers() {
+        return workers;
+    }
+
+    /**
+     * Set number of threads processing selected resources. Default is
+     * <code>1</code>, processing all resources one at a time in the thread 
+     * running the job. With more workers, selected paths are partitioned 
+     * among the workers, and 
+     * {@link #executeForResource(Resource, ExecutionContext) executeForResource}
+     * must be safe to call concurrently for different resources.
+     * 
+     * @param workers the number of workers
+     */
+    public void setWorkers(int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("Number of workers must be >= 1");
+        }
+        this.workers = workers;
+    }
     
 }
@@ -186,6 +186,7 @@ public class ChangedUriReferencesPathSelector
         search.clearAllFilterFlags();
         search.setPropertySelect(PropertySelect.NONE);
         search.setWaitForPendingUpdates(Instant.now(), Duration.ofSeconds(30));
+        search.setPriority(Search.Priority.BACKGROUND);
         return search;
     }
     
@@ -34,7 +34,7 @@ package vtk.repository.systemjob;
 import java.awt.Dimension;
 import java.awt.image.BufferedImage;
 import java.util.Set;
-import javax.imageio.ImageIO;
+import java.util.concurrent.Semaphore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Required;
@@ -43,8 +43,6 @@ import vtk.repository.Path;
 import vtk.repository.Property;
 import vtk.repository.Repository;
 import vtk.repository.Resource;
-import vtk.repository.ResourceLockedException;
-import vtk.repository.ResourceNotFoundException;
 import vtk.repository.resourcetype.PropertyTypeDefinition;
 
 /**
@@ -57,6 +55,9 @@ public class ImageMetadataJob extends AbstractResourceJob {
     private Set<String> supportedFormats;
     private long maxSourceImageFileSize = 35000000;
     private long maxSourceImageRawMemoryUsage = 100000000;
+    private int updateBatch = 0;
+    private Semaphore decodeMemory;
+    private int decodeMemoryPermits;
 
     private PropertyTypeDefinition thumbnailPropDef;
     private PropertyTypeDefinition mediaMetadataStatusPropDef;
@@ -67,6 +68,22 @@ public class ImageMetadataJob extends AbstractResourceJob {
 
     public ImageMetadataJob() {
         setAbortOnException(false);
+        setMaxDecodeMemory(200000000);
+    }
+
+    @Override
+    protected void executeBegin(ExecutionContext ctx) throws Exception {
+        ctx.setAttribute("UpdateBatch", 
+                new ResourceUpdateBatch(ctx.getRepository(), ctx.getToken(), 
+                        ctx.getSystemChangeContext(), updateBatch, false));
+    }
+
+    @Override
+    protected void executeEnd(ExecutionContext ctx) throws Exception {
+        ResourceUpdateBatch b = (ResourceUpdateBatch) ctx.getAttribute("UpdateBatch");
+        if (b != null) {
+            b.flush();
+        }
     }
     
     @Override
@@ -117,32 +134,6 @@ public class ImageMetadataJob extends AbstractResourceJob {
             return;
         }
 
-        // Check max source image memory usage constraint
-        long estimatedMemoryUsage = estimateMemoryUsage(dim);
-        if (logger.isDebugEnabled()) {
-            logger.debug("Estimated memory usage for image " + path + " of " + dim.width + "x" + dim.height + " = "
-                    + estimatedMemoryUsage + " bytes");
-        }
-        if (estimatedMemoryUsage > maxSourceImageRawMemoryUsage) {
-            logger.info("Estimated memory usage of image exceeds limit: " + path);
-            storeWithStatus(resource, ctx, "MEMORY_USAGE_EXCEEDS_LIMIT");
-            return;
-        }
-        
-        BufferedImage image;
-        try {
-            image = ImageIO.read(repository.getInputStream(token, path, true));
-        } catch (Exception e) {
-            logger.warn("Failed to read image at " + path, e);
-            storeWithStatus(resource, ctx, "CORRUPT");
-            return;
-        }
-        if (image == null) {
-            logger.warn("Failed to read image at " + path);
-            storeWithStatus(resource, ctx, "CORRUPT");
-            return;
-        }
-
         String mimetype = resource.getContentType();
         String imageFormat = mimetype.substring(mimetype.lastIndexOf("/") + 1);
 
@@ -152,7 +143,7 @@ public class ImageMetadataJob extends AbstractResourceJob {
             return;
         }
 
-        if (image.getWidth() <= width) {
+        if (dim.width <= width) {
             if (logger.isDebugEnabled()) {
                 logger.debug("Will not create thumbnail for image " + path + ": width less than/equal to " + width);
             }
@@ -160,7 +151,45 @@ public class ImageMetadataJob extends AbstractResourceJob {
             return;
         }
 
-        BufferedImage thumbnail = ImageUtil.downscaleToWidth(image, width); // Potentially time consuming part
+        // Check max source image memory usage constraint
+        long estimatedMemoryUsage = estimateMemoryUsage(dim);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Estimated memory usage for image " + path + " of " + dim.width + "x" + dim.height + " = "
+                    + estimatedMemoryUsage + " bytes");
+        }
+        if (estimatedMemoryUsage > maxSourceImageRawMemoryUsage) {
+            logger.info("Estimated memory usage of image exceeds limit: " + path);
+            storeWithStatus(resource, ctx, "MEMORY_USAGE_EXCEEDS_LIMIT");
+            return;
+        }
+        
+        // Bound memory used by images being decoded and scaled concurrently,
+        // the image is subsampled while decoding
+        int subsampling = ImageUtil.subsamplingFactor(dim.width, width);
+        Dimension decodedDim = new Dimension((dim.width + subsampling - 1) / subsampling,
+                (dim.height + subsampling - 1) / subsampling);
+        int permits = Math.min(decodeMemoryPermits, permits(estimateMemoryUsage(decodedDim)));
+        decodeMemory.acquire(permits);
+        BufferedImage thumbnail;
+        try {
+            BufferedImage image;
+            try {
+                image = ImageUtil.readSubsampled(repository.getInputStream(token, path, true), width);
+            } catch (Exception e) {
+                logger.warn("Failed to read image at " + path, e);
+                storeWithStatus(resource, ctx, "CORRUPT");
+                return;
+            }
+            if (image == null) {
+                logger.warn("Failed to read image at " + path);
+                storeWithStatus(resource, ctx, "CORRUPT");
+                return;
+            }
+
+            thumbnail = ImageUtil.downscaleToWidth(image, width); // Potentially time consuming part
+        } finally {
+            decodeMemory.release(permits);
+        }
         String thumbnailFormat = "jpeg";
         if (imageFormat.equalsIgnoreCase("gif") || imageFormat.equalsIgnoreCase("png")) {
             thumbnailFormat = "png";
@@ -182,26 +211,12 @@ public class ImageMetadataJob extends AbstractResourceJob {
     }
 
     private void storeIfUnmodified(Resource resource, ExecutionContext ctx) {
-        try {
-            // To minimize potential race between initial load of resource and completed
-            // thumbnail generation, we sanity check last modified time before storing.
-            Resource current = ctx.getRepository().retrieve(ctx.getToken(), resource.getURI(), false);
-            if (!current.getLastModified().equals(resource.getLastModified())) {
-                logger.warn("Resource " + resource.getURI() 
-                        + " was modified during image metadata extraction, skipping store.");
-                return;
-            }
-            
-            ctx.getRepository().store(ctx.getToken(), null, resource, ctx.getSystemChangeContext());
-            if (resource.getProperty(thumbnailPropDef) != null) {
-                logger.info("Created thumbnail for " + resource);
-            }
-        } catch (ResourceLockedException e) {
-            logger.warn("Store of " + resource + " failed due to resource being locked.");
-        } catch (ResourceNotFoundException e) {
-            // ignore
-        } catch (Exception e) {
-            logger.warn("Exception while trying to store " + resource, e);
+        // To minimize potential race between initial load of resource and completed
+        // thumbnail generation, the batch sanity checks last modified time before storing.
+        ResourceUpdateBatch b = (ResourceUpdateBatch) ctx.getAttribute("UpdateBatch");
+        b.add(resource);
+        if (resource.getProperty(thumbnailPropDef) != null) {
+            logger.info("Created thumbnail for " + resource);
         }
     }
 
@@ -217,6 +232,11 @@ public class ImageMetadataJob extends AbstractResourceJob {
         return (long) dim.height * (long) dim.width * 24 / 8;
     }
     
+    // Semaphore permits are counted in kilobytes of estimated memory usage
+    private static int permits(long bytes) {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, bytes / 1024));
+    }
+    
     @Required
     public void setWidth(int width) {
         if (width <= 1) {
@@ -256,6 +276,35 @@ public class ImageMetadataJob extends AbstractResourceJob {
         this.maxSourceImageRawMemoryUsage = maxSourceImageRawMemoryUsage;
     }
 
+    /**
+     * Set cap on total estimated memory usage of images being decoded and
+     * scaled at the same time by the job workers. Workers wait until enough
+     * memory is available before decoding an image. A single image is always
+     * allowed to proceed alone, even if its estimate exceeds this limit.
+     * 
+     * Default value is 200MB.
+     * 
+     * @param maxDecodeMemory the limit in bytes
+     */
+    public void setMaxDecodeMemory(long maxDecodeMemory) {
+        if (maxDecodeMemory < 1) {
+            throw new IllegalArgumentException("maxDecodeMemory must be >= 1");
+        }
+        this.decodeMemoryPermits = permits(maxDecodeMemory);
+        this.decodeMemory = new Semaphore(this.decodeMemoryPermits);
+    }
+
+    /**
+     * Set number of updated resources to collect before storing them
+     * together in one transaction. Default is <code>0</code>, storing each
+     * resource as soon as it has been processed.
+     * 
+     * @param updateBatch the batch size
+     */
+    public void setUpdateBatch(int updateBatch) {
+        this.updateBatch = updateBatch;
+    }
+
     @Required
     public void setThumbnailPropDef(PropertyTypeDefinition thumbnailPropDef) {
         this.thumbnailPropDef = thumbnailPropDef;
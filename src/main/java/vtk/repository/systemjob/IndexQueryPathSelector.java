@@ -93,6 +93,7 @@ public class IndexQueryPathSelector implements PathSelector {
             search.clearAllFilterFlags();
         }
         search.setPropertySelect(PropertySelect.NONE);
+        search.setPriority(Search.Priority.BACKGROUND);
         ResultSet results = searcher.execute(token, search);
 
         if (logger.isDebugEnabled()) {
@@ -33,6 +33,7 @@ package vtk.repository.systemjob;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -47,15 +48,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Required;
 
-import vtk.repository.AuthorizationException;
-import vtk.repository.Lock;
 import vtk.repository.Namespace;
 import vtk.repository.Property;
 import vtk.repository.PropertySet;
-import vtk.repository.Repository;
-import vtk.repository.Repository.Depth;
 import vtk.repository.Resource;
-import vtk.repository.ResourceLockedException;
 import vtk.repository.ResourceNotFoundException;
 import vtk.repository.SystemChangeContext;
 import vtk.repository.resourcetype.PropertyType;
@@ -74,6 +70,7 @@ import vtk.util.web.LinkTypesPrefixes;
 import vtk.web.display.linkcheck.LinkChecker;
 import vtk.web.display.linkcheck.LinkChecker.LinkCheckRequest;
 import vtk.web.display.linkcheck.LinkChecker.LinkCheckResult;
+import vtk.web.display.linkcheck.LinkChecker.Status;
 import vtk.web.service.CanonicalUrlConstructor;
 import vtk.web.service.URL;
 
@@ -88,6 +85,7 @@ public class LinkCheckJob extends AbstractResourceJob {
     private int updateBatch = 0;
     private boolean useRepositoryLocks = false;
     private int minRecheckSeconds = 3600;
+    private int resourceDeadlineSeconds = 120;
     
     private CanonicalUrlConstructor urlConstructor;
     
@@ -103,7 +101,7 @@ public class LinkCheckJob extends AbstractResourceJob {
     @Override
     protected void executeBegin(ExecutionContext ctx) throws Exception {
         ctx.setAttribute("UpdateBatch", 
-                new UpdateBatch(ctx.getRepository(), ctx.getToken(), ctx.getSystemChangeContext(),
+                new ResourceUpdateBatch(ctx.getRepository(), ctx.getToken(), ctx.getSystemChangeContext(),
                         updateBatch, useRepositoryLocks));
     }
 
@@ -126,13 +124,13 @@ public class LinkCheckJob extends AbstractResourceJob {
         else {
             resource.addProperty(prop);
         }
-        UpdateBatch b = (UpdateBatch)ctx.getAttribute("UpdateBatch");
+        ResourceUpdateBatch b = (ResourceUpdateBatch)ctx.getAttribute("UpdateBatch");
         b.add(resource);
     }
     
     @Override
     protected void executeEnd(ExecutionContext ctx) throws Exception {
-        UpdateBatch b = (UpdateBatch)ctx.getAttribute("UpdateBatch");
+        ResourceUpdateBatch b = (ResourceUpdateBatch)ctx.getAttribute("UpdateBatch");
         b.flush();
     }
 
@@ -239,8 +237,10 @@ public class LinkCheckJob extends AbstractResourceJob {
         
         final URL base = urlConstructor.canonicalUrl(resource).setImmutable();
         final AtomicLong n = new AtomicLong(0);
+        final List<LinkCandidate> candidates = new ArrayList<>();
         
         try {
+            // Collect the links to check in this round:
             parser.begin(new Json.DefaultHandler() {
                 String field = null;
                 
@@ -322,91 +322,10 @@ public class LinkCheckJob extends AbstractResourceJob {
                             .sendReferrer(!resource.isReadRestricted())
                             .allowCached(allowCached)
                             .build();
-                    
-                    LinkCheckResult result = linkChecker.validate(request);
-                    URL resourceURL = base.relativeURL(url);
-                    switch (result.getStatus()) {
-                    case TIMEOUT:
-                        break;
-                    case OK:
-                        logger.debug("base: {}, resourceURL: {}, vrtxid: {}", base.getHost(), resourceURL.getHost(), vrtxid);
-                        if (vrtxid != null && base.getHost().equals(resourceURL.getHost())) {
-                            // Check if 'OK' was result of a redirect (relocated resource),
-                            // or just a plain '200 OK':
-                            Optional<PropertySet> relocated = findResourceByID(execContext, vrtxid);
-                            if (relocated.isPresent() && 
-                                    !relocated.get().getURI().equals(resourceURL.getPath())) {
-                                Map<String, String> m = new HashMap<>();
-                                m.put("link", url);
-                                if (type != null) {
-                                    m.put("type", type);
-                                }
-                                m.put("vrtxid", vrtxid);
-                                state.relocatedLinks.add(m);
-                                logger.debug("URL {} (referenced from {} has moved, vrtxid: {} still valid",
-                                        url, resource.getURI(), vrtxid); 
-                            }
-                        }
-                        break;
-                    case NOT_FOUND:
-                        Optional<PropertySet> relocated = Optional.empty();
-                        if (vrtxid != null && base.getHost().equals(resourceURL.getHost())) {
-                            relocated = findResourceByID(execContext, vrtxid);
-                        }
-
-                        if (relocated.isPresent()) {
-                            Map<String, String> m = new HashMap<>();
-                            m.put("link", url);
-                            if (type != null) {
-                                m.put("type", type);
-                            }
-                            m.put("vrtxid", vrtxid);
-
-                            if (published(relocated.get())) {
-                                state.relocatedLinks.add(m);
-                                logger.debug("URL " + url + " (referenced from " 
-                                        + resource.getURI() + ") has moved, "
-                                        + " vrtxid: " + vrtxid + " still valid");
-                            }
-                            else {
-                                logger.debug("URL " + url + " (referenced from " 
-                                        + resource.getURI() + ") is unpublished, "
-                                        + " vrtxid: " + vrtxid + " still valid");
-                                m.put("status", result.getStatus().toString());
-                                state.brokenLinks.add(m);
-                            }
-                        }
-                        else {
-                            // Else mark as broken:
-                            Map<String, String> m = new HashMap<>();
-                            m.put("link", url);
-                            if (type != null) {
-                                m.put("type", type);
-                            }
-                            m.put("status", result.getStatus().toString());
-                            state.brokenLinks.add(m);
-                        }
-                        break;
-                        
-                    default:
-                        // Mark everything else as broken:
-                        Map<String, String> m = new HashMap<>();
-                        m.put("link", url);
-                        if (type != null) {
-                            m.put("type", type);
-                        }
-                        m.put("status", result.getStatus().toString());
-                        state.brokenLinks.add(m);
-                    }
+                    candidates.add(new LinkCandidate(url, type, vrtxid, request, n.get()));
                     
                     clear();
                     
-                    if (state.brokenLinks.size() >= MAX_BROKEN_LINKS) {
-                        return false;
-                    }
-                    if (state.relocatedLinks.size() >= MAX_BROKEN_LINKS) {
-                        return false;
-                    }
                     if (n.get()-state.index == MAX_CHECK_LINKS) {
                         return false;
                     }
@@ -425,12 +344,44 @@ public class LinkCheckJob extends AbstractResourceJob {
                     return true;
                 }
             });
+            long index = n.get();
+            
+            // Check links concurrently, then record results in document order:
+            List<LinkCheckRequest> requests = new ArrayList<>(candidates.size());
+            for (LinkCandidate c: candidates) {
+                requests.add(c.request);
+            }
+            List<LinkCheckResult> results = linkChecker.validate(requests, 
+                    Instant.now().plusSeconds(resourceDeadlineSeconds));
+            
+            for (int i = 0; i < candidates.size(); i++) {
+                LinkCandidate c = candidates.get(i);
+                if (results.get(i).getStatus() == Status.TIMEOUT) {
+                    // Not checked before the deadline, resume at this link 
+                    // in next round
+                    state.complete = false;
+                    index = c.index - 1;
+                    break;
+                }
+                recordResult(c, results.get(i), state, base, resource, execContext);
+
+                if (state.brokenLinks.size() >= MAX_BROKEN_LINKS
+                        || state.relocatedLinks.size() >= MAX_BROKEN_LINKS) {
+                    // Resume after this link in next round
+                    state.complete = false;
+                    index = c.index;
+                    break;
+                }
+            }
             state.timestamp = changeContext.getTimestampFormatted();
-            state.index = n.get();
+            state.index = index;
             Property result = linkCheckPropDef.createProperty();
             state.write(result);
             return result;
         }
+        catch (InterruptedException ie) {
+            throw ie;
+        }
         catch (Throwable t) {
             if (t.getCause() instanceof InterruptedException) {
                 throw ((InterruptedException)t.getCause());
@@ -439,6 +390,87 @@ public class LinkCheckJob extends AbstractResourceJob {
             return null;
         }
     }
+    
+    private void recordResult(LinkCandidate link, LinkCheckResult result, 
+            LinkCheckState state, URL base, Resource resource, ExecutionContext execContext) {
+        String url = link.url;
+        String type = link.type;
+        String vrtxid = link.vrtxid;
+        URL resourceURL = base.relativeURL(url);
+        switch (result.getStatus()) {
+        case TIMEOUT:
+            break;
+        case OK:
+            logger.debug("base: {}, resourceURL: {}, vrtxid: {}", base.getHost(), resourceURL.getHost(), vrtxid);
+            if (vrtxid != null && base.getHost().equals(resourceURL.getHost())) {
+                // Check if 'OK' was result of a redirect (relocated resource),
+                // or just a plain '200 OK':
+                Optional<PropertySet> relocated = findResourceByID(execContext, vrtxid);
+                if (relocated.isPresent() && 
+                        !relocated.get().getURI().equals(resourceURL.getPath())) {
+                    Map<String, String> m = new HashMap<>();
+                    m.put("link", url);
+                    if (type != null) {
+                        m.put("type", type);
+                    }
+                    m.put("vrtxid", vrtxid);
+                    state.relocatedLinks.add(m);
+                    logger.debug("URL {} (referenced from {} has moved, vrtxid: {} still valid",
+                            url, resource.getURI(), vrtxid); 
+                }
+            }
+            break;
+        case NOT_FOUND:
+            Optional<PropertySet> relocated = Optional.empty();
+            if (vrtxid != null && base.getHost().equals(resourceURL.getHost())) {
+                relocated = findResourceByID(execContext, vrtxid);
+            }
+
+            if (relocated.isPresent()) {
+                Map<String, String> m = new HashMap<>();
+                m.put("link", url);
+                if (type != null) {
+                    m.put("type", type);
+                }
+                m.put("vrtxid", vrtxid);
+
+                if (published(relocated.get())) {
+                    state.relocatedLinks.add(m);
+                    logger.debug("URL " + url + " (referenced from " 
+                            + resource.getURI() + ") has moved, "
+                            + " vrtxid: " + vrtxid + " still valid");
+                }
+                else {
+                    logger.debug("URL " + url + " (referenced from " 
+                            + resource.getURI() + ") is unpublished, "
+                            + " vrtxid: " + vrtxid + " still valid");
+                    m.put("status", result.getStatus().toString());
+                    state.brokenLinks.add(m);
+                }
+            }
+            else {
+                // Else mark as broken:
+                Map<String, String> m = new HashMap<>();
+                m.put("link", url);
+                if (type != null) {
+                    m.put("type", type);
+                }
+                m.put("status", result.getStatus().toString());
+                state.brokenLinks.add(m);
+            }
+            break;
+            
+        default:
+            // Mark everything else as broken:
+            Map<String, String> m = new HashMap<>();
+            m.put("link", url);
+            if (type != null) {
+                m.put("type", type);
+            }
+            m.put("status", result.getStatus().toString());
+            state.brokenLinks.add(m);
+        }
+    }
 
     private static final Pattern SCHEME =
             Pattern.compile("^([a-z][a-z0-9+.-]+):", Pattern.CASE_INSENSITIVE);
@@ -539,6 +571,24 @@ public class LinkCheckJob extends AbstractResourceJob {
         }
     }
 
+    private static class LinkCandidate {
+        private final String url;
+        private final String type;
+        private final String vrtxid;
+        private final LinkCheckRequest request;
+        // Position in hrefs list after this link
+        private final long index;
+        
+        private LinkCandidate(String url, String type, String vrtxid, 
+                LinkCheckRequest request, long index) {
+            this.url = url;
+            this.type = type;
+            this.vrtxid = vrtxid;
+            this.request = request;
+            this.index = index;
+        }
+    }
+
     private static class LinkCheckState {
         private List<Object> brokenLinks = new ArrayList<>();
         private List<Object> relocatedLinks = new ArrayList<>();
@@ -608,113 +658,6 @@ public class LinkCheckJob extends AbstractResourceJob {
         }
     }
     
-    private static class UpdateBatch {
-        private final Repository repository;
-        private final SystemChangeContext context;
-        private final String token;
-        private final int batchSize;
-        private boolean locking = false;
-        private final List<Resource> updateList = new ArrayList<>();
-
-        public UpdateBatch(Repository repository, String token, 
-                SystemChangeContext context, int batchSize, boolean locking) {
-            this.repository = repository;
-            this.token = token;
-            this.context = context;
-            this.batchSize = batchSize;
-            this.locking = locking;
-        }
-
-        public void add(Resource resource) {
-            updateList.add(resource);
-            if (updateList.size() >= batchSize) {
-                flush();
-            }
-        }
-
-        public void flush() {
-            if (updateList.size() > 0) {
-                logger.debug("Attempting to store " + updateList.size() + " resources");
-            }
-            if (locking) {
-                flushWithLocking();
-                return;
-            }
-            for (Resource r: updateList) {
-                try {
-                    Resource existing = repository.retrieve(token, r.getURI(), false);
-                    if (!existing.getLastModified().equals(r.getLastModified())) {
-                        logger.warn("Resource " + r.getURI() 
-                        + " was modified during link check, skipping store");
-                        continue;
-                    }
-                    // --> Here be race <--
-                    //
-                    // Typically we risk AuthorizationException if link-status prop is updated
-                    // by something else after last-modified check, and we try to write old value
-                    // (the property is uneditable, and an old value will be interpreted by
-                    // repo as an attempt to modify). Still, it should be harmless, 
-                    // since it will only be an ephemeral problem for props marked as affected
-                    // in system change context.
-                    r = repository.store(token, null, r, context);
-                }
-                catch (ResourceLockedException e) {
-                    logger.warn("Resource " + r.getURI() + " was locked by another user, skipping");
-                }
-                catch (AuthorizationException ae) {
-                    logger.warn("Could not store resource " + r.getURI() 
-                    + " due to AuthorizationException: " + ae.getMessage());
-                }
-                catch (Throwable t) {
-                    logger.warn("Unable to store resource " + r, t);
-                }
-            }
-            updateList.clear();
-        }
-
-        public void flushWithLocking() {
-            for (Resource r: updateList) {
-                Lock lock = null;
-                try {
-                    Resource resource = repository.lock(token, r.getURI(), 
-                            context.getJobName(), Depth.ZERO, 60, null, Lock.Type.EXCLUSIVE);
-                    lock = resource.getLock();
-                    
-                    if (!resource.getLastModified().equals(r.getLastModified())) {
-                        logger.warn("Resource " + r.getURI() 
-                        + " was modified during link check, skipping store");
-                        continue;
-                    }
-                    // Risk AuthorizationException here if resource is stored somewhere else
-                    // WITHOUT locking (like resource evaluation does).
-                    repository.store(token, null, r, context);
-                }
-                catch (ResourceLockedException e) {
-                    logger.warn("Resource " + r.getURI() 
-                    + " was locked by another user, skipping");
-                }
-                catch (AuthorizationException ae) {
-                    logger.warn("Could not store resource " + r.getURI() 
-                    + " due to AuthorizationException: " + ae.getMessage());
-                }
-                catch (Throwable t) {
-                    logger.warn("Unable to store resource " + r, t);
-                }
-                finally {
-                    if (lock != null) {
-                        try {
-                            repository.unlock(token, r.getURI(), lock.getLockToken());
-                        }
-                        catch (Exception e) {
-                            logger.warn("Unable to unlock resource " + r.getURI(), e);
-                        }
-                    }
-                }
-            }
-            updateList.clear();
-        }
-    }
-    
     @Required
     public void setHrefsPropDef(PropertyTypeDefinition hrefsPropDef) {
         this.hrefsPropDef = hrefsPropDef;
@@ -771,5 +714,19 @@ public class LinkCheckJob extends AbstractResourceJob {
     public void setMinRecheckSeconds(int minRecheckSeconds) {
         this.minRecheckSeconds = minRecheckSeconds;
     }
+
+    /**
+     * Maximum number of seconds to wait for the link checks of a single
+     * resource in one round. Links that have not been checked by then are
+     * skipped, like links that time out.
+     * 
+     * @param resourceDeadlineSeconds 
+     */
+    public void setResourceDeadlineSeconds(int resourceDeadlineSeconds) {
+        if (resourceDeadlineSeconds < 1) {
+            throw new IllegalArgumentException("Resource deadline must be an integer >= 1");
+        }
+        this.resourceDeadlineSeconds = resourceDeadlineSeconds;
+    }
     
 }
@@ -0,0 +1,231 @@
+/* Copyright (c) 2017, University of Oslo, Norway
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ *  * Neither the name of the University of Oslo nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package vtk.repository.systemjob;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import vtk.repository.AuthorizationException;
+import vtk.repository.Lock;
+import vtk.repository.Repository;
+import vtk.repository.Repository.Depth;
+import vtk.repository.Resource;
+import vtk.repository.ResourceLockedException;
+import vtk.repository.ResourceNotFoundException;
+import vtk.repository.SystemChangeContext;
+
+/**
+ * Collects resources modified by a system job and stores them in batches.
+ * 
+ * <p>Before storing, each resource is checked against the current
+ * last-modified time in the repository, and skipped if it was modified 
+ * while the job was processing it. Without repository locking, the
+ * resources of a batch are stored in a single transaction with
+ * {@link Repository#store(String, List, SystemChangeContext)}, falling back
+ * to storing them one at a time if that fails. With repository locking,
+ * each resource is locked, checked and stored on its own.
+ * 
+ * <p>Instances are thread safe, and may be shared by the workers of a job
+ * running in parallel.
+ */
+public class ResourceUpdateBatch {
+    private static final Logger logger = LoggerFactory.getLogger(ResourceUpdateBatch.class);
+
+    private final Repository repository;
+    private final SystemChangeContext context;
+    private final String token;
+    private final int batchSize;
+    private final boolean locking;
+    private List<Resource> updateList = new ArrayList<>();
+
+    /**
+     * @param repository the repository
+     * @param token the token to store resources with
+     * @param context the system change context to store resources with
+     * @param batchSize number of resources to collect before storing. 
+     * Values less than 2 store every resource as soon as it is added.
+     * @param locking whether to take a repository lock on each resource 
+     * while storing it
+     */
+    public ResourceUpdateBatch(Repository repository, String token, 
+            SystemChangeContext context, int batchSize, boolean locking) {
+        this.repository = repository;
+        this.token = token;
+        this.context = context;
+        this.batchSize = batchSize;
+        this.locking = locking;
+    }
+
+    public void add(Resource resource) {
+        List<Resource> full = null;
+        synchronized (this) {
+            updateList.add(resource);
+            if (updateList.size() >= batchSize) {
+                full = updateList;
+                updateList = new ArrayList<>();
+            }
+        }
+        if (full != null) {
+            store(full);
+        }
+    }
+
+    public void flush() {
+        List<Resource> list;
+        synchronized (this) {
+            list = updateList;
+            updateList = new ArrayList<>();
+        }
+        store(list);
+    }
+
+    private void store(List<Resource> list) {
+        if (list.isEmpty()) {
+            return;
+        }
+        logger.debug("Attempting to store " + list.size() + " resources");
+        if (locking) {
+            for (Resource r: list) {
+                storeWithLocking(r);
+            }
+            return;
+        }
+
+        List<Resource> unmodified = new ArrayList<>(list.size());
+        for (Resource r: list) {
+            if (unmodified(r)) {
+                unmodified.add(r);
+            }
+        }
+        if (unmodified.size() > 1) {
+            try {
+                repository.store(token, unmodified, context);
+                return;
+            }
+            catch (Throwable t) {
+                logger.debug("Unable to store batch of " + unmodified.size() 
+                        + " resources, storing one at a time", t);
+            }
+        }
+        for (Resource r: unmodified) {
+            storeSingle(r);
+        }
+    }
+
+    private boolean unmodified(Resource r) {
+        try {
+            Resource existing = repository.retrieve(token, r.getURI(), false);
+            if (!existing.getLastModified().equals(r.getLastModified())) {
+                logger.warn("Resource " + r.getURI() + " was modified during " 
+                        + context.getJobName() + ", skipping store");
+                return false;
+            }
+            return true;
+        }
+        catch (ResourceNotFoundException e) {
+            return false;
+        }
+        catch (Throwable t) {
+            logger.warn("Unable to retrieve resource " + r.getURI(), t);
+            return false;
+        }
+    }
+
+    private void storeSingle(Resource r) {
+        try {
+            // --> Here be race <--
+            //
+            // Typically we risk AuthorizationException if a system job prop is updated
+            // by something else after last-modified check, and we try to write old value
+            // (the property is uneditable, and an old value will be interpreted by
+            // repo as an attempt to modify). Still, it should be harmless, 
+            // since it will only be an ephemeral problem for props marked as affected
+            // in system change context.
+            repository.store(token, null, r, context);
+        }
+        catch (ResourceLockedException e) {
+            logger.warn("Resource " + r.getURI() + " was locked by another user, skipping");
+        }
+        catch (ResourceNotFoundException e) {
+            // Deleted since check
+        }
+        catch (AuthorizationException ae) {
+            logger.warn("Could not store resource " + r.getURI() 
+            + " due to AuthorizationException: " + ae.getMessage());
+        }
+        catch (Throwable t) {
+            logger.warn("Unable to store resource " + r, t);
+        }
+    }
+
+    private void storeWithLocking(Resource r) {
+        Lock lock = null;
+        try {
+            Resource resource = repository.lock(token, r.getURI(), 
+                    context.getJobName(), Depth.ZERO, 60, null, Lock.Type.EXCLUSIVE);
+            lock = resource.getLock();
+
+            if (!resource.getLastModified().equals(r.getLastModified())) {
+                logger.warn("Resource " + r.getURI() + " was modified during " 
+                        + context.getJobName() + ", skipping store");
+                return;
+            }
+            // Risk AuthorizationException here if resource is stored somewhere else
+            // WITHOUT locking (like resource evaluation does).
+            repository.store(token, null, r, context);
+        }
+        catch (ResourceLockedException e) {
+            logger.warn("Resource " + r.getURI() 
+            + " was locked by another user, skipping");
+        }
+        catch (AuthorizationException ae) {
+            logger.warn("Could not store resource " + r.getURI() 
+            + " due to AuthorizationException: " + ae.getMessage());
+        }
+        catch (Throwable t) {
+            logger.warn("Unable to store resource " + r, t);
+        }
+        finally {
+            if (lock != null) {
+                try {
+                    repository.unlock(token, r.getURI(), lock.getLockToken());
+                }
+                catch (Exception e) {
+                    logger.warn("Unable to unlock resource " + r.getURI(), e);
+                }
+            }
+        }
+    }
+}
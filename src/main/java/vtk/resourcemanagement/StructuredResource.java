@@ -88,6 +88,45 @@ public class StructuredResource {
         return new StructuredResource(desc, properties);
     }
     
+    /**
+     * Creates a copy of this resource. Nested JSON objects and arrays are 
+     * copied as well, so the copy may be modified without affecting this 
+     * resource.
+     */
+    public StructuredResource copy() {
+        return new StructuredResource(this.desc, copyMap(this.properties));
+    }
+
+    private static Map<String, Object> copyMap(Map<?, ?> map) {
+        Map<String, Object> result = new HashMap<>();
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            result.put((String) entry.getKey(), copyValue(entry.getValue()));
+        }
+        return result;
+    }
+
+    private static Object copyValue(Object value) {
+        if (value instanceof Map<?, ?>) {
+            return copyMap((Map<?, ?>) value);
+        }
+        if (value instanceof List<?>) {
+            List<Object> result = new ArrayList<>();
+            for (Object o : (List<?>) value) {
+                result.add(copyValue(o));
+            }
+            return result;
+        }
+        if (value instanceof Object[]) {
+            Object[] values = (Object[]) value;
+            Object[] result = new Object[values.length];
+            for (int i = 0; i < values.length; i++) {
+                result[i] = copyValue(values[i]);
+            }
+            return result;
+        }
+        return value;
+    }
+
     public ValidationResult validate(Object document) {
         return validateInternal(this.desc, document);
     }
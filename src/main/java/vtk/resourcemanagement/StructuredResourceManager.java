@@ -36,6 +36,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -87,6 +88,7 @@ public class StructuredResourceManager {
     private Namespace namespace = Namespace.STRUCTURED_RESOURCE_NAMESPACE;
 
     private Map<String, StructuredResourceDescription> types = new HashMap<>();
+    private final AtomicLong generation = new AtomicLong();
     private ValueFactory valueFactory;
     private ValueFormatterRegistry valueFormatterRegistry;
     private TypeLocalizationProvider typeLocalizationProvider;
@@ -143,12 +145,22 @@ public class StructuredResourceManager {
             }
 
         }
+        this.generation.incrementAndGet();
     }
 
     public StructuredResourceDescription get(String name) {
         return this.types.get(name);
     }
 
+    /**
+     * Gets a number which changes every time a resource type description
+     * is registered or refreshed. May be used in cache keys of objects 
+     * derived from descriptions.
+     */
+    public long getGeneration() {
+        return this.generation.get();
+    }
+
     public List<StructuredResourceDescription> list() {
         List<StructuredResourceDescription> result = new ArrayList<>();
         result.addAll(this.types.values());
@@ -203,6 +215,7 @@ public class StructuredResourceManager {
         this.resourceTypeTree.registerDynamicResourceType(def);
 
         this.types.put(name, description);
+        this.generation.incrementAndGet();
     }
 
     private PrimaryResourceTypeDefinition createResourceType(StructuredResourceDescription description)
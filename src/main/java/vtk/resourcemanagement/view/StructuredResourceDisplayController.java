@@ -36,10 +36,13 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 import javax.servlet.ServletOutputStream;
@@ -60,9 +63,11 @@ import vtk.resourcemanagement.ComponentDefinition;
 import vtk.resourcemanagement.StructuredResource;
 import vtk.resourcemanagement.StructuredResourceDescription;
 import vtk.resourcemanagement.StructuredResourceManager;
+import vtk.security.Principal;
 import vtk.text.html.HtmlPage;
 import vtk.text.html.HtmlPageParser;
 import vtk.text.tl.DirectiveHandler;
+import vtk.util.cache.LruCache;
 import vtk.web.RequestContext;
 import vtk.web.decorating.ComponentResolver;
 import vtk.web.decorating.DynamicDecoratorTemplate;
@@ -71,6 +76,23 @@ import vtk.web.decorating.Template;
 import vtk.web.decorating.TemplateManager;
 import vtk.web.referencedata.ReferenceDataProvider;
 
+/**
+ * Displays structured resources by rendering the display template of their
+ * resource type.
+ * 
+ * <p>Parsed resources may be cached (see {@link #setResourceCacheSize(int)}),
+ * keyed by URI, revision, ETag and resource type definition generation. 
+ * Rendered pages (before post filters are applied) may additionally be cached 
+ * for a short time (see {@link #setRenderCacheSize(int)}), keyed also by 
+ * request URL, principal and locale. Rendered pages may include content 
+ * from other sources than the resource itself, which is why the render 
+ * cache is time limited. Pages whose rendering has side effects on the 
+ * request (i.e. the template sets request attributes, which would be 
+ * missing on a cache hit) are not cached.
+ * 
+ * <p>Cached resources are never handed out directly: each request gets 
+ * its own copy, since templates and components may modify it.
+ */
 public class StructuredResourceDisplayController implements Controller, InitializingBean {
     public static final String MVC_MODEL_REQ_ATTR = "__mvc_model__";
     private static final String COMPONENT_NS = "comp";
@@ -86,6 +108,11 @@ public class StructuredResourceDisplayController implements Controller, Initiali
 
     private List<HtmlPageFilterFactory> postFilters;
 
+    private Map<String, StructuredResource> resourceCache = null;
+    private Map<String, RenderedPage> renderCache = null;
+    private int renderCacheSeconds = 30;
+    private int renderCacheMaxEntrySize = 200000;
+
     // XXX: clean up this mess:
     private Map<StructuredResourceDescription,
         Map<String, TemplateLanguageDecoratorComponent>> components = 
@@ -114,14 +141,6 @@ public class StructuredResourceDisplayController implements Controller, Initiali
             r = repository.retrieve(token, uri, true);
         }
 
-        InputStream stream;
-        if (revision != null) {
-            stream = repository.getInputStream(token, uri, true, revision);
-        }
-        else {
-            stream = repository.getInputStream(token, uri, true);
-        }
-
         StructuredResourceDescription desc = this.resourceManager.get(r.getResourceType());
         if (desc == null) {
             throw new IllegalStateException("Unable to find resource type description '" 
@@ -131,8 +150,24 @@ public class StructuredResourceDisplayController implements Controller, Initiali
             initComponentDefs(desc);
         }
 
+        String resourceKey = uri + ":" + (revision == null ? "" : revision.getName())
+                + ":" + r.getEtag() + ":" + desc.getName() + ":" + this.resourceManager.getGeneration();
+        StructuredResource res = this.resourceCache != null ? this.resourceCache.get(resourceKey) : null;
+        if (res == null) {
+            try (InputStream stream = revision != null 
+                    ? repository.getInputStream(token, uri, true, revision)
+                    : repository.getInputStream(token, uri, true)) {
+                res = desc.buildResource(stream);
+            }
+            if (this.resourceCache != null) {
+                this.resourceCache.put(resourceKey, res);
+            }
+        }
+        if (this.resourceCache != null) {
+            res = res.copy();
+        }
+
         Map<String, Object> model = new HashMap<>();
-        StructuredResource res = desc.buildResource(stream);
         model.put("structured-resource", res);
         model.put("resource", r);
         model.put(this.resourceModelKey, res);
@@ -146,10 +181,22 @@ public class StructuredResourceDisplayController implements Controller, Initiali
         }
         request.setAttribute(MVC_MODEL_REQ_ATTR, model);
         
-        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-        renderInitialPage(res, model, request, buffer);
-        
-        byte[] htmlBytes = buffer.toByteArray();
+        Optional<String> renderKey = renderCacheKey(resourceKey, request, requestContext);
+        byte[] htmlBytes = renderKey.map(this::cachedPage).orElse(null);
+        if (htmlBytes == null) {
+            Set<String> attributes = attributeNames(request);
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            renderInitialPage(res, model, request, buffer);
+            htmlBytes = buffer.toByteArray();
+            if (renderKey.isPresent() && htmlBytes.length <= this.renderCacheMaxEntrySize
+                    && !hasSideEffects(request, attributes)) {
+                this.renderCache.put(renderKey.get(), new RenderedPage(htmlBytes, 
+                        System.currentTimeMillis() + this.renderCacheSeconds * 1000L));
+            }
+        }
+        else {
+            request.setAttribute(DynamicDecoratorTemplate.CR_REQ_ATTR, componentResolver(res));
+        }
         HtmlPage page = htmlParser
                 .parse(new ByteArrayInputStream(htmlBytes), StandardCharsets.UTF_8.name());
         
@@ -169,6 +216,53 @@ public class StructuredResourceDisplayController implements Controller, Initiali
         return null;
     }
 
+    private Optional<String> renderCacheKey(String resourceKey, 
+            HttpServletRequest request, RequestContext requestContext) {
+        if (this.renderCache == null) {
+            return Optional.empty();
+        }
+        StringBuffer url = request.getRequestURL();
+        if (request.getQueryString() != null) {
+            url.append('?').append(request.getQueryString());
+        }
+        Principal principal = requestContext.getPrincipal();
+        return Optional.of(resourceKey + ":" + url + ":" 
+                + (principal == null ? "" : principal.getQualifiedName()) + ":"
+                + requestContext.getLocale());
+    }
+
+    private static Set<String> attributeNames(HttpServletRequest request) {
+        return new HashSet<>(Collections.list(request.getAttributeNames()));
+    }
+
+    private static boolean hasSideEffects(HttpServletRequest request, Set<String> before) {
+        Set<String> added = attributeNames(request);
+        added.removeAll(before);
+        added.remove(DynamicDecoratorTemplate.CR_REQ_ATTR);
+        return !added.isEmpty();
+    }
+
+    private byte[] cachedPage(String key) {
+        RenderedPage page = this.renderCache.get(key);
+        if (page == null) {
+            return null;
+        }
+        if (page.expires < System.currentTimeMillis()) {
+            this.renderCache.remove(key);
+            return null;
+        }
+        return page.html;
+    }
+
+    private static final class RenderedPage {
+        final byte[] html;
+        final long expires;
+        RenderedPage(byte[] html, long expires) {
+            this.html = html;
+            this.expires = expires;
+        }
+    }
+
     public void renderInitialPage(StructuredResource res, 
             Map<String, Object> model, HttpServletRequest request, 
             OutputStream out) throws Exception {
@@ -178,14 +272,17 @@ public class StructuredResourceDisplayController implements Controller, Initiali
             throw new RuntimeException("Decorator template not found: " + templateRef);
         }
         Template template = t.get();
-        Map<String, TemplateLanguageDecoratorComponent> components = this.components.get(res.getType());
-        ComponentResolver resolver = new DynamicComponentResolver(COMPONENT_NS, componentResolver, components);
-        request.setAttribute(DynamicDecoratorTemplate.CR_REQ_ATTR, resolver);
+        request.setAttribute(DynamicDecoratorTemplate.CR_REQ_ATTR, componentResolver(res));
         HtmlPage page = htmlParser.createEmptyPage("initial-page");
 
         template.render(page, out, StandardCharsets.UTF_8, request, model, new HashMap<>());
     }
 
+    private ComponentResolver componentResolver(StructuredResource res) {
+        Map<String, TemplateLanguageDecoratorComponent> components = this.components.get(res.getType());
+        return new DynamicComponentResolver(COMPONENT_NS, componentResolver, components);
+    }
+
     private void initComponentDefs(StructuredResourceDescription desc) throws Exception {
         // XXX: "concurrent initialization":
 
@@ -248,6 +345,30 @@ public class StructuredResourceDisplayController implements Controller, Initiali
         this.postFilters = new ArrayList<>(postFilters);
     }
     
+    /**
+     * Set maximum number of parsed resources to cache. Default is 0 (no cache).
+     */
+    public void setResourceCacheSize(int size) {
+        this.resourceCache = size > 0 
+                ? Collections.synchronizedMap(new LruCache<>(size)) : null;
+    }
+
+    /**
+     * Set maximum number of rendered pages to cache. Default is 0 (no cache).
+     */
+    public void setRenderCacheSize(int size) {
+        this.renderCache = size > 0 
+                ? Collections.synchronizedMap(new LruCache<>(size)) : null;
+    }
+
+    public void setRenderCacheSeconds(int renderCacheSeconds) {
+        this.renderCacheSeconds = renderCacheSeconds;
+    }
+
+    public void setRenderCacheMaxEntrySize(int renderCacheMaxEntrySize) {
+        this.renderCacheMaxEntrySize = renderCacheMaxEntrySize;
+    }
+
     @Required
     public void setDirectiveHandlers(List<DirectiveHandler> directiveHandlers) {
         this.directiveHandlers = directiveHandlers;
@@ -0,0 +1,126 @@
+/* Copyright (c) 2017, University of Oslo, Norway
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ *  * Neither the name of the University of Oslo nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package vtk.security;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The set of groups a principal is a member of, interned to integer ids
+ * so that membership tests against a set of groups become a bit set 
+ * intersection.
+ * 
+ * <p>Group ids are assigned on first use and are stable for the lifetime 
+ * of the VM. A closure is built from a membership set obtained from 
+ * {@link GroupStore#getMemberGroups(Principal)}, and keeps a reference to 
+ * that set, so that callers caching closures can detect when the group 
+ * store has refreshed its memberships (see {@link #isCurrent(Set)}).
+ * 
+ * <p>Objects of this class are immutable.
+ */
+public final class GroupClosure {
+
+    private static final ConcurrentMap<String, Integer> GROUP_IDS = new ConcurrentHashMap<>();
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+    private final Set<Principal> groups;
+    private final BitSet ids;
+
+    private GroupClosure(Set<Principal> groups, BitSet ids) {
+        this.groups = groups;
+        this.ids = ids;
+    }
+
+    /**
+     * Creates a closure from a set of member groups.
+     * @param groups the groups (as returned from a group store)
+     */
+    public static GroupClosure of(Set<Principal> groups) {
+        return new GroupClosure(groups, groupIds(groups));
+    }
+
+    /**
+     * Gets the interned id of a group, assigning a new id if the group 
+     * has not been seen before.
+     */
+    public static int groupId(Principal group) {
+        return GROUP_IDS.computeIfAbsent(group.getQualifiedName(), 
+                n -> NEXT_ID.getAndIncrement());
+    }
+
+    /**
+     * Gets the interned ids of the groups in a collection of principals. 
+     * Principals which are not groups are ignored.
+     */
+    public static BitSet groupIds(Collection<Principal> principals) {
+        BitSet ids = new BitSet();
+        for (Principal p: principals) {
+            if (p.getType() == Principal.Type.GROUP) {
+                ids.set(groupId(p));
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Tests if this closure contains any of the given group ids.
+     */
+    public boolean intersects(BitSet groupIds) {
+        return this.ids.intersects(groupIds);
+    }
+
+    public boolean contains(Principal group) {
+        Integer id = GROUP_IDS.get(group.getQualifiedName());
+        return id != null && this.ids.get(id);
+    }
+
+    /**
+     * Tests if this closure was built from the given membership set 
+     * (by identity). Group stores that cache memberships return a new
+     * set when the cached entry is refreshed.
+     */
+    public boolean isCurrent(Set<Principal> groups) {
+        return this.groups == groups;
+    }
+
+    public int size() {
+        return this.ids.cardinality();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "(" + this.groups + ")";
+    }
+}
@@ -30,10 +30,11 @@
  */
 package vtk.text.tl;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.Stack;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -41,42 +42,57 @@ public final class Context {
 
     private static final Pattern VALID_NAME_PATTERN = Pattern.compile("[a-zA-Z_]([a-zA-Z0-9\\-_]*[a-zA-Z0-9_])?");
     private Locale locale = Locale.getDefault();
-    // Visible from templates and functions:
-    private Stack<Map<String, Object>> stack = new Stack<>();
+    // Visible from templates and functions. A context is confined to
+    // a single rendering thread, so an unsynchronized list is used
+    // as the scope stack (innermost scope last):
+    private List<Map<String, Object>> stack = new ArrayList<>();
     // For use by "runtime system":
     private Map<String, Object> attributes = new HashMap<>();
     
     private static final String NULL = "null";
 
+    /**
+     * Marker value returned from {@link #lookup(String)} when a name
+     * is not bound in any scope.
+     */
+    public static final Object UNDEFINED = new Object() {
+        @Override
+        public String toString() {
+            return "undefined";
+        }
+    };
+
     public Context(Locale locale) {
         Map<String, Object> toplevel = new HashMap<>();
         toplevel.put(NULL, null);
-        this.stack.push(toplevel);
+        this.stack.add(toplevel);
         this.locale = locale;
     }
 
     public boolean isDefined(String name) {
-        Map<String, Object> ctx;
-        int idx = this.stack.size() - 1;
-        while (idx >= 0) {
-            ctx = this.stack.get(idx--);
-            if (ctx.containsKey(name)) {
-                return true;
-            }
-        }
-        return false;
+        return lookup(name) != UNDEFINED;
     }
 
     public Object get(String name) {
-        Map<String, Object> ctx;
-        int idx = this.stack.size() - 1;
-        while (idx >= 0) {
-            ctx = this.stack.get(idx--);
-            if (ctx.containsKey(name)) {
-                return ctx.get(name);
+        Object value = lookup(name);
+        return value == UNDEFINED ? null : value;
+    }
+
+    /**
+     * Resolves a name in a single pass over the scope stack.
+     * @param name the name to look up
+     * @return the bound value (possibly <code>null</code>), or
+     * {@link #UNDEFINED} if the name is not bound in any scope
+     */
+    public Object lookup(String name) {
+        for (int idx = this.stack.size() - 1; idx >= 0; idx--) {
+            Map<String, Object> ctx = this.stack.get(idx);
+            Object value = ctx.get(name);
+            if (value != null || ctx.containsKey(name)) {
+                return value;
             }
         }
-        return null;
+        return UNDEFINED;
     }
 
     // Defines a binding in the context.
@@ -85,8 +101,7 @@ public final class Context {
             throw new IllegalArgumentException("Illegal name: '" + name + "'");
         }
         if (!global) {
-            Map<String, Object> ctx = this.stack.peek();
-            ctx.put(name, value);
+            bind(name, value);
         } else {
             boolean found = false;
             Map<String, Object> ctx;
@@ -106,12 +121,21 @@ public final class Context {
         }
     }
 
+    /**
+     * Binds a name in the innermost scope without validating it.
+     * Used by directives that have already validated the name at
+     * template parse time.
+     */
+    void bind(String name, Object value) {
+        this.stack.get(this.stack.size() - 1).put(name, value);
+    }
+
     public void push() {
-        this.stack.push(new HashMap<String, Object>());
+        this.stack.add(new HashMap<String, Object>(8));
     }
 
     public void pop() {
-        this.stack.pop();
+        this.stack.remove(this.stack.size() - 1);
     }
 
     public Locale getLocale() {
@@ -119,8 +143,22 @@ public final class Context {
     }
 
     public String htmlEscape(String html) {
-        StringBuilder result = new StringBuilder();
-        for (int i = 0; i < html.length(); i++) {
+        int start = 0;
+        int len = html.length();
+        while (start < len) {
+            char c = html.charAt(start);
+            if (c == '&' || c == '"' || c == '\'' || c == '<' || c == '>') {
+                break;
+            }
+            start++;
+        }
+        if (start == len) {
+            // Nothing to escape
+            return html;
+        }
+        StringBuilder result = new StringBuilder(len + 16);
+        result.append(html, 0, start);
+        for (int i = start; i < len; i++) {
             char c = html.charAt(i);
             switch (c) {
             case '&':
@@ -179,7 +217,11 @@ public final class Context {
         this.attributes.remove(name);
     }
 
-    private boolean validateSymbol(String symbol) {
+    static boolean isValidName(String symbol) {
+        return validateSymbol(symbol);
+    }
+
+    private static boolean validateSymbol(String symbol) {
         if (symbol == null) {
             return false;
         }
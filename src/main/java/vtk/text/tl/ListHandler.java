@@ -86,6 +86,10 @@ public class ListHandler implements DirectiveHandler {
                 context.error("List directive: expected symbol: " + last.getRawValue());
                 return;
             }
+            if (!Context.isValidName(((Symbol) last).getSymbol())) {
+                context.error("List directive: illegal name: " + last.getRawValue());
+                return;
+            }
 
             Expression expression = new Expression(functionResolver, args.subList(0, args.size() - 1));
             context.add(new ListNode(expression, (Symbol) last, state.nodes()));
@@ -138,15 +142,17 @@ public class ListHandler implements DirectiveHandler {
 
         private void execute(List<Object> elements, Context ctx, Writer out) throws Exception {
             int size = elements.size();
+            // Name validated at parse time, bind directly:
+            String var = this.defVar.getSymbol();
 
             for (int i = 0; i < size; i++) {
                 Object object = elements.get(i);
                 ctx.push();
-                ctx.define(this.defVar.getSymbol(), object, false);
-                ctx.define("_size", size, false);
-                ctx.define("_index", i, false);
-                ctx.define("_first", (i == 0), false);
-                ctx.define("_last", (i == size - 1), false);
+                ctx.bind(var, object);
+                ctx.bind("_size", size);
+                ctx.bind("_index", i);
+                ctx.bind("_first", (i == 0));
+                ctx.bind("_last", (i == size - 1));
                 this.nodeList.render(ctx, out);
                 ctx.pop();
             }
@@ -41,31 +41,40 @@ import vtk.text.tl.Token;
 
 public class Accessor extends Operator {
     private Token field;
+    // Resolved at construction time; literal values do not
+    // depend on the context:
+    private Object accessor;
+    private String key;
 
     public Accessor(Symbol symbol, Token field) {
         super(symbol);
         this.field = field;
+        this.accessor = (field instanceof Literal) ?
+                field.getValue(null) : field;
+        if (field instanceof Symbol) {
+            this.key = ((Symbol) field).getSymbol();
+        }
     }
 
     @Override
     public Object eval(Context ctx, ExpressionNode... nodes) {
         Object collection = nodes[0].eval(ctx);
-        Object accessor = (this.field instanceof Literal) ? 
-                this.field.getValue(ctx) : this.field;
+        Object accessor = this.accessor;
         if (collection == null) {
             throw new IllegalArgumentException("First argument is NULL");
         }
         if (accessor == null) {
             throw new IllegalArgumentException("Second argument is NULL");
         }
-        if (collection.getClass().isArray()) {
-            return accessArray((Object[]) collection, accessor);
-            
+        // Maps are by far the most common case:
+        if (collection instanceof Map<?, ?>) {
+            return accessMap((Map<?, ?>) collection, accessor);
+
         } else if (collection instanceof Collection<?>) {
             return accessList((Collection<?>) collection, accessor);
             
-        } else if (collection instanceof Map<?, ?>) {  
-            return accessMap((Map<?, ?>) collection, accessor);
+        } else if (collection.getClass().isArray()) {
+            return accessArray((Object[]) collection, accessor);
         } 
         throw new IllegalArgumentException("Unable to access field '" 
                 + accessor + "' of object '" + collection + "'");
@@ -91,11 +100,10 @@ public class Accessor extends Operator {
     }
     
     private Object accessMap(Map<?, ?> map, Object accessor) {
-        if (!(accessor instanceof Symbol)) {
+        if (this.key == null) {
             throw new IllegalArgumentException("Accessor '" + accessor + "' is not a symbol");
         }
-        accessor = ((Symbol) accessor).getSymbol();
-        return map.get(accessor);
+        return map.get(this.key);
     }
     
 }
@@ -50,6 +50,13 @@ import vtk.text.tl.Token;
  * returns a "compiled" expression that can be later evaluated
  * against a given {@link Context context}.
  *
+ * <p>Compilation links the expression tree as far as possible at
+ * parse time: operator argument arrays are allocated once, field
+ * accessors are resolved to their keys, function calls are bound to
+ * their implementations (re-bound only if the function resolver
+ * changes), and operations on constant operands are folded into
+ * constants.
+ *
  * The expression grammar is defined as follows:
  * <pre>
  * expression ::= logical-expression ;
@@ -197,7 +204,7 @@ public class Expression {
         while (lookingAt(LOGICAL_OPERATORS)) {
             Symbol s = readSymbol();
             ExpressionNode rel = relationalExpression();
-            node = new InfixOperation(node, s, rel);
+            node = infix(node, s, rel);
         }
         return node;
     }
@@ -211,7 +218,7 @@ public class Expression {
         while (lookingAt(RELATIONAL_OPERATORS)) {
             Symbol s = readSymbol();
             ExpressionNode simple = simpleExpression();
-            node = new InfixOperation(node, s, simple);
+            node = infix(node, s, simple);
         }
         return node;
     }
@@ -221,7 +228,7 @@ public class Expression {
         while (lookingAt(ADDITIVE_OPERATORS)) {
             Symbol s = readSymbol();
             ExpressionNode operand = operand();
-            node = new InfixOperation(node, s, operand);
+            node = infix(node, s, operand);
         }
         return node;
     }
@@ -264,7 +271,7 @@ public class Expression {
         while (lookingAt(MULTIPLICATIVE_OPERATORS)) {
             Symbol s = readSymbol();
             ExpressionNode factor = factor();
-            node = new InfixOperation(node, s, factor);
+            node = infix(node, s, factor);
         }
         return node;
     }
@@ -376,7 +383,32 @@ public class Expression {
     private ExpressionNode invExpression() {
         Symbol s = readSymbol();
         ExpressionNode rel = logicalExpression();
-        return new UnaryOperation(s, rel);
+        return fold(new UnaryOperation(s, rel), rel);
+    }
+
+    private ExpressionNode infix(ExpressionNode left, Symbol symbol, ExpressionNode right) {
+        return fold(new InfixOperation(left, symbol, right), left, right);
+    }
+
+    /**
+     * Replaces an operation on constant operands with its value.
+     * Built-in operators are side effect free, so the result
+     * can be computed once at parse time. Operations that fail
+     * (e.g. division by zero) are left for evaluation time, so
+     * that errors are reported as before.
+     */
+    private ExpressionNode fold(ExpressionNode operation, ExpressionNode... operands) {
+        for (ExpressionNode operand: operands) {
+            if (!(operand instanceof ConstantNode)) {
+                return operation;
+            }
+        }
+        try {
+            Object value = operation.eval(null);
+            return new ConstantNode(value, operation.toString());
+        } catch (RuntimeException e) {
+            return operation;
+        }
     }
     
     private Token cur() {
@@ -478,15 +510,17 @@ public class Expression {
         private ExpressionNode left;
         private Operator operator;
         private ExpressionNode right;
+        private ExpressionNode[] operands;
         public InfixOperation(ExpressionNode left, Symbol symbol, ExpressionNode right) {
             this.left = left;
             this.operator = OPERATORS.get(symbol);
             this.right = right;
+            this.operands = new ExpressionNode[]{left, right};
         }
 
         @Override
         public Object eval(Context ctx) {
-            return this.operator.eval(ctx, new ExpressionNode[]{left, right});
+            return this.operator.eval(ctx, this.operands);
         }
         
         @Override
@@ -498,14 +532,16 @@ public class Expression {
     private static class UnaryOperation implements ExpressionNode {
         private Operator operator;
         private ExpressionNode node;
+        private ExpressionNode[] operands;
         public UnaryOperation(Symbol symbol, ExpressionNode node) {
             this.operator = OPERATORS.get(symbol);
             this.node = node;
+            this.operands = new ExpressionNode[]{node};
         }
 
         @Override
         public Object eval(Context ctx) {
-            return this.operator.eval(ctx, new ExpressionNode[]{node});
+            return this.operator.eval(ctx, this.operands);
         }
         @Override
         public String toString() {
@@ -567,18 +603,27 @@ public class Expression {
         }
     }
 
-    private static class LiteralNode implements ExpressionNode {
-        private Literal literal;
-        public LiteralNode(Literal literal) {
-            this.literal= literal;
+    private static class ConstantNode implements ExpressionNode {
+        private Object value;
+        private String repr;
+        public ConstantNode(Object value, String repr) {
+            this.value = value;
+            this.repr = repr;
         }
         @Override
         public Object eval(Context ctx) {
-            return this.literal.getValue(ctx);
+            return this.value;
         }
         @Override
         public String toString() {
-            return this.literal.getRawValue();
+            return this.repr;
+        }
+    }
+
+    private static class LiteralNode extends ConstantNode {
+        public LiteralNode(Literal literal) {
+            // Literal values do not depend on the context:
+            super(literal.getValue(null), literal.getRawValue());
         }
     }
     
@@ -606,6 +651,9 @@ public class Expression {
     public static class FunctionResolver {
         private static Symbol TYPEOF = new Symbol("typeof");
         private Map<Symbol, Operator> functions = new HashMap<Symbol, Operator>();
+        // Incremented on every modification, lets function calls
+        // know when their bound implementation may be stale:
+        private volatile int version = 0;
 
         public FunctionResolver() {
             functions.put(TYPEOF,  new Operator(TYPEOF) {
@@ -661,6 +709,7 @@ public class Expression {
             //     throw new IllegalArgumentException("Cannot re-define " + symbol.getSymbol());
             // }
             this.functions.put(symbol, function);
+            this.version++;
         }
 
         public void addAll(Collection<Function> functions) {
@@ -676,9 +725,12 @@ public class Expression {
     }
 
     private static class FunctionCall implements ExpressionNode {
+        private static final ExpressionNode[] NO_ARGS = new ExpressionNode[0];
         private Symbol name;
         private List<ExpressionNode> args = null;
+        private ExpressionNode[] argArray = NO_ARGS;
         private FunctionResolver resolver;
+        private volatile Binding binding = null;
 
         public FunctionCall(Symbol name, FunctionResolver resolver) {
             this.name = name;
@@ -688,20 +740,36 @@ public class Expression {
         public FunctionCall(Symbol name, List<ExpressionNode> args, FunctionResolver resolver) {
             this.name = name;
             this.args = args;
+            this.argArray = args.toArray(new ExpressionNode[args.size()]);
             this.resolver = resolver;
         }
         
         @Override
         public Object eval(Context ctx) {
+            return resolve().eval(ctx, this.argArray);
+        }
+
+        private Operator resolve() {
+            Binding binding = this.binding;
+            int version = this.resolver.version;
+            if (binding != null && binding.version == version) {
+                return binding.function;
+            }
             Operator fun = this.resolver.get(this.name);
             if (fun == null) {
                 throw new IllegalStateException("Undefined function: " + this.name);
             }
-            List<ExpressionNode> args = this.args;
-            if (args == null) {
-                args = Collections.emptyList();
+            this.binding = new Binding(fun, version);
+            return fun;
+        }
+
+        private static final class Binding {
+            final Operator function;
+            final int version;
+            Binding(Operator function, int version) {
+                this.function = function;
+                this.version = version;
             }
-            return fun.eval(ctx, args.toArray(new ExpressionNode[args.size()]));
         }
 
         @Override
@@ -44,5 +44,9 @@ public class Minus extends NumericOperator {
     protected Object evalNumeric(BigDecimal n1, BigDecimal n2) {
         return n1.subtract(n2);
     }
-}
 
+    @Override
+    protected Object evalInteger(int n1, int n2) {
+        return Math.subtractExact(n1, n2);
+    }
+}
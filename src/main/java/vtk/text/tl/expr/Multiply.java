@@ -44,4 +44,9 @@ public class Multiply extends NumericOperator {
     protected Object evalNumeric(BigDecimal n1, BigDecimal n2) {
         return n1.multiply(n2);
     }
+
+    @Override
+    protected Object evalInteger(int n1, int n2) {
+        return Math.multiplyExact(n1, n2);
+    }
 }
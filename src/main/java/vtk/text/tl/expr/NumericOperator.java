@@ -45,6 +45,21 @@ public abstract class NumericOperator extends Operator {
     public Object eval(Context ctx, ExpressionNode... nodes) {
         Object first = nodes[0].eval(ctx);
         Object second = nodes[1].eval(ctx);
+        return evalValues(first, second);
+    }
+
+    /**
+     * Evaluates the operator on already evaluated operands.
+     */
+    protected Object evalValues(Object first, Object second) {
+        if (first instanceof Integer && second instanceof Integer) {
+            // Specialized path, avoids BigDecimal wrapping for
+            // the common case of integer arithmetic:
+            Object result = evalInteger((Integer) first, (Integer) second);
+            if (result != null) {
+                return result;
+            }
+        }
         // Wrap values in BigDecimal to simplify calculations:
         BigDecimal n1 = new BigDecimal(getNumericValue(first).doubleValue());
         BigDecimal n2 = new BigDecimal(getNumericValue(second).doubleValue());
@@ -65,4 +80,15 @@ public abstract class NumericOperator extends Operator {
     }
     
     protected abstract Object evalNumeric(BigDecimal n1, BigDecimal n2);
+
+    /**
+     * Evaluates the operator on integer operands. Implementations
+     * must give the same result as {@link #evalNumeric(BigDecimal, BigDecimal)}
+     * (including throwing {@link ArithmeticException} on overflow).
+     * @return the result, or <code>null</code> if not supported
+     * for these operands
+     */
+    protected Object evalInteger(int n1, int n2) {
+        return null;
+    }
 }
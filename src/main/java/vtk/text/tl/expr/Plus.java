@@ -46,7 +46,7 @@ public class Plus extends NumericOperator {
         Object first = nodes[0].eval(ctx);
         Object second = nodes[1].eval(ctx);
         if (isNumeric(first) && isNumeric(second)) {
-            return super.eval(ctx, nodes);
+            return evalValues(first, second);
         }
         String s1 = first == null ? "null" : first.toString();
         String s2 = second == null ? "null" : second.toString();
@@ -57,5 +57,9 @@ public class Plus extends NumericOperator {
     protected Object evalNumeric(BigDecimal n1, BigDecimal n2) {
         return n1.add(n2);
     }
-}
 
+    @Override
+    protected Object evalInteger(int n1, int n2) {
+        return Math.addExact(n1, n2);
+    }
+}
@@ -31,12 +31,20 @@
 package vtk.util.cache;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -44,6 +52,11 @@ import org.springframework.beans.factory.BeanInitializationException;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
 /**
  * Default content cache implementation using a <code>ConcurrentHashMap</code>
  * as backing storage.
@@ -58,6 +71,11 @@ import org.springframework.beans.factory.InitializingBean;
  * as it never shrinks (it does not contain a <code>remove()</code>
  * method, although a size limit can be specified). 
  *
+ * <p>At most one load per key is in progress at any time. Threads asking
+ * for a key which is being loaded wait for that load instead of starting
+ * their own, and asynchronous refreshes are run by a bounded pool of
+ * threads.
+ *
  * <p>Configurable JavaBean properties:
  * <ul>
  *   <li><code>cacheLoader</code> - the {@link ContentCacheLoader}
@@ -65,24 +83,30 @@ import org.springframework.beans.factory.InitializingBean;
  *   <li><code>cacheMilliseconds</code> - the cache timeout in milliseconds
  *   <li><code>asynchronousRefresh</code> - if an item is expired and
  *   this property is <code>true</code>, the item is returned as is
- *   and a refresh is triggered in a separate thread. Otherwise, the
+ *   and a refresh is queued for a refresh thread. Otherwise, the
  *   current thread blocks while the item is refreshed.
+ *   <li><code>refreshThreads</code> - max number of threads used for
+ *   asynchronous refresh (default <code>4</code>).
+ *   <li><code>refreshAheadFactor</code> - with asynchronous refresh, an item
+ *   older than this fraction of the cache timeout is refreshed in the
+ *   background while still being served as fresh. A value of <code>1</code>
+ *   or more disables refresh-ahead (default <code>0.8</code>).
+ *   <li><code>jitterFactor</code> - each item gets its timeout shortened by
+ *   a random fraction up to this factor, so that items loaded together do
+ *   not expire together (default <code>0.1</code>).
  *   <li><code>refreshInterval</code> - if set to a positive number of
  *   seconds, a thread is created at initialization time, triggering a
  *   refresh of expired items at regular intervals (in a separate
  *   thread).
  *   <li><code>maxItems</code> - the maximum number of items to allow
- *   in the cache. A negative number means no limit (the default).
+ *   in the cache. A negative number means no limit (the default). When
+ *   the limit is exceeded, the least recently loaded items are removed.
+ *   <li><code>metricRegistry</code> - optional registry for refresh
+ *   latency, refresh failures and number of stale items served.
  * </ul>
  *
  * @param <K> key of the cached objects
  * @param <V> value of the cached objects
- * 
- * XXX Should probably not allow unlimited number of asynchronous refresh threads
- * to be created. What if the loader is slow and a common and expired key is requested
- * several times ? That will dispatch a new async refresh thread for each
- * get on that key, which will all hit loader pretty hard or bog down system.
- * Switch to a queue and fixed max number of refresh threads instead ?
  */
 public final class ContentCacheImpl<K,V> implements ContentCache<K,V>, InitializingBean, DisposableBean {
     
@@ -91,12 +115,30 @@ public final class ContentCacheImpl<K,V> implements ContentCache<K,V>, Initializ
     private String name;
     private ContentCacheLoader<K, V> loader;
     private int cacheTimeout;
-    private ConcurrentHashMap<K, Item> cache = new ConcurrentHashMap<K, Item>();
+    private final ConcurrentHashMap<K, Item> cache = new ConcurrentHashMap<>();
     private boolean asynchronousRefresh = false;
+    private int refreshThreads = 4;
+    private double refreshAheadFactor = 0.8;
+    private double jitterFactor = 0.1;
     private int refreshInterval = -1;
     private RefreshThread refreshThread;
     private int maxItems = -1;
-    
+    private MetricRegistry metricRegistry;
+
+    // Loads in progress, one per key
+    private final ConcurrentHashMap<K, CompletableFuture<Item>> loading = new ConcurrentHashMap<>();
+    private ThreadPoolExecutor refreshExecutor;
+
+    // Items in order of loading, for eviction. May contain items which have
+    // since been replaced in cache, those are skipped and purged lazily.
+    private final ConcurrentLinkedDeque<Item> loadOrder = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger loadOrderSize = new AtomicInteger(0);
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    private Timer refreshTimer = new Timer();
+    private Meter refreshFailures = new Meter();
+    private Counter staleServed = new Counter();
+
     public void setName(String name) {
         this.name = name;
     }
@@ -116,6 +158,18 @@ public final class ContentCacheImpl<K,V> implements ContentCache<K,V>, Initializ
     public void setAsynchronousRefresh(boolean asynchronousRefresh) {
         this.asynchronousRefresh = asynchronousRefresh;
     }
+
+    public void setRefreshThreads(int refreshThreads) {
+        this.refreshThreads = refreshThreads;
+    }
+
+    public void setRefreshAheadFactor(double refreshAheadFactor) {
+        this.refreshAheadFactor = refreshAheadFactor;
+    }
+
+    public void setJitterFactor(double jitterFactor) {
+        this.jitterFactor = jitterFactor;
+    }
     
     public void setRefreshInterval(int refreshInterval) {
         this.refreshInterval = refreshInterval;
@@ -124,7 +178,10 @@ public final class ContentCacheImpl<K,V> implements ContentCache<K,V>, Initializ
     public void setMaxItems(int maxItems) {
         this.maxItems = maxItems;
     }
-    
+
+    public void setMetricRegistry(MetricRegistry metricRegistry) {
+        this.metricRegistry = metricRegistry;
+    }
 
     @Override
     public void afterPropertiesSet() {
@@ -139,6 +196,35 @@ public final class ContentCacheImpl<K,V> implements ContentCache<K,V>, Initializ
                 "JavaBean property 'maxItems' has an illegal value: specify "
                 + "either a positive or negative integer");
         }
+        if (this.refreshThreads <= 0) {
+            throw new BeanInitializationException(
+                "JavaBean property 'refreshThreads' must be a positive integer");
+        }
+        if (this.jitterFactor < 0 || this.jitterFactor >= 1) {
+            throw new BeanInitializationException(
+                "JavaBean property 'jitterFactor' must be in range [0, 1)");
+        }
+
+        if (this.metricRegistry != null) {
+            String prefix = "contentCache." + this.name;
+            this.refreshTimer = this.metricRegistry.timer(prefix + ".refresh.time");
+            this.refreshFailures = this.metricRegistry.meter(prefix + ".refresh.failures");
+            this.staleServed = this.metricRegistry.counter(prefix + ".staleServed");
+        }
+
+        if (this.asynchronousRefresh) {
+            final AtomicInteger threadNumber = new AtomicInteger(0);
+            // Bounded queue: refreshes which do not fit are dropped, the item
+            // will be refreshed on a later request.
+            this.refreshExecutor = new ThreadPoolExecutor(this.refreshThreads, this.refreshThreads,
+                    60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(1000),
+                    r -> {
+                        Thread t = new Thread(r, this.name + ".async-refresh-" + threadNumber.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    });
+            this.refreshExecutor.allowCoreThreadTimeOut(true);
+        }
 
         if (this.refreshInterval > 0) {
             this.refreshThread = new RefreshThread(this.refreshInterval);
@@ -152,6 +238,9 @@ public final class ContentCacheImpl<K,V> implements ContentCache<K,V>, Initializ
         if (this.refreshThread != null) {
             this.refreshThread.interrupt();
         }
+        if (this.refreshExecutor != null) {
+            this.refreshExecutor.shutdownNow();
+        }
     }
     
     @Override
@@ -171,22 +260,21 @@ public final class ContentCacheImpl<K,V> implements ContentCache<K,V>, Initializ
             if (logger.isDebugEnabled()) {
                 logger.debug("Caching object: '" + identifier + "'");
             } 
-            item = cacheItem(identifier);
-        }
-        
-        if (item.getTimestamp().getTime() + this.cacheTimeout <= System.currentTimeMillis()) {
-            if (this.asynchronousRefresh) {
+            item = load(identifier);
+        } else {
+            long now = System.currentTimeMillis();
+            if (item.expires <= now) {
+                if (this.asynchronousRefresh) {
+                    this.staleServed.inc();
+                    triggerAsynchronousRefresh(identifier);
+                } else {
+                    item = load(identifier);
+                }
+            } else if (this.asynchronousRefresh && item.refreshAt <= now) {
                 triggerAsynchronousRefresh(identifier);
-            } else {
-                item = cacheItem(identifier);
             }
         }
         
-        if (this.refreshThread == null && this.cache.size() > this.maxItems) {
-            // Shrink cache synchronously (no refresh thread)
-            removeOldestExceedingSizeLimit();
-        }
-        
         if (logger.isTraceEnabled()) {
             logger.trace("Returning object '" + item + "' from cache");
         }
@@ -201,106 +289,159 @@ public final class ContentCacheImpl<K,V> implements ContentCache<K,V>, Initializ
     @Override
     public void clear() {
         this.cache.clear();
+        this.loadOrder.clear();
+        this.loadOrderSize.set(0);
     }
     
     /**
+     * Load an item, or wait for a load of the same item already in progress.
      * 
-     * @param identifier cache key to pass to laoder
+     * @param identifier cache key to pass to loader
      * @return newly loaded item, or item already in cache if it has not
      *         expired.
      * @throws Exception in case of loader failure
      */
-    private Item cacheItem(K identifier) throws Exception {
+    private Item load(K identifier) throws Exception {
+        CompletableFuture<Item> future = new CompletableFuture<>();
+        CompletableFuture<Item> inProgress = this.loading.putIfAbsent(identifier, future);
+        if (inProgress == null) {
+            Item item = this.cache.get(identifier);
+            if (item != null && item.expires > System.currentTimeMillis()) {
+                // Refreshed by someone else in the mean time
+                this.loading.remove(identifier, future);
+                future.complete(item);
+                return item;
+            }
+            return loadItem(identifier, future);
+        }
 
-        Item item = this.cache.get(identifier);
-        long now = System.currentTimeMillis();
+        try {
+            return inProgress.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
 
-        if (item == null ||
-            (item.getTimestamp().getTime() + this.cacheTimeout <= now)) {
+    /**
+     * Load item and complete the provided future, which must be registered
+     * as the current load in progress for the item.
+     */
+    private Item loadItem(K identifier, CompletableFuture<Item> future) throws Exception {
+        final Timer.Context timerContext = this.refreshTimer.time();
+        try {
             V object = this.loader.load(identifier);
-            Item newItem = new Item(identifier, object);
-            this.cache.put(identifier, newItem);
-            item = newItem;
+            Item item = new Item(identifier, object, System.currentTimeMillis());
+            this.cache.put(identifier, item);
+            if (this.maxItems > 0) {
+                // Load order is only needed for eviction
+                this.loadOrder.addLast(item);
+                this.loadOrderSize.incrementAndGet();
+                evictExceedingSizeLimit();
+            }
+            future.complete(item);
+            return item;
+        } catch (Throwable t) {
+            this.refreshFailures.mark();
+            future.completeExceptionally(t);
+            throw t;
+        } finally {
+            timerContext.stop();
+            this.loading.remove(identifier, future);
         }
-        
-        return item;
     }
 
-
     private void triggerAsynchronousRefresh(final K identifier) {
-        Runnable fetcher = new Runnable() {
-           @Override
-           public void run() {
-              try {
-                 cacheItem(identifier);
-              } catch (Exception e) {
-                 logger.info("Error refreshing object '" + identifier + "'", e);
-              }
-           }
-        };
-        new Thread(fetcher, this.name + ".async-refresh").start();
+        final CompletableFuture<Item> future = new CompletableFuture<>();
+        if (this.loading.putIfAbsent(identifier, future) != null) {
+            // Already being loaded
+            return;
+        }
+        try {
+            this.refreshExecutor.execute(() -> {
+                try {
+                    loadItem(identifier, future);
+                } catch (Exception e) {
+                    logger.info("Error refreshing object '" + identifier + "'", e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            this.loading.remove(identifier, future);
+            future.completeExceptionally(e);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Refresh queue full, not refreshing object '" + identifier + "'");
+            }
+        }
     }
 
-
-    private synchronized void removeOldestExceedingSizeLimit() {
+    /**
+     * Removes the least recently loaded items while the cache exceeds its size
+     * limit. Entries in the load order queue which no longer are current in the
+     * cache are skipped, so eviction is amortized constant time per load.
+     */
+    private void evictExceedingSizeLimit() {
         if (this.maxItems <= 0) return;
-        int size = this.cache.size();
-        int n = size - this.maxItems;
-        if (n <= 0) return;
-
-
-        List<Map.Entry<K, Item>> sortedList =
-            new ArrayList<Map.Entry<K, Item>>(this.cache.entrySet());
-
-        Collections.sort(sortedList, new Comparator<Map.Entry<K, Item>>() {
-                @Override
-                public int compare(Map.Entry<K, Item> entry1, Map.Entry<K, Item> entry2) {
-                    Item i1 = entry1.getValue();
-                    Item i2 = entry2.getValue();
-
-                    return new Long(i1.getTimestamp().getTime()).compareTo(
-                        new Long(i2.getTimestamp().getTime()));
-                }
-            });
-        
-        List<Map.Entry<K, Item>> removeList = sortedList.subList(0, n);
-        if (logger.isDebugEnabled()) {
-            logger.debug("Cache size limit exceeded, removing " + n
-                         + " oldest items (of total " + size + ")");
+        if (!this.evictionLock.tryLock()) {
+            // Another thread is evicting
+            return;
         }
+        try {
+            int n = 0;
+            while (this.cache.size() > this.maxItems) {
+                Item oldest = this.loadOrder.pollFirst();
+                if (oldest == null) {
+                    break;
+                }
+                this.loadOrderSize.decrementAndGet();
+                if (this.cache.remove(oldest.getKey(), oldest)) {
+                    n++;
+                }
+            }
+            if (n > 0 && logger.isDebugEnabled()) {
+                logger.debug("Cache size limit exceeded, removed " + n
+                             + " oldest items (of total " + (this.cache.size() + n) + ")");
+            }
 
-        for (Map.Entry<K, Item> entry: removeList) {
-            Item item = entry.getValue();
-            this.cache.remove(item.getKey());
+            // Purge replaced items when they make up more than half of the queue
+            if (this.loadOrderSize.get() > 2 * Math.max(this.cache.size(), 16)) {
+                this.loadOrder.removeIf(item -> this.cache.get(item.getKey()) != item);
+                this.loadOrderSize.set(this.loadOrder.size());
+            }
+        } finally {
+            this.evictionLock.unlock();
         }
     }
     
-    private synchronized void refreshExpired() {
-        int size = this.cache.size();
-        if (size > this.maxItems) {
-            removeOldestExceedingSizeLimit();
-            size = this.cache.size();
-        }
-
-        List<K> refreshList = new ArrayList<K>();
-
+    private void refreshExpired() {
+        List<K> refreshList = new ArrayList<>();
+        long now = System.currentTimeMillis();
         for (Map.Entry<K, Item> entry: this.cache.entrySet()) {
-            K identifier = entry.getKey();
-            Item item =  entry.getValue();
-            long now = System.currentTimeMillis();
-            if (item.getTimestamp().getTime() + this.cacheTimeout < now) {
-                refreshList.add(identifier);
+            if (entry.getValue().expires <= now) {
+                refreshList.add(entry.getKey());
             }
         }
 
         if (logger.isTraceEnabled()) {
             logger.trace("Checking expired items: " + refreshList.size()
-                         + " expired items found (of total " + size + ")");
+                         + " expired items found (of total " + this.cache.size() + ")");
         }
 
         for (K identifier: refreshList) {
+            if (this.asynchronousRefresh) {
+                triggerAsynchronousRefresh(identifier);
+                continue;
+            }
             try {
-                cacheItem(identifier);
+                load(identifier);
                 if (logger.isDebugEnabled()) {
                     logger.debug("Refreshed expired cache item: '" + identifier + "'");
                 }
@@ -312,14 +453,23 @@ public final class ContentCacheImpl<K,V> implements ContentCache<K,V>, Initializ
 
 
     private class Item {
-        private K key;
-        private V object;
-        private Date timestamp;
+        private final K key;
+        private final V object;
+        private final long timestamp;
+        private final long refreshAt;
+        private final long expires;
 
-        public Item(K key, V object) {
+        public Item(K key, V object, long timestamp) {
             this.key = key;
             this.object = object;
-            this.timestamp = new Date();
+            this.timestamp = timestamp;
+            long timeout = cacheTimeout;
+            if (jitterFactor > 0) {
+                timeout -= (long) (timeout * jitterFactor * ThreadLocalRandom.current().nextDouble());
+            }
+            this.expires = timestamp + timeout;
+            this.refreshAt = refreshAheadFactor < 1
+                    ? timestamp + (long) (timeout * refreshAheadFactor) : Long.MAX_VALUE;
         }
         public K getKey() {
             return this.key;
@@ -327,16 +477,13 @@ public final class ContentCacheImpl<K,V> implements ContentCache<K,V>, Initializ
         public V getObject() {
             return this.object;
         }
-        public Date getTimestamp() {
-            return this.timestamp;
-        }
 
         @Override
         public String toString() {
             StringBuilder sb = new StringBuilder("item: [");
             sb.append(this.key.toString()).append("=");
-            sb.append(this.object.getClass().getName());
-            sb.append("; timestamp=").append(this.timestamp);
+            sb.append(this.object == null ? "null" : this.object.getClass().getName());
+            sb.append("; timestamp=").append(new Date(this.timestamp));
             sb.append("]");
             return sb.toString();
         }
@@ -31,8 +31,13 @@
 
 package vtk.util.cache;
 
+import java.util.Set;
 import java.util.concurrent.*;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import net.sf.ehcache.Element;
 import net.sf.ehcache.config.CacheConfiguration;
 import net.sf.ehcache.constructs.blocking.SelfPopulatingCache;
@@ -53,7 +58,19 @@ import org.springframework.beans.factory.DisposableBean;
  * modification of the provided instance. (Considering use case where multiple
  * {@code EhContentCache} instances share the same {@code SelfPopulatingCache}
  * instance.)
-  * 
+ *
+ * <p>With asynchronous refresh, items are refreshed in the background by a bounded
+ * pool of threads, at most one refresh per key at a time. Items older than
+ * {@link #setRefreshAheadFactor(double) a fraction} of their lifetime are
+ * refreshed ahead of expiry, while still being served as fresh. Each item gets its
+ * lifetime shortened by a random fraction up to {@link #setJitterFactor(double) }, 
+ * so that items loaded together do not expire together. Eviction is left to the
+ * underlying Ehcache instance.
+ *
+ * <p>If a {@link #setMetricRegistry(MetricRegistry) metric registry} is set, refresh
+ * latency, refresh failures and number of stale items served are recorded under
+ * <code>contentCache.&lt;cache name&gt;.*</code>.
+ * 
  * @param <K> key type for the cache
  * @param <V> value type for the cache
  */
@@ -66,6 +83,14 @@ public class EhContentCache<K, V>  implements ContentCache<K, V>, DisposableBean
     private final boolean asynchronousRefresh;
     protected final ScheduledExecutorService refreshAllExecutor;
     protected final ExecutorService asyncRefreshExecutor;
+    // Keys with an asynchronous refresh queued or running
+    private final Set<Object> refreshing = ConcurrentHashMap.newKeySet();
+    private double refreshAheadFactor = 0.8;
+    private double jitterFactor = 0.1;
+
+    private Timer refreshTimer = new Timer();
+    private Meter refreshFailures = new Meter();
+    private Counter staleServed = new Counter();
 
     /**
      * Construct a new instance backed by the provided <code>SelfPopulatingCache</code>.
@@ -119,9 +144,13 @@ public class EhContentCache<K, V>  implements ContentCache<K, V>, DisposableBean
         config.setEternal(true);
 
         if (asynchronousRefresh) {
-            asyncRefreshExecutor = new ThreadPoolExecutor(0, 16, 60L, TimeUnit.SECONDS,
-                    new LinkedBlockingQueue<>(),
+            // Bounded queue: refreshes which do not fit are dropped, the item
+            // will be refreshed on a later request.
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(4, 4, 60L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(1000),
                     (Runnable r) -> new Thread(r, EhContentCache.this.cache.getName() + ".async-refresh"));
+            executor.allowCoreThreadTimeOut(true);
+            asyncRefreshExecutor = executor;
         } else {
             asyncRefreshExecutor = null;
         }
@@ -147,14 +176,20 @@ public class EhContentCache<K, V>  implements ContentCache<K, V>, DisposableBean
         
         Element element = cache.getQuiet(identifier);
         if (element != null) {
-            if (isExpired(element)) {
-                // This will not stop multiple thread trying to refresh the cache entry at the same time,
-                // so it can cause unnecessary work to be done.
+            long now = System.currentTimeMillis();
+            long expirationTime = getExpirationTime(element);
+            if (now > expirationTime) {
+                // Synchronous refresh will not stop multiple threads trying to refresh the
+                // cache entry at the same time, but only one asynchronous refresh per key is queued.
                 if (asynchronousRefresh) {
-                    asyncRefreshExecutor.execute( () -> { refresh(identifier); } );
+                    staleServed.inc();
+                    triggerAsynchronousRefresh(identifier);
                 } else {
                     refresh(identifier);
                 }
+            } else if (asynchronousRefresh && refreshAheadFactor < 1 
+                    && now > refreshAheadTime(element, expirationTime)) {
+                triggerAsynchronousRefresh(identifier);
             }
         }
         element = cache.get(identifier);
@@ -162,6 +197,42 @@ public class EhContentCache<K, V>  implements ContentCache<K, V>, DisposableBean
         return (V) element.getObjectValue();
     }
 
+    /**
+     * Set fraction of item lifetime after which an asynchronous refresh is 
+     * triggered on access, while the item is still served as fresh. Only has
+     * effect with asynchronous refresh. A value of <code>1</code> or more
+     * disables refresh-ahead.
+     *
+     * <p>Default is <code>0.8</code>.
+     * @param refreshAheadFactor 
+     */
+    public void setRefreshAheadFactor(double refreshAheadFactor) {
+        if (refreshAheadFactor <= 0) {
+            throw new IllegalArgumentException("refreshAheadFactor must be > 0");
+        }
+        this.refreshAheadFactor = refreshAheadFactor;
+    }
+
+    /**
+     * Set max fraction by which the lifetime of each item is randomly shortened.
+     *
+     * <p>Default is <code>0.1</code>.
+     * @param jitterFactor a value in range <code>[0, 1)</code>
+     */
+    public void setJitterFactor(double jitterFactor) {
+        if (jitterFactor < 0 || jitterFactor >= 1) {
+            throw new IllegalArgumentException("jitterFactor must be in range [0, 1)");
+        }
+        this.jitterFactor = jitterFactor;
+    }
+
+    public void setMetricRegistry(MetricRegistry metricRegistry) {
+        String prefix = "contentCache." + cache.getName();
+        this.refreshTimer = metricRegistry.timer(prefix + ".refresh.time");
+        this.refreshFailures = metricRegistry.meter(prefix + ".refresh.failures");
+        this.staleServed = metricRegistry.counter(prefix + ".staleServed");
+    }
+
     @Override
     public int getSize() {
         return cache.getSize();
@@ -189,6 +260,27 @@ public class EhContentCache<K, V>  implements ContentCache<K, V>, DisposableBean
         return now > expirationTime;
     }
 
+    private long refreshAheadTime(Element element, long expirationTime) {
+        long creationTime = element.getCreationTime();
+        return creationTime + (long) ((expirationTime - creationTime) * refreshAheadFactor);
+    }
+
+    private void triggerAsynchronousRefresh(final Object identifier) {
+        if (refreshing.add(identifier)) {
+            try {
+                asyncRefreshExecutor.execute(() -> {
+                    try {
+                        refresh(identifier);
+                    } finally {
+                        refreshing.remove(identifier);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                refreshing.remove(identifier);
+            }
+        }
+    }
+
     private long getExpirationTime(Element element) {
         long expirationTime = 0;
         long ttlExpiry = element.getCreationTime() + TimeUtil.toMillis(timeToLiveSeconds);
@@ -203,14 +295,28 @@ public class EhContentCache<K, V>  implements ContentCache<K, V>, DisposableBean
         } else {
             expirationTime = Math.min(ttlExpiry, ttiExpiry);
         }
+        if (jitterFactor > 0) {
+            // Stable per element, derived from key and creation time
+            long h = element.getObjectKey().hashCode() * 0x9E3779B97F4A7C15L + element.getCreationTime();
+            h ^= (h >>> 29);
+            h *= 0xBF58476D1CE4E5B9L;
+            h ^= (h >>> 32);
+            double fraction = (h & 0xFFFF) / 65536.0 * jitterFactor;
+            long lifetime = expirationTime - element.getCreationTime();
+            expirationTime -= (long) (lifetime * fraction);
+        }
         return expirationTime;
     }
 
     private void refresh(final Object identifier) {
+        final Timer.Context timerContext = refreshTimer.time();
         try {
             cache.refresh(identifier, false);
         } catch (Exception e) {
+            refreshFailures.mark();
             logger.info("Error refreshing object '" + identifier + "'", e);
+        } finally {
+            timerContext.stop();
         }
     }
 
@@ -42,17 +42,23 @@ import vtk.util.text.Json;
  */
 public class FreeCapacityJSONCacheLoader extends URLConnectionCacheLoader<Json.Container> {
 
-    // XXX: limit not enforced, could use BoundedInputStream to apply limit while still
-    // parsing by stream. 
-    private final int maxLength = 1000000;
     private String username;
     private String password;
 
+    public FreeCapacityJSONCacheLoader() {
+        setMaxResponseSize(1000000);
+    }
+
     @Override
-    protected Json.Container handleConnection(URLConnection connection) throws Exception {
+    protected void setConnectionProperties(URLConnection connection) {
+        super.setConnectionProperties(connection);
         String encoded = Base64.encode(username + ":" + password);
         connection.setRequestProperty("Authorization", "Basic " + encoded);
-        InputStream stream = connection.getInputStream();
+    }
+
+    @Override
+    protected Json.Container handleConnection(URLConnection connection) throws Exception {
+        InputStream stream = getInputStream(connection);
         return Json.parseToContainer(stream);
     }
 
@@ -43,6 +43,6 @@ public class JDOMCacheLoader extends  URLConnectionCacheLoader<Document> {
 
     @Override
     protected Document handleConnection(URLConnection connection) throws Exception {
-        return new SAXBuilder().build(connection.getInputStream());
+        return new SAXBuilder().build(getInputStream(connection));
     }
 }
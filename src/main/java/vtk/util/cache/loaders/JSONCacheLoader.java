@@ -40,13 +40,13 @@ import vtk.util.text.Json;
  */
 public class JSONCacheLoader extends URLConnectionCacheLoader<Json.Container> {
 
-    // XXX limit not enforced, could use BoundedInputStream to apply limit while still
-    // parsing by stream. 
-    private int maxLength = 1000000;
+    public JSONCacheLoader() {
+        setMaxResponseSize(1000000);
+    }
 
     @Override
     protected Json.Container handleConnection(URLConnection connection) throws Exception {
-        InputStream stream = connection.getInputStream();
+        InputStream stream = getInputStream(connection);
         return Json.parseToContainer(stream);
     }
     
@@ -30,22 +30,57 @@
  */
 package vtk.util.cache.loaders;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import vtk.util.cache.ContentCacheLoader;
+import vtk.util.io.BoundedInputStream;
+import vtk.util.io.SizeLimitException;
 
 
 /**
  * Abstract utility cache loader that loads content from a URL.
  * Clients have to implement the <code>handleContentStream()</code>
- * method in order to build a cacheable object.
+ * method in order to build a cacheable object, and should read content
+ * using {@link #getInputStream(URLConnection) } so that the response
+ * size limit is enforced.
+ *
+ * <p>Optional features, all disabled by default:
+ * <ul>
+ *   <li><code>maxConnectionsPerHost</code> - limits the number of concurrent
+ *   requests to a single host from this loader. Threads wait at most the
+ *   connect timeout for a permit.
+ *   <li><code>maxResponseSize</code> - max number of bytes to accept in a
+ *   response body.
+ *   <li><code>conditionalRevalidation</code> - remembers <code>ETag</code> and
+ *   <code>Last-Modified</code> of loaded URLs, and revalidates with a conditional
+ *   request on the next load. If the server answers <code>304 Not Modified</code>,
+ *   the previously loaded object is returned without reading or parsing a body.
+ * </ul>
+ *
+ * <p>Connections are reused by the JDK HTTP keep-alive cache, as response
+ * streams are always closed after loading.
  */
 public abstract class URLConnectionCacheLoader <T>
   implements ContentCacheLoader<String, T>  {
 
     private int readTimeout = -1;
     private int connectTimeout = -1;
+    private int maxConnectionsPerHost = -1;
+    private long maxResponseSize = -1;
+    private boolean conditionalRevalidation = false;
+    private int maxRevalidationEntries = 1000;
+
+    private final ConcurrentHashMap<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+    private Map<String, Validated<T>> validated = newValidatedMap(maxRevalidationEntries);
 
     /**
      * Sets the connection timeout.
@@ -64,6 +99,44 @@ public abstract class URLConnectionCacheLoader <T>
     public void setReadTimeoutSeconds(int readTimeout) {
         this.readTimeout = readTimeout * 1000;
     }
+
+    /**
+     * Sets max number of concurrent requests per host.
+     *
+     * @param maxConnectionsPerHost max requests, or a negative number for no limit
+     */
+    public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+    }
+
+    /**
+     * Sets max response body size.
+     *
+     * @param maxResponseSize max number of bytes, or a negative number for no limit
+     */
+    public void setMaxResponseSize(long maxResponseSize) {
+        this.maxResponseSize = maxResponseSize;
+    }
+
+    /**
+     * Enables conditional revalidation of previously loaded URLs.
+     *
+     * @param conditionalRevalidation whether to revalidate using
+     * <code>If-None-Match</code> and <code>If-Modified-Since</code>
+     */
+    public void setConditionalRevalidation(boolean conditionalRevalidation) {
+        this.conditionalRevalidation = conditionalRevalidation;
+    }
+
+    /**
+     * Sets max number of URLs to remember validators and objects for.
+     *
+     * @param maxRevalidationEntries max number of entries
+     */
+    public void setMaxRevalidationEntries(int maxRevalidationEntries) {
+        this.maxRevalidationEntries = maxRevalidationEntries;
+        this.validated = newValidatedMap(maxRevalidationEntries);
+    }
     
 
     /**
@@ -72,10 +145,93 @@ public abstract class URLConnectionCacheLoader <T>
      *
      * @param url the URL to load
      */
+    @Override
     public final T load(String url) throws Exception {
-        URLConnection connection = new URL(url).openConnection();
-        setConnectionProperties(connection);
-        return handleConnection(connection);
+        URL u = new URL(url);
+        Semaphore permit = acquireHostPermit(u.getHost());
+        try {
+            URLConnection connection = u.openConnection();
+            setConnectionProperties(connection);
+            if (!(connection instanceof HttpURLConnection)) {
+                return handleConnection(connection);
+            }
+            HttpURLConnection http = (HttpURLConnection) connection;
+            boolean completed = false;
+            try {
+                T value = this.conditionalRevalidation
+                        ? revalidate(url, http) : handleConnection(connection);
+                completed = true;
+                return value;
+            } finally {
+                if (completed) {
+                    release(http);
+                } else {
+                    http.disconnect();
+                }
+            }
+        } finally {
+            if (permit != null) {
+                permit.release();
+            }
+        }
+    }
+
+    private T revalidate(String url, HttpURLConnection connection) throws Exception {
+        Validated<T> previous;
+        synchronized (this.validated) {
+            previous = this.validated.get(url);
+        }
+        if (previous != null) {
+            if (previous.etag != null) {
+                connection.setRequestProperty("If-None-Match", previous.etag);
+            }
+            if (previous.lastModified > 0) {
+                connection.setIfModifiedSince(previous.lastModified);
+            }
+            if (connection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                return previous.value;
+            }
+        }
+
+        T value = handleConnection(connection);
+
+        String etag = connection.getHeaderField("ETag");
+        long lastModified = connection.getLastModified();
+        synchronized (this.validated) {
+            if (value != null && (etag != null || lastModified > 0)) {
+                this.validated.put(url, new Validated<>(etag, lastModified, value));
+            } else {
+                this.validated.remove(url);
+            }
+        }
+        return value;
+    }
+
+    private Semaphore acquireHostPermit(String host) throws IOException, InterruptedException {
+        if (this.maxConnectionsPerHost <= 0) {
+            return null;
+        }
+        Semaphore permit = this.hostPermits.computeIfAbsent(host,
+                h -> new Semaphore(this.maxConnectionsPerHost, true));
+        long timeout = this.connectTimeout > 0 ? this.connectTimeout : 30000;
+        if (!permit.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+            throw new IOException("Timed out waiting for connection to host " + host);
+        }
+        return permit;
+    }
+
+    private void release(HttpURLConnection connection) {
+        // Closing the (already opened) response stream allows the
+        // underlying connection to be reused.
+        try {
+            InputStream in = connection.getResponseCode() >= 400
+                    ? connection.getErrorStream() : connection.getInputStream();
+            if (in != null) {
+                in.close();
+            }
+        } catch (IOException e) {
+            connection.disconnect();
+        }
     }
 
 
@@ -95,7 +251,50 @@ public abstract class URLConnectionCacheLoader <T>
         connection.setUseCaches(true);
     }
 
+    /**
+     * Get input stream of connection, limited to max response size.
+     *
+     * @param connection the URL connection
+     * @return the input stream
+     * @throws SizeLimitException if the declared content length exceeds the limit
+     * (also thrown while reading the stream if the limit is exceeded)
+     * @throws IOException if an I/O error occurs
+     */
+    protected InputStream getInputStream(URLConnection connection) throws IOException {
+        if (this.maxResponseSize <= 0) {
+            return connection.getInputStream();
+        }
+        long length = connection.getContentLengthLong();
+        if (length > this.maxResponseSize) {
+            throw new SizeLimitException("Response size " + length + " exceeds limit of "
+                    + this.maxResponseSize + " bytes: " + connection.getURL());
+        }
+        // BoundedInputStream fails when the limit is reached, allow exactly the limit
+        return new BoundedInputStream(connection.getInputStream(), this.maxResponseSize + 1);
+    }
+
 
     protected abstract T handleConnection(URLConnection connection) throws Exception;
+
+    private static <T> Map<String, Validated<T>> newValidatedMap(final int maxEntries) {
+        return new LinkedHashMap<String, Validated<T>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Validated<T>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    private static final class Validated<T> {
+        final String etag;
+        final long lastModified;
+        final T value;
+        Validated(String etag, long lastModified, T value) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.value = value;
+        }
+    }
     
 }
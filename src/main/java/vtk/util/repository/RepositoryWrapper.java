@@ -32,6 +32,7 @@ package vtk.util.repository;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.BitSet;
 import java.util.List;
 
 import vtk.repository.Acl;
@@ -58,6 +59,7 @@ import vtk.repository.ResourceOverwriteException;
 import vtk.repository.Revision;
 import vtk.repository.Revision.Type;
 import vtk.repository.StoreContext;
+import vtk.repository.SystemChangeContext;
 import vtk.repository.TypeInfo;
 import vtk.repository.search.QueryException;
 import vtk.repository.search.ResultSet;
@@ -150,6 +152,15 @@ public class RepositoryWrapper implements Repository {
         return repository.store(token, lockToken, resource);
     }
 
+    @Override
+    public List<Resource> store(String token, List<Resource> resources,
+            SystemChangeContext context) throws ResourceNotFoundException,
+            AuthorizationException, AuthenticationException,
+            ResourceLockedException, IllegalOperationException,
+            ReadOnlyException, IOException {
+        return repository.store(token, resources, context);
+    }
+
     @Override
     public Resource storeContent(String token, String lockToken, Path uri, ContentInputSource content)
             throws AuthorizationException, AuthenticationException,
@@ -324,6 +335,12 @@ public class RepositoryWrapper implements Repository {
         return repository.authorize(principal, acl, privilege);
     }
 
+    @Override
+    public BitSet authorize(Principal principal, List<? extends Resource> resources, 
+            Privilege privilege) {
+        return repository.authorize(principal, resources, privilege);
+    }
+
     @Override
     public boolean isAuthorized(Resource resource, RepositoryAction action,
             Principal principal, boolean considerLocks) throws IOException {
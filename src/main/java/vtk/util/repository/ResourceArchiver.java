@@ -32,6 +32,8 @@ package vtk.util.repository;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -41,19 +43,28 @@ import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.jar.Attributes;
 import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 import java.util.jar.JarInputStream;
 import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
-import java.util.zip.ZipInputStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -62,6 +73,7 @@ import org.springframework.beans.factory.annotation.Required;
 import vtk.repository.Acl;
 import vtk.repository.AclMode;
 import vtk.repository.Comment;
+import vtk.repository.ContentInputSource;
 import vtk.repository.ContentInputSources;
 import vtk.repository.InheritablePropertiesStoreContext;
 import vtk.repository.Namespace;
@@ -81,7 +93,19 @@ import vtk.security.Principal;
 import vtk.security.Principal.Type;
 import vtk.security.PrincipalFactory;
 import vtk.util.io.AbstractInputStreamWrapper;
-
+import vtk.util.io.IO;
+
+/**
+ * Creates Jar archives of resource trees, and expands such archives into the
+ * repository.
+ * 
+ * <p>When an {@link #setExecutor(ExecutorService) executor} is configured,
+ * resource content and comments are read ahead of the archive writer, and
+ * resources from an archive are stored in parallel for each top level
+ * subtree while the archive is read once. Entry order and contents are the
+ * same as for sequential operation. Event listener methods may then be
+ * invoked from executor threads.
+ */
 public class ResourceArchiver {
 
     private static Logger logger = LoggerFactory.getLogger(ResourceArchiver.class);
@@ -90,6 +114,11 @@ public class ResourceArchiver {
     private Repository repository;
     private ResourceTypeTree resourceTypeTree;
     private File tempDir = new File(System.getProperty("java.io.tmpdir"));
+    private ExecutorService executor;
+    private int readAhead = 32;
+
+    // Larger content is spooled to temporary files when read ahead
+    private static final int MAX_BUFFERED_CONTENT = 1024 * 1024;
 
     private final String dateFormat = "yyyy-MM-dd'T'HH:mm:ssZ";
     private final String commentPath = "META-INF/COMMENTS/";
@@ -148,8 +177,19 @@ public class ResourceArchiver {
                 logger.info("Writing manifest...");
                 Manifest manifest = new Manifest(new FileInputStream(tmp));
                 logger.info("Manifest written, creating jar...");
-                JarOutputStream jo = new JarOutputStream(out, manifest);
-                addEntry(token, rootLevel, r, jo, listener, ignoreList, r.getURI());
+                JarOutputStream jo = new JarOutputStream(out);
+                // Timestamp entries from resources, for identical archives of unchanged trees
+                JarEntry manifestEntry = new JarEntry(JarFile.MANIFEST_NAME);
+                manifestEntry.setTime(r.getLastModified().getTime());
+                jo.putNextEntry(manifestEntry);
+                manifest.write(jo);
+                jo.closeEntry();
+                if (this.executor != null) {
+                    addEntries(token, rootLevel, r, jo, listener, ignoreList);
+                }
+                else {
+                    addEntry(token, rootLevel, r, jo, listener, ignoreList, r.getURI());
+                }
                 jo.close();
                 out.close();
             }
@@ -206,40 +246,62 @@ public class ResourceArchiver {
 
         // XXX: dir modification times
         List<Comment> comments = new ArrayList<>();
+        ExpandLanes lanes = this.executor != null ? new ExpandLanes() : null;
         logger.info("Writing jar entries");
-        while ((entry = jarIn.getNextJarEntry()) != null) {
-            String entryPath = entry.getName();
-
-            if (isIgnorableResource(entryPath, ignoreList)) {
-                continue;
-            }
+        try {
+            while ((entry = jarIn.getNextJarEntry()) != null) {
+                String entryPath = entry.getName();
 
-            // Keep comments for later processing, add them after resources
-            // have been expanded
-            if (entryPath.startsWith(commentPath)) {
-                try {
-                    comments.add(getArchivedComment(jarIn, base));
+                if (isIgnorableResource(entryPath, ignoreList)) {
+                    continue;
                 }
-                catch (Throwable t) {
-                    logger.error("Could not handle comment in " + entryPath, t);
+
+                // Keep comments for later processing, add them after resources
+                // have been expanded
+                if (entryPath.startsWith(commentPath)) {
+                    try {
+                        comments.add(getArchivedComment(jarIn, base));
+                    }
+                    catch (Throwable t) {
+                        logger.error("Could not handle comment in " + entryPath, t);
+                    }
+                    continue;
                 }
-                continue;
-            }
 
-            String resourceURI = getExpandedEntryUri(base, entryPath);
+                String resourceURI = getExpandedEntryUri(base, entryPath);
+
+                Path uri = Path.fromString(resourceURI);
+                Path dir = entry.isDirectory() ? uri : uri.getParent();
+                createDirectoryStructure(token, dir, dirCache);
 
-            Path uri = Path.fromString(resourceURI);
-            Path dir = entry.isDirectory() ? uri : uri.getParent();
-            createDirectoryStructure(token, dir, dirCache);
+                if (lanes != null) {
+                    lanes.checkFailure();
+                    // Content is spooled, so the archive can be read on while storing
+                    ContentInputSource content = entry.isDirectory() ? null : spool(jarIn);
+                    lanes.submit(subtree(base, uri), token, entry, uri, content, 
+                            decodeValues, legacyAcl, listener);
+                    continue;
+                }
 
-            boolean canStorePropsAndPermissions = true;
-            if (!entry.isDirectory()) {
-                canStorePropsAndPermissions = writeFile(token, uri, jarIn);
+                ContentInputSource content = null;
+                if (!entry.isDirectory()) {
+                    content = ContentInputSources.fromStream(new AbstractInputStreamWrapper(jarIn) {
+                        @Override
+                        public void close() throws IOException {
+                            // Ignore close calls
+                        }
+                    });
+                }
+                expandEntry(token, entry, uri, content, decodeValues, legacyAcl, listener);
             }
-            if (canStorePropsAndPermissions) {
-                storePropsAndPermissions(token, entry, uri, decodeValues, legacyAcl, listener);
+            if (lanes != null) {
+                lanes.await();
+            }
+        }
+        finally {
+            if (lanes != null) {
+                lanes.abort();
             }
-            listener.expanded(uri);
         }
         jarIn.close();
 
@@ -525,6 +587,7 @@ public class ResourceArchiver {
         }
 
         JarEntry je = new JarEntry(path);
+        je.setTime(r.getLastModified().getTime());
         jarOut.putNextEntry(je);
         if (r.isCollection()) {
             Resource[] children = this.repository.listChildren(token, r.getURI(), false);
@@ -562,11 +625,182 @@ public class ResourceArchiver {
         listener.archived(r.getURI());
     }
 
+    /**
+     * Same entries as {@link #addEntry}, but the content and comments of
+     * the next {@link #setReadAhead(int) readAhead} resources are fetched
+     * by the executor while the current entry is written.
+     */
+    private void addEntries(String token, int fromLevel, Resource r, JarOutputStream jarOut,
+            EventListener listener, List<String> ignoreList) throws Exception {
+        Deque<PendingEntry> window = new ArrayDeque<>();
+        try {
+            queueEntry(token, fromLevel, r, jarOut, listener, ignoreList, r.getURI(), window);
+            while (!window.isEmpty()) {
+                writeEntry(window.removeFirst(), jarOut, listener, r.getURI());
+            }
+        }
+        finally {
+            for (PendingEntry pending : window) {
+                pending.discard();
+            }
+        }
+    }
+
+    private void queueEntry(String token, int fromLevel, Resource r, JarOutputStream jarOut, 
+            EventListener listener, List<String> ignoreList, Path baseResourceToArchivePath,
+            Deque<PendingEntry> window) throws Exception {
+
+        String path = getJarPath(r, fromLevel);
+
+        if (isIgnorableResource(path, ignoreList)) {
+            return;
+        }
+
+        if (window.size() >= this.readAhead) {
+            writeEntry(window.removeFirst(), jarOut, listener, baseResourceToArchivePath);
+        }
+        Future<PrefetchedContent> content = null;
+        if (!r.isCollection()) {
+            content = this.executor.submit(() -> prefetch(token, r));
+        }
+        window.addLast(new PendingEntry(r, path, content));
+
+        if (r.isCollection()) {
+            Resource[] children = this.repository.listChildren(token, r.getURI(), false);
+            for (Resource child : children) {
+                queueEntry(token, fromLevel, child, jarOut, listener, ignoreList, 
+                        baseResourceToArchivePath, window);
+            }
+        }
+    }
+
+    private void writeEntry(PendingEntry pending, JarOutputStream jarOut, EventListener listener,
+            Path baseResourceToArchivePath) throws Exception {
+        Resource r = pending.resource;
+        JarEntry je = new JarEntry(pending.path);
+        je.setTime(r.getLastModified().getTime());
+        jarOut.putNextEntry(je);
+        if (pending.content != null) {
+            PrefetchedContent content;
+            try {
+                content = pending.content.get();
+            }
+            catch (ExecutionException e) {
+                content = new PrefetchedContent();
+                content.contentError = e.getCause();
+            }
+            try {
+                if (content.contentError != null) {
+                    throw content.contentError;
+                }
+                try (InputStream is = content.stream()) {
+                    IO.copy(is, jarOut).closeIn(false).closeOut(false).perform();
+                }
+                // We don't break the archiving if something should go wrong
+                // with comments
+                try {
+                    if (content.commentError != null) {
+                        throw content.commentError;
+                    }
+                    archiveComments(r, content.comments, jarOut, baseResourceToArchivePath);
+                }
+                catch (Throwable t) {
+                    logger.error("Could not archive comment for resource '" + r.getURI() + "': " + t.getMessage());
+                }
+            }
+            catch (Throwable t) {
+                logger.error("Colud not archive content for resource '" + r.getURI() + "': " + t.getMessage());
+            }
+            finally {
+                content.dispose();
+            }
+        }
+        listener.archived(r.getURI());
+    }
+
+    private PrefetchedContent prefetch(String token, Resource r) {
+        PrefetchedContent content = new PrefetchedContent();
+        try (InputStream is = this.repository.getInputStream(token, r.getURI(), false)) {
+            if (r.getContentLength() <= MAX_BUFFERED_CONTENT) {
+                content.bytes = IO.read(is).closeIn(false).perform();
+            }
+            else {
+                content.file = File.createTempFile("tmp-archive", "vrtx", this.tempDir);
+                try (OutputStream out = new FileOutputStream(content.file)) {
+                    IO.copy(is, out).closeIn(false).closeOut(false).perform();
+                }
+            }
+        }
+        catch (Throwable t) {
+            content.contentError = t;
+            return content;
+        }
+        try {
+            content.comments = this.repository.getComments(token, r);
+        }
+        catch (Throwable t) {
+            content.commentError = t;
+        }
+        return content;
+    }
+
+    private static final class PendingEntry {
+        final Resource resource;
+        final String path;
+        final Future<PrefetchedContent> content;
+
+        PendingEntry(Resource resource, String path, Future<PrefetchedContent> content) {
+            this.resource = resource;
+            this.path = path;
+            this.content = content;
+        }
+
+        void discard() {
+            if (content == null) {
+                return;
+            }
+            content.cancel(true);
+            if (content.isDone() && !content.isCancelled()) {
+                try {
+                    content.get().dispose();
+                }
+                catch (Exception e) {
+                }
+            }
+        }
+    }
+
+    private static final class PrefetchedContent {
+        byte[] bytes;
+        File file;
+        List<Comment> comments;
+        Throwable contentError;
+        Throwable commentError;
+
+        InputStream stream() throws IOException {
+            if (file != null) {
+                return new BufferedInputStream(new FileInputStream(file));
+            }
+            return new ByteArrayInputStream(bytes);
+        }
+
+        void dispose() {
+            if (file != null) {
+                file.delete();
+            }
+        }
+    }
+
     private void archiveComments(String token, Resource r, JarOutputStream jo, Path baseResourceToArchivePath)
             throws IOException {
-        List<Comment> comments = this.repository.getComments(token, r);
+        archiveComments(r, this.repository.getComments(token, r), jo, baseResourceToArchivePath);
+    }
+
+    private void archiveComments(Resource r, List<Comment> comments, JarOutputStream jo,
+            Path baseResourceToArchivePath) throws IOException {
         for (Comment comment : comments) {
             JarEntry je = new JarEntry(commentPath + comment.getID() + ".txt");
+            je.setTime(comment.getTime().getTime());
             jo.putNextEntry(je);
             StringBuilder sb = new StringBuilder();
             Path archivedResourcePath = r.getURI();
@@ -805,16 +1039,144 @@ public class ResourceArchiver {
         return acl;
     }
 
-    private boolean writeFile(String token, Path uri, ZipInputStream is) {
-        try {
-            this.repository.createDocument(token, null, uri, ContentInputSources.fromStream(
-                    new AbstractInputStreamWrapper(is) {
-                @Override
-                public void close() throws IOException {
-                    // Ignore close calls
+    private void expandEntry(String token, JarEntry entry, Path uri, ContentInputSource content,
+            boolean decodeValues, boolean legacyAcl, EventListener listener) throws Exception {
+        boolean canStorePropsAndPermissions = true;
+        if (content != null) {
+            canStorePropsAndPermissions = writeFile(token, uri, content);
+        }
+        if (canStorePropsAndPermissions) {
+            storePropsAndPermissions(token, entry, uri, decodeValues, legacyAcl, listener);
+        }
+        listener.expanded(uri);
+    }
+
+    /**
+     * Read the current archive entry, keeping small entries in memory and
+     * spooling larger ones to a temporary file.
+     */
+    private ContentInputSource spool(InputStream in) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            buffer.write(buf, 0, n);
+            if (buffer.size() > MAX_BUFFERED_CONTENT) {
+                File file = File.createTempFile("tmp-archive", "vrtx", this.tempDir);
+                try (OutputStream out = new FileOutputStream(file)) {
+                    buffer.writeTo(out);
+                    IO.copy(in, out).closeIn(false).closeOut(false).perform();
+                }
+                catch (IOException e) {
+                    file.delete();
+                    throw e;
+                }
+                return ContentInputSources.fromFile(file, true);
+            }
+        }
+        return ContentInputSources.fromBytes(buffer.toByteArray());
+    }
+
+    /**
+     * @return name of the top level subtree below <code>base</code>
+     * containing <code>uri</code>, or <code>null</code> for the base itself
+     */
+    private String subtree(Path base, Path uri) {
+        if (uri.getDepth() <= base.getDepth()) {
+            return null;
+        }
+        return uri.getElements().get(base.getDepth() + 1);
+    }
+
+    /**
+     * Stores expanded archive entries using the executor. Entries within
+     * the same top level subtree are stored one at a time in archive order,
+     * since they depend on each other (inherited properties and ACLs),
+     * while different subtrees are stored concurrently. At most
+     * {@link #setReadAhead(int) readAhead} entries are pending at any time.
+     * The first failure stops further storing and is thrown from
+     * {@link #await()}.
+     */
+    private final class ExpandLanes {
+        private final Map<String, CompletableFuture<Void>> tails = new HashMap<>();
+        private final Semaphore pending = new Semaphore(readAhead);
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+        private volatile boolean aborted = false;
+
+        void submit(String subtree, String token, JarEntry entry, Path uri, ContentInputSource content,
+                boolean decodeValues, boolean legacyAcl, EventListener listener) throws Exception {
+            if (subtree == null) {
+                // The base collection itself, store after all pending entries
+                await();
+                expandEntry(token, entry, uri, content, decodeValues, legacyAcl, listener);
+                return;
+            }
+            pending.acquire();
+            CompletableFuture<Void> tail = tails.getOrDefault(subtree, CompletableFuture.completedFuture(null));
+            CompletableFuture<Void> next = tail.thenRunAsync(() -> {
+                if (aborted || failure.get() != null) {
+                    return;
+                }
+                try {
+                    expandEntry(token, entry, uri, content, decodeValues, legacyAcl, listener);
+                }
+                catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }, executor);
+            // The tail is the stage which records the outcome, so that
+            // failures are recorded when join() returns
+            next = next.whenComplete((v, t) -> {
+                if (t != null) {
+                    failure.compareAndSet(null, 
+                            t instanceof CompletionException && t.getCause() != null ? t.getCause() : t);
                 }
+                if (content != null && content.isFile()) {
+                    content.file().delete();
+                }
+                pending.release();
+            });
+            tails.put(subtree, next);
+        }
+
+        void await() throws Exception {
+            join();
+            checkFailure();
+        }
+
+        void abort() {
+            aborted = true;
+            join();
+        }
+
+        private void join() {
+            try {
+                CompletableFuture.allOf(tails.values().toArray(new CompletableFuture<?>[tails.size()])).join();
+            }
+            catch (CompletionException e) {
+                // Recorded as failure
+            }
+            tails.clear();
+        }
+
+        void checkFailure() throws Exception {
+            Throwable t = failure.get();
+            if (t == null) {
+                return;
             }
-            ), AclMode.inherit());
+            if (t instanceof Exception) {
+                throw (Exception) t;
+            }
+            if (t instanceof Error) {
+                throw (Error) t;
+            }
+            throw new RuntimeException(t);
+        }
+    }
+
+    private boolean writeFile(String token, Path uri, ContentInputSource content) {
+        try {
+            this.repository.createDocument(token, null, uri, content, AclMode.inherit());
         }
         catch (Exception e) {
             logger.error("Error writing resource '" + uri + "': " + e.getMessage());
@@ -851,6 +1213,33 @@ public class ResourceArchiver {
         this.tempDir = tmp;
     }
 
+    /**
+     * Set executor used for reading resources ahead of the archive writer
+     * when creating archives, and for storing resources in parallel when
+     * expanding archives. Without an executor, archives are created and
+     * expanded sequentially.
+     * 
+     * @param executor the executor
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Set maximum number of resources read ahead of the archive writer, or
+     * pending storage while expanding, when an executor is configured.
+     * Content up to 1MB per resource is held in memory, larger content is
+     * spooled to the temp dir. Default is <code>32</code>.
+     * 
+     * @param readAhead number of resources
+     */
+    public void setReadAhead(int readAhead) {
+        if (readAhead < 1) {
+            throw new IllegalArgumentException("readAhead must be >= 1");
+        }
+        this.readAhead = readAhead;
+    }
+
     @Required
     public void setRepository(Repository repository) {
         this.repository = repository;
@@ -102,6 +102,7 @@ public class RequestContext {
     private final Repository repository;
     private final Service service;
     private final ServiceResolver serviceResolver;
+    private final Resource resource;
     private final Path resourceURI;
     private final Acl resourceAcl;
     private final URL requestURL;
@@ -150,6 +151,7 @@ public class RequestContext {
         this.repository = repository;
         this.inRepository = inRepository;
         this.requestURL = URL.create(servletRequest).setImmutable();
+        this.resource = resource;
         if (resource != null) {
             this.resourceURI = resource.getURI();
             this.resourceAcl = resource.getAcl();
@@ -292,6 +294,19 @@ public class RequestContext {
         return this.resourceURI;
     }
 
+    /**
+     * Gets the resource that the current request maps to, as retrieved
+     * when the request was initialized. The resource is retrieved using a
+     * trusted token, so callers are responsible for checking that the
+     * current principal is authorized to read it.
+     *
+     * @return the resource, or <code>null</code> if there is no current
+     * resource
+     */
+    public Resource getResource() {
+        return this.resource;
+    }
+
     /**
      * Gets the {@link Acl ACL} of the current resource.
      *
@@ -33,6 +33,7 @@ package vtk.web;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -47,6 +48,7 @@ import javax.servlet.http.HttpServletRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.BeanInitializationException;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Required;
 import org.springframework.core.OrderComparator;
 
@@ -62,6 +64,7 @@ import vtk.security.SecurityContext;
 import vtk.security.token.TokenManager;
 import vtk.util.text.TreePrinter;
 import vtk.web.service.Service;
+import vtk.web.service.ServiceDispatchIndex;
 import vtk.web.service.ServiceResolver;
 import vtk.web.service.URL;
 import vtk.web.service.WebAssertion;
@@ -72,6 +75,11 @@ import vtk.web.service.WebAssertion;
  * found. The matched service is placed in the {@link RequestContext},
  * which is associated with the request using a thread local.
  *
+ * <p>The service trees are compiled into a {@link ServiceDispatchIndex}
+ * at startup, which avoids evaluating request-only assertions for
+ * services that cannot match, and memoizes their outcome for repeated
+ * requests.
+ *
  * <p>Configurable JavaBean properties:
  * <ul>
  *   <li><code>repository</code> - required {@link Repository content
@@ -83,10 +91,13 @@ import vtk.web.service.WebAssertion;
  *   <li><code>services</code> - a list of {@link Service services}
  *   to construct a service tree of.
  *   <li><code>indexFileResolver</code> - an optional {@link IndexFileResolver}
+ *   <li><code>dispatchMemoSize</code> - the number of request signatures
+ *   to memoize request assertion outcomes for. Default <code>1000</code>,
+ *   <code>0</code> disables memoization.
  * </ul>
  *
  */
-public class RequestContextInitializer implements ContextInitializer, ServiceResolver {
+public class RequestContextInitializer implements ContextInitializer, ServiceResolver, InitializingBean {
     // For service lookup:
     private final Map<String, Service> services = new HashMap<>();
     
@@ -106,6 +117,9 @@ public class RequestContextInitializer implements ContextInitializer, ServiceRes
     private Set<String> nonRepositoryRoots = new HashSet<>();
     
     private String viewUnauthenticatedParameter = null;
+
+    private int dispatchMemoSize = 1000;
+    private ServiceDispatchIndex dispatchIndex;
     
     @Required
     public void setRepository(Repository repository) {
@@ -169,6 +183,26 @@ public class RequestContextInitializer implements ContextInitializer, ServiceRes
         }
     }
     
+    @Override
+    public void afterPropertiesSet() {
+        this.dispatchIndex = new ServiceDispatchIndex(
+                rootServices, childServices, dispatchMemoSize);
+        if (logger.isInfoEnabled()) {
+            logger.info(dispatchIndex.report());
+        }
+    }
+
+    public void setDispatchMemoSize(int dispatchMemoSize) {
+        this.dispatchMemoSize = dispatchMemoSize;
+    }
+
+    /**
+     * @return a description of the compiled service dispatch structure
+     */
+    public String getDispatchReport() {
+        return dispatchIndex.report();
+    }
+
     @Required
     public void setTrustedToken(String trustedToken) {
         this.trustedToken = trustedToken;
@@ -259,22 +293,24 @@ public class RequestContextInitializer implements ContextInitializer, ServiceRes
         }
         final boolean viewUnauthenticated = isViewUnauthenticated(request);
         
-        for (Service service: rootServices) {
+        ServiceDispatchIndex.Dispatch dispatch = dispatchIndex.dispatch(request);
+        for (ServiceDispatchIndex.Node node: dispatch.roots()) {
 
             // Set an initial request context (with the resource, but
             // without the matched service)
             RequestContext.setRequestContext(
-                new RequestContext(request, securityContext, service, this, resource, 
+                new RequestContext(request, securityContext, node.service(), this, resource, 
                         uri, indexFileUri, isIndexFile, viewUnauthenticated,
                         inRepository, repository, principalMetadataDAO), request);
             
             // Resolve the request to a service:
-            if (resolveService(service, request, resource, securityContext)) {
+            if (resolveService(node, dispatch, request, resource, securityContext)) {
                 break;
             }
              
             RequestContext.setRequestContext(null, request);
         }
+        dispatch.complete();
 
         if (RequestContext.getRequestContext(request) == null) {
             String requestURL = request.getRequestURL() + 
@@ -294,8 +330,9 @@ public class RequestContextInitializer implements ContextInitializer, ServiceRes
      * Resolves a request recursively to a service and creates the
      * request context.
      * 
-     * @param service the currently matched service. Should be set to
+     * @param node the currently matched (compiled) service. Should be set to
      * the root service initially.
+     * @param dispatch the dispatch state for the request
      * @param request the <code>HttpServletRequest</code>
      * @param resource the resource (may be null)
      * @return If the service doesn't match the context,
@@ -307,17 +344,26 @@ public class RequestContextInitializer implements ContextInitializer, ServiceRes
      * return this Service or the first matching child's result.
      * 
      */
-    private boolean resolveService(Service service, HttpServletRequest request,
+    private boolean resolveService(ServiceDispatchIndex.Node node,
+            ServiceDispatchIndex.Dispatch dispatch, HttpServletRequest request,
             Resource resource, SecurityContext securityContext) {
 		
+        Service service = node.service();
         if (logger.isTraceEnabled()) {
             logger.trace("Matching for service " + service.getName() +
                          ", having assertions: " + service.getAssertions());
         }
+        if (!dispatch.requestMatches(node)) {
+            if (logger.isTraceEnabled()) {
+                logger.trace("Unmatched request assertions for service " 
+                        + service.getName());
+            }
+            return false;
+        }
         RequestContext requestContext = RequestContext.getRequestContext(request);
 
         try {
-            for (WebAssertion assertion: service.getAssertions()) {
+            for (WebAssertion assertion: node.assertions()) {
 
                 if (!assertion.matches(request,resource,securityContext.getPrincipal())) {
                     if (logger.isTraceEnabled()) {
@@ -346,15 +392,15 @@ public class RequestContextInitializer implements ContextInitializer, ServiceRes
             throw(e);
         }
 
-        List<Service> children = childServices.get(service);
-        if (children != null) {
+        ServiceDispatchIndex.Node[] children = dispatch.children(node);
+        if (children.length > 0) {
             if (logger.isTraceEnabled()) {
                 logger.trace("Currently matched service: " + service.getName() +
-                        ", will check for child services: " + children);
+                        ", will check for child services: " + Arrays.asList(children));
             }
 
-            for (Service child : children) {
-                if (resolveService(child, request, resource, securityContext)) {
+            for (ServiceDispatchIndex.Node child : children) {
+                if (resolveService(child, dispatch, request, resource, securityContext)) {
                     return true;
                 }
             }
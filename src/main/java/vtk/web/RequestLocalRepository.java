@@ -32,6 +32,7 @@ package vtk.web;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.BitSet;
 import java.util.List;
 
 import javax.servlet.http.HttpServletRequest;
@@ -62,6 +63,7 @@ import vtk.repository.ResourceNotFoundException;
 import vtk.repository.ResourceOverwriteException;
 import vtk.repository.Revision;
 import vtk.repository.StoreContext;
+import vtk.repository.SystemChangeContext;
 import vtk.repository.TypeInfo;
 import vtk.repository.search.QueryException;
 import vtk.repository.search.ResultSet;
@@ -183,6 +185,18 @@ public class RequestLocalRepository {
             return this.repository.store(token, lockToken, resource);
         }
 
+        @Override
+        public List<Resource> store(String token, List<Resource> resources, SystemChangeContext context) 
+                throws IOException {
+
+            RepositoryContext ctx = RepositoryContext.getRepositoryContext(request);
+            if (ctx != null) {
+                ctx.clear();
+            }
+
+            return this.repository.store(token, resources, context);
+        }
+
         @Override
         public Resource storeContent(String token, String lockToken, Path uri, ContentInputSource content) throws IOException {
 
@@ -436,6 +450,12 @@ public class RequestLocalRepository {
             return this.repository.authorize(principal, acl, privilege);
         }
 
+        @Override
+        public BitSet authorize(Principal principal, List<? extends Resource> resources, 
+                Privilege privilege) {
+            return this.repository.authorize(principal, resources, privilege);
+        }
+
         @Override
         public boolean isAuthorized(Resource resource, RepositoryAction action, Principal principal, String lockToken)
                 throws IOException {
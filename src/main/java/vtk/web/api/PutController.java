@@ -30,6 +30,9 @@
  */
 package vtk.web.api;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.List;
 
@@ -43,7 +46,6 @@ import org.springframework.web.servlet.ModelAndView;
 import org.springframework.web.servlet.mvc.Controller;
 
 import vtk.repository.AclMode;
-import vtk.repository.ContentInputSource;
 import vtk.repository.ContentInputSources;
 import vtk.repository.IllegalOperationException;
 import vtk.repository.Path;
@@ -55,6 +57,7 @@ import vtk.repository.ResourceNotFoundException;
 import vtk.repository.Revision;
 import vtk.repository.store.Revisions;
 import vtk.security.Principal;
+import vtk.util.codec.Digest;
 import vtk.util.io.IO;
 import vtk.util.io.SizeLimitException;
 import vtk.web.RequestContext;
@@ -69,6 +72,7 @@ public class PutController implements Controller {
     private final long maxUploadSize;
     private final long maxRevisionFileSize;
     private final List<WebAssertion> revisionAssertions;
+    private File tempDir = new File(System.getProperty("java.io.tmpdir"));
 
     public PutController(
             long maxUploadSize,
@@ -108,21 +112,29 @@ public class PutController implements Controller {
 
                 resource = repository.retrieve(token, uri, false);
                 InputStream inStream = request.getInputStream();
-                ContentInputSource source;
                 if (handleRevisions(request, resource)) {
-                    byte[] buffer = IO.read(inStream).perform();
-                    List<Revision> revisions = repository.getRevisions(token, uri);
-                    Revision prev = revisions.isEmpty() ? null : revisions.get(0);
-                    String checksum = Revisions.checksum(buffer);
-                    if (prev == null || !checksum.equals(prev.getChecksum())) {
-                        // Take snapshot of previous version:
-                        repository.createRevision(token, null, uri, Revision.Type.REGULAR);
+                    // Stage the upload once, computing the checksum on the way. 
+                    // The staged file is then moved into the content store.
+                    File staging = File.createTempFile("put-", null, this.tempDir);
+                    try {
+                        String checksum = stage(inStream, staging);
+                        List<Revision> revisions = repository.getRevisions(token, uri);
+                        Revision prev = revisions.isEmpty() ? null : revisions.get(0);
+                        if (prev == null || !checksum.equals(prev.getChecksum())) {
+                            // Take snapshot of previous version:
+                            repository.createRevision(token, null, uri, Revision.Type.REGULAR);
+                        }
+                        repository.storeContent(token, null, uri, 
+                                ContentInputSources.fromFile(staging, true));
+                    } finally {
+                        if (staging.exists()) {
+                            staging.delete();
+                        }
                     }
-                    source = ContentInputSources.fromBytes(buffer);
                 } else {
-                    source = ContentInputSources.fromStream(inStream);
+                    repository.storeContent(token, null, uri, 
+                            ContentInputSources.fromStream(inStream));
                 }
-                repository.storeContent(token, null, uri, source);
 
             } else {
                 this.logger.debug("Resource does not exist (creating)");
@@ -155,6 +167,24 @@ public class PutController implements Controller {
         return null;
     }
 
+    private String stage(InputStream input, File staging) throws IOException {
+        Digest.StreamWrapper wrapper = Revisions.wrap(input);
+        IO.copy(wrapper, new FileOutputStream(staging)).perform();
+        return wrapper.compute();
+    }
+
+    /**
+     * Set directory for staging uploaded content. Should preferably be on 
+     * the same file system as the repository content store.
+     */
+    public void setTempDir(String tempDir) {
+        File dir = new File(tempDir);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IllegalArgumentException("Unable to create directory " + tempDir);
+        }
+        this.tempDir = dir;
+    }
+
     private boolean handleRevisions(HttpServletRequest request, Resource resource) {
         Principal principal = RequestContext.getRequestContext(request).getPrincipal();
         for (WebAssertion a : this.revisionAssertions) {
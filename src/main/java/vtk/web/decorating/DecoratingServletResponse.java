@@ -153,6 +153,13 @@ public class DecoratingServletResponse extends HttpServletResponseWrapper {
             } 
             catch (Exception e) { }
         }
+        else if ("ETag".equalsIgnoreCase(name)) {
+            // The content may be rewritten, so a validator of
+            // the undecorated content does not apply:
+            if (contentType != null && contentType.startsWith("text/html")) {
+                return;
+            }
+        }
         else if ("Content-Type".equalsIgnoreCase(name)) {
             setContentType(value);
             return;
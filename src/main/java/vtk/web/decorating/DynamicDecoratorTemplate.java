@@ -72,6 +72,8 @@ public class DynamicDecoratorTemplate implements Template {
     private Optional<Instant> lastModified = Optional.empty();
     private List<DirectiveHandler> directiveHandlers;
     private HtmlPageParser htmlParser;
+    private int staleCheckSeconds;
+    private volatile long lastStaleCheck = 0;
     
     public static final String CR_REQ_ATTR = "__component_resolver__";
     public static final String HTML_REQ_ATTR = "__html_page__";
@@ -82,6 +84,20 @@ public class DynamicDecoratorTemplate implements Template {
                                      ComponentResolver componentResolver,
                                      List<DirectiveHandler> directiveHandlers, 
                                      HtmlPageParser htmlParser) throws InvalidTemplateException {
+        this(templateSource, componentResolver, directiveHandlers, htmlParser, -1);
+    }
+
+    /**
+     * @param staleCheckSeconds minimum number of seconds between checks of
+     * the template source for modifications when rendering. Zero checks on
+     * every render, a negative value never checks, leaving it to the
+     * template manager to replace the template when its source changes.
+     */
+    public DynamicDecoratorTemplate(InputSource templateSource,
+                                     ComponentResolver componentResolver,
+                                     List<DirectiveHandler> directiveHandlers, 
+                                     HtmlPageParser htmlParser,
+                                     int staleCheckSeconds) throws InvalidTemplateException {
         if (templateSource == null) {
             throw new IllegalArgumentException("Argument 'templateSource' is NULL");
         }
@@ -95,6 +111,7 @@ public class DynamicDecoratorTemplate implements Template {
         this.componentResolver = componentResolver;
         this.directiveHandlers = directiveHandlers;
         this.htmlParser = htmlParser;
+        this.staleCheckSeconds = staleCheckSeconds;
         try {
             compile();
         }
@@ -125,6 +142,14 @@ public class DynamicDecoratorTemplate implements Template {
     public void render(HtmlPage page, OutputStream out, Charset encoding,
             HttpServletRequest request, Map<String, Object> model,
             Map<String, Object> templateParameters) {
+        if (staleCheckDue() && needCompile()) {
+            try {
+                compile();
+            }
+            catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
         Locale locale = RequestContext.getRequestContext(request).getLocale();
         Context context = new Context(locale);
         addGlobalContextAttributes(context, request, page);
@@ -145,6 +170,15 @@ public class DynamicDecoratorTemplate implements Template {
             throw new RuntimeException(e);
         }
     }
+    private boolean staleCheckDue() {
+        if (staleCheckSeconds < 0) return false;
+        if (staleCheckSeconds == 0) return true;
+        long now = System.currentTimeMillis();
+        if (now - lastStaleCheck < staleCheckSeconds * 1000L) return false;
+        lastStaleCheck = now;
+        return true;
+    }
+
     private boolean needCompile() {
         Optional<Instant> templateMod = templateSource.getLastModified();
         if (!templateMod.isPresent() || !lastModified.isPresent()) return true;
@@ -49,6 +49,7 @@ import vtk.repository.Repository;
 import vtk.repository.resourcetype.PropertyTypeDefinition;
 import vtk.repository.resourcetype.Value;
 import vtk.resourcemanagement.view.tl.ComponentInvokerNodeFactory;
+import vtk.text.html.HtmlPageParser;
 import vtk.text.tl.CaptureHandler;
 import vtk.text.tl.Context;
 import vtk.text.tl.DefineHandler;
@@ -75,9 +76,11 @@ public class DynamicDecoratorTemplateFactory implements TemplateFactory, Initial
     private List<DirectiveHandler> directiveHandlers;
     private FunctionResolver functionResolver = new FunctionResolver();
     private ComponentResolver componentResolver;
+    private int staleCheckSeconds = -1;
 
     public Template newTemplate(InputSource templateSource) throws InvalidTemplateException {
-        return new DynamicDecoratorTemplate(templateSource, this.componentResolver, this.directiveHandlers, null);
+        return new DynamicDecoratorTemplate(templateSource, this.componentResolver, 
+                this.directiveHandlers, null, this.staleCheckSeconds);
     }
 
     @Required
@@ -134,6 +137,14 @@ public class DynamicDecoratorTemplateFactory implements TemplateFactory, Initial
         this.functionResolver = functionResolver;
     }
 
+    /**
+     * @see DynamicDecoratorTemplate#DynamicDecoratorTemplate(InputSource,
+     * ComponentResolver, List, HtmlPageParser, int)
+     */
+    public void setStaleCheckSeconds(int staleCheckSeconds) {
+        this.staleCheckSeconds = staleCheckSeconds;
+    }
+
     private static class RepositoryIDFunction extends Function {
         private Repository repository;
         public RepositoryIDFunction(Symbol symbol, Repository repository) {
@@ -41,13 +41,14 @@ public class SimpleDynamicDecoratorTemplateFactory implements TemplateFactory {
     private ComponentResolver componentResolver;
     private List<DirectiveHandler> directiveHandlers;
     private HtmlPageParser htmlParser = null;
+    private int staleCheckSeconds = -1;
 
     
     @Override
     public Template newTemplate(InputSource templateSource)
             throws InvalidTemplateException {
         return new DynamicDecoratorTemplate(templateSource, this.componentResolver, 
-                this.directiveHandlers, this.htmlParser);
+                this.directiveHandlers, this.htmlParser, this.staleCheckSeconds);
     }
 
     public void setComponentResolver(ComponentResolver componentResolver) {
@@ -62,4 +63,12 @@ public class SimpleDynamicDecoratorTemplateFactory implements TemplateFactory {
         this.htmlParser = htmlParser;
     }
 
+    /**
+     * @see DynamicDecoratorTemplate#DynamicDecoratorTemplate(InputSource,
+     * ComponentResolver, List, HtmlPageParser, int)
+     */
+    public void setStaleCheckSeconds(int staleCheckSeconds) {
+        this.staleCheckSeconds = staleCheckSeconds;
+    }
+
 }
@@ -65,11 +65,26 @@ public class TextualDecoratorTemplate implements Template {
     private ComponentResolver componentResolver;
     private InputSource templateSource;
     private Optional<Instant> lastModified = Optional.empty();
+    private int staleCheckSeconds;
+    private volatile long lastStaleCheck = 0;
     
 
     public TextualDecoratorTemplate(TextualComponentParser parser,
                                      InputSource templateSource,
                                      ComponentResolver componentResolver) throws InvalidTemplateException {
+        this(parser, templateSource, componentResolver, 0);
+    }
+
+    /**
+     * @param staleCheckSeconds minimum number of seconds between checks of
+     * the template source for modifications when rendering. Zero checks on
+     * every render, a negative value never checks, leaving it to the
+     * template manager to replace the template when its source changes.
+     */
+    public TextualDecoratorTemplate(TextualComponentParser parser,
+                                     InputSource templateSource,
+                                     ComponentResolver componentResolver,
+                                     int staleCheckSeconds) throws InvalidTemplateException {
         if (parser == null) {
             throw new IllegalArgumentException("Argument 'parser' is NULL");
         }
@@ -82,6 +97,7 @@ public class TextualDecoratorTemplate implements Template {
         this.parser = parser;
         this.templateSource = templateSource;
         this.componentResolver = componentResolver;
+        this.staleCheckSeconds = staleCheckSeconds;
         try {
             compile();
         } catch (Exception e) {
@@ -97,7 +113,7 @@ public class TextualDecoratorTemplate implements Template {
             HttpServletRequest request, Map<String, Object> model,
             Map<String, Object> templateParameters) {
 
-        if (needCompile()) {
+        if (staleCheckDue() && needCompile()) {
             compile();
         }
         try (Writer writer = new OutputStreamWriter(out)){
@@ -167,6 +183,15 @@ public class TextualDecoratorTemplate implements Template {
         return result;
     }
     
+    private boolean staleCheckDue() {
+        if (staleCheckSeconds < 0) return false;
+        if (staleCheckSeconds == 0) return true;
+        long now = System.currentTimeMillis();
+        if (now - lastStaleCheck < staleCheckSeconds * 1000L) return false;
+        lastStaleCheck = now;
+        return true;
+    }
+
     private boolean needCompile() {
         Optional<Instant> templateMod = templateSource.getLastModified();
         if (!templateMod.isPresent() || !lastModified.isPresent()) return true;
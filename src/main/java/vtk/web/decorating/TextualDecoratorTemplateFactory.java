@@ -38,6 +38,7 @@ public class TextualDecoratorTemplateFactory implements TemplateFactory {
 
     private TextualComponentParser parser;
     private ComponentResolver componentResolver;
+    private int staleCheckSeconds = 0;
 
     public TextualDecoratorTemplateFactory(TextualComponentParser parser, 
             ComponentResolver componentResolver) {
@@ -47,6 +48,17 @@ public class TextualDecoratorTemplateFactory implements TemplateFactory {
 
 
     public Template newTemplate(InputSource templateSource) throws InvalidTemplateException {
-        return new TextualDecoratorTemplate(this.parser, templateSource, this.componentResolver);
+        return new TextualDecoratorTemplate(this.parser, templateSource, 
+                this.componentResolver, this.staleCheckSeconds);
+    }
+
+    /**
+     * Sets the minimum number of seconds between modification checks of
+     * template sources on render (default <code>0</code>, check on every
+     * render). Negative values disable the check, for templates that are
+     * reloaded by the template manager on repository events.
+     */
+    public void setStaleCheckSeconds(int staleCheckSeconds) {
+        this.staleCheckSeconds = staleCheckSeconds;
     }
 }
@@ -39,6 +39,9 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import com.sun.syndication.feed.synd.SyndEntry;
 import com.sun.syndication.feed.synd.SyndFeed;
@@ -66,10 +69,21 @@ public class AggregatedFeedsComponent extends AbstractFeedComponent {
     
     private LocalFeedFetcher localFeedFetcher;
 
+    private ExecutorService fetchExecutor;
+
     public void setContentCache(ContentCache<String, SyndFeed> cache) {
         this.cache = cache;
     }
 
+    /**
+     * Set executor used to fetch remote feeds concurrently. If not set,
+     * feeds are fetched one at a time in the request thread.
+     * @param fetchExecutor the executor
+     */
+    public void setFetchExecutor(ExecutorService fetchExecutor) {
+        this.fetchExecutor = fetchExecutor;
+    }
+
     public void setLocalFeedFetcher(LocalFeedFetcher localFeedFetcher) {
         this.localFeedFetcher = localFeedFetcher;
     }
@@ -249,11 +263,39 @@ public class AggregatedFeedsComponent extends AbstractFeedComponent {
         });
     }
 
+    private SyndFeed getRemoteFeed(Future<SyndFeed> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+
     void parseFeeds(DecoratorRequest request, List<SyndEntry> entries, Map<SyndEntry, SyndFeed> feedMapping,
             Map<String, String> imgMap, Map<String, String> descriptionNoImage, URL requestURL, String[] urlArray)
             throws Exception {
         RequestContext requestContext = RequestContext
                 .getRequestContext(request.getServletRequest());
+
+        // Start fetching all remote feeds at once, so that total latency is
+        // that of the slowest feed. Local feeds need the request context
+        // and are fetched in this thread.
+        Map<String, Future<SyndFeed>> remoteFeeds = new HashMap<>();
+        if (this.fetchExecutor != null) {
+            for (String url : urlArray) {
+                final String remoteURL = url.trim();
+                URL feedURL = requestURL.relativeURL(remoteURL);
+                if (!feedURL.getHost().equals(requestURL.getHost())
+                        && !remoteFeeds.containsKey(remoteURL)) {
+                    remoteFeeds.put(remoteURL, this.fetchExecutor.submit(() -> this.cache.get(remoteURL)));
+                }
+            }
+        }
+
         for (String url : urlArray) {
             url = url.trim();
             SyndFeed tmpFeed = null;
@@ -267,7 +309,8 @@ public class AggregatedFeedsComponent extends AbstractFeedComponent {
                 }
                 else {
                     baseURL = new URL(feedURL);
-                    tmpFeed = this.cache.get(url);
+                    Future<SyndFeed> future = remoteFeeds.get(url);
+                    tmpFeed = future != null ? getRemoteFeed(future) : this.cache.get(url);
                 }
             }
             catch (Exception e) {
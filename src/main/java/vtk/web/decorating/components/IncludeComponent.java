@@ -34,13 +34,14 @@ import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Writer;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.regex.Pattern;
 
-import javax.servlet.RequestDispatcher;
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -57,11 +58,13 @@ import vtk.repository.Resource;
 import vtk.repository.ResourceNotFoundException;
 import vtk.repository.search.preprocessor.QueryStringPreProcessor;
 import vtk.security.AuthenticationException;
+import vtk.security.Principal;
 import vtk.text.html.HtmlElement;
 import vtk.text.html.HtmlPage;
 import vtk.text.html.HtmlPageParser;
 import vtk.text.html.HtmlUtil;
 import vtk.util.cache.ContentCache;
+import vtk.util.cache.LruCache;
 import vtk.util.io.IO;
 import vtk.util.repository.ContentTypeHelper;
 import vtk.web.RequestContext;
@@ -70,7 +73,7 @@ import vtk.web.decorating.DecoratorResponse;
 import vtk.web.service.URL;
 import vtk.web.servlet.BufferedResponse;
 import vtk.web.servlet.ConfigurableRequestWrapper;
-import vtk.web.servlet.VTKServlet;
+import vtk.web.servlet.IncludeDispatcher;
 
 
 public class IncludeComponent extends AbstractDecoratorComponent
@@ -105,6 +108,8 @@ implements ServletContextAware {
 
     private ServletContext servletContext;
     private ContentCache<String, URLObject> httpIncludeCache;
+    private Map<String, CachedInclude> virtualIncludeCache;
+    private int virtualIncludeCacheMaxEntrySize = 100000;
     private HtmlPageParser htmlParser;
     private QueryStringPreProcessor uriPreProcessor;
 
@@ -114,6 +119,20 @@ implements ServletContextAware {
         this.servletContext = servletContext;
     }
 
+    /**
+     * Sets the maximum number of cached virtual includes. The output of
+     * virtual includes is not cached unless this is a positive number.
+     * @param virtualIncludeCacheSize the maximum number of cache entries
+     */
+    public void setVirtualIncludeCacheSize(int virtualIncludeCacheSize) {
+        this.virtualIncludeCache = virtualIncludeCacheSize > 0 
+                ? Collections.synchronizedMap(new LruCache<>(virtualIncludeCacheSize)) : null;
+    }
+
+    public void setVirtualIncludeCacheMaxEntrySize(int virtualIncludeCacheMaxEntrySize) {
+        this.virtualIncludeCacheMaxEntrySize = virtualIncludeCacheMaxEntrySize;
+    }
+
     /**
      *
      * @param httpIncludeCache
@@ -346,31 +365,40 @@ implements ServletContextAware {
         
         requestWrapper.setHeader("If-Modified-Since", null);
 
-        BufferedResponse servletResponse = new BufferedResponse(200);
+        // Only the validator of a cached response is passed on, 
+        // never the ones sent by the client:
+        Optional<String> cacheKey = virtualIncludeCacheKey(url, servletRequest);
+        CachedInclude cached = cacheKey.map(key -> virtualIncludeCache.get(key))
+                .orElse(null);
+        requestWrapper.setHeader("If-None-Match", cached != null ? cached.etag : null);
 
+        BufferedResponse servletResponse = new BufferedResponse(200);
         try {
             requestWrapper.setAttribute(INCLUDE_ATTRIBUTE_NAME, new Object());
-            String servletName = (String) servletRequest
-            .getAttribute(VTKServlet.SERVLET_NAME_REQUEST_ATTRIBUTE);
-
-            RequestDispatcher rd = servletContext
-            .getNamedDispatcher(servletName);
-            if (rd == null) {
-                throw new RuntimeException("No request dispatcher for name '"
-                        + servletName + "' available");
-            }
-
-            rd.forward(requestWrapper, servletResponse);
-
-            if (servletResponse.getStatus() != HttpServletResponse.SC_OK) {
-                throw new DecoratorComponentException("Included resource '"
-                        + uri + "' returned HTTP status code "
-                        + servletResponse.getStatus());
-            }
+            IncludeDispatcher.dispatch(servletContext, servletRequest, 
+                    requestWrapper, servletResponse);
         } finally {
             requestWrapper.setAttribute(INCLUDE_ATTRIBUTE_NAME, null);
         }
 
+        if (cached != null && servletResponse.getStatus() == HttpServletResponse.SC_NOT_MODIFIED) {
+            servletResponse = cached.response;
+        }
+        else if (servletResponse.getStatus() != HttpServletResponse.SC_OK) {
+            throw new DecoratorComponentException("Included resource '"
+                    + uri + "' returned HTTP status code "
+                    + servletResponse.getStatus());
+        }
+        else if (cacheKey.isPresent()) {
+            String etag = servletResponse.getHeader("ETag");
+            if (etag != null && servletResponse.getContentLength() <= virtualIncludeCacheMaxEntrySize) {
+                virtualIncludeCache.put(cacheKey.get(), new CachedInclude(etag, servletResponse));
+            }
+            else {
+                virtualIncludeCache.remove(cacheKey.get());
+            }
+        }
+
         if (!ContentTypeHelper.isTextContentType(servletResponse.getContentType())) {
             throw new DecoratorComponentException(
                     "Cannot include URI '" + uri + "': not a textual resource. " +
@@ -404,6 +432,32 @@ implements ServletContextAware {
     }
     
     
+    /**
+     * The output of virtual includes is cached per URL, principal and 
+     * locale, and reused as long as the included request answers the
+     * cached <code>ETag</code> with <code>304 Not Modified</code>.
+     */
+    private Optional<String> virtualIncludeCacheKey(URL url, HttpServletRequest servletRequest) {
+        if (virtualIncludeCache == null) {
+            return Optional.empty();
+        }
+        RequestContext requestContext = RequestContext.getRequestContext(servletRequest);
+        Principal principal = requestContext.getPrincipal();
+        return Optional.of(url + ":" 
+                + (principal == null ? "" : principal.getQualifiedName()) + ":"
+                + requestContext.getLocale());
+    }
+
+    private static final class CachedInclude {
+        private final String etag;
+        private final BufferedResponse response;
+
+        CachedInclude(String etag, BufferedResponse response) {
+            this.etag = etag;
+            this.response = response;
+        }
+    }
+
     private void handleHttpInclude(String uri,
             DecoratorRequest request, DecoratorResponse response) throws Exception {
         URLObject obj = httpIncludeCache.get(uri);
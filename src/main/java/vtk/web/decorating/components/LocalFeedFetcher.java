@@ -33,7 +33,6 @@ package vtk.web.decorating.components;
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 
-import javax.servlet.RequestDispatcher;
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -47,7 +46,7 @@ import vtk.web.decorating.DecoratorRequest;
 import vtk.web.service.URL;
 import vtk.web.servlet.BufferedResponse;
 import vtk.web.servlet.ConfigurableRequestWrapper;
-import vtk.web.servlet.VTKServlet;
+import vtk.web.servlet.IncludeDispatcher;
 
 public class LocalFeedFetcher implements ServletContextAware {
 
@@ -73,43 +72,39 @@ public class LocalFeedFetcher implements ServletContextAware {
         ConfigurableRequestWrapper requestWrapper = new ConfigurableRequestWrapper(servletRequest, url);
         requestWrapper.setAttribute(IncludeComponent.INCLUDE_ATTRIBUTE_NAME, new Object());
 
-        String servletName = (String) servletRequest
-                .getAttribute(VTKServlet.SERVLET_NAME_REQUEST_ATTRIBUTE);
-
-        RequestDispatcher rd = this.servletContext.getNamedDispatcher(servletName);
-
-        if (rd == null) {
-            throw new RuntimeException("No request dispatcher for name '"
-                    + servletName + "' available");
-        }
-
         BufferedResponse servletResponse = new BufferedResponse(200);
-        rd.forward(requestWrapper, servletResponse);
-
-        int status = servletResponse.getStatus();
-        
-        // Follow one redirect:
-        if (status == HttpServletResponse.SC_MOVED_PERMANENTLY 
-                || status == HttpServletResponse.SC_MOVED_TEMPORARILY) {
-            for (String name: servletResponse.getHeaderNames()) {
-                if ("Location".equals(name)) {
-                    String value = (String) servletResponse.getHeaderValue(name);
-                    URL location = URL.parse(value);
-
-                    if (location.getHost().equals(url.getHost())) {
-                         requestWrapper = new ConfigurableRequestWrapper(
-                                 servletRequest, location);
-                        servletResponse = new BufferedResponse(200);
-                        rd.forward(requestWrapper, servletResponse);
+        try {
+            IncludeDispatcher.dispatch(servletContext, servletRequest, 
+                    requestWrapper, servletResponse);
+
+            int status = servletResponse.getStatus();
+
+            // Follow one redirect:
+            if (status == HttpServletResponse.SC_MOVED_PERMANENTLY 
+                    || status == HttpServletResponse.SC_MOVED_TEMPORARILY) {
+                for (String name: servletResponse.getHeaderNames()) {
+                    if ("Location".equals(name)) {
+                        String value = (String) servletResponse.getHeaderValue(name);
+                        URL location = URL.parse(value);
+
+                        if (location.getHost().equals(url.getHost())) {
+                            requestWrapper = new ConfigurableRequestWrapper(
+                                    servletRequest, location);
+                            servletResponse = new BufferedResponse(200);
+                            IncludeDispatcher.dispatch(servletContext, servletRequest, 
+                                    requestWrapper, servletResponse);
+                        }
                     }
                 }
             }
         }
-        
+        finally {
+            requestWrapper.setAttribute(IncludeComponent.INCLUDE_ATTRIBUTE_NAME, null);
+        }
+
         if (servletResponse.getStatus() != HttpServletResponse.SC_OK) {
             return null;
         }
-        requestWrapper.setAttribute(IncludeComponent.INCLUDE_ATTRIBUTE_NAME, null);
         return new ByteArrayInputStream(servletResponse.getContentBuffer());
     }
 
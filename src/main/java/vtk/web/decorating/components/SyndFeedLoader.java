@@ -63,7 +63,7 @@ public class SyndFeedLoader extends URLConnectionCacheLoader<SyndFeed> {
     
     @Override
     protected SyndFeed handleConnection(URLConnection connection) throws Exception {
-        InputStream stream = connection.getInputStream();
+        InputStream stream = getInputStream(connection);
         SyndFeed feed = this.builder.build(stream);
         feed.setUri(connection.getURL().toExternalForm());
         return feed;
@@ -79,7 +79,7 @@ public class URLObjectLoader extends URLConnectionCacheLoader<URLObject> {
             contentType = contentType.substring(0, contentType.indexOf(";")).trim();
         }
 
-        InputStream stream = connection.getInputStream();
+        InputStream stream = getInputStream(connection);
         byte[] buf;
         if (maxLength > 0) {
             buf = IO.read(stream).limit(maxLength).perform();
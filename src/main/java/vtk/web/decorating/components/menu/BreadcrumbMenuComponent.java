@@ -31,6 +31,8 @@
 package vtk.web.decorating.components.menu;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -220,7 +222,13 @@ public class BreadcrumbMenuComponent extends ListMenuComponent {
             }
         }
 
-        for (Resource r : resources) {
+        // Remove resources that current principal is not allowed to access
+        // (they may appear when using Repository.loadChildren).
+        BitSet readable = repository.authorize(principal, 
+                Arrays.asList(resources), Privilege.READ_PROCESSED);
+
+        for (int i = 0; i < resources.length; i++) {
+            Resource r = resources[i];
             // Filtering:
             if (!r.isCollection()) {
                 continue;
@@ -241,9 +249,7 @@ public class BreadcrumbMenuComponent extends ListMenuComponent {
             if (!r.isPublished() && (!r.getURI().equals(uri) && requestContext.isPreviewUnpublished())) {
                 continue;
             }
-            // Remove resources that current principal is not allowed to access
-            // (they may appear when using Repository.loadChildren).
-            if (!repository.authorize(principal, r.getAcl(), Privilege.READ_PROCESSED)) {
+            if (!readable.get(i)) {
                 continue;
             }
 
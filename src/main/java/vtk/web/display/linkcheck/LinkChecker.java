@@ -38,11 +38,24 @@ import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.UnknownHostException;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -64,6 +77,10 @@ public class LinkChecker {
     private String userAgent = "Link checker";
     private List<String> blackListConfig = new ArrayList<>();
     private List<Pattern> blackList = new ArrayList<>();
+    private ExecutorService executor;
+    private int maxConnectionsPerHost = 2;
+    private long permitWaitMillis = 1000;
+    private final Map<String, HostPermits> hostPermits = new ConcurrentHashMap<>();
 
     public static final class LinkCheckRequest {
         private String href;
@@ -181,6 +198,162 @@ public class LinkChecker {
         return result;
     }
     
+    /**
+     * Validates a list of links, concurrently if an executor is set.
+     * 
+     * <p>Links are grouped by host, and no more than
+     * {@link #setMaxConnectionsPerHost(int) maxConnectionsPerHost} links to
+     * the same host are checked at a time (also across concurrent calls), 
+     * so that a single slow host cannot occupy all workers. If a host is 
+     * busy with other calls for more than 
+     * {@link #setPermitWaitMillis(long) permitWaitMillis}, the remaining 
+     * links to that host are given up. Links that have not been checked, 
+     * either because of this or because the deadline passed, get status 
+     * {@link Status#TIMEOUT}.
+     * 
+     * @param requests the links to check
+     * @param deadline the time at which to give up waiting for results
+     * @return the results, in the same order as the requests
+     * @throws InterruptedException if the calling thread is interrupted
+     * while waiting for results
+     */
+    public List<LinkCheckResult> validate(List<LinkCheckRequest> requests, 
+            Instant deadline) throws InterruptedException {
+        final AtomicReferenceArray<LinkCheckResult> results = 
+                new AtomicReferenceArray<>(requests.size());
+
+        if (executor == null) {
+            for (int i = 0; i < requests.size(); i++) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                if (!Instant.now().isBefore(deadline)) break;
+                results.set(i, validate(requests.get(i)));
+            }
+            return collect(requests, results);
+        }
+
+        Map<String, Queue<Integer>> byHost = new LinkedHashMap<>();
+        for (int i = 0; i < requests.size(); i++) {
+            byHost.computeIfAbsent(host(requests.get(i)), 
+                    h -> new ConcurrentLinkedQueue<>()).add(i);
+        }
+        
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (Map.Entry<String, Queue<Integer>> entry: byHost.entrySet()) {
+                final String host = entry.getKey();
+                final Queue<Integer> queue = entry.getValue();
+                int workers = Math.min(maxConnectionsPerHost, queue.size());
+                for (int w = 0; w < workers; w++) {
+                    futures.add(executor.submit(() -> {
+                        // Workers may outlive this call (a cancelled check 
+                        // does not necessarily stop blocking I/O), so the 
+                        // host is only released when the worker finishes:
+                        Semaphore permits = acquireHost(host);
+                        try {
+                            Integer i;
+                            while ((i = queue.poll()) != null) {
+                                long remaining = deadline.toEpochMilli() - System.currentTimeMillis();
+                                long wait = Math.min(remaining, permitWaitMillis);
+                                if (remaining <= 0 || !permits.tryAcquire(wait, TimeUnit.MILLISECONDS)) {
+                                    return null;
+                                }
+                                try {
+                                    results.set(i, validate(requests.get(i)));
+                                }
+                                finally {
+                                    permits.release();
+                                }
+                            }
+                            return null;
+                        }
+                        finally {
+                            releaseHost(host);
+                        }
+                    }));
+                }
+            }
+
+            for (Future<?> f: futures) {
+                long remaining = deadline.toEpochMilli() - System.currentTimeMillis();
+                if (remaining <= 0) break;
+                try {
+                    f.get(remaining, TimeUnit.MILLISECONDS);
+                }
+                catch (TimeoutException e) {
+                    break;
+                }
+                catch (ExecutionException e) {
+                    logger.warn("Link check failed", e.getCause());
+                }
+            }
+        }
+        finally {
+            for (Future<?> f: futures) {
+                f.cancel(true);
+            }
+        }
+        return collect(requests, results);
+    }
+
+    /**
+     * Per host connection permits, shared by the workers of concurrent 
+     * calls to {@link LinkChecker#validate(List, Instant)}. Entries are 
+     * removed when the last worker using the host finishes, so the map 
+     * only holds hosts currently being checked, and permits held by 
+     * workers still running after a timeout remain counted.
+     */
+    private static final class HostPermits {
+        private final Semaphore permits;
+        private int users = 0;
+
+        private HostPermits(int permits) {
+            this.permits = new Semaphore(permits);
+        }
+    }
+
+    private Semaphore acquireHost(String host) {
+        return hostPermits.compute(host, (h, p) -> {
+            if (p == null) {
+                p = new HostPermits(maxConnectionsPerHost);
+            }
+            p.users++;
+            return p;
+        }).permits;
+    }
+
+    private void releaseHost(String host) {
+        hostPermits.computeIfPresent(host, (h, p) -> --p.users == 0 ? null : p);
+    }
+    
+    private List<LinkCheckResult> collect(List<LinkCheckRequest> requests, 
+            AtomicReferenceArray<LinkCheckResult> results) {
+        LinkCheckResult[] list = new LinkCheckResult[requests.size()];
+        for (int i = 0; i < list.length; i++) {
+            LinkCheckResult r = results.get(i);
+            if (r == null) {
+                r = new LinkCheckResult(requests.get(i).href(), 
+                        Status.TIMEOUT, "Deadline exceeded");
+            }
+            list[i] = r;
+        }
+        return Arrays.asList(list);
+    }
+    
+    private String host(LinkCheckRequest request) {
+        String href = request.href();
+        if (URL.isRelativeURL(href)) {
+            return request.base().getHost();
+        }
+        try {
+            return new java.net.URL(href).getHost().toLowerCase();
+        }
+        catch (MalformedURLException e) {
+            return "";
+        }
+    }
+    
     private boolean isASCII(String s) {
         for (int i = 0; i < s.length(); i++) {
             if (s.charAt(i) > 0x7f) return false;
@@ -412,6 +585,36 @@ public class LinkChecker {
         this.readTimeout = readTimeout;
     }
     
+    /**
+     * Set executor used by {@link #validate(List, Instant)} to check links
+     * concurrently. If not set, links are checked one at a time in the 
+     * calling thread.
+     * @param executor the executor
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+    
+    /**
+     * Set how long a worker waits for a connection permit to a host which 
+     * is busy with links from other calls, before giving up the remaining 
+     * links to that host. Default is 1000 ms.
+     * @param permitWaitMillis the maximum wait, in milliseconds
+     */
+    public void setPermitWaitMillis(long permitWaitMillis) {
+        if (permitWaitMillis < 0) {
+            throw new IllegalArgumentException("Permit wait must be >= 0");
+        }
+        this.permitWaitMillis = permitWaitMillis;
+    }
+
+    public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+        if (maxConnectionsPerHost < 1) {
+            throw new IllegalArgumentException("Max connections per host must be an integer >= 1");
+        }
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+    }
+
     public void setUserAgent(String userAgent) {
         this.userAgent = userAgent;
     }
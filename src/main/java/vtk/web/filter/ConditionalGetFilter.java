@@ -0,0 +1,239 @@
+/* Copyright (c) 2017, University of Oslo, Norway
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ *  * Neither the name of the University of Oslo nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package vtk.web.filter;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+
+import vtk.repository.RepositoryAction;
+import vtk.repository.Resource;
+import vtk.security.Principal;
+import vtk.util.codec.Digest;
+import vtk.util.web.HttpUtil;
+import vtk.web.RequestContext;
+import vtk.web.service.Service;
+import vtk.web.servlet.AbstractServletFilter;
+
+/**
+ * Answers conditional GET and HEAD requests (<code>If-None-Match</code>,
+ * <code>If-Modified-Since</code>) with <code>304 Not Modified</code>
+ * before the controller, view and decoration pipeline is invoked.
+ *
+ * <p>The filter applies to services having (or inheriting) the attribute
+ * <code>conditional-get = true</code>, which should only be set on services
+ * rendering or decorating a (non-collection) resource. The resource is the
+ * one already retrieved for the {@link RequestContext}. The validator is
+ * computed from the resource's ETag, the principal, the service, the query
+ * string, the requested languages and a version number covering templates
+ * and decorators. The version is incremented by calling
+ * {@link #incrementVersion()}, typically from a
+ * {@link vtk.util.repository.MethodInvokingRepositoryEventTrigger}.
+ * Eligible responses are given the validator as a weak <code>ETag</code>
+ * header, as the rendered output is not necessarily byte for byte
+ * identical. <code>If-Modified-Since</code> is compared against the latest
+ * of the resource's last modified time and the time of the last version
+ * increment.
+ *
+ * <p>Metrics (prefix <code>conditionalGet.</code>): the number of 304
+ * responses, full responses and the estimated rendering time saved (based
+ * on the mean processing time of full responses, computed when reported).
+ */
+public class ConditionalGetFilter extends AbstractServletFilter {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConditionalGetFilter.class);
+
+    private static final String SERVICE_ATTRIBUTE = "conditional-get";
+
+    // Start from the current time, so that validators issued before a
+    // restart (possibly with other templates) are not reused:
+    private final AtomicLong version = new AtomicLong(System.currentTimeMillis());
+    private volatile long versionTimestamp = System.currentTimeMillis();
+
+    private final Meter notModified;
+    private final Meter rendered;
+    private final Histogram renderingTime;
+    private final AtomicLong renderingMillis = new AtomicLong();
+
+    public ConditionalGetFilter(MetricRegistry registry) {
+        this.notModified = registry.meter("conditionalGet.notModified");
+        this.rendered = registry.meter("conditionalGet.rendered");
+        this.renderingTime = registry.histogram("conditionalGet.rendering.time");
+        registry.register("conditionalGet.saved.time", (Gauge<Long>) () -> {
+            long count = rendered.getCount();
+            return count == 0 ? 0 : notModified.getCount() * renderingMillis.get() / count;
+        });
+    }
+
+    /**
+     * Invalidates all previously issued validators. Should be called
+     * when templates or decorators change.
+     */
+    public void incrementVersion() {
+        version.incrementAndGet();
+        versionTimestamp = System.currentTimeMillis();
+        if (logger.isDebugEnabled()) {
+            logger.debug("Validator version incremented: " + version.get());
+        }
+    }
+
+    @Override
+    protected void doFilter(HttpServletRequest request,
+            HttpServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        String method = request.getMethod();
+        if (!"GET".equals(method) && !"HEAD".equals(method)) {
+            chain.doFilter(request, response);
+            return;
+        }
+        RequestContext requestContext = RequestContext.getRequestContext(request);
+        if (requestContext == null || !requestContext.isInRepository() || !enabled(requestContext.getService())) {
+            chain.doFilter(request, response);
+            return;
+        }
+        Resource resource = readableResource(requestContext);
+        if (resource == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        String etag = validator(resource, requestContext, request);
+        long lastModified = Math.max(resource.getLastModified().getTime(), versionTimestamp);
+
+        if (notModified(request, etag, lastModified)) {
+            if (logger.isDebugEnabled()) {
+                logger.debug(requestContext.getResourceURI() + ": not modified: " + etag);
+            }
+            notModified.mark();
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            response.setHeader("ETag", etag);
+            return;
+        }
+
+        response.setHeader("ETag", etag);
+        long start = System.currentTimeMillis();
+        chain.doFilter(request, response);
+        long elapsed = System.currentTimeMillis() - start;
+        renderingMillis.addAndGet(elapsed);
+        rendered.mark();
+        renderingTime.update(elapsed);
+    }
+
+    private boolean enabled(Service service) {
+        while (service != null) {
+            Object attribute = service.getAttribute(SERVICE_ATTRIBUTE);
+            if (Boolean.TRUE.equals(attribute) || "true".equals(attribute)) {
+                return true;
+            }
+            service = service.getParent();
+        }
+        return false;
+    }
+
+    private Resource readableResource(RequestContext requestContext) {
+        Resource resource = requestContext.getResource();
+        // Previews may display other revisions than the current one
+        if (resource == null || resource.isCollection() || requestContext.isPreviewUnpublished()) {
+            return null;
+        }
+        try {
+            // The request context resource is retrieved with a trusted token:
+            if (!requestContext.getRepository().isAuthorized(resource, 
+                    RepositoryAction.READ_PROCESSED, requestContext.getPrincipal(), false)) {
+                return null;
+            }
+            return resource;
+        }
+        catch (Throwable t) {
+            // Leave error handling to the controller
+            return null;
+        }
+    }
+
+    private String validator(Resource resource, RequestContext requestContext, 
+            HttpServletRequest request) {
+        Principal principal = requestContext.getPrincipal();
+        StringBuilder sb = new StringBuilder(resource.getEtag());
+        sb.append(':').append(principal != null ? principal.getQualifiedName() : "");
+        sb.append(':').append(requestContext.getService().getName());
+        String query = request.getQueryString();
+        sb.append(':').append(query != null ? query : "");
+        String acceptLanguage = request.getHeader("Accept-Language");
+        sb.append(':').append(acceptLanguage != null ? acceptLanguage : "");
+        sb.append(':').append(version.get());
+        return "W/\"" + Digest.md5().data(sb.toString()).compute() + "\"";
+    }
+
+    static boolean notModified(HttpServletRequest request, String etag, long lastModified) {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            String opaque = opaque(etag);
+            for (String candidate: ifNoneMatch.split(",")) {
+                candidate = candidate.trim();
+                if ("*".equals(candidate) || opaque.equals(opaque(candidate))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        String ifModifiedSince = request.getHeader("If-Modified-Since");
+        if (ifModifiedSince != null) {
+            Date since = HttpUtil.parseHttpDate(ifModifiedSince);
+            if (since != null) {
+                return lastModified / 1000 <= since.getTime() / 1000;
+            }
+        }
+        return false;
+    }
+
+    private static String opaque(String etag) {
+        // Weak comparison (RFC 7232, section 2.3.2)
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "(" + version.get() + ")";
+    }
+}
@@ -34,9 +34,11 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.UncheckedIOException;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
@@ -45,6 +47,8 @@ import java.util.concurrent.TimeoutException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import com.codahale.metrics.MetricRegistry;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.web.HttpRequestHandler;
@@ -63,6 +67,11 @@ public class JavascriptHandler implements HttpRequestHandler {
     private ScriptURIResolver resolver;
 
     private Map<String, Module> modules = new HashMap<>();
+    private Optional<MetricRegistry> metricRegistry = Optional.empty();
+    // Scripts with metrics of their own. Script URIs are request
+    // controlled, so only existing scripts are added, up to a limit:
+    private final Set<Path> meteredScripts = new HashSet<>();
+    private int maxMeteredScripts = 100;
     
     public static ScriptURIResolver resourceTypeResolver(String prefix) {
         return request -> {
@@ -132,20 +141,24 @@ public class JavascriptHandler implements HttpRequestHandler {
         BufferedResponse bufferedResponse = new BufferedResponse(200);
         
         
+        // Script objects and callbacks must stay on one engine thread:
+        JavascriptEngine engine = scriptEngine.pin();
+        long start = System.nanoTime();
+        
         CompletableFuture<ScriptObjectMirror> handlerFunction = 
-                scriptEngine.compiledFunction(scriptURI.toString(), "handler");
+                engine.compiledFunction(scriptURI.toString(), "handler");
         
         CompletableFuture<CallContext> callContextFuture = handlerFunction.thenComposeAsync(result -> {
                 CompletableFuture<Void> completionFuture = new CompletableFuture<>();
                 JSContext jsContext = new JSContext(request, bufferedResponse, completionFuture, 
-                        scriptEngine, modules);
+                        engine, modules);
                 
                 return CompletableFuture.completedFuture(
                         new CallContext(jsContext, result, completionFuture));
         });
         
         CompletableFuture<CallContext> invocationFuture = callContextFuture
-                .thenCompose(callCtx -> scriptEngine.execute(() -> {
+                .thenCompose(callCtx -> engine.execute(() -> {
                     callCtx.function.call(null, callCtx.context);
                     return callCtx;
                 }));
@@ -157,16 +170,19 @@ public class JavascriptHandler implements HttpRequestHandler {
         
         try {
             completion.get(10, TimeUnit.SECONDS);
+            executionTime(metricName(scriptURI, handlerFunction), start);
             logger.debug("Execution of script {} completed normally");
             bufferedResponse.writeTo(response, true);
         }
         catch (TimeoutException e) {
+            failure(metricName(scriptURI, handlerFunction), start);
             logger.debug("Execution of script {} for request {} timed out", 
                     scriptURI, request, e);
             error(response, "Execution of script " 
                     + scriptURI + " timed out (end() not called?)");
         }
         catch (ExecutionException e) {
+            failure(metricName(scriptURI, handlerFunction), start);
             logger.debug("Execution of script {} for request {} failed", 
                     scriptURI, request, e);
             Throwable cause = e.getCause();
@@ -182,12 +198,53 @@ public class JavascriptHandler implements HttpRequestHandler {
             }
         }
         catch (Throwable t) {
+            failure(metricName(scriptURI, handlerFunction), start);
             logger.debug("Execution of script {} for request {} failed", 
                     scriptURI, request, t);
             error(response, "Execution of script " + scriptURI + " failed: " + t.getMessage());
         }
     }
     
+    public void setMetricRegistry(MetricRegistry metricRegistry) {
+        this.metricRegistry = Optional.of(metricRegistry);
+    }
+
+    /**
+     * Sets the maximum number of scripts having metrics of their own.
+     * Other scripts are measured together. Default is <code>100</code>.
+     */
+    public void setMaxMeteredScripts(int maxMeteredScripts) {
+        if (maxMeteredScripts < 0) {
+            throw new IllegalArgumentException("Number must be zero or greater");
+        }
+        this.maxMeteredScripts = maxMeteredScripts;
+    }
+
+    private String metricName(Path scriptURI, CompletableFuture<?> handlerFunction) {
+        // The script exists if its handler function was compiled:
+        boolean resolved = handlerFunction.isDone() 
+                && !handlerFunction.isCompletedExceptionally();
+        synchronized (meteredScripts) {
+            if (resolved && (meteredScripts.contains(scriptURI) 
+                    || meteredScripts.size() < maxMeteredScripts && meteredScripts.add(scriptURI))) {
+                return "javascriptHandler.script." + scriptURI;
+            }
+        }
+        return "javascriptHandler.script.other";
+    }
+
+    private void executionTime(String metricName, long start) {
+        metricRegistry.ifPresent(registry -> 
+            registry.timer(metricName + ".time")
+                .update(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+    }
+
+    private void failure(String metricName, long start) {
+        executionTime(metricName, start);
+        metricRegistry.ifPresent(registry -> 
+            registry.meter(metricName + ".failures").mark());
+    }
+
     private void error(HttpServletResponse response, String message) throws IOException {
         response.setStatus(500);
         PrintWriter writer = response.getWriter();
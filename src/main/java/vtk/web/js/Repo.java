@@ -77,8 +77,8 @@ public class Repo implements Module {
     @Override
     public Object instance(JSContext context, JavascriptEngine engine) {
         Map<String, Object> module = new HashMap<>();
-        module.put("load", load(context));
-        module.put("search", search(context));
+        module.put("load", load(context, engine));
+        module.put("search", search(context, engine));
         return module;
     }
     
@@ -92,7 +92,8 @@ public class Repo implements Module {
     }
 
     @SuppressWarnings("restriction")
-    private BiConsumer<ScriptObjectMirror, ScriptObjectMirror> load(JSContext context) {
+    private BiConsumer<ScriptObjectMirror, ScriptObjectMirror> load(JSContext context, 
+            JavascriptEngine engine) {
         PropertySetMapper<MapContainer> mapper = jsonMapper(context.locale());
 
         return (params, callback) -> {
@@ -165,7 +166,7 @@ public class Repo implements Module {
     }
     
     @SuppressWarnings("restriction")
-    public Search search(JSContext context) {
+    public Search search(JSContext context, JavascriptEngine engine) {
         return (params, callback) -> {
             Result<SearchParams> searchParams = Result.attempt(() -> {
                 String query = Objects
@@ -34,6 +34,7 @@ import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -214,6 +215,9 @@ public class CollectionListingProvider implements ReferenceDataProvider {
             String[] permissionTooltips = new String[children.length];
             String[] browsingLinks = new String[children.length];
 
+            BitSet readable = repository.authorize(principal, 
+                    Arrays.asList(children), Privilege.READ);
+
             for (int i = 0; i < children.length; i++) {
                 Resource child = children[i];
                 Map<String, String> linkMap = new HashMap<>();
@@ -238,7 +242,7 @@ public class CollectionListingProvider implements ReferenceDataProvider {
                             .withPrincipal(principal)
                             .constructURL();
                                        // XXX: until we straighten out the manage service assertion configuration:
-                    if (repository.authorize(principal, child.getAcl(), Privilege.READ)) {
+                    if (readable.get(i)) {
                         browsingLinks[i] = url.toString();
                     }
                 }
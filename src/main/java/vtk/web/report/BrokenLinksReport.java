@@ -349,6 +349,7 @@ public class BrokenLinksReport extends DocumentReporter {
         }
 
         Accumulator accumulator = new Accumulator(includeTypes, excludeTypes);
+        search.setPriority(Search.Priority.REPORT);
         searcher.iterateMatching(token, search, accumulator);
         return accumulator.sum;
     }
@@ -402,6 +403,7 @@ public class BrokenLinksReport extends DocumentReporter {
             return accumulator;
         }
 
+        search.setPriority(Search.Priority.REPORT);
         searcher.iterateMatching(token, search, accumulator);
 
         // Remove entries with value of 0 or less
@@ -585,6 +587,7 @@ public class BrokenLinksReport extends DocumentReporter {
 
         Search search = new Search();
         search.setQuery(topLevelQ);
+        search.setPriority(Search.Priority.REPORT);
         Sorting sorting = new Sorting();
 
         if (sortPropDef == null) {
@@ -195,6 +195,7 @@ public class DiagramReport extends AbstractReporter {
         search.setSorting(null);
         search.setQuery(mainQuery);
         search.setLimit(0);
+        search.setPriority(Search.Priority.REPORT);
 
         return this.searcher.execute(token, search).getTotalHits();
     }
@@ -215,6 +216,7 @@ public class DiagramReport extends AbstractReporter {
         search.setSorting(null);
         search.setQuery(mainQuery);
         search.setLimit(0);
+        search.setPriority(Search.Priority.REPORT);
 
         return this.searcher.execute(token, search).getTotalHits();
     }
@@ -84,6 +84,7 @@ public abstract class DocumentReporter extends AbstractReporter {
         if (search == null) {
             return result;
         }
+        search.setPriority(Search.Priority.REPORT);
 
         Position pos = Position.create(request, pageSize);
         if (pos.cursor >= Search.DEFAULT_LIMIT) {
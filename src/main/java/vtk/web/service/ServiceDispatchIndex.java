@@ -0,0 +1,405 @@
+/* Copyright (c) 2017, University of Oslo, Norway
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ *  * Neither the name of the University of Oslo nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package vtk.web.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.servlet.http.HttpServletRequest;
+
+import vtk.util.cache.LruCache;
+
+/**
+ * Compiled dispatch structure for a set of {@link Service} trees.
+ *
+ * <p>Every service is compiled into a {@link Node}, where the leading
+ * assertions that depend only on the request (method, host name, port,
+ * protocol, request URI/path and request parameters) are separated
+ * from the rest. Only the <em>leading</em> request assertions are
+ * separated, so assertions are still evaluated in configured order,
+ * and assertions that may throw (e.g. authentication-requiring
+ * permission assertions) are never skipped or reordered.
+ *
+ * <p>Two optimizations are applied when resolving a request:
+ * <ul>
+ *   <li>Children of a node are indexed by the value of the request
+ *   parameter most of them assert on (typically <code>vrtx</code>),
+ *   so that only children which can possibly match are visited.
+ *   <li>The outcome of the request assertions of each node is
+ *   memoized per request signature (method, protocol, host, port, URI
+ *   and query string) for <code>GET</code> and <code>HEAD</code>
+ *   requests, so repeated requests for the same URL only evaluate
+ *   resource and principal dependent assertions.
+ * </ul>
+ *
+ * <p>Instances are thread safe. A {@link Dispatch} is created for
+ * each request and must not be shared between threads.
+ */
+public final class ServiceDispatchIndex {
+
+    private static final byte UNKNOWN = 0;
+    private static final byte MATCH = 1;
+    private static final byte NO_MATCH = 2;
+
+    private static final Set<Class<?>> REQUEST_ASSERTIONS = Collections.unmodifiableSet(
+            Stream.of(RequestMethodAssertion.class,
+                    RequestHostNameAssertion.class,
+                    RequestPortAssertion.class,
+                    RequestProtocolAssertion.class,
+                    RequestURIRegexpAssertion.class,
+                    RequestPathAssertion.class,
+                    RequestParameterAssertion.class,
+                    RequestParameterExistsAssertion.class)
+            .collect(Collectors.toSet()));
+
+    private final List<Node> roots;
+    private final List<Node> nodes = new ArrayList<>();
+    private final Map<String, byte[]> memo;
+    private final AtomicLong memoHits = new AtomicLong();
+    private final AtomicLong memoMisses = new AtomicLong();
+
+    /**
+     * Compiles service trees.
+     * @param roots the root services, in order
+     * @param childServices mapping from a service to its ordered children
+     * @param memoSize the maximum number of request signatures to
+     * memoize request assertion outcomes for (<code>0</code> disables
+     * memoization)
+     */
+    public ServiceDispatchIndex(List<Service> roots,
+            Map<Service, List<Service>> childServices, int memoSize) {
+        List<Node> compiled = new ArrayList<>();
+        for (Service root: roots) {
+            compiled.add(compile(root, childServices));
+        }
+        this.roots = Collections.unmodifiableList(compiled);
+        this.memo = memoSize > 0 ?
+                Collections.synchronizedMap(new LruCache<>(memoSize)) : null;
+    }
+
+    /**
+     * A compiled service.
+     */
+    public static final class Node {
+        private final int id;
+        private final Service service;
+        private final WebAssertion[] requestAssertions;
+        private final List<WebAssertion> assertions;
+        private Node[] children = new Node[0];
+        private ParameterIndex childIndex = null;
+
+        private Node(int id, Service service, List<WebAssertion> all) {
+            this.id = id;
+            this.service = service;
+            int n = 0;
+            while (n < all.size() && isRequestAssertion(all.get(n))) {
+                n++;
+            }
+            this.requestAssertions = all.subList(0, n).toArray(new WebAssertion[n]);
+            this.assertions = Collections.unmodifiableList(
+                    new ArrayList<>(all.subList(n, all.size())));
+        }
+
+        public Service service() {
+            return this.service;
+        }
+
+        /**
+         * @return the assertions of this service that are not handled
+         * by the index, in configured order
+         */
+        public List<WebAssertion> assertions() {
+            return this.assertions;
+        }
+
+        @Override
+        public String toString() {
+            return this.service.getName();
+        }
+    }
+
+    /**
+     * Per-request dispatch state.
+     */
+    public final class Dispatch {
+        private final HttpServletRequest request;
+        private final String signature;
+        private final byte[] state;
+        private boolean modified = false;
+
+        private Dispatch(HttpServletRequest request) {
+            this.request = request;
+            this.signature = signature(request);
+            byte[] memoized = (this.signature != null && memo != null) ?
+                    memo.get(this.signature) : null;
+            if (memoized != null) {
+                memoHits.incrementAndGet();
+                this.state = Arrays.copyOf(memoized, memoized.length);
+            } else {
+                if (this.signature != null && memo != null) {
+                    memoMisses.incrementAndGet();
+                }
+                this.state = new byte[nodes.size()];
+            }
+        }
+
+        public List<Node> roots() {
+            return roots;
+        }
+
+        /**
+         * @return whether the leading request assertions of a node
+         * match the request
+         */
+        public boolean requestMatches(Node node) {
+            byte s = this.state[node.id];
+            if (s == UNKNOWN) {
+                s = MATCH;
+                for (WebAssertion assertion: node.requestAssertions) {
+                    if (!assertion.matches(this.request, null, null)) {
+                        s = NO_MATCH;
+                        break;
+                    }
+                }
+                this.state[node.id] = s;
+                this.modified = true;
+            }
+            return s == MATCH;
+        }
+
+        /**
+         * @return the children of a node that may match the request,
+         * in order
+         */
+        public Node[] children(Node node) {
+            if (node.childIndex == null) {
+                return node.children;
+            }
+            return node.childIndex.candidates(this.request);
+        }
+
+        /**
+         * Records the outcome of the request assertions evaluated
+         * during this dispatch, for reuse by later requests with
+         * the same signature.
+         */
+        public void complete() {
+            if (this.modified && this.signature != null && memo != null) {
+                memo.put(this.signature, this.state);
+            }
+        }
+    }
+
+    public Dispatch dispatch(HttpServletRequest request) {
+        return new Dispatch(request);
+    }
+
+    /**
+     * @return a human readable description of the compiled structure
+     */
+    public String report() {
+        int requestAssertions = 0, otherAssertions = 0, indexed = 0;
+        StringBuilder indexes = new StringBuilder();
+        for (Node node: this.nodes) {
+            requestAssertions += node.requestAssertions.length;
+            otherAssertions += node.assertions.size();
+            if (node.childIndex != null) {
+                indexed++;
+                indexes.append("\n  ").append(node.service.getName())
+                    .append(": ").append(node.childIndex);
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append("Service dispatch index: ").append(this.nodes.size())
+            .append(" services, ").append(this.roots.size()).append(" roots, ")
+            .append(requestAssertions).append(" indexed request assertions, ")
+            .append(otherAssertions).append(" evaluated assertions, ")
+            .append(indexed).append(" parameter indexes");
+        sb.append(indexes);
+        if (this.memo != null) {
+            sb.append("\nMemoized request signatures: ").append(this.memo.size())
+                .append(" (hits: ").append(this.memoHits.get())
+                .append(", misses: ").append(this.memoMisses.get()).append(")");
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "(" + this.nodes.size() + " services)";
+    }
+
+    private Node compile(Service service, Map<Service, List<Service>> childServices) {
+        Node node = new Node(this.nodes.size(), service, service.getAssertions());
+        this.nodes.add(node);
+        List<Service> children = childServices.get(service);
+        if (children != null && !children.isEmpty()) {
+            Node[] compiled = new Node[children.size()];
+            for (int i = 0; i < compiled.length; i++) {
+                compiled[i] = compile(children.get(i), childServices);
+            }
+            node.children = compiled;
+            node.childIndex = ParameterIndex.build(compiled);
+        }
+        return node;
+    }
+
+    private static boolean isRequestAssertion(WebAssertion assertion) {
+        return REQUEST_ASSERTIONS.contains(assertion.getClass());
+    }
+
+    /**
+     * Only requests without a body are memoized, since request
+     * parameters of other requests may come from the body.
+     */
+    private static String signature(HttpServletRequest request) {
+        String method = request.getMethod();
+        if (!"GET".equals(method) && !"HEAD".equals(method)) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder(128);
+        sb.append(method).append(' ')
+            .append(request.isSecure()).append(' ')
+            .append(request.getServerName()).append(' ')
+            .append(request.getServerPort()).append(' ')
+            .append(request.getRequestURL());
+        String query = request.getQueryString();
+        if (query != null) {
+            sb.append('?').append(query);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Index of child nodes on the value of a single request parameter.
+     * Children that do not assert on the parameter are candidates for
+     * every value.
+     */
+    private static final class ParameterIndex {
+        private final String parameter;
+        private final Map<String, Node[]> byValue;
+        private final Node[] unindexed;
+
+        private ParameterIndex(String parameter, Map<String, Node[]> byValue, Node[] unindexed) {
+            this.parameter = parameter;
+            this.byValue = byValue;
+            this.unindexed = unindexed;
+        }
+
+        Node[] candidates(HttpServletRequest request) {
+            String value = request.getParameter(this.parameter);
+            if (value == null) {
+                return this.unindexed;
+            }
+            Node[] result = this.byValue.get(value);
+            return result != null ? result : this.unindexed;
+        }
+
+        static ParameterIndex build(Node[] children) {
+            // Select the parameter asserted on by most children:
+            Map<String, Integer> counts = new HashMap<>();
+            for (Node child: children) {
+                for (RequestParameterAssertion a: parameterAssertions(child)) {
+                    counts.merge(a.getParameterName(), 1, Integer::sum);
+                }
+            }
+            String parameter = null;
+            int max = 1;
+            for (Map.Entry<String, Integer> entry: counts.entrySet()) {
+                if (entry.getValue() > max) {
+                    parameter = entry.getKey();
+                    max = entry.getValue();
+                }
+            }
+            if (parameter == null) {
+                // Not worth indexing
+                return null;
+            }
+
+            // Value of the selected parameter required by each child (or null):
+            String[] required = new String[children.length];
+            Map<String, List<Node>> buckets = new LinkedHashMap<>();
+            List<Node> unindexed = new ArrayList<>();
+            for (int i = 0; i < children.length; i++) {
+                for (RequestParameterAssertion a: parameterAssertions(children[i])) {
+                    if (parameter.equals(a.getParameterName())) {
+                        required[i] = a.getParameterValue();
+                        break;
+                    }
+                }
+                if (required[i] == null) {
+                    unindexed.add(children[i]);
+                } else {
+                    buckets.putIfAbsent(required[i], new ArrayList<>());
+                }
+            }
+            // Each bucket keeps the original child order:
+            Map<String, Node[]> byValue = new HashMap<>();
+            for (String value: buckets.keySet()) {
+                List<Node> bucket = new ArrayList<>();
+                for (int i = 0; i < children.length; i++) {
+                    if (required[i] == null || value.equals(required[i])) {
+                        bucket.add(children[i]);
+                    }
+                }
+                byValue.put(value, bucket.toArray(new Node[bucket.size()]));
+            }
+            return new ParameterIndex(parameter, byValue,
+                    unindexed.toArray(new Node[unindexed.size()]));
+        }
+
+        private static List<RequestParameterAssertion> parameterAssertions(Node node) {
+            List<RequestParameterAssertion> result = new ArrayList<>();
+            for (WebAssertion a: node.requestAssertions) {
+                if (a.getClass() == RequestParameterAssertion.class) {
+                    result.add((RequestParameterAssertion) a);
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return "request.parameters[" + this.parameter + "]: "
+                    + this.byValue.size() + " values, "
+                    + this.unindexed.length + " unindexed children";
+        }
+    }
+}
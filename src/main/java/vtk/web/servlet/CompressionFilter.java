@@ -0,0 +1,573 @@
+/* Copyright (c) 2017, University of Oslo, Norway
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ *  * Neither the name of the University of Oslo nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package vtk.web.servlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.springframework.http.HttpStatus;
+
+/**
+ * Compresses response bodies with <code>gzip</code> for clients that
+ * accept it.
+ *
+ * <p>A response is compressed only if its content type matches one of
+ * the configured <code>contentTypes</code> (prefix match), its size is
+ * at least <code>minSize</code> bytes (or unknown when the response is
+ * flushed), no <code>Content-Encoding</code> has been set and the
+ * status is 200 (or 207 Multi-Status). Requests with a <code>Range</code> header are never
+ * compressed, so byte ranges always refer to the identity encoding.
+ * Output is compressed while it is written, the body is not buffered.
+ *
+ * <p>The filter should be placed outside of the decorating filter, so
+ * that decorated output is what gets compressed. Entity tags of
+ * compressed responses are given the suffix 
+ * {@value #ETAG_SUFFIX}, which is removed again from the
+ * <code>If-None-Match</code> and <code>If-Match</code> request headers
+ * before they reach the application. <code>If-Range</code> is left
+ * untouched: ranges are served in the identity encoding, so a compressed
+ * variant's entity tag must not validate them.
+ */
+public class CompressionFilter extends AbstractServletFilter {
+
+    static final String ETAG_SUFFIX = "--gzip";
+
+    private boolean enabled = true;
+    private int minSize = 1024;
+    private int compressionLevel = 6;
+    private List<String> contentTypes = new ArrayList<>();
+
+    public CompressionFilter() {
+        setContentTypes(new String[] {
+                "text/", "application/json", "application/javascript", 
+                "application/xml", "application/xhtml+xml", "application/rss+xml", 
+                "application/atom+xml", "image/svg+xml" });
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setMinSize(int minSize) {
+        this.minSize = minSize;
+    }
+
+    public void setCompressionLevel(int compressionLevel) {
+        if (compressionLevel < 1 || compressionLevel > 9) {
+            throw new IllegalArgumentException("Compression level must be between 1 and 9");
+        }
+        this.compressionLevel = compressionLevel;
+    }
+
+    public void setContentTypes(String[] contentTypes) {
+        List<String> types = new ArrayList<>();
+        for (String type: contentTypes) {
+            if (type != null && !"".equals(type.trim())) {
+                types.add(type.trim().toLowerCase());
+            }
+        }
+        this.contentTypes = types;
+    }
+
+    @Override
+    protected void doFilter(HttpServletRequest request,
+            HttpServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        if (!enabled || !eligible(request)) {
+            chain.doFilter(request, response);
+            return;
+        }
+        ConditionalHeadersRequest conditional = new ConditionalHeadersRequest(request);
+        CompressingResponse compressing = new CompressingResponse(conditional, response);
+        chain.doFilter(conditional, compressing);
+        compressing.finish();
+    }
+
+    private boolean eligible(HttpServletRequest request) {
+        if ("HEAD".equals(request.getMethod())) {
+            return false;
+        }
+        if (request.getHeader("Range") != null) {
+            return false;
+        }
+        return acceptsGzip(request.getHeader("Accept-Encoding"));
+    }
+
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding: acceptEncoding.split(",")) {
+            String[] params = coding.trim().split(";");
+            String name = params[0].trim().toLowerCase();
+            if (!"gzip".equals(name) && !"x-gzip".equals(name)) {
+                continue;
+            }
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        return Float.parseFloat(param.substring(2).trim()) > 0;
+                    }
+                    catch (NumberFormatException e) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private boolean compressibleType(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        String type = contentType.toLowerCase();
+        for (String prefix: contentTypes) {
+            if (type.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "(" + contentTypes + ")";
+    }
+
+    private static String stripSuffix(String etag) {
+        if (etag.endsWith(ETAG_SUFFIX + "\"")) {
+            return etag.substring(0, etag.length() - ETAG_SUFFIX.length() - 1) + "\"";
+        }
+        return etag;
+    }
+
+    private static String addSuffix(String etag) {
+        if (etag.endsWith("\"")) {
+            return etag.substring(0, etag.length() - 1) + ETAG_SUFFIX + "\"";
+        }
+        return etag;
+    }
+
+    /**
+     * Removes the compression suffix from entity tags in the 
+     * <code>If-None-Match</code> and <code>If-Match</code> request headers.
+     */
+    private static class ConditionalHeadersRequest extends HttpServletRequestWrapper {
+        private boolean stripped = false;
+
+        ConditionalHeadersRequest(HttpServletRequest request) {
+            super(request);
+        }
+
+        private boolean conditional(String name) {
+            return "If-None-Match".equalsIgnoreCase(name) 
+                    || "If-Match".equalsIgnoreCase(name);
+        }
+
+        private String strip(String value) {
+            if (value == null || value.indexOf(ETAG_SUFFIX) == -1) {
+                return value;
+            }
+            stripped = true;
+            StringBuilder result = new StringBuilder();
+            for (String tag: value.split(",")) {
+                if (result.length() > 0) {
+                    result.append(", ");
+                }
+                result.append(stripSuffix(tag.trim()));
+            }
+            return result.toString();
+        }
+
+        @Override
+        public String getHeader(String name) {
+            String value = super.getHeader(name);
+            return conditional(name) ? strip(value) : value;
+        }
+
+        @Override
+        public Enumeration<String> getHeaders(String name) {
+            Enumeration<String> values = super.getHeaders(name);
+            if (!conditional(name) || values == null) {
+                return values;
+            }
+            List<String> result = new ArrayList<>();
+            while (values.hasMoreElements()) {
+                result.add(strip(values.nextElement()));
+            }
+            return Collections.enumeration(result);
+        }
+    }
+
+    private enum State { UNDECIDED, IDENTITY, COMPRESSING }
+
+    /**
+     * Response wrapper deciding on compression when the first bytes 
+     * of the body are written (or at least <code>minSize</code> bytes
+     * have been buffered). Until then, content length headers are held
+     * back.
+     */
+    private class CompressingResponse extends HttpServletResponseWrapper {
+        private final ConditionalHeadersRequest request;
+        private State state = State.UNDECIDED;
+        private long contentLength = -1;
+        private int status = HttpServletResponse.SC_OK;
+        private String etag;
+        private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+        private OutputStream out;
+        private GZIPOutputStream gzip;
+        private ServletOutputStream outputStream;
+        private PrintWriter writer;
+
+        CompressingResponse(ConditionalHeadersRequest request, HttpServletResponse response) {
+            super(response);
+            this.request = request;
+        }
+
+        @Override
+        public void setStatus(int sc) {
+            this.status = sc;
+            super.setStatus(sc);
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public void setStatus(int sc, String sm) {
+            this.status = sc;
+            super.setStatus(sc, sm);
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException {
+            identity();
+            super.sendError(sc);
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            identity();
+            super.sendError(sc, msg);
+        }
+
+        @Override
+        public void sendRedirect(String location) throws IOException {
+            identity();
+            super.sendRedirect(location);
+        }
+
+        @Override
+        public void setContentLength(int len) {
+            setContentLengthLong(len);
+        }
+
+        @Override
+        public void setContentLengthLong(long len) {
+            if (state == State.UNDECIDED) {
+                this.contentLength = len;
+            }
+            else if (state == State.IDENTITY) {
+                super.setContentLengthLong(len);
+            }
+        }
+
+        private boolean header(String name, String value) {
+            if ("Content-Length".equalsIgnoreCase(name)) {
+                try {
+                    setContentLengthLong(Long.parseLong(value.trim()));
+                }
+                catch (NumberFormatException e) { }
+                return true;
+            }
+            if ("ETag".equalsIgnoreCase(name)) {
+                this.etag = value;
+            }
+            else if ("Content-Encoding".equalsIgnoreCase(name) && state == State.UNDECIDED) {
+                identity();
+            }
+            return false;
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            if (!header(name, value)) {
+                super.setHeader(name, value);
+            }
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            if (!header(name, value)) {
+                super.addHeader(name, value);
+            }
+        }
+
+        @Override
+        public void setIntHeader(String name, int value) {
+            setHeader(name, String.valueOf(value));
+        }
+
+        @Override
+        public void addIntHeader(String name, int value) {
+            addHeader(name, String.valueOf(value));
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            if (writer != null) {
+                writer.flush();
+            }
+            if (state == State.UNDECIDED) {
+                decide(true);
+            }
+            if (gzip != null) {
+                gzip.flush();
+            }
+            super.flushBuffer();
+        }
+
+        @Override
+        public void reset() {
+            super.reset();
+            if (state == State.UNDECIDED) {
+                pending.reset();
+                contentLength = -1;
+                etag = null;
+            }
+        }
+
+        @Override
+        public void resetBuffer() {
+            super.resetBuffer();
+            if (state == State.UNDECIDED) {
+                pending.reset();
+            }
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (writer != null) {
+                throw new IllegalStateException("getWriter() already called");
+            }
+            if (outputStream == null) {
+                outputStream = new BodyOutputStream();
+            }
+            return outputStream;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                if (outputStream != null) {
+                    throw new IllegalStateException("getOutputStream() already called");
+                }
+                String encoding = getCharacterEncoding();
+                Charset charset = encoding != null 
+                        ? Charset.forName(encoding) : StandardCharsets.ISO_8859_1;
+                outputStream = new BodyOutputStream();
+                writer = new PrintWriter(new OutputStreamWriter(outputStream, charset));
+            }
+            return writer;
+        }
+
+        private void identity() {
+            if (state == State.UNDECIDED) {
+                state = State.IDENTITY;
+                if (contentLength >= 0) {
+                    super.setContentLengthLong(contentLength);
+                }
+            }
+        }
+
+        private OutputStream identityOutput() throws IOException {
+            if (out == null) {
+                out = super.getOutputStream();
+            }
+            if (pending != null) {
+                if (pending.size() > 0) {
+                    out.write(pending.toByteArray());
+                }
+                pending = null;
+            }
+            return out;
+        }
+
+        /**
+         * Decides whether to compress the response.
+         * @param sizeUnknown whether the body is still being produced 
+         * (and its size is unknown)
+         */
+        private void decide(boolean sizeUnknown) throws IOException {
+            boolean compress = (status == HttpServletResponse.SC_OK || status == HttpStatus.MULTI_STATUS.value())
+                    && !containsHeader("Content-Encoding")
+                    && !containsHeader("Content-Range")
+                    && compressibleType(getContentType());
+            if (compress) {
+                long size = contentLength >= 0 ? contentLength 
+                        : sizeUnknown ? Long.MAX_VALUE : pending.size();
+                compress = size >= minSize;
+            }
+            if (compressibleType(getContentType())) {
+                super.addHeader("Vary", "Accept-Encoding");
+            }
+            if (!compress) {
+                identity();
+                identityOutput();
+                return;
+            }
+
+            super.setHeader("Content-Encoding", "gzip");
+            if (etag != null) {
+                super.setHeader("ETag", addSuffix(etag));
+            }
+
+            state = State.COMPRESSING;
+            out = super.getOutputStream();
+            gzip = new GZIPOutputStream(out, 8192, true) {{
+                def.setLevel(compressionLevel);
+            }};
+            if (pending.size() > 0) {
+                gzip.write(pending.toByteArray());
+            }
+            pending = null;
+        }
+
+        private void write(byte[] b, int off, int len) throws IOException {
+            switch (state) {
+            case UNDECIDED:
+                pending.write(b, off, len);
+                if (pending.size() >= minSize 
+                        || (contentLength >= 0 && pending.size() >= contentLength)) {
+                    decide(contentLength < 0);
+                }
+                break;
+            case IDENTITY:
+                identityOutput().write(b, off, len);
+                break;
+            case COMPRESSING:
+                gzip.write(b, off, len);
+                break;
+            }
+        }
+
+        void finish() throws IOException {
+            if (writer != null) {
+                writer.flush();
+            }
+            switch (state) {
+            case UNDECIDED:
+                if (outputStream != null) {
+                    decide(false);
+                    finish();
+                }
+                else {
+                    identity();
+                    if (status == HttpServletResponse.SC_NOT_MODIFIED 
+                            && etag != null && request.stripped) {
+                        // Same entity tag as the compressed representation
+                        super.setHeader("ETag", addSuffix(etag));
+                    }
+                }
+                break;
+            case IDENTITY:
+                if (pending != null) {
+                    identityOutput();
+                }
+                break;
+            case COMPRESSING:
+                gzip.finish();
+                gzip.flush();
+                break;
+            }
+        }
+
+        private class BodyOutputStream extends ServletOutputStream {
+            @Override
+            public void write(int b) throws IOException {
+                CompressingResponse.this.write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                CompressingResponse.this.write(b, off, len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                if (state == State.UNDECIDED) {
+                    decide(true);
+                }
+                if (gzip != null) {
+                    gzip.flush();
+                }
+                else if (state == State.IDENTITY) {
+                    identityOutput().flush();
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                finish();
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+                throw new UnsupportedOperationException();
+            }
+        }
+    }
+}
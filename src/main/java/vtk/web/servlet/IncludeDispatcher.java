@@ -0,0 +1,84 @@
+/* Copyright (c) 2017, University of Oslo, Norway
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ *  * Neither the name of the University of Oslo nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package vtk.web.servlet;
+
+import java.io.IOException;
+
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Dispatcher for internal (virtual) includes.
+ *
+ * <p>A {@link VTKServlet} registers an instance of this interface as a
+ * servlet context attribute. The dispatcher runs an include request
+ * in-process, reusing the security context and request local repository
+ * of the including request. Only a new request context is set up, and
+ * the contextual servlet filters (including error handling) are invoked
+ * before the request is handed to the controller.
+ */
+@FunctionalInterface
+public interface IncludeDispatcher {
+
+    public void include(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException;
+
+    public static String contextAttributeName(String servletName) {
+        return IncludeDispatcher.class.getName() + "." + servletName;
+    }
+
+    /**
+     * Dispatches an include request to the servlet that handled 
+     * <code>originalRequest</code>. The servlet's {@link IncludeDispatcher}
+     * is used if registered, otherwise the request is forwarded through
+     * a named {@link RequestDispatcher}.
+     */
+    public static void dispatch(ServletContext servletContext, HttpServletRequest originalRequest, 
+            HttpServletRequest includeRequest, HttpServletResponse response) 
+                    throws ServletException, IOException {
+        String servletName = (String) originalRequest
+                .getAttribute(VTKServlet.SERVLET_NAME_REQUEST_ATTRIBUTE);
+        Object dispatcher = servletContext.getAttribute(contextAttributeName(servletName));
+        if (dispatcher instanceof IncludeDispatcher) {
+            ((IncludeDispatcher) dispatcher).include(includeRequest, response);
+            return;
+        }
+        RequestDispatcher rd = servletContext.getNamedDispatcher(servletName);
+        if (rd == null) {
+            throw new RuntimeException("No request dispatcher for name '"
+                    + servletName + "' available");
+        }
+        rd.forward(includeRequest, response);
+    }
+}
@@ -0,0 +1,321 @@
+/* Copyright (c) 2017, University of Oslo, Norway
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ *  * Neither the name of the University of Oslo nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package vtk.web.servlet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import vtk.cluster.ClusterAware;
+import vtk.cluster.ClusterContext;
+import vtk.repository.LockingCacheControlRepositoryWrapper.FlushMessage;
+import vtk.repository.Path;
+import vtk.repository.event.RepositoryEvent;
+import vtk.repository.event.ResourceMovedEvent;
+import vtk.util.repository.AbstractRepositoryEventHandler;
+
+/**
+ * Byte-bounded store of complete anonymous responses, used by
+ * {@link PageCacheFilter}.
+ *
+ * <p>Entries are fresh for <code>ttlSeconds</code> and may then be served
+ * stale for another <code>staleSeconds</code> while a single request
+ * refreshes them. The least recently used entries are evicted when the
+ * total size exceeds <code>maxBytes</code>.
+ *
+ * <p>A repository modification of a path invalidates entries for that
+ * path, its descendants and its ancestors (collection listings). The
+ * same is done for {@link FlushMessage flush messages} from other
+ * cluster nodes. Pages that aggregate content from elsewhere in the
+ * tree (feeds, includes, searches) rely on the short TTL.
+ */
+public class PageCache extends AbstractRepositoryEventHandler implements ClusterAware {
+
+    private static final Logger logger = LoggerFactory.getLogger(PageCache.class);
+
+    private final long maxBytes;
+    private final long ttlMillis;
+    private final long staleMillis;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long bytes = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong staleHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong stores = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public PageCache(long maxBytes, int ttlSeconds, int staleSeconds) {
+        super(false);
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be a positive number");
+        }
+        if (ttlSeconds <= 0) {
+            throw new IllegalArgumentException("ttlSeconds must be a positive number");
+        }
+        if (staleSeconds < 0) {
+            throw new IllegalArgumentException("staleSeconds cannot be negative");
+        }
+        this.maxBytes = maxBytes;
+        this.ttlMillis = ttlSeconds * 1000L;
+        this.staleMillis = staleSeconds * 1000L;
+    }
+
+    /**
+     * A cached response.
+     */
+    public static final class Entry {
+        final String key;
+        final Path path;
+        final int status;
+        final List<String[]> headers;
+        final byte[] body;
+        final long created;
+        final long size;
+        final AtomicBoolean refreshing = new AtomicBoolean(false);
+
+        public Entry(String key, Path path, int status, List<String[]> headers, byte[] body, long created) {
+            this.key = key;
+            this.path = path;
+            this.status = status;
+            this.headers = Collections.unmodifiableList(new ArrayList<>(headers));
+            this.body = body;
+            this.created = created;
+            long size = key.length() * 2 + body.length + 64;
+            for (String[] header: headers) {
+                size += (header[0].length() + header[1].length()) * 2 + 32;
+            }
+            this.size = size;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public List<String[]> getHeaders() {
+            return headers;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        public long getCreated() {
+            return created;
+        }
+
+        @Override
+        public String toString() {
+            return getClass().getSimpleName() + "(" + key + ", " + status + ", " + body.length + ")";
+        }
+    }
+
+    /**
+     * Result of a cache lookup.
+     */
+    public static final class Lookup {
+        /** The entry to serve, or <code>null</code> if the request must be processed */
+        public final Entry serve;
+        /** A stale entry which the caller is responsible for refreshing, or <code>null</code> */
+        public final Entry refresh;
+
+        private Lookup(Entry serve, Entry refresh) {
+            this.serve = serve;
+            this.refresh = refresh;
+        }
+    }
+
+    private static final Lookup MISS = new Lookup(null, null);
+
+    /**
+     * Looks up an entry. A stale entry is returned for serving unless
+     * nobody is refreshing it yet, in which case the caller is elected
+     * to process the request and must afterwards either {@link #put store}
+     * a new entry or {@link #release(Entry) release} the old one.
+     */
+    public Lookup lookup(String key, long now) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return MISS;
+        }
+        long age = now - entry.created;
+        if (age < ttlMillis) {
+            hits.incrementAndGet();
+            return new Lookup(entry, null);
+        }
+        if (age < ttlMillis + staleMillis) {
+            if (entry.refreshing.compareAndSet(false, true)) {
+                misses.incrementAndGet();
+                return new Lookup(null, entry);
+            }
+            staleHits.incrementAndGet();
+            return new Lookup(entry, null);
+        }
+        synchronized (this) {
+            removeInternal(key, entry);
+        }
+        misses.incrementAndGet();
+        return MISS;
+    }
+
+    public void put(Entry entry) {
+        if (entry.size > maxBytes) {
+            return;
+        }
+        synchronized (this) {
+            Entry old = entries.put(entry.key, entry);
+            if (old != null) {
+                bytes -= old.size;
+            }
+            bytes += entry.size;
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (bytes > maxBytes && iterator.hasNext()) {
+                Entry eldest = iterator.next();
+                iterator.remove();
+                bytes -= eldest.size;
+                evictions.incrementAndGet();
+            }
+        }
+        stores.incrementAndGet();
+    }
+
+    /**
+     * Called by a request elected to refresh a stale entry when it
+     * did not produce a cacheable response. The stale entry is dropped,
+     * as it can no longer be assumed to be representative.
+     */
+    public void release(Entry entry) {
+        synchronized (this) {
+            removeInternal(entry.key, entry);
+        }
+    }
+
+    public void invalidate(Path uri) {
+        int n = 0;
+        synchronized (this) {
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                if (entry.path.equals(uri) || uri.isAncestorOf(entry.path)
+                        || entry.path.isAncestorOf(uri)) {
+                    iterator.remove();
+                    bytes -= entry.size;
+                    n++;
+                }
+            }
+        }
+        if (n > 0) {
+            invalidations.addAndGet(n);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Invalidated " + n + " entries for " + uri);
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (this) {
+            entries.clear();
+            bytes = 0;
+        }
+    }
+
+    private void removeInternal(String key, Entry entry) {
+        if (entries.get(key) == entry) {
+            entries.remove(key);
+            bytes -= entry.size;
+        }
+    }
+
+    @Override
+    public void handleEvent(RepositoryEvent event) {
+        invalidate(event.getURI());
+        if (event instanceof ResourceMovedEvent) {
+            invalidate(((ResourceMovedEvent) event).getFrom().getURI());
+        }
+    }
+
+    @Override
+    public void clusterContext(ClusterContext context) {
+        context.subscribe(FlushMessage.class);
+    }
+
+    @Override
+    public void clusterMessage(Object message) {
+        // Pages are cached on every node, regardless of role
+        if (message instanceof FlushMessage) {
+            invalidate(((FlushMessage) message).path);
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (this) {
+            stats.put("entries", entries.size());
+            stats.put("bytes", bytes);
+        }
+        stats.put("maxBytes", maxBytes);
+        stats.put("hits", hits.get());
+        stats.put("staleHits", staleHits.get());
+        stats.put("misses", misses.get());
+        stats.put("stores", stores.get());
+        stats.put("evictions", evictions.get());
+        stats.put("invalidations", invalidations.get());
+        return stats;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + getStatistics();
+    }
+
+}
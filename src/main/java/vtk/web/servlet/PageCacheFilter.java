@@ -0,0 +1,508 @@
+/* Copyright (c) 2017, University of Oslo, Norway
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ *  * Neither the name of the University of Oslo nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package vtk.web.servlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import vtk.repository.Path;
+import vtk.security.SecurityContext;
+import vtk.util.web.HttpUtil;
+import vtk.web.service.URL;
+
+/**
+ * Serves complete responses to anonymous GET and HEAD requests from a
+ * {@link PageCache}, in front of all request processing.
+ *
+ * <p>Requests carrying credentials (an <code>Authorization</code> header or
+ * any of the configured <code>bypassCookies</code>) are never served from
+ * or stored in the cache. A response is stored only if the request turned
+ * out to be processed anonymously, the status is 200, no cookies were set,
+ * no session was created and the response does not forbid shared caching.
+ *
+ * <p>The cache key consists of the request URL (including the query
+ * string) and the values of the configured <code>varyHeaders</code>.
+ */
+public class PageCacheFilter extends AbstractServletFilter {
+
+    private static final Logger logger = LoggerFactory.getLogger(PageCacheFilter.class);
+
+    private static final Set<String> IGNORED_HEADERS = new HashSet<>(Arrays.asList(
+            "content-length", "date", "age", "connection", "transfer-encoding"));
+
+    private final PageCache cache;
+    private boolean enabled = true;
+    private int maxEntrySize = 1024 * 1024;
+    private List<String> varyHeaders = Collections.singletonList("Accept-Language");
+    private Set<String> bypassCookies = Collections.emptySet();
+
+    public PageCacheFilter(PageCache cache) {
+        this.cache = cache;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setMaxEntrySize(int maxEntrySize) {
+        this.maxEntrySize = maxEntrySize;
+    }
+
+    public void setVaryHeaders(String[] varyHeaders) {
+        this.varyHeaders = trimmed(varyHeaders);
+    }
+
+    public void setBypassCookies(String[] bypassCookies) {
+        this.bypassCookies = new HashSet<>(trimmed(bypassCookies));
+    }
+
+    @Override
+    protected void doFilter(HttpServletRequest request,
+            HttpServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        if (!enabled || !eligible(request)) {
+            chain.doFilter(request, response);
+            return;
+        }
+        String key = key(request);
+        PageCache.Lookup lookup = cache.lookup(key, System.currentTimeMillis());
+        if (lookup.serve != null) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Serving " + key + " from cache");
+            }
+            write(lookup.serve, request, response);
+            return;
+        }
+        if ("HEAD".equals(request.getMethod())) {
+            // Entries are only created from GET requests:
+            if (lookup.refresh != null) {
+                lookup.refresh.refreshing.set(false);
+            }
+            chain.doFilter(request, response);
+            return;
+        }
+
+        CapturingResponse capture = new CapturingResponse(response, maxEntrySize);
+        boolean stored = false;
+        try {
+            chain.doFilter(request, capture);
+            capture.flushWriter();
+            if (cacheable(request, capture)) {
+                Path path = path(request);
+                if (path != null) {
+                    cache.put(new PageCache.Entry(key, path, capture.status, 
+                            capture.headers(), capture.buffer.toByteArray(), 
+                            System.currentTimeMillis()));
+                    stored = true;
+                }
+            }
+        }
+        finally {
+            if (!stored && lookup.refresh != null) {
+                cache.release(lookup.refresh);
+            }
+        }
+    }
+
+    private boolean eligible(HttpServletRequest request) {
+        String method = request.getMethod();
+        if (!"GET".equals(method) && !"HEAD".equals(method)) {
+            return false;
+        }
+        if (request.getHeader("Authorization") != null) {
+            return false;
+        }
+        Cookie[] cookies = request.getCookies();
+        if (cookies != null) {
+            for (Cookie cookie: cookies) {
+                if (bypassCookies.contains(cookie.getName())) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean cacheable(HttpServletRequest request, CapturingResponse capture) {
+        if (capture.status != HttpServletResponse.SC_OK || capture.uncacheable) {
+            return false;
+        }
+        SecurityContext securityContext = SecurityContext.getSecurityContext(request);
+        if (securityContext == null || securityContext.getPrincipal() != null) {
+            return false;
+        }
+        if (request.getSession(false) != null) {
+            return false;
+        }
+        List<String> cacheControl = capture.headerValues.get("Cache-Control");
+        if (cacheControl != null) {
+            for (String value: cacheControl) {
+                String v = value.toLowerCase();
+                if (v.contains("private") || v.contains("no-store") || v.contains("no-cache")) {
+                    return false;
+                }
+            }
+        }
+        List<String> vary = capture.headerValues.get("Vary");
+        if (vary != null && vary.contains("*")) {
+            return false;
+        }
+        return true;
+    }
+
+    private String key(HttpServletRequest request) {
+        StringBuilder key = new StringBuilder(128);
+        key.append(request.isSecure() ? "https://" : "http://");
+        key.append(request.getServerName()).append(':').append(request.getServerPort());
+        key.append(request.getRequestURI());
+        String query = request.getQueryString();
+        if (query != null) {
+            key.append('?').append(query);
+        }
+        for (String header: varyHeaders) {
+            String value = request.getHeader(header);
+            if (value != null) {
+                key.append('\n').append(header).append(':').append(value);
+            }
+        }
+        return key.toString();
+    }
+
+    private Path path(HttpServletRequest request) {
+        try {
+            return URL.parse(request.getRequestURL().toString()).getPath();
+        }
+        catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private void write(PageCache.Entry entry, HttpServletRequest request, 
+            HttpServletResponse response) throws IOException {
+        response.setStatus(entry.getStatus());
+        Set<String> seen = new HashSet<>();
+        for (String[] header: entry.getHeaders()) {
+            if ("Content-Type".equalsIgnoreCase(header[0])) {
+                response.setContentType(header[1]);
+            }
+            else if (seen.add(header[0])) {
+                response.setHeader(header[0], header[1]);
+            }
+            else {
+                response.addHeader(header[0], header[1]);
+            }
+        }
+        long age = (System.currentTimeMillis() - entry.getCreated()) / 1000;
+        response.setHeader("Age", String.valueOf(Math.max(0, age)));
+        byte[] body = entry.getBody();
+        response.setContentLength(body.length);
+        if (!"HEAD".equals(request.getMethod())) {
+            ServletOutputStream out = response.getOutputStream();
+            out.write(body);
+            out.flush();
+        }
+    }
+
+    private static List<String> trimmed(String[] values) {
+        List<String> result = new ArrayList<>();
+        if (values != null) {
+            for (String value: values) {
+                if (value != null && !"".equals(value.trim())) {
+                    result.add(value.trim());
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "(" + cache + ")";
+    }
+
+    /**
+     * Passes everything through to the wrapped response while keeping
+     * a copy of the status, headers and (up to a limit) the body.
+     */
+    private static class CapturingResponse extends HttpServletResponseWrapper {
+        private final int maxSize;
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private final Map<String, List<String>> headerValues = 
+                new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        private int status = HttpServletResponse.SC_OK;
+        private boolean uncacheable = false;
+        private ServletOutputStream outputStream;
+        private PrintWriter writer;
+
+        CapturingResponse(HttpServletResponse response, int maxSize) {
+            super(response);
+            this.maxSize = maxSize;
+        }
+
+        List<String[]> headers() {
+            List<String[]> result = new ArrayList<>();
+            for (Map.Entry<String, List<String>> entry: headerValues.entrySet()) {
+                if (IGNORED_HEADERS.contains(entry.getKey().toLowerCase())) {
+                    continue;
+                }
+                for (String value: entry.getValue()) {
+                    result.add(new String[] { entry.getKey(), value });
+                }
+            }
+            return result;
+        }
+
+        void flushWriter() {
+            if (writer != null) {
+                writer.flush();
+            }
+        }
+
+        private void header(String name, String value, boolean overwrite) {
+            if ("Set-Cookie".equalsIgnoreCase(name)) {
+                uncacheable = true;
+            }
+            List<String> values = headerValues.get(name);
+            if (values == null || overwrite) {
+                values = new ArrayList<>(1);
+                headerValues.put(name, values);
+            }
+            values.add(value);
+        }
+
+        @Override
+        public void setStatus(int sc) {
+            this.status = sc;
+            super.setStatus(sc);
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public void setStatus(int sc, String sm) {
+            this.status = sc;
+            super.setStatus(sc, sm);
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException {
+            this.status = sc;
+            this.uncacheable = true;
+            super.sendError(sc);
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            this.status = sc;
+            this.uncacheable = true;
+            super.sendError(sc, msg);
+        }
+
+        @Override
+        public void sendRedirect(String location) throws IOException {
+            this.status = HttpServletResponse.SC_FOUND;
+            this.uncacheable = true;
+            super.sendRedirect(location);
+        }
+
+        @Override
+        public void addCookie(Cookie cookie) {
+            this.uncacheable = true;
+            super.addCookie(cookie);
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            header(name, value, true);
+            super.setHeader(name, value);
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            header(name, value, false);
+            super.addHeader(name, value);
+        }
+
+        @Override
+        public void setIntHeader(String name, int value) {
+            header(name, String.valueOf(value), true);
+            super.setIntHeader(name, value);
+        }
+
+        @Override
+        public void addIntHeader(String name, int value) {
+            header(name, String.valueOf(value), false);
+            super.addIntHeader(name, value);
+        }
+
+        @Override
+        public void setDateHeader(String name, long date) {
+            header(name, HttpUtil.getHttpDateString(new Date(date)), true);
+            super.setDateHeader(name, date);
+        }
+
+        @Override
+        public void addDateHeader(String name, long date) {
+            header(name, HttpUtil.getHttpDateString(new Date(date)), false);
+            super.addDateHeader(name, date);
+        }
+
+        @Override
+        public void setContentType(String type) {
+            if (type != null) {
+                header("Content-Type", type, true);
+            }
+            super.setContentType(type);
+        }
+
+        @Override
+        public void setCharacterEncoding(String charset) {
+            super.setCharacterEncoding(charset);
+            if (headerValues.containsKey("Content-Type")) {
+                header("Content-Type", getContentType(), true);
+            }
+        }
+
+        @Override
+        public void reset() {
+            super.reset();
+            headerValues.clear();
+            buffer.reset();
+            status = HttpServletResponse.SC_OK;
+        }
+
+        @Override
+        public void resetBuffer() {
+            super.resetBuffer();
+            buffer.reset();
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (outputStream == null) {
+                outputStream = new TeeOutputStream(super.getOutputStream());
+            }
+            return outputStream;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                writer = new PrintWriter(new OutputStreamWriter(
+                        getOutputStream(), getCharacterEncoding()));
+            }
+            return writer;
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            flushWriter();
+            super.flushBuffer();
+        }
+
+        private void capture(byte[] b, int off, int len) {
+            if (uncacheable) {
+                return;
+            }
+            if (buffer.size() + len > maxSize) {
+                uncacheable = true;
+                buffer.reset();
+                return;
+            }
+            buffer.write(b, off, len);
+        }
+
+        private class TeeOutputStream extends ServletOutputStream {
+            private final ServletOutputStream out;
+            private final byte[] single = new byte[1];
+
+            TeeOutputStream(ServletOutputStream out) {
+                this.out = out;
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                single[0] = (byte) b;
+                capture(single, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                capture(b, off, len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                out.flush();
+            }
+
+            @Override
+            public void close() throws IOException {
+                out.close();
+            }
+
+            @Override
+            public boolean isReady() {
+                return out.isReady();
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+                out.setWriteListener(writeListener);
+            }
+        }
+    }
+
+}
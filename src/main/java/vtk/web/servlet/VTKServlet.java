@@ -57,6 +57,7 @@ import org.springframework.web.util.WebUtils;
 import vtk.context.ApplicationInitializedEvent;
 import vtk.security.AuthenticationException;
 import vtk.security.Principal;
+import vtk.security.SecurityContext;
 import vtk.security.web.SecurityInitializer;
 import vtk.util.Version;
 import vtk.web.InvalidRequestException;
@@ -105,6 +106,10 @@ import vtk.web.service.Service;
  * presentation to the client.
  *
  * <p>Finally, the security context and request context are destroyed.
+ *
+ * <p>The servlet also registers an {@link IncludeDispatcher} in the
+ * servlet context, which handles internal includes without running the
+ * initializing servlet filters and the security initializer again.
  */
 public class VTKServlet extends DispatcherServlet {
 
@@ -172,10 +177,19 @@ public class VTKServlet extends DispatcherServlet {
         initRequestContextInitializer();
         initRepositoryContextInitializer();
         initGlobalHeaders();
+        getServletContext().setAttribute(IncludeDispatcher
+                .contextAttributeName(getServletName()), (IncludeDispatcher) this::include);
         getWebApplicationContext()
             .publishEvent(new ApplicationInitializedEvent(this));
     }
     
+    @Override
+    public void destroy() {
+        getServletContext().removeAttribute(
+                IncludeDispatcher.contextAttributeName(getServletName()));
+        super.destroy();
+    }
+    
     private void initSecurityInitializer() {
         this.securityInitializer = getWebApplicationContext()
             .getBean(SECURITY_INITIALIZER_BEAN_NAME, SecurityInitializer.class);
@@ -375,6 +389,54 @@ public class VTKServlet extends DispatcherServlet {
        }
    }
    
+   /**
+    * Handles an internal include request. The security context (and the 
+    * request local repository) of the including request is reused, only 
+    * a new request context is pushed for the duration of the include. 
+    * The contextual servlet filters (error handling, service filters, 
+    * conditional GET, etc.) are invoked as for regular requests, while 
+    * the initializing servlet filters (URL translation, compression, 
+    * page cache, etc.) only apply to the including request.
+    */
+   private void include(HttpServletRequest request, HttpServletResponse response) 
+           throws IOException, ServletException {
+       if (SecurityContext.getSecurityContext(request) == null) {
+           throw new IllegalStateException("Include request " 
+                   + request + " has no security context");
+       }
+       try {
+           this.requestContextInitializer.createContext(request);
+       }
+       catch (InvalidRequestException e) {
+           response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+           return;
+       }
+       try {
+           FilterChain chain = new FilterChain("IncludeFilterChain", 
+                   contextualServletFilters, (req, resp) -> {
+                       try {
+                           super.doService(req, resp);
+                       }
+                       catch (AuthenticationException e) {
+                           throw e;
+                       }
+                       catch (Exception e) {
+                           throw new DispatchException(e);
+                       }
+                   });
+           chain.doFilter(request, response);
+       }
+       catch (AuthenticationException e) {
+           response.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+       }
+       catch (DispatchException e) {
+           throw new ServletException(e.getCause());
+       }
+       finally {
+           this.requestContextInitializer.destroyContext(request);
+       }
+   }
+   
     private void logRequest(HttpServletRequest req, HttpServletResponse resp,
                             long processingTime) {
         if (!this.requestLogger.isInfoEnabled()) {
@@ -30,9 +30,21 @@
  */
 package vtk.web.view;
 
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 
+import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
@@ -41,8 +53,8 @@ import org.slf4j.LoggerFactory;
 import org.springframework.web.servlet.view.AbstractView;
 
 import vtk.repository.Resource;
-import vtk.util.io.IO;
 import vtk.util.repository.ContentTypeHelper;
+import vtk.util.web.HttpUtil;
 import vtk.web.InvalidModelException;
 
 /**
@@ -54,6 +66,10 @@ import vtk.web.InvalidModelException;
  * <ul>
  * <li><code>streamBufferSize</code> - (int) the size of the buffer used when executing the (read from resource, write
  * to response) loop. The default value is <code>5000</code>.
+ * <li><code>supportRangeRequests</code> - (boolean) whether to honor <code>Range</code> requests. Default
+ * <code>false</code>.
+ * <li><code>maxRanges</code> - (int) the maximum number of ranges accepted in a single request. Requests for more
+ * ranges are served the complete content. The default value is <code>16</code>.
  * </ul>
  *
  * <p>
@@ -68,17 +84,28 @@ import vtk.web.InvalidModelException;
  * <ul>
  * <li><code>Content-Type</code>
  * <li><code>Content-Length</code>
+ * <li><code>ETag</code> (strong, from {@link Resource#getEtag()})
  * <li><code>Accept-Ranges</code>
  * <li><code>Content-Range</code>
  * </ul>
  *
+ * <p>Multiple ranges are served as <code>multipart/byteranges</code>, and <code>If-Range</code> is honored
+ * against the emitted <code>ETag</code> or <code>Last-Modified</code> date. When the content stream is a
+ * {@link FileInputStream} (as provided by the file system content store), ranges are read with positional reads
+ * from its {@link FileChannel}.
  */
 public class DisplayResourceView extends AbstractView {
 
     private static Logger logger = LoggerFactory.getLogger(DisplayResourceView.class);
 
+    private static final String RANGES_ATTRIBUTE = DisplayResourceView.class.getName() + ".ranges";
+    private static final String BOUNDARY_ATTRIBUTE = DisplayResourceView.class.getName() + ".boundary";
+
+    private static final int CHANNEL_BUFFER_SIZE = 64 * 1024;
+
     private int streamBufferSize = 5000;
     private boolean supportRangeRequests = false;
+    private int maxRanges = 16;
 
     public void setStreamBufferSize(int streamBufferSize) {
         if (streamBufferSize <= 0) {
@@ -92,18 +119,33 @@ public class DisplayResourceView extends AbstractView {
         this.supportRangeRequests = supportRangeRequests;
     }
 
+    public void setMaxRanges(int maxRanges) {
+        if (maxRanges <= 0) {
+            throw new IllegalArgumentException(
+                    "The value of maxRanges must be a positive integer");
+        }
+        this.maxRanges = maxRanges;
+    }
+
     @Override
     @SuppressWarnings("rawtypes")
     public void renderMergedOutputModel(Map model, HttpServletRequest request,
             HttpServletResponse response) throws Exception {
         
         Resource resource = getResource(model, request, response);
+        InputStream resourceStream = getResourceStream(resource, model, request, response);
         
         try {
-            Range range = this.supportRangeRequests
-                    ? getRangeHeader(request, resource) : null;
-            request.setAttribute(Range.class.getName(), range);
+            List<Range> ranges = this.supportRangeRequests
+                    ? getRanges(request, resource, resourceStream instanceof FileInputStream) : null;
+            request.setAttribute(RANGES_ATTRIBUTE, ranges);
+        } catch (UnsatisfiableRangeException e) {
+            closeQuietly(resourceStream);
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            response.setHeader("Content-Range", "bytes */" + resource.getContentLength());
+            return;
         } catch (Exception e) {
+            closeQuietly(resourceStream);
             response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
             return;
         }
@@ -115,13 +157,9 @@ public class DisplayResourceView extends AbstractView {
                 logger.debug("Request is HEAD, not writing content");
             }
             response.flushBuffer();
-            InputStream resourceStream = getResourceStream(resource, model, request, response);
-            if (resourceStream != null) {
-                resourceStream.close();
-            }
+            closeQuietly(resourceStream);
             return;
         }
-        InputStream resourceStream = getResourceStream(resource, model, request, response);
         if (resourceStream == null) {
             throw new InvalidModelException("Unable to write response for resoure " + resource
                     + ": missing InputStream in model ");
@@ -166,24 +204,42 @@ public class DisplayResourceView extends AbstractView {
         return (InputStream) o;
     }
 
-    @SuppressWarnings("rawtypes")
+    @SuppressWarnings({ "rawtypes", "unchecked" })
     protected void setHeaders(Resource resource, Map model, HttpServletRequest request,
             HttpServletResponse response) throws Exception {
         if (this.supportRangeRequests) {
-            setHeader(response, "Accept-Ranges", "0-" + (resource.getContentLength() - 1));
+            setHeader(response, "Accept-Ranges", "bytes");
         }
 
-        Range range = (Range) request.getAttribute(Range.class.getName());
-        setContentTypeHeader(resource, model, request, response);
-        if (range != null) {
-            setStatus(response, HttpServletResponse.SC_PARTIAL_CONTENT);
-            setHeader(response, "Content-Range", "bytes " + range.from + "-"
-                    + range.to + "/" + resource.getContentLength());
-            setHeader(response, "Content-Length", String.valueOf(range.to - range.from + 1));
-        } else {
+        List<Range> ranges = (List<Range>) request.getAttribute(RANGES_ATTRIBUTE);
+        if (ranges == null) {
             setStatus(response, HttpServletResponse.SC_OK);
+            setContentTypeHeader(resource, model, request, response);
             setContentLengthHeader(resource, model, request, response);
+        } else if (ranges.size() == 1) {
+            Range range = ranges.get(0);
+            setStatus(response, HttpServletResponse.SC_PARTIAL_CONTENT);
+            setContentTypeHeader(resource, model, request, response);
+            setHeader(response, "Content-Range", range.contentRange(resource.getContentLength()));
+            setHeader(response, "Content-Length", String.valueOf(range.length()));
+        } else {
+            String boundary = UUID.randomUUID().toString();
+            request.setAttribute(BOUNDARY_ATTRIBUTE, boundary);
+            String contentType = getContentType(resource);
+            long length = 0;
+            for (Range range: ranges) {
+                length += partHeader(boundary, contentType, range, resource.getContentLength()).length;
+                length += range.length();
+            }
+            length += partTrailer(boundary).length;
+            setStatus(response, HttpServletResponse.SC_PARTIAL_CONTENT);
+            setHeader(response, "Content-Type", "multipart/byteranges; boundary=" + boundary);
+            setHeader(response, "Content-Length", String.valueOf(length));
         }
+        // The content is served byte for byte, so the resource ETag is a
+        // strong validator, usable with If-Range. Set last, so that
+        // decorating response wrappers know the content type:
+        setHeader(response, "ETag", resource.getEtag());
     }
 
     /**
@@ -196,25 +252,41 @@ public class DisplayResourceView extends AbstractView {
      * @param response the servlet response
      * @throws Exception
      */
-    @SuppressWarnings("rawtypes")
+    @SuppressWarnings({ "rawtypes", "unchecked" })
     protected void writeResponse(Resource resource, InputStream resourceStream,
             Map model, HttpServletRequest request,
             HttpServletResponse response) throws Exception {
-        Range range = (Range) request.getAttribute(Range.class.getName());
+        List<Range> ranges = (List<Range>) request.getAttribute(RANGES_ATTRIBUTE);
+        long contentLength = resource.getContentLength();
         long bytesWritten = 0L;
-        if (range != null) {
-            long nbytes = range.to - range.from + 1;
-            if (logger.isDebugEnabled()) {
-                logger.debug("Writing range: " + range.from + "-" + range.to);
+        ServletOutputStream out = response.getOutputStream();
+        Writer writer = resourceStream instanceof FileInputStream
+                ? new ChannelWriter(((FileInputStream) resourceStream).getChannel(), out)
+                : new StreamWriter(resourceStream, out, this.streamBufferSize);
+        try {
+            if (ranges == null) {
+                bytesWritten = writer.write(0, contentLength);
+            } else if (ranges.size() == 1) {
+                Range range = ranges.get(0);
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Writing range: " + range.from + "-" + range.to);
+                }
+                bytesWritten = writer.write(range.from, range.length());
+            } else {
+                String boundary = (String) request.getAttribute(BOUNDARY_ATTRIBUTE);
+                String contentType = getContentType(resource);
+                for (Range range: ranges) {
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("Writing range: " + range.from + "-" + range.to);
+                    }
+                    out.write(partHeader(boundary, contentType, range, contentLength));
+                    bytesWritten += writer.write(range.from, range.length());
+                }
+                out.write(partTrailer(boundary));
             }
-            bytesWritten = IO.copy(resourceStream, response.getOutputStream())
-                    .offset(range.from).limit(nbytes)
-                    .bufferSize(this.streamBufferSize)
-                    .perform();
-        } else {
-            bytesWritten = IO.copy(resourceStream, response.getOutputStream())
-                    .bufferSize(this.streamBufferSize).perform();
-
+        } finally {
+            closeQuietly(resourceStream);
+            out.close();
         }
         response.flushBuffer();
 
@@ -250,6 +322,10 @@ public class DisplayResourceView extends AbstractView {
     protected void setContentTypeHeader(Resource resource, Map model,
             HttpServletRequest request,
             HttpServletResponse response) throws Exception {
+        setHeader(response, "Content-Type", getContentType(resource));
+    }
+
+    private String getContentType(Resource resource) {
         String contentType = resource.getContentType();
 
         if (ContentTypeHelper.isHTMLContentType(resource.getContentType()) && resource.getCharacterEncoding() == null) {
@@ -264,7 +340,7 @@ public class DisplayResourceView extends AbstractView {
         } else if (resource.getCharacterEncoding() != null) {
             contentType = resource.getContentType() + ";charset=" + resource.getCharacterEncoding();
         }
-        setHeader(response, "Content-Type", contentType);
+        return contentType;
     }
 
     /**
@@ -284,57 +360,241 @@ public class DisplayResourceView extends AbstractView {
 
     }
 
-    private static class Range {
+    static final class Range {
 
-        long from;
-        long to;
+        final long from;
+        final long to;
 
-        public Range(long from, long to) {
+        Range(long from, long to) {
             this.from = from;
             this.to = to;
         }
 
+        long length() {
+            return to - from + 1;
+        }
+
+        String contentRange(long contentLength) {
+            return "bytes " + from + "-" + to + "/" + contentLength;
+        }
+
         @Override
         public String toString() {
             return "Range: " + from + ":" + to;
         }
     }
 
-    private Range getRangeHeader(HttpServletRequest request, Resource resource) {
+    static final class UnsatisfiableRangeException extends Exception {
+        private static final long serialVersionUID = 2958434385622512617L;
+    }
+
+    /**
+     * Parses the <code>Range</code> header (RFC 7233). Returns <code>null</code> if
+     * the complete content should be served: no (or a syntactically invalid)
+     * <code>Range</code> header, a non-matching <code>If-Range</code>, too many
+     * ranges, or multiple ranges that cannot be served from a sequential stream.
+     *
+     * @throws UnsatisfiableRangeException if none of the ranges overlap the content
+     */
+    private List<Range> getRanges(HttpServletRequest request, Resource resource, 
+            boolean seekable) throws UnsatisfiableRangeException {
         String hdr = request.getHeader("Range");
         if (hdr == null) {
             return null;
         }
+        if (!ifRangeMatches(request, resource)) {
+            return null;
+        }
+        List<Range> ranges = parseRanges(hdr, resource.getContentLength(), this.maxRanges);
+        if (ranges == null || ranges.size() == 1) {
+            return ranges;
+        }
+        if (!seekable) {
+            long pos = 0;
+            for (Range range: ranges) {
+                if (range.from < pos) {
+                    return null;
+                }
+                pos = range.to + 1;
+            }
+        }
+        return ranges;
+    }
+
+    static List<Range> parseRanges(String hdr, long contentLength, int maxRanges) 
+            throws UnsatisfiableRangeException {
         if (!hdr.startsWith("bytes=")) {
             return null;
         }
-        StringBuilder fromStr = new StringBuilder();
-        StringBuilder toStr = new StringBuilder();
-        StringBuilder cur = fromStr;
-        for (int i = "bytes=".length(); i < hdr.length(); i++) {
-            char c = hdr.charAt(i);
-            if (c == '-') {
-                cur = toStr;
-            } else if (c < '0' || c > '9') {
+        String[] specs = hdr.substring("bytes=".length()).split(",");
+        if (specs.length > maxRanges) {
+            return null;
+        }
+        List<Range> ranges = new ArrayList<>(specs.length);
+        for (String spec: specs) {
+            spec = spec.trim();
+            int dash = spec.indexOf('-');
+            if (dash == -1) {
+                return null;
+            }
+            String fromStr = spec.substring(0, dash).trim();
+            String toStr = spec.substring(dash + 1).trim();
+            if (!digits(fromStr) || !digits(toStr)) {
+                return null;
+            }
+            long from, to;
+            try {
+                if (fromStr.isEmpty()) {
+                    // Suffix range: the last n bytes
+                    if (toStr.isEmpty()) {
+                        return null;
+                    }
+                    long n = Long.parseLong(toStr);
+                    if (n == 0) {
+                        continue;
+                    }
+                    from = Math.max(0, contentLength - n);
+                    to = contentLength - 1;
+                } else {
+                    from = Long.parseLong(fromStr);
+                    to = toStr.isEmpty() ? contentLength - 1 
+                            : Math.min(Long.parseLong(toStr), contentLength - 1);
+                    if (!toStr.isEmpty() && Long.parseLong(toStr) < from) {
+                        return null;
+                    }
+                }
+            } catch (NumberFormatException e) {
                 return null;
-            } else {
-                cur.append(c);
             }
+            if (from >= contentLength) {
+                continue;
+            }
+            ranges.add(new Range(from, to));
         }
-        long from = 0;
-        if (fromStr.length() > 0) {
-            from = Long.parseLong(fromStr.toString());
+        if (ranges.isEmpty()) {
+            throw new UnsatisfiableRangeException();
         }
-        long to = resource.getContentLength() - 1;
-        if (toStr.length() > 0) {
-            to = Long.parseLong(toStr.toString());
+        return ranges;
+    }
+
+    private static boolean digits(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
         }
-        if (to <= from) {
-            return null;
+        return true;
+    }
+
+    private boolean ifRangeMatches(HttpServletRequest request, Resource resource) {
+        String ifRange = request.getHeader("If-Range");
+        if (ifRange == null) {
+            return true;
         }
-        if (to > resource.getContentLength() - 1) {
-            return null;
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            // Strong comparison, weak tags never match
+            return ifRange.equals(resource.getEtag());
+        }
+        Date date = HttpUtil.parseHttpDate(ifRange);
+        return date != null && resource.getLastModified() != null
+                && date.getTime() / 1000 == resource.getLastModified().getTime() / 1000;
+    }
+
+    private static byte[] partHeader(String boundary, String contentType, Range range, long contentLength) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("\r\n--").append(boundary).append("\r\n");
+        sb.append("Content-Type: ").append(contentType.trim()).append("\r\n");
+        sb.append("Content-Range: ").append(range.contentRange(contentLength)).append("\r\n");
+        sb.append("\r\n");
+        return sb.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] partTrailer(String boundary) {
+        return ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static void closeQuietly(InputStream in) {
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException e) { }
+        }
+    }
+
+    /**
+     * Writes regions of the content to the response. Regions are requested in
+     * ascending order unless the writer is backed by a file channel.
+     */
+    private interface Writer {
+        long write(long from, long length) throws IOException;
+    }
+
+    private static final class StreamWriter implements Writer {
+        private final InputStream in;
+        private final OutputStream out;
+        private final byte[] buffer;
+        private long position = 0;
+
+        StreamWriter(InputStream in, OutputStream out, int bufferSize) {
+            this.in = in;
+            this.out = out;
+            this.buffer = new byte[bufferSize];
+        }
+
+        @Override
+        public long write(long from, long length) throws IOException {
+            while (position < from) {
+                long n = in.skip(from - position);
+                if (n <= 0) {
+                    if (in.read() == -1) {
+                        throw new EOFException("Unexpected end of content stream");
+                    }
+                    n = 1;
+                }
+                position += n;
+            }
+            long remaining = length;
+            while (remaining > 0) {
+                int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (n == -1) {
+                    throw new EOFException("Unexpected end of content stream");
+                }
+                out.write(buffer, 0, n);
+                remaining -= n;
+                position += n;
+            }
+            return length;
+        }
+    }
+
+    private static final class ChannelWriter implements Writer {
+        private final FileChannel channel;
+        private final OutputStream out;
+
+        ChannelWriter(FileChannel channel, OutputStream out) {
+            this.channel = channel;
+            this.out = out;
+        }
+
+        @Override
+        public long write(long from, long length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(CHANNEL_BUFFER_SIZE, Math.max(1, length)));
+            long position = from;
+            long remaining = length;
+            while (remaining > 0) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), remaining));
+                int n = channel.read(buffer, position);
+                if (n == -1) {
+                    throw new EOFException("Unexpected end of content file");
+                }
+                out.write(buffer.array(), 0, n);
+                position += n;
+                remaining -= n;
+            }
+            return length;
         }
-        return new Range(from, to);
     }
 }
@@ -0,0 +1,218 @@
+/* Copyright (c) 2017, University of Oslo, Norway
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ *  * Neither the name of the University of Oslo nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package vtk.webdav;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.jdom.Attribute;
+import org.jdom.CDATA;
+import org.jdom.Comment;
+import org.jdom.Element;
+import org.jdom.Namespace;
+import org.jdom.Text;
+
+/**
+ * Writes a DAV <code>multistatus</code> document incrementally.
+ *
+ * <p>The <code>multistatus</code> start tag is written by {@link #start()},
+ * after which each <code>response</code> element is serialized as soon as
+ * it is passed to {@link #response(Element)}, so only a single response
+ * element needs to be kept in memory at any time. Namespaces already 
+ * declared on an enclosing element are not declared again.
+ */
+public final class MultiStatusWriter implements Closeable {
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+    private final XMLStreamWriter writer;
+    private final OutputStream out;
+    private final Deque<Map<String, String>> scopes = new ArrayDeque<>();
+    private final int flushInterval;
+    private int written = 0;
+
+    /**
+     * @param out the output stream
+     * @param flushInterval flush the output stream after this number of
+     * responses have been written
+     */
+    public MultiStatusWriter(OutputStream out, int flushInterval) throws IOException {
+        this.out = out;
+        this.flushInterval = flushInterval;
+        try {
+            this.writer = OUTPUT_FACTORY.createXMLStreamWriter(out, "utf-8");
+        }
+        catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+
+    public void start() throws IOException {
+        try {
+            writer.writeStartDocument("utf-8", "1.0");
+            writer.writeCharacters("\n");
+            startElement(new Element("multistatus", WebdavConstants.DAV_NAMESPACE));
+            writer.writeCharacters("\n");
+        }
+        catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+
+    public void response(Element response) throws IOException {
+        try {
+            element(response);
+            writer.writeCharacters("\n");
+            if (++written % flushInterval == 0) {
+                writer.flush();
+                out.flush();
+            }
+        }
+        catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+
+    public int getWritten() {
+        return written;
+    }
+
+    /**
+     * Ends the <code>multistatus</code> element and flushes the output.
+     */
+    public void end() throws IOException {
+        try {
+            writer.writeEndElement();
+            scopes.pop();
+            writer.writeEndDocument();
+            writer.flush();
+            out.flush();
+        }
+        catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            writer.close();
+        }
+        catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+        out.close();
+    }
+
+    private String bound(String prefix) {
+        for (Map<String, String> scope: scopes) {
+            String uri = scope.get(prefix);
+            if (uri != null) {
+                return uri;
+            }
+        }
+        return "";
+    }
+
+    private void declare(Namespace ns, Map<String, String> scope) throws XMLStreamException {
+        String prefix = ns.getPrefix();
+        String uri = ns.getURI();
+        if (scope.containsKey(prefix)) {
+            return;
+        }
+        if (uri.equals(bound(prefix))) {
+            return;
+        }
+        scope.put(prefix, uri);
+        if ("".equals(prefix)) {
+            writer.writeDefaultNamespace(uri);
+        }
+        else {
+            writer.writeNamespace(prefix, uri);
+        }
+    }
+
+    private void startElement(Element element) throws XMLStreamException {
+        Namespace ns = element.getNamespace();
+        if ("".equals(ns.getPrefix())) {
+            writer.writeStartElement(element.getName());
+        }
+        else {
+            writer.writeStartElement(ns.getPrefix(), element.getName(), ns.getURI());
+        }
+        Map<String, String> scope = new HashMap<>(4);
+        declare(ns, scope);
+        for (Object additional: element.getAdditionalNamespaces()) {
+            declare((Namespace) additional, scope);
+        }
+        for (Object o: element.getAttributes()) {
+            Attribute attr = (Attribute) o;
+            Namespace attrNs = attr.getNamespace();
+            if ("".equals(attrNs.getURI())) {
+                writer.writeAttribute(attr.getName(), attr.getValue());
+            }
+            else {
+                declare(attrNs, scope);
+                writer.writeAttribute(attrNs.getPrefix(), attrNs.getURI(), 
+                        attr.getName(), attr.getValue());
+            }
+        }
+        scopes.push(scope);
+    }
+
+    private void element(Element element) throws XMLStreamException {
+        startElement(element);
+        for (Object content: element.getContent()) {
+            if (content instanceof Element) {
+                element((Element) content);
+            }
+            else if (content instanceof CDATA) {
+                writer.writeCData(((CDATA) content).getText());
+            }
+            else if (content instanceof Text) {
+                writer.writeCharacters(((Text) content).getText());
+            }
+            else if (content instanceof Comment) {
+                writer.writeComment(((Comment) content).getText());
+            }
+        }
+        writer.writeEndElement();
+        scopes.pop();
+    }
+}
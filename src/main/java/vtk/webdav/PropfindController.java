@@ -32,7 +32,9 @@ package vtk.webdav;
 
 import java.io.IOException;
 import java.io.StringReader;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -41,6 +43,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Consumer;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -122,6 +125,7 @@ public class PropfindController extends AbstractWebdavController
     private Service webdavService = null;
     private String collectionContentType = null;
     private long maxRequestSize = 40000;
+    private int responseFlushInterval = 100;
     private Map<org.jdom.Namespace,Set<String>> childAuthorizeWhitelistProperties;
 
     /**
@@ -135,6 +139,17 @@ public class PropfindController extends AbstractWebdavController
         this.maxRequestSize = newSize;
     }
     
+    /**
+     * Sets the number of <code>response</code> elements written between
+     * each flush of the (streamed) multistatus response.
+     */
+    public void setResponseFlushInterval(int responseFlushInterval) {
+        if (responseFlushInterval < 1) {
+            throw new IllegalArgumentException("Flush interval must be a positive integer");
+        }
+        this.responseFlushInterval = responseFlushInterval;
+    }
+
     public void setCollectionContentType(String value) {
         if (value != null) {
             if (value.trim().equals("")) {
@@ -200,11 +215,9 @@ public class PropfindController extends AbstractWebdavController
             PropfindRequestModel model = buildPropfindModel(request,
                 resource, requestBody, depth, token);
 
-            Element e = buildMultistatusElement(request, model);
-            Document doc = new Document(e);
-
             responseBuilder(HttpStatus.MULTI_STATUS.value())
-                    .handler(xmlResponseHandler(doc))
+                    .header("Content-Type", "text/xml;charset=utf-8")
+                    .handler(multiStatusHandler(request, model))
                     .writeTo(response);
         }
         catch (InvalidRequestException e) {
@@ -327,14 +340,14 @@ public class PropfindController extends AbstractWebdavController
             RequestContext requestContext = RequestContext.getRequestContext(request);
             Repository repo = requestContext.getRepository();
             Principal principal = requestContext.getPrincipal();
-            for (Resource r: resources) {
-                if (!repo.authorize(principal, r.getAcl(), Privilege.READ_PROCESSED)) {
-                    String msg = "Principal " 
-                            + principal + " does not sufficient privileges on "
-                            + r + " (at least " + Privilege.READ_PROCESSED + " required)";
-                    logger.debug(msg);
-                    throw new AuthorizationException(msg);
-                }
+            BitSet authorized = repo.authorize(principal, resources, Privilege.READ_PROCESSED);
+            int denied = authorized.nextClearBit(0);
+            if (denied < resources.size()) {
+                String msg = "Principal " 
+                        + principal + " does not sufficient privileges on "
+                        + resources.get(denied) + " (at least " + Privilege.READ_PROCESSED + " required)";
+                logger.debug(msg);
+                throw new AuthorizationException(msg);
             }
         }
     }
@@ -559,24 +572,29 @@ public class PropfindController extends AbstractWebdavController
         }
     }
     
-    private Element buildMultistatusElement(HttpServletRequest request, 
-            PropfindRequestModel model) throws IOException {
-
-        Element multiStatus = new Element("multistatus", WebdavConstants.DAV_NAMESPACE);
-
-        for (Resource currentResource: model.resources) {
-                Element responseElement = buildResponseElement(request, 
-                    currentResource, model.properties, 
-                    model.appendValues, model.wildcardPropRequest);
-            
-                multiStatus.addContent(responseElement);
-        }
-        
-        return multiStatus;
+    /**
+     * Streams the multistatus response, one <code>response</code>
+     * element per resource, without building the complete document.
+     */
+    private Consumer<HttpServletResponse> multiStatusHandler(HttpServletRequest request, 
+            PropfindRequestModel model) {
+        return response -> {
+            try (MultiStatusWriter writer = new MultiStatusWriter(
+                    response.getOutputStream(), responseFlushInterval)) {
+                writer.start();
+                for (Resource currentResource: model.resources) {
+                    Element responseElement = buildResponseElement(request, 
+                            currentResource, model.properties, 
+                            model.appendValues, model.wildcardPropRequest);
+                    writer.response(responseElement);
+                }
+                writer.end();
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
     }
-   
-
-
 
     /**
      * Builds a DAV 'response' XML element from data in a
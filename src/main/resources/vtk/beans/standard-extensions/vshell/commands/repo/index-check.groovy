@@ -0,0 +1,39 @@
+package vtk.shell.vshell
+
+import vtk.repository.index.*
+import vtk.repository.index.management.IndexOperationManager
+
+class RepoIndexCheckCommand implements VCommand {
+
+    String getDescription() {
+        'Check consistency of the repository system index'
+    }
+
+    String getUsage() {
+        'repo index check [incremental:boolean]'
+    }
+
+    void execute(VShellContext context, Map args, PrintStream out) {
+        def opMan = context.get('context').getBean('systemIndexOperationManager')
+        check(opMan, 'true' == args.incremental, out)
+    }
+
+    void check(indexOperationManager, incremental, out) {
+        out.println 'Starting consistency check ..'
+        if (incremental) {
+            indexOperationManager.checkConsistencyIncremental(false)
+        } else {
+            indexOperationManager.checkConsistency(false)
+        }
+        def e = indexOperationManager.lastConsistencyCheckException
+        if (e) {
+            out.println "Consistency check failed: ${e.message}"
+        }
+        def check = indexOperationManager.lastConsistencyCheck
+        if (check) {
+            def errors = check.errors
+            out.println "Consistency check found ${errors.size()} errors"
+            errors.each { out.println "  ${it}" }
+        }
+    }
+}
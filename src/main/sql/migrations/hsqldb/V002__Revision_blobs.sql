@@ -0,0 +1,14 @@
+-----------------------------------------------------------------------------
+-- revision_blob (content addressed revision store)
+-----------------------------------------------------------------------------
+CREATE TABLE revision_blob
+(
+    checksum VARCHAR(256) NOT NULL,
+    content_length BIGINT NOT NULL,
+    created TIMESTAMP NOT NULL
+);
+
+ALTER TABLE revision_blob
+      ADD CONSTRAINT revision_blob_pk PRIMARY KEY (checksum);
+
+CREATE INDEX simple_content_revision_index2 ON simple_content_revision(checksum);
@@ -0,0 +1,14 @@
+-----------------------------------------------------------------------------
+-- revision_blob (content addressed revision store)
+-----------------------------------------------------------------------------
+create table revision_blob
+(
+    checksum varchar2 (256) not null,
+    content_length number not null,
+    created timestamp not null
+);
+
+alter table revision_blob
+      add constraint revision_blob_pk primary key (checksum);
+
+create index simple_content_revision_index2 on simple_content_revision(checksum);
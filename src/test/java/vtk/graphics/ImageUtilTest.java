@@ -142,6 +142,28 @@ public class ImageUtilTest {
     	assertEquals("Wrong width", scaledWidth, imageFromBytes.getWidth());
     }
     
+    @Test
+    public void readSubsampled() throws Exception {
+        assertEquals(1, ImageUtil.subsamplingFactor(400, 250));
+        assertEquals(12, ImageUtil.subsamplingFactor(6000, 250));
+
+        // 500x500, subsampled by 2 for target width 100:
+        BufferedImage decoded = ImageUtil.readSubsampled(
+                this.getClass().getResourceAsStream(jpgImage), 100);
+        assertEquals("Unexpected width", 250, decoded.getWidth());
+        assertEquals("Unexpected height", 250, decoded.getHeight());
+        BufferedImage scaled = ImageUtil.downscaleToWidth(decoded, 100);
+        assertEquals("Unexpected width", 100, scaled.getWidth());
+
+        // No subsampling when target width is close to image width:
+        decoded = ImageUtil.readSubsampled(
+                this.getClass().getResourceAsStream(pngImage), 400);
+        assertEquals("Unexpected width", 600, decoded.getWidth());
+
+        assertNull(ImageUtil.readSubsampled(
+                new ByteArrayInputStream("not an image".getBytes("utf-8")), 100));
+    }
+    
     private void assertProperResize(String imageName, int width, int height) throws IOException {
         BufferedImage originalImage = ImageIO.read(this.getClass().getResourceAsStream(imageName));
         BufferedImage scaledImage;
@@ -0,0 +1,157 @@
+/* Copyright (c) 2017, University of Oslo, Norway
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ *  * Neither the name of the University of Oslo nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package vtk.js;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import vtk.util.Result;
+import vtk.util.io.InputSource;
+
+@SuppressWarnings("restriction")
+public class JavascriptEngineTest {
+
+    private final Map<String, InputSource> sources = new ConcurrentHashMap<>();
+
+    private JavascriptEngine engine(int poolSize) {
+        return new JavascriptEngine(id -> {
+            InputSource source = sources.get(id);
+            if (source == null) {
+                return Result.failure(new IllegalArgumentException("No such script: " + id));
+            }
+            return Result.success(source);
+        }, poolSize);
+    }
+
+    private void script(String id, String code, Instant lastModified) {
+        sources.put(id, new InputSource() {
+            @Override
+            public String getID() {
+                return id;
+            }
+            @Override
+            public Optional<Instant> getLastModified() throws UncheckedIOException {
+                return Optional.of(lastModified);
+            }
+            @Override
+            public Charset getCharacterEncoding() throws UncheckedIOException {
+                return StandardCharsets.UTF_8;
+            }
+            @Override
+            public InputStream getInputStream() throws UncheckedIOException {
+                return new ByteArrayInputStream(code.getBytes(StandardCharsets.UTF_8));
+            }
+        });
+    }
+
+    private Object call(JavascriptEngine engine, String script, Object arg) throws Exception {
+        JavascriptEngine pinned = engine.pin();
+        return pinned.compiledFunction(script, "handler")
+                .thenCompose(f -> pinned.execute(() -> f.call(null, arg)))
+                .get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void invoke() throws Exception {
+        script("/add.js", "function handler(x) { return x + 1; }", Instant.ofEpochMilli(1000));
+        JavascriptEngine engine = engine(2);
+        assertEquals(3, ((Number) call(engine, "/add.js", 2)).intValue());
+    }
+
+    @Test
+    public void bindingsCachedPerVersion() throws Exception {
+        script("/counter.js", "var n = 0; function handler() { return ++n; }", 
+                Instant.ofEpochMilli(1000));
+        JavascriptEngine engine = engine(1);
+        assertEquals(1, ((Number) call(engine, "/counter.js", null)).intValue());
+        assertEquals(2, ((Number) call(engine, "/counter.js", null)).intValue());
+
+        script("/counter.js", "var n = 10; function handler() { return ++n; }", 
+                Instant.ofEpochMilli(2000));
+        assertEquals(11, ((Number) call(engine, "/counter.js", null)).intValue());
+    }
+
+    @Test
+    public void compileError() throws Exception {
+        script("/broken.js", "function handler( {", Instant.ofEpochMilli(1000));
+        JavascriptEngine engine = engine(1);
+        try {
+            call(engine, "/broken.js", null);
+            fail("Expected compilation failure");
+        }
+        catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof javax.script.ScriptException);
+        }
+    }
+
+    @Test
+    public void concurrentLoad() throws Exception {
+        script("/square.js", 
+                "function handler(x) { var s = 0; for (var i = 0; i < 1000; i++) s += i; "
+                + "return x * x; }", Instant.ofEpochMilli(1000));
+        JavascriptEngine engine = engine(4);
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        List<CompletableFuture<Object>> results = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            int n = i;
+            JavascriptEngine pinned = engine.pin();
+            results.add(pinned.compiledFunction("/square.js", "handler")
+                    .thenCompose(f -> pinned.execute(() -> {
+                        threads.add(Thread.currentThread().getName());
+                        return f.call(null, n);
+                    })));
+        }
+        for (int i = 0; i < results.size(); i++) {
+            Object result = results.get(i).get(30, TimeUnit.SECONDS);
+            assertEquals((long) i * i, ((Number) result).longValue());
+        }
+        assertTrue("Expected more than one engine thread, got " + threads, threads.size() > 1);
+    }
+}
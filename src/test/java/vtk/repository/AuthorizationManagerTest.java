@@ -38,6 +38,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
@@ -47,9 +48,15 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
 import org.json.simple.JSONObject;
 import org.json.simple.JSONValue;
 import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
 
 import vtk.repository.store.DataAccessException;
 import vtk.repository.store.DataAccessor;
@@ -58,6 +65,7 @@ import vtk.security.GroupStore;
 import vtk.security.MatchingGroupStore;
 import vtk.security.MatchingPrincipalStore;
 import vtk.security.Principal;
+import vtk.security.PrincipalFactory;
 import vtk.security.PrincipalImpl;
 import vtk.security.PrincipalManager;
 import vtk.security.PrincipalManagerImpl;
@@ -71,6 +79,82 @@ public class AuthorizationManagerTest {
         harness.run();
     }
 
+    @Test
+    public void batchAuthorize() throws Exception {
+        Principal user = new PrincipalImpl("user@localhost", Principal.Type.USER);
+        Principal group = new PrincipalImpl("group@localhost", Principal.Type.GROUP);
+        Principal other = new PrincipalImpl("other@localhost", Principal.Type.GROUP);
+
+        PrincipalManager principalManager = Mockito.mock(PrincipalManager.class);
+        Mockito.when(principalManager.getMemberGroups(user))
+            .thenReturn(Collections.singleton(group));
+
+        AuthorizationManager authorizationManager = new AuthorizationManager();
+        authorizationManager.setPrincipalManager(principalManager);
+        authorizationManager.setRoleManager(new RoleManager());
+
+        Acl groupAcl = Acl.EMPTY_ACL.addEntryNoValidation(Privilege.READ, group);
+        Acl otherAcl = Acl.EMPTY_ACL.addEntryNoValidation(Privilege.READ, other);
+        Acl openAcl = Acl.EMPTY_ACL.addEntryNoValidation(Privilege.READ, PrincipalFactory.ALL);
+
+        List<Resource> resources = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            ResourceImpl r = new ResourceImpl(Path.fromString("/a/r" + i));
+            r.setAcl(groupAcl);
+            r.setAclInheritedFrom(1);
+            resources.add(r);
+        }
+        ResourceImpl denied = new ResourceImpl(Path.fromString("/b"));
+        denied.setAcl(otherAcl);
+        resources.add(denied);
+        ResourceImpl open = new ResourceImpl(Path.fromString("/c"));
+        open.setAcl(openAcl);
+        resources.add(open);
+
+        BitSet readable = authorizationManager.authorize(user, resources, Privilege.READ_PROCESSED);
+        assertEquals(11, readable.cardinality());
+        assertTrue(readable.get(0) && readable.get(9) && readable.get(11));
+        assertFalse(readable.get(10));
+        for (int i = 0; i < resources.size(); i++) {
+            assertEquals(authorizationManager.authorize(user, resources.get(i).getAcl(), 
+                    Privilege.READ_PROCESSED), readable.get(i));
+        }
+
+        // Anonymous access is only granted through ALL
+        BitSet anonymous = authorizationManager.authorize(null, resources, Privilege.READ_PROCESSED);
+        assertEquals(1, anonymous.cardinality());
+        assertTrue(anonymous.get(11));
+
+        // Memberships are resolved once for the batch, plus once for each of
+        // the single-resource comparisons above requiring a group match
+        Mockito.verify(principalManager, Mockito.times(12)).getMemberGroups(Matchers.eq(user));
+        Mockito.verify(principalManager, Mockito.never()).isMember(
+                Matchers.any(Principal.class), Matchers.any(Principal.class));
+    }
+
+    @Test
+    public void groupClosureRefresh() throws Exception {
+        Principal user = new PrincipalImpl("user@localhost", Principal.Type.USER);
+        Principal group = new PrincipalImpl("group@localhost", Principal.Type.GROUP);
+
+        PrincipalManager principalManager = Mockito.mock(PrincipalManager.class);
+        Mockito.when(principalManager.getMemberGroups(user))
+            .thenReturn(Collections.singleton(group));
+
+        AuthorizationManager authorizationManager = new AuthorizationManager();
+        authorizationManager.setPrincipalManager(principalManager);
+        authorizationManager.setRoleManager(new RoleManager());
+
+        Acl acl = Acl.EMPTY_ACL.addEntryNoValidation(Privilege.READ_WRITE, group);
+        assertTrue(authorizationManager.authorize(user, acl, Privilege.READ));
+        assertFalse(authorizationManager.authorize(user, acl, Privilege.ALL));
+
+        // Group store refreshes memberships: user no longer a member
+        Mockito.when(principalManager.getMemberGroups(user))
+            .thenReturn(Collections.<Principal>emptySet());
+        assertFalse(authorizationManager.authorize(user, acl, Privilege.READ));
+    }
+
     private static class TestHarness {
         
         private TestDataAccessor dao;
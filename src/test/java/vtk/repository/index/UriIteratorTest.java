@@ -0,0 +1,121 @@
+/* Copyright (c) 2017, University of Oslo, Norway
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ *  * Neither the name of the University of Oslo nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package vtk.repository.index;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexWriter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import vtk.repository.Path;
+import vtk.repository.index.mapping.ResourceFields;
+
+/**
+ * Tests for {@link UriIterator}
+ */
+public class UriIteratorTest {
+
+    private IndexManager index;
+
+    @Before
+    public void setUp() throws IOException {
+        index = new IndexManager();
+        index.open(true, false);
+        IndexWriter writer = index.getIndexWriter();
+        for (String uri: new String[] {"/", "/a", "/a/b", "/a/b/c", "/a-b", "/a-b/x", 
+                "/a.c", "/b/c", "/b/d"}) {
+            Document doc = new Document();
+            doc.add(new StringField(ResourceFields.URI_FIELD_NAME, uri, Field.Store.YES));
+            writer.addDocument(doc);
+        }
+        index.commit();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        index.close();
+    }
+
+    @Test
+    public void allUris() throws Exception {
+        assertEquals(paths("/", "/a", "/a-b", "/a-b/x", "/a.c", "/a/b", "/a/b/c", "/b/c", "/b/d"), 
+                iterate(Path.ROOT));
+    }
+
+    @Test
+    public void subtreeBounds() throws Exception {
+        assertEquals(paths("/a", "/a/b", "/a/b/c"), iterate(Path.fromString("/a")));
+        assertEquals(paths("/a-b", "/a-b/x"), iterate(Path.fromString("/a-b")));
+        assertEquals(paths("/a/b", "/a/b/c"), iterate(Path.fromString("/a/b")));
+        assertEquals(paths("/b/c", "/b/d"), iterate(Path.fromString("/b")));
+        assertEquals(paths(), iterate(Path.fromString("/a/c")));
+        assertEquals(paths(), iterate(Path.fromString("/z")));
+    }
+
+    @Test
+    public void childUris() throws Exception {
+        assertEquals(paths("/a", "/a-b", "/a.c", "/b"), UriIterator.childUris(index, Path.ROOT));
+        assertEquals(paths("/a/b"), UriIterator.childUris(index, Path.fromString("/a")));
+        assertEquals(paths("/b/c", "/b/d"), UriIterator.childUris(index, Path.fromString("/b")));
+        assertEquals(paths(), UriIterator.childUris(index, Path.fromString("/a.c")));
+    }
+
+    private List<Path> iterate(Path subtree) throws Exception {
+        List<Path> result = new ArrayList<>();
+        UriIterator iterator = new UriIterator(index, subtree);
+        try {
+            while (iterator.hasNext()) {
+                result.add(iterator.next());
+            }
+        } finally {
+            iterator.close();
+        }
+        return result;
+    }
+
+    private static List<Path> paths(String... uris) {
+        List<Path> result = new ArrayList<>();
+        for (String uri: Arrays.asList(uris)) {
+            result.add(Path.fromString(uri));
+        }
+        return result;
+    }
+}
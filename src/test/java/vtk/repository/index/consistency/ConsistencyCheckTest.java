@@ -0,0 +1,209 @@
+/* Copyright (c) 2017, University of Oslo, Norway
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ *  * Neither the name of the University of Oslo nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package vtk.repository.index.consistency;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import vtk.repository.Acl;
+import vtk.repository.Path;
+import vtk.repository.PropertySetImpl;
+import vtk.repository.index.PropertySetIndex;
+import vtk.repository.index.PropertySetIndexRandomAccessor;
+import vtk.repository.index.PropertySetIndexRandomAccessor.PropertySetInternalData;
+import vtk.repository.store.IndexDao;
+import vtk.repository.store.PropertySetHandler;
+
+public class ConsistencyCheckTest {
+
+    private static final File TEMP_DIR = new File(System.getProperty("java.io.tmpdir"));
+
+    private PropertySetIndex index;
+    private IndexDao indexDao;
+
+    // URI -> resource id in database and index
+    private final Map<Path, Integer> database = new HashMap<>();
+    private final Map<Path, Integer> indexed = new HashMap<>();
+
+    @Before
+    public void setUp() throws Exception {
+        int id = 1;
+        for (String uri: Arrays.asList("/", "/a", "/a/b", "/a-b", "/b", "/d")) {
+            database.put(Path.fromString(uri), id++);
+        }
+        indexed.putAll(database);
+        // Missing in index:
+        indexed.remove(Path.fromString("/d"));
+        // Dangling in index, also within and next to a checked subtree:
+        indexed.put(Path.fromString("/c"), 100);
+        indexed.put(Path.fromString("/a/x"), 101);
+        indexed.put(Path.fromString("/a-b/y"), 102);
+        // Wrong id in index:
+        indexed.put(Path.fromString("/b"), 103);
+
+        index = mock(PropertySetIndex.class);
+        when(index.getId()).thenReturn("test");
+        when(index.orderedUriIterator()).thenAnswer(invocation -> subtree(indexed, Path.ROOT).iterator());
+        when(index.orderedUriIterator(any(Path.class))).thenAnswer(invocation -> 
+                subtree(indexed, (Path) invocation.getArguments()[0]).iterator());
+        when(index.childUris(Path.ROOT)).thenAnswer(invocation -> children(indexed));
+        when(index.randomAccessor()).thenAnswer(invocation -> randomAccessor());
+
+        indexDao = mock(IndexDao.class);
+        doAnswer(invocation -> {
+            iterate(subtree(database, Path.ROOT), (PropertySetHandler) invocation.getArguments()[0]);
+            return null;
+        }).when(indexDao).orderedPropertySetIteration(any(PropertySetHandler.class));
+        doAnswer(invocation -> {
+            iterate(subtree(database, (Path) invocation.getArguments()[0]), 
+                    (PropertySetHandler) invocation.getArguments()[1]);
+            return null;
+        }).when(indexDao).orderedPropertySetIteration(any(Path.class), any(PropertySetHandler.class));
+        doAnswer(invocation -> {
+            @SuppressWarnings("unchecked")
+            List<Path> uris = (List<Path>) invocation.getArguments()[0];
+            iterate(uris.stream().filter(database::containsKey).collect(Collectors.toList()), 
+                    (PropertySetHandler) invocation.getArguments()[1]);
+            return null;
+        }).when(indexDao).orderedPropertySetIterationForUris(any(), any(PropertySetHandler.class));
+        when(indexDao.loadChildUris(Path.ROOT)).thenAnswer(invocation -> children(database));
+    }
+
+    @Test
+    public void fullCheck() throws Exception {
+        assertEquals(new TreeSet<>(Arrays.asList(
+                "MissingInconsistency:/d", 
+                "DanglingInconsistency:/c",
+                "DanglingInconsistency:/a/x",
+                "DanglingInconsistency:/a-b/y",
+                "InvalidUUIDInconsistency:/b")), 
+                errors(ConsistencyCheck.run(index, indexDao, TEMP_DIR)));
+    }
+
+    @Test
+    public void subtreeCheckFindsSameErrors() throws Exception {
+        Set<String> expected = errors(ConsistencyCheck.run(index, indexDao, TEMP_DIR));
+        assertEquals(expected, errors(ConsistencyCheck.run(index, indexDao, TEMP_DIR, null, null)));
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            assertEquals(expected, errors(ConsistencyCheck.run(index, indexDao, TEMP_DIR, null, executor)));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void selectedSubtrees() throws Exception {
+        Set<Path> subtrees = new TreeSet<>(Arrays.asList(Path.fromString("/a"), Path.fromString("/d")));
+        assertEquals(new TreeSet<>(Arrays.asList(
+                "MissingInconsistency:/d", 
+                "DanglingInconsistency:/a/x")), 
+                errors(ConsistencyCheck.run(index, indexDao, TEMP_DIR, subtrees, null)));
+    }
+
+    private static Set<String> errors(ConsistencyCheck check) {
+        Set<String> errors = new TreeSet<>();
+        for (AbstractConsistencyError error: check.getErrors()) {
+            errors.add(error.getClass().getSimpleName() + ":" + error.getUri());
+        }
+        return errors;
+    }
+
+    private static List<Path> subtree(Map<Path, Integer> uris, Path subtree) {
+        return uris.keySet().stream()
+                .filter(uri -> subtree.isRoot() || uri.equals(subtree) || subtree.isAncestorOf(uri))
+                .map(Path::toString).sorted().map(Path::fromString)
+                .collect(Collectors.toList());
+    }
+
+    private static List<Path> children(Map<Path, Integer> uris) {
+        return uris.keySet().stream()
+                .filter(uri -> uri.getDepth() == 1)
+                .sorted().collect(Collectors.toList());
+    }
+
+    private void iterate(List<Path> uris, PropertySetHandler handler) {
+        for (Path uri: uris) {
+            PropertySetImpl propertySet = new PropertySetImpl();
+            propertySet.setUri(uri);
+            propertySet.setNumericId(database.get(uri));
+            propertySet.setResourceType("resource");
+            handler.handlePropertySet(propertySet, Acl.EMPTY_ACL);
+        }
+    }
+
+    private PropertySetIndexRandomAccessor randomAccessor() throws Exception {
+        PropertySetIndexRandomAccessor accessor = mock(PropertySetIndexRandomAccessor.class);
+        when(accessor.countInstances(any(Path.class))).thenAnswer(invocation -> 
+                indexed.containsKey((Path) invocation.getArguments()[0]) ? 1 : 0);
+        when(accessor.getPropertySetByURI(any(Path.class))).thenAnswer(invocation -> {
+            PropertySetImpl propertySet = new PropertySetImpl();
+            propertySet.setUri((Path) invocation.getArguments()[0]);
+            propertySet.setResourceType("resource");
+            return propertySet;
+        });
+        when(accessor.getPropertySetInternalData(any(Path.class))).thenAnswer(invocation -> {
+            Path uri = (Path) invocation.getArguments()[0];
+            return new PropertySetInternalData() {
+                @Override
+                public Path getURI() { return uri; }
+                @Override
+                public String getResourceType() { return "resource"; }
+                @Override
+                public int getResourceId() { return indexed.get(uri); }
+                @Override
+                public Acl getAcl() { return Acl.EMPTY_ACL; }
+                @Override
+                public int getAclInheritedFromId() { return PropertySetImpl.NULL_RESOURCE_ID; }
+            };
+        });
+        return accessor;
+    }
+}
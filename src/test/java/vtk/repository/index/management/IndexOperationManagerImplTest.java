@@ -0,0 +1,130 @@
+/* Copyright (c) 2017, University of Oslo, Norway
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ *  * Neither the name of the University of Oslo nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package vtk.repository.index.management;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import vtk.repository.ChangeLogEntry;
+import vtk.repository.Path;
+import vtk.repository.index.PropertySetIndex;
+import vtk.repository.index.PropertySetIndexRandomAccessor;
+import vtk.repository.index.StorageCorruptionException;
+import vtk.repository.store.ChangeLogDao;
+import vtk.repository.store.IndexDao;
+import vtk.repository.store.PropertySetHandler;
+
+public class IndexOperationManagerImplTest {
+
+    private IndexOperationManagerImpl manager;
+    private PropertySetIndex index;
+    private IndexDao indexDao;
+    private ChangeLogDao changeLogDao;
+    private List<ChangeLogEntry> changes;
+
+    @Before
+    public void setUp() throws Exception {
+        index = mock(PropertySetIndex.class);
+        when(index.getId()).thenReturn("test");
+        when(index.orderedUriIterator(any(Path.class))).thenReturn(Collections.<Path>emptyIterator());
+        when(index.randomAccessor()).thenReturn(mock(PropertySetIndexRandomAccessor.class));
+        indexDao = mock(IndexDao.class);
+
+        changes = new ArrayList<>();
+        changes.add(change("/a/b/c"));
+        changes.add(change("/a"));
+        changes.add(change("/b/c"));
+        changeLogDao = mock(ChangeLogDao.class);
+        when(changeLogDao.getChangeLogEntries(eq(3), eq(2), any(Date.class), anyInt())).thenReturn(changes);
+
+        manager = new IndexOperationManagerImpl();
+        manager.setIndex(index);
+        manager.setIndexDao(indexDao);
+        manager.setTempDir(new File(System.getProperty("java.io.tmpdir")));
+        manager.setChangeLogDao(changeLogDao);
+        manager.setConsistencyLoggerId(2);
+    }
+
+    @Test
+    public void incrementalCheckConsumesChangeLog() throws Exception {
+        manager.checkConsistencyIncremental(false);
+
+        assertTrue(manager.lastConsistencyCheckCompletedNormally());
+        assertNotNull(manager.getLastConsistencyCheck());
+        verify(indexDao).orderedPropertySetIteration(eq(Path.fromString("/a")), any(PropertySetHandler.class));
+        verify(indexDao).orderedPropertySetIteration(eq(Path.fromString("/b")), any(PropertySetHandler.class));
+        verify(indexDao, never()).orderedPropertySetIteration(any(PropertySetHandler.class));
+        verify(changeLogDao).removeChangeLogEntries(changes);
+    }
+
+    @Test
+    public void failedIncrementalCheckKeepsChangeLog() throws Exception {
+        doThrow(new StorageCorruptionException("Corrupt")).when(index).validateStorageFacility();
+
+        manager.checkConsistencyIncremental(false);
+
+        assertNotNull(manager.getLastConsistencyCheckException());
+        assertNull(manager.getLastConsistencyCheck());
+        verify(changeLogDao, never()).removeChangeLogEntries(any());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void incrementalCheckRequiresLoggerId() {
+        manager.setConsistencyLoggerId(-1);
+        manager.checkConsistencyIncremental(false);
+    }
+
+    private static ChangeLogEntry change(String uri) {
+        ChangeLogEntry entry = new ChangeLogEntry();
+        entry.setUri(Path.fromString(uri));
+        entry.setLoggerType(3);
+        entry.setLoggerId(2);
+        return entry;
+    }
+}
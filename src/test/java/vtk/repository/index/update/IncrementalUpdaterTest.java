@@ -0,0 +1,148 @@
+/* Copyright (c) 2017, University of Oslo, Norway
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ *  * Neither the name of the University of Oslo nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package vtk.repository.index.update;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import vtk.repository.ChangeLogEntry;
+import vtk.repository.Path;
+import vtk.repository.index.PropertySetIndex;
+import vtk.repository.store.ChangeLogDao;
+import vtk.repository.store.IndexDao;
+
+public class IncrementalUpdaterTest {
+
+    private IncrementalUpdater updater;
+    private PropertySetIndex index;
+    private ChangeLogDao changeLog;
+
+    @Before
+    public void setUp() {
+        index = mock(PropertySetIndex.class);
+        changeLog = mock(ChangeLogDao.class);
+        when(index.lock()).thenReturn(true);
+        // Database clock ahead of this node by more than the grace period
+        when(changeLog.getCurrentTime()).thenReturn(Date.from(Instant.now().plusSeconds(10)));
+
+        updater = new IncrementalUpdater();
+        updater.setIndex(index);
+        updater.setIndexDao(mock(IndexDao.class));
+        updater.setChangeLogDao(changeLog);
+        updater.setLoggerType(3);
+        updater.setLoggerId(1);
+        updater.setUpdateIntervalSeconds(3600);
+        updater.setTransactionManager(mock(PlatformTransactionManager.class));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        updater.destroy();
+    }
+
+    @Test
+    public void awaitAppliedTriggersImmediateBatch() throws Exception {
+        ChangeLogEntry entry = new ChangeLogEntry();
+        entry.setUri(Path.fromString("/a"));
+        entry.setOperation(ChangeLogEntry.Operation.MODIFIED_PROPS);
+        entry.setTimestamp(new Date());
+        when(changeLog.getChangeLogEntries(eq(3), eq(1), anyInt()))
+                .thenReturn(Collections.singletonList(entry));
+
+        assertFalse(updater.getAppliedWatermark().isPresent());
+        updater.start();
+
+        Instant written = Instant.now();
+        long start = System.nanoTime();
+        Optional<Instant> watermark = updater.awaitApplied(written, Duration.ofSeconds(10));
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+        assertTrue(watermark.isPresent());
+        assertFalse(watermark.get().isBefore(written));
+        // First scheduled round is one second after start
+        assertTrue("Waited " + elapsedMillis + " ms", elapsedMillis < 900);
+        verify(index).commit();
+        verify(changeLog).removeChangeLogEntries(Collections.singletonList(entry));
+
+        // Already applied, must return without another batch
+        assertEquals(watermark, updater.awaitApplied(written, Duration.ofSeconds(10)));
+        verify(changeLog).getChangeLogEntries(eq(3), eq(1), anyInt());
+    }
+
+    @Test
+    public void readOnlyNodeAdvancesOnClusterMessage() throws Exception {
+        when(index.isClusterSharedReadOnly()).thenReturn(true);
+
+        Instant written = Instant.now();
+        updater.clusterMessage(new IncrementalUpdater.IndexApplied(written.toEpochMilli() + 5, true));
+
+        Optional<Instant> watermark = updater.awaitApplied(written, Duration.ofMillis(10));
+        assertEquals(Optional.of(Instant.ofEpochMilli(written.toEpochMilli() + 5)), watermark);
+        verify(index).reinitialize();
+        verify(changeLog, never()).getChangeLogEntries(anyInt(), anyInt(), anyInt());
+    }
+
+    @Test
+    public void watermarkFollowsDatabaseTime() throws Exception {
+        Instant dbTime = Instant.now().minusSeconds(3600);
+        when(changeLog.getCurrentTime()).thenReturn(Date.from(dbTime));
+        updater.start();
+
+        Optional<Instant> watermark = updater.awaitApplied(Instant.now(), Duration.ofMillis(300));
+        assertEquals(Optional.of(dbTime), watermark);
+        // Waiting must not trigger further batches (next scheduled round is after one second)
+        verify(changeLog).getChangeLogEntries(eq(3), eq(1), anyInt());
+    }
+
+    @Test
+    public void awaitAppliedTimesOut() throws Exception {
+        when(index.isClusterSharedReadOnly()).thenReturn(true);
+        Optional<Instant> watermark = updater.awaitApplied(Instant.now(), Duration.ofMillis(50));
+        assertFalse(watermark.isPresent());
+    }
+}
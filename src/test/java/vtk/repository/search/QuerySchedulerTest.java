@@ -0,0 +1,153 @@
+/* Copyright (c) 2017, University of Oslo, Norway
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ *  * Neither the name of the University of Oslo nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package vtk.repository.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+import vtk.repository.search.Search.Priority;
+
+public class QuerySchedulerTest {
+
+    private MetricRegistry metrics;
+
+    private QueryScheduler scheduler(int min, int max, long latencyTargetMillis, int maxQueued, int maxWaitSeconds) {
+        Map<Priority, Integer> wait = new EnumMap<>(Priority.class);
+        for (Priority p: Priority.values()) {
+            wait.put(p, maxWaitSeconds);
+        }
+        metrics = new MetricRegistry();
+        return new QueryScheduler(min, max, latencyTargetMillis, maxQueued, wait, metrics);
+    }
+
+    @Test
+    public void lowerClassesLimitedToShare() throws Exception {
+        QueryScheduler s = scheduler(4, 4, 10000, 10, 0);
+        QueryScheduler.Permit r1 = s.acquire(Priority.REPORT);
+        QueryScheduler.Permit r2 = s.acquire(Priority.REPORT);
+        try {
+            s.acquire(Priority.REPORT);
+            fail("Expected report class to be limited to half of permits");
+        } catch (QueryException e) { }
+        assertEquals(1, metrics.meter("repository.query.scheduler.report.rejected").getCount());
+
+        // Interactive searches can still use remaining permits
+        QueryScheduler.Permit i1 = s.acquire(Priority.INTERACTIVE);
+        QueryScheduler.Permit i2 = s.acquire(Priority.INTERACTIVE);
+        assertEquals(4, s.getInFlight());
+        for (QueryScheduler.Permit p: new QueryScheduler.Permit[]{r1, r2, i1, i2}) {
+            p.release();
+        }
+        assertEquals(0, s.getInFlight());
+    }
+
+    @Test
+    public void higherPriorityAdmittedFirst() throws Exception {
+        final QueryScheduler s = scheduler(1, 1, 10000, 10, 10);
+        QueryScheduler.Permit held = s.acquire(Priority.INTERACTIVE);
+
+        final List<Priority> order = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch done = new CountDownLatch(2);
+        Thread background = waiter(s, Priority.BACKGROUND, order, done);
+        background.start();
+        while (s.getQueued(Priority.BACKGROUND) == 0) Thread.sleep(1);
+        Thread interactive = waiter(s, Priority.INTERACTIVE, order, done);
+        interactive.start();
+        while (s.getQueued(Priority.INTERACTIVE) == 0) Thread.sleep(1);
+
+        held.release();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Priority.INTERACTIVE, order.get(0));
+        assertEquals(Priority.BACKGROUND, order.get(1));
+    }
+
+    @Test
+    public void queueFullOrTooLongWaitRejects() throws Exception {
+        QueryScheduler s = scheduler(1, 1, 10000, 0, 1);
+        QueryScheduler.Permit held = s.acquire(Priority.INTERACTIVE);
+        try {
+            s.acquire(Priority.INTERACTIVE);
+            fail("Expected rejection on full queue");
+        } catch (QueryException e) { }
+
+        s = scheduler(1, 1, 10000, 10, 0);
+        held = s.acquire(Priority.BACKGROUND);
+        try {
+            s.acquire(Priority.BACKGROUND);
+            fail("Expected rejection after max wait");
+        } catch (QueryException e) { }
+        assertEquals(0, s.getQueued(Priority.BACKGROUND));
+        held.release();
+    }
+
+    @Test
+    public void limitAdaptsToLatency() throws Exception {
+        QueryScheduler s = scheduler(2, 10, 1, 10, 0);
+        assertEquals(10, s.getLimit());
+        QueryScheduler.Permit p = s.acquire(Priority.INTERACTIVE);
+        Thread.sleep(5);
+        p.release();
+        assertEquals(9, s.getLimit());
+
+        for (int i = 0; i < 100; i++) {
+            Thread.sleep(2);
+            p = s.acquire(Priority.INTERACTIVE);
+            Thread.sleep(2);
+            p.release();
+        }
+        assertEquals(2, s.getLimit());
+    }
+
+    private Thread waiter(QueryScheduler s, Priority priority, List<Priority> order, CountDownLatch done) {
+        return new Thread(() -> {
+            try {
+                QueryScheduler.Permit p = s.acquire(priority);
+                order.add(priority);
+                p.release();
+            } catch (QueryException e) {
+            } finally {
+                done.countDown();
+            }
+        });
+    }
+}
@@ -0,0 +1,295 @@
+/* Copyright (c) 2017, University of Oslo, Norway
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ *  * Neither the name of the University of Oslo nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package vtk.repository.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.apache.ibatis.session.SqlSession;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+import org.springframework.util.FileSystemUtils;
+
+import vtk.repository.ContentInputSource;
+import vtk.repository.ContentInputSources;
+import vtk.repository.Path;
+import vtk.repository.ResourceImpl;
+import vtk.repository.Revision;
+import vtk.util.io.IO;
+
+public class ContentAddressedRevisionStoreTest {
+
+    private File root;
+    private SqlSession sqlSession;
+    private ContentAddressedRevisionStore store;
+    // Checksums in blob table
+    private Set<String> blobRows;
+
+    @Before
+    public void setUp() throws Exception {
+        root = Files.createTempDirectory("revisions").toFile();
+        sqlSession = Mockito.mock(SqlSession.class);
+        blobRows = new HashSet<>();
+        Mockito.when(sqlSession.insert(Matchers.eq("insertRevisionBlob"), Matchers.any()))
+            .thenAnswer(invocation -> blobRows.add(checksum(invocation.getArguments()[1])) ? 1 : 0);
+        Mockito.when(sqlSession.selectOne(Matchers.eq("countRevisionBlobs"), Matchers.any()))
+            .thenAnswer(invocation -> blobRows.contains(checksum(invocation.getArguments()[1])) ? 1 : 0);
+        Mockito.when(sqlSession.selectList(Matchers.eq("listRevisionBlobsWithPrefix"), Matchers.any()))
+            .thenAnswer(invocation -> {
+                String prefix = ((Map<?, ?>) invocation.getArguments()[1]).get("prefix").toString();
+                return blobRows.stream().filter(c -> c.startsWith(prefix.replace("%", "")))
+                        .collect(Collectors.toList());
+            });
+        store = new ContentAddressedRevisionStore();
+        store.setSqlMaps(Collections.emptyMap());
+        store.setSqlSession(sqlSession);
+        store.setBatchSqlSession(sqlSession);
+        store.setRevisionDirectory(new File(root, "revisions").getAbsolutePath());
+        store.setTempDir(new File(root, "tmp").getAbsolutePath());
+        store.setGcGracePeriodSeconds(0);
+        store.setLegacyGc(false);
+        store.afterPropertiesSet();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileSystemUtils.deleteRecursively(root);
+    }
+
+    @Test
+    public void identicalRevisionsShareBlob() throws Exception {
+        ResourceImpl a = resource("/a", 1);
+        ResourceImpl b = resource("/b", 2);
+        Revision r1 = revision(10, "hello");
+        Revision r2 = revision(11, "hello");
+
+        store.writeContent(a, r1, content("hello"));
+        store.writeContent(b, r2, content("hello"));
+
+        File f1 = store.contentFile(a, r1);
+        File f2 = store.contentFile(b, r2);
+        assertEquals(f1, f2);
+        assertEquals("hello", read(store.getContent(b, r2)));
+        assertEquals(5, store.getContentLength(a, r1));
+
+        // Blob registered once
+        Mockito.verify(sqlSession, Mockito.times(1))
+            .insert(Matchers.eq("insertRevisionBlob"), Matchers.any());
+    }
+
+    @Test
+    public void registeredBlobIsNotStoredAgain() throws Exception {
+        ResourceImpl a = resource("/a", 1);
+        store.writeContent(a, revision(10, "hello"), content("hello"));
+        File blob = store.contentFile(a, revision(10, "hello"));
+        long lastModified = System.currentTimeMillis() - 10000;
+        blob.setLastModified(lastModified);
+
+        File staged = new File(root, "staged");
+        Files.write(staged.toPath(), bytes("hello"));
+        store.writeContent(a, revision(11, "hello"), ContentInputSources.fromFile(staged, true));
+
+        // Source consumed, existing blob kept and marked as used
+        assertFalse(staged.exists());
+        assertTrue(blob.lastModified() > lastModified);
+        assertEquals("hello", new String(Files.readAllBytes(blob.toPath()), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void unregisteredBlobIsRegisteredOnReuse() throws Exception {
+        ResourceImpl a = resource("/a", 1);
+        Revision r1 = revision(10, "hello");
+        store.writeContent(a, r1, content("hello"));
+        // Registration rolled back
+        blobRows.clear();
+
+        store.writeContent(a, revision(11, "hello"), content("hello"));
+        assertTrue(blobRows.contains(r1.getChecksum()));
+        assertEquals("hello", read(store.getContent(a, r1)));
+    }
+
+    @Test
+    public void movesDeletableSourceFile() throws Exception {
+        ResourceImpl a = resource("/a", 1);
+        Revision r1 = revision(10, "hello");
+        File staged = new File(root, "staged");
+        Files.write(staged.toPath(), bytes("hello"));
+
+        store.writeContent(a, r1, ContentInputSources.fromFile(staged, true));
+        assertFalse(staged.exists());
+        assertEquals("hello", read(store.getContent(a, r1)));
+    }
+
+    @Test(expected = DataAccessException.class)
+    public void checksumCollision() throws Exception {
+        ResourceImpl a = resource("/a", 1);
+        store.writeContent(a, revision(10, "hello"), content("hello"));
+        // Same checksum, different content
+        Revision fake = Revision.newBuilder().id(11).type(Revision.Type.WORKING_COPY)
+                .name("WORKING_COPY").uid("user@localhost").timestamp(new Date())
+                .checksum(Revisions.checksum(bytes("hello"))).build();
+        store.writeContent(a, fake, content("world"));
+    }
+
+    @Test
+    public void blobIsComparedBeforeReuse() throws Exception {
+        ResourceImpl a = resource("/a", 1);
+        store.writeContent(a, revision(10, "hello"), content("hello"));
+        // Stands in for other content with a colliding digest
+        File blob = store.contentFile(a, revision(10, "hello"));
+        Files.write(blob.toPath(), bytes("jello"));
+
+        try {
+            store.writeContent(a, revision(11, "hello"), content("hello"));
+            fail("Expected collision to be detected");
+        } catch (DataAccessException e) {
+            assertTrue(e.getMessage().contains("collision"));
+        }
+        // Registration rolled back, the staged content is compared as well
+        blobRows.clear();
+        try {
+            store.writeContent(a, revision(12, "hello"), content("hello"));
+            fail("Expected collision to be detected");
+        } catch (DataAccessException e) {
+            assertTrue(e.getMessage().contains("collision"));
+        }
+        assertEquals("jello", new String(Files.readAllBytes(blob.toPath()), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void gcRemovesUnreferencedBlobs() throws Exception {
+        ResourceImpl a = resource("/a", 1);
+        Revision r1 = revision(10, "hello");
+        Revision r2 = revision(11, "world");
+        store.writeContent(a, r1, content("hello"));
+        store.writeContent(a, r2, content("world"));
+        File blob1 = store.contentFile(a, r1);
+        File blob2 = store.contentFile(a, r2);
+        blob1.setLastModified(System.currentTimeMillis() - 10000);
+
+        Mockito.when(sqlSession.selectList(Matchers.eq("listUnreferencedRevisionBlobs"), 
+                Matchers.any())).thenReturn(Collections.singletonList(r1.getChecksum()));
+        Mockito.when(sqlSession.delete(Matchers.eq("deleteRevisionBlob"), Matchers.any()))
+            .thenReturn(1);
+        store.gc();
+
+        assertFalse(blob1.exists());
+        assertTrue(blob2.exists());
+        Mockito.verify(sqlSession).delete(Matchers.eq("deleteRevisionBlob"), 
+                Matchers.eq(Collections.singletonMap("checksum", r1.getChecksum())));
+    }
+
+    @Test
+    public void gcKeepsBlobReferencedSinceListed() throws Exception {
+        ResourceImpl a = resource("/a", 1);
+        Revision r1 = revision(10, "hello");
+        store.writeContent(a, r1, content("hello"));
+        File blob1 = store.contentFile(a, r1);
+        blob1.setLastModified(System.currentTimeMillis() - 10000);
+
+        Mockito.when(sqlSession.selectList(Matchers.eq("listUnreferencedRevisionBlobs"), 
+                Matchers.any())).thenReturn(Collections.singletonList(r1.getChecksum()));
+        // Row not deleted, a revision refers to the checksum
+        Mockito.when(sqlSession.delete(Matchers.eq("deleteRevisionBlob"), Matchers.any()))
+            .thenReturn(0);
+        store.gc();
+
+        assertTrue(blob1.exists());
+    }
+
+    @Test
+    public void gcRemovesUnregisteredBlobs() throws Exception {
+        ResourceImpl a = resource("/a", 1);
+        Revision r1 = revision(10, "hello");
+        Revision r2 = revision(11, "world");
+        store.writeContent(a, r1, content("hello"));
+        store.writeContent(a, r2, content("world"));
+        File blob1 = store.contentFile(a, r1);
+        File blob2 = store.contentFile(a, r2);
+        blob1.setLastModified(System.currentTimeMillis() - 10000);
+        blob2.setLastModified(System.currentTimeMillis() - 10000);
+        // Registrations rolled back, r2 still referenced by a revision
+        blobRows.clear();
+        String referenced = r2.getChecksum();
+        Mockito.when(sqlSession.selectOne(Matchers.eq("countRevisionsWithChecksum"), 
+                Matchers.eq(Collections.singletonMap("checksum", referenced)))).thenReturn(1);
+
+        store.gc();
+
+        assertFalse(blob1.exists());
+        assertTrue(blob2.exists());
+        assertTrue(blobRows.contains(referenced));
+    }
+
+    private static String checksum(Object parameters) {
+        return (String) ((Map<?, ?>) parameters).get("checksum");
+    }
+
+    private ResourceImpl resource(String uri, int id) {
+        ResourceImpl r = new ResourceImpl(Path.fromString(uri));
+        r.setNumericId(id);
+        return r;
+    }
+
+    private Revision revision(long id, String content) {
+        return Revision.newBuilder().id(id).type(Revision.Type.WORKING_COPY)
+                .name("WORKING_COPY").uid("user@localhost").timestamp(new Date())
+                .checksum(Revisions.checksum(bytes(content))).build();
+    }
+
+    private ContentInputSource content(String s) {
+        return ContentInputSources.fromBytes(bytes(s));
+    }
+
+    private byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private String read(InputStream in) throws Exception {
+        return new String(IO.read(in).perform(), StandardCharsets.UTF_8);
+    }
+}
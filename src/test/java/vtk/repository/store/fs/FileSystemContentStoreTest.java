@@ -31,12 +31,19 @@
 package vtk.repository.store.fs;
 
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
 import java.io.File;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Test;
 
+import vtk.repository.ContentInputSources;
 import vtk.repository.Path;
 import vtk.repository.store.AbstractContentStoreTest;
 import vtk.repository.store.ContentStore;
@@ -77,4 +84,41 @@ public class FileSystemContentStoreTest extends AbstractContentStoreTest {
         return store;
     }
 
+    @Test
+    public void hardLinkCopy() throws Exception {
+        int dirs = 10, files = 100;
+        store.createResource(Path.fromString("/src"), true);
+        for (int i = 0; i < dirs; i++) {
+            Path dir = Path.fromString("/src/d" + i);
+            store.createResource(dir, true);
+            for (int j = 0; j < files; j++) {
+                Path file = dir.extend("f" + j + ".txt");
+                store.createResource(file, false);
+                store.storeContent(file, ContentInputSources.fromString("content " + i + "/" + j));
+            }
+        }
+
+        store.copy(Path.fromString("/src"), Path.fromString("/streamed"));
+
+        store.setCopyMode(FileSystemContentStore.CopyMode.HARDLINK);
+        store.copy(Path.fromString("/src"), Path.fromString("/linked"));
+
+        java.nio.file.Path src = new File(storeDir, "src/d3/f7.txt").toPath();
+        java.nio.file.Path streamCopy = new File(storeDir, "streamed/d3/f7.txt").toPath();
+        java.nio.file.Path linkCopy = new File(storeDir, "linked/d3/f7.txt").toPath();
+        assertFalse(Files.isSameFile(src, streamCopy));
+        assertTrue(Files.isSameFile(src, linkCopy));
+
+        // Writing to a copy must not affect the source
+        store.storeContent(Path.fromString("/linked/d3/f7.txt"), ContentInputSources.fromString("changed"));
+        assertFalse(Files.isSameFile(src, linkCopy));
+        assertEquals("content 3/7", new String(Files.readAllBytes(src), StandardCharsets.UTF_8));
+        assertEquals("changed", new String(Files.readAllBytes(linkCopy), StandardCharsets.UTF_8));
+
+        // Copying onto an existing linked file replaces the link
+        store.copy(Path.fromString("/src/d3/f8.txt"), Path.fromString("/linked/d3/f7.txt"));
+        assertEquals("content 3/7", new String(Files.readAllBytes(src), StandardCharsets.UTF_8));
+        assertEquals("content 3/8", new String(Files.readAllBytes(linkCopy), StandardCharsets.UTF_8));
+    }
+
 }
@@ -0,0 +1,140 @@
+/* Copyright (c) 2017, University of Oslo, Norway
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ *  * Neither the name of the University of Oslo nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package vtk.repository.systemjob;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import vtk.repository.Path;
+import vtk.repository.Repository;
+import vtk.repository.Resource;
+import vtk.repository.SystemChangeContext;
+import vtk.security.SecurityContext;
+
+public class AbstractResourceJobTest {
+
+    private Repository repository;
+    private SystemChangeContext context;
+
+    @Before
+    public void setUp() throws Exception {
+        repository = mock(Repository.class);
+        when(repository.retrieve(any(), any(Path.class), eq(false))).then(invocation -> {
+            Path uri = (Path) invocation.getArguments()[1];
+            Resource r = mock(Resource.class);
+            when(r.getURI()).thenReturn(uri);
+            return r;
+        });
+        context = new SystemChangeContext("test", new SecurityContext("token", null), 
+                Collections.emptyList(), Collections.emptyList(), null);
+    }
+
+    @Test
+    public void parallelExecution() throws Exception {
+        final Map<Path, AtomicInteger> processed = new ConcurrentHashMap<>();
+        final Set<String> threads = ConcurrentHashMap.newKeySet();
+        final AtomicInteger processedAtEnd = new AtomicInteger(-1);
+
+        AbstractResourceJob job = new AbstractResourceJob() {
+            @Override
+            protected void executeForResource(Resource resource, ExecutionContext ctx) throws Exception {
+                threads.add(Thread.currentThread().getName());
+                processed.computeIfAbsent(resource.getURI(), p -> new AtomicInteger()).incrementAndGet();
+                Thread.sleep(1);
+            }
+            @Override
+            protected void executeEnd(ExecutionContext ctx) throws Exception {
+                processedAtEnd.set(processed.size());
+            }
+        };
+        job.setId("test-job");
+        job.setWorkers(4);
+        job.setPathSelector(selector(500));
+        job.executeWithRepository(repository, context);
+
+        assertEquals(500, processed.size());
+        assertEquals(500, processedAtEnd.get());
+        for (AtomicInteger n: processed.values()) {
+            assertEquals(1, n.get());
+        }
+        assertTrue(threads.size() > 1);
+        assertTrue(threads.stream().allMatch(name -> name.startsWith("test-job-worker-")));
+    }
+
+    @Test
+    public void parallelExecutionAbortsOnException() throws Exception {
+        final AtomicInteger processed = new AtomicInteger();
+        AbstractResourceJob job = new AbstractResourceJob() {
+            @Override
+            protected void executeForResource(Resource resource, ExecutionContext ctx) throws Exception {
+                if (processed.incrementAndGet() == 10) {
+                    throw new IllegalStateException("Failure");
+                }
+            }
+        };
+        job.setId("test-job");
+        job.setWorkers(4);
+        job.setAbortOnException(true);
+        job.setPathSelector(selector(10000));
+        try {
+            job.executeWithRepository(repository, context);
+            fail("Expected exception");
+        }
+        catch (IllegalStateException e) {
+            assertEquals("Failure", e.getMessage());
+        }
+        assertTrue(processed.get() < 10000);
+    }
+
+    private PathSelector selector(int n) {
+        return (repository, context, callback) -> {
+            callback.beginBatch(n);
+            for (int i = 0; i < n; i++) {
+                callback.select(Path.fromString("/folder-" + (i % 10) + "/resource-" + i));
+            }
+        };
+    }
+}
@@ -0,0 +1,220 @@
+/* Copyright (c) 2017, University of Oslo, Norway
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ *  * Neither the name of the University of Oslo nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package vtk.resourcemanagement.view;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Optional;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import vtk.repository.Path;
+import vtk.repository.Repository;
+import vtk.repository.Resource;
+import vtk.repository.store.DefaultPrincipalMetadataDAO;
+import vtk.resourcemanagement.StructuredResource;
+import vtk.resourcemanagement.StructuredResourceDescription;
+import vtk.resourcemanagement.StructuredResourceManager;
+import vtk.security.Principal;
+import vtk.security.PrincipalImpl;
+import vtk.security.SecurityContext;
+import vtk.text.html.HtmlPageParser;
+import vtk.web.RequestContext;
+import vtk.web.decorating.ComponentResolver;
+import vtk.web.decorating.Template;
+
+public class StructuredResourceDisplayControllerTest {
+
+    private static final String JSON = 
+            "{\"resourcetype\": \"doc\", \"properties\": {\"title\": \"Title\"}}";
+
+    private StructuredResourceDisplayController controller;
+    private Repository repository;
+    private String etag;
+    private long generation;
+    private int renders;
+    private boolean setsRequestAttribute;
+
+    @Before
+    public void setUp() throws Exception {
+        etag = "\"1\"";
+        generation = 1;
+        renders = 0;
+        setsRequestAttribute = false;
+
+        StructuredResourceDescription desc = new StructuredResourceDescription();
+        desc.setName("doc");
+        desc.setPropertyDescriptions(new ArrayList<>());
+
+        StructuredResourceManager resourceManager = mock(StructuredResourceManager.class);
+        when(resourceManager.get("doc")).thenReturn(desc);
+        when(resourceManager.list()).thenReturn(Collections.singletonList(desc));
+        when(resourceManager.getGeneration()).thenAnswer(invocation -> generation);
+
+        Resource resource = mock(Resource.class);
+        when(resource.getResourceType()).thenReturn("doc");
+        when(resource.getEtag()).thenAnswer(invocation -> etag);
+        repository = mock(Repository.class);
+        when(repository.retrieve(any(), any(Path.class), anyBoolean())).thenReturn(resource);
+        when(repository.getInputStream(any(), any(Path.class), anyBoolean())).thenAnswer(
+                invocation -> new ByteArrayInputStream(JSON.getBytes(StandardCharsets.UTF_8)));
+
+        Template template = (page, out, encoding, request, model, parameters) -> {
+            renders++;
+            StructuredResource res = (StructuredResource) model.get("structured-resource");
+            String html = "<html><body>" + res.getProperty("title") 
+                    + ":" + res.getProperty("rendered") + "</body></html>";
+            res.addProperty("rendered", "true");
+            res.removeProperty("title");
+            if (setsRequestAttribute) {
+                request.setAttribute("sideEffect", "true");
+            }
+            try {
+                out.write(html.getBytes(StandardCharsets.UTF_8));
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+
+        controller = new StructuredResourceDisplayController();
+        controller.setResourceManager(resourceManager);
+        controller.setTemplateManager(name -> Optional.of(template));
+        controller.setHtmlParser(new HtmlPageParser());
+        controller.setResourceModelKey("structured-resource");
+        controller.setComponentResolver(mock(ComponentResolver.class));
+        controller.setDirectiveHandlers(new ArrayList<>());
+        controller.afterPropertiesSet();
+    }
+
+    @Test
+    public void cachedResourceIsCopiedPerRequest() throws Exception {
+        controller.setResourceCacheSize(10);
+        assertEquals("Title:null", render("user", null, Locale.ENGLISH));
+        assertEquals("Title:null", render("user", null, Locale.ENGLISH));
+        assertEquals(2, renders);
+        verify(repository, times(1)).getInputStream(any(), any(Path.class), anyBoolean());
+    }
+
+    @Test
+    public void renderCacheKeyIncludesPrincipalUrlAndLocale() throws Exception {
+        controller.setRenderCacheSize(10);
+        render("user", null, Locale.ENGLISH);
+        render("user", null, Locale.ENGLISH);
+        assertEquals(1, renders);
+
+        render("other", null, Locale.ENGLISH);
+        assertEquals(2, renders);
+        render(null, null, Locale.ENGLISH);
+        assertEquals(3, renders);
+        render("user", "a=1", Locale.ENGLISH);
+        assertEquals(4, renders);
+        render("user", null, Locale.GERMAN);
+        assertEquals(5, renders);
+
+        render("other", null, Locale.ENGLISH);
+        render(null, null, Locale.ENGLISH);
+        render("user", "a=1", Locale.ENGLISH);
+        render("user", null, Locale.GERMAN);
+        assertEquals(5, renders);
+    }
+
+    @Test
+    public void renderCacheInvalidatedByEtagAndGeneration() throws Exception {
+        controller.setResourceCacheSize(10);
+        controller.setRenderCacheSize(10);
+        render("user", null, Locale.ENGLISH);
+        render("user", null, Locale.ENGLISH);
+        assertEquals(1, renders);
+
+        etag = "\"2\"";
+        render("user", null, Locale.ENGLISH);
+        assertEquals(2, renders);
+        verify(repository, times(2)).getInputStream(any(), any(Path.class), anyBoolean());
+
+        generation++;
+        render("user", null, Locale.ENGLISH);
+        assertEquals(3, renders);
+        verify(repository, times(3)).getInputStream(any(), any(Path.class), anyBoolean());
+    }
+
+    @Test
+    public void renderingWithSideEffectsIsNotCached() throws Exception {
+        controller.setRenderCacheSize(10);
+        setsRequestAttribute = true;
+        render("user", null, Locale.ENGLISH);
+        render("user", null, Locale.ENGLISH);
+        assertEquals(2, renders);
+    }
+
+    @Test
+    public void largePageIsNotCached() throws Exception {
+        controller.setRenderCacheSize(10);
+        controller.setRenderCacheMaxEntrySize(10);
+        render("user", null, Locale.ENGLISH);
+        render("user", null, Locale.ENGLISH);
+        assertEquals(2, renders);
+    }
+
+    private String render(String user, String query, Locale locale) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/doc.html");
+        request.setQueryString(query);
+        request.addPreferredLocale(locale);
+        Principal principal = user == null ? null : new PrincipalImpl(user, Principal.Type.USER);
+        SecurityContext securityContext = new SecurityContext(user == null ? null : "token-" + user, principal);
+        RequestContext requestContext = new RequestContext(request, securityContext,
+                null, null, null, Path.fromString("/doc.html"), null, false,
+                false, true, repository, new DefaultPrincipalMetadataDAO());
+        RequestContext.setRequestContext(requestContext, request);
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertNull(controller.handleRequest(request, response));
+        String html = response.getContentAsString();
+        return html.substring(html.indexOf("<body>") + 6, html.indexOf("</body>"));
+    }
+}
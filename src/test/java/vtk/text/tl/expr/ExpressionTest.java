@@ -1142,6 +1142,68 @@ public class ExpressionTest {
         }
     }
 
+    @Test
+    public void constantFolding() {
+        Expression expr = new Expression(this.functions, Arrays.<Token>asList(
+                new Literal("2"), new Symbol("*"), new Literal("3"),
+                new Symbol("+"), new Literal("'x'")));
+        assertEquals("6x", expr.evaluate(new Context(Locale.getDefault())));
+        assertEquals("6x", expr.evaluate(null));
+
+        // Failing constant operations are reported at evaluation time:
+        expr = new Expression(this.functions, Arrays.<Token>asList(
+                new Literal("1"), new Symbol("/"), new Literal("0")));
+        try {
+            expr.evaluate(new Context(Locale.getDefault()));
+            fail("Should not succeed");
+        } catch (ArithmeticException e) {
+            // Expected
+        }
+        
+        try {
+            eval(new Literal("2147483647"), new Symbol("+"), new Literal("1"));
+            fail("Should not succeed");
+        } catch (ArithmeticException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void functionRebinding() {
+        Symbol s = new Symbol("rebound");
+        this.functions.addFunction(new Function(s, 0) {
+            @Override
+            public Object eval(Context ctx, Object... args) {
+                return "first";
+            }
+        });
+        Expression expr = new Expression(this.functions, Arrays.<Token>asList(
+                s, new Symbol("("), new Symbol(")")));
+        Context ctx = new Context(Locale.getDefault());
+        assertEquals("first", expr.evaluate(ctx));
+
+        this.functions.addFunction(new Function(s, 0) {
+            @Override
+            public Object eval(Context ctx, Object... args) {
+                return "second";
+            }
+        });
+        assertEquals("second", expr.evaluate(ctx));
+    }
+
+    @Test
+    public void scopes() {
+        Context ctx = new Context(Locale.getDefault());
+        ctx.define("x", "outer", false);
+        ctx.push();
+        ctx.define("x", null, false);
+        assertTrue(ctx.isDefined("x"));
+        assertNull(eval(ctx, new Symbol("x")));
+        ctx.pop();
+        assertEquals("outer", eval(ctx, new Symbol("x")));
+        assertEquals(Context.UNDEFINED, ctx.lookup("y"));
+    }
+
     private Object eval(Token... args) {
         Context ctx = new Context(Locale.getDefault());
         return eval(ctx, args);
@@ -43,9 +43,11 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.jmock.Expectations;
@@ -277,6 +279,57 @@ public class ContentCacheImplTest {
         }
     }
 
+    @Test
+    public void concurrentLoadsOfSameKeyAreDeduplicated() throws Exception {
+        final AtomicLong loaderCallCount = new AtomicLong(0);
+        final CountDownLatch release = new CountDownLatch(1);
+        cache.setCacheLoader(identifier -> {
+            loaderCallCount.incrementAndGet();
+            release.await(5, TimeUnit.SECONDS);
+            return "value";
+        });
+        cache.setCacheMilliSeconds(10000);
+        cache.afterPropertiesSet();
+
+        ExecutorService es = Executors.newFixedThreadPool(8);
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            results.add(es.submit(() -> cache.get("foo")));
+        }
+        Thread.sleep(100);
+        release.countDown();
+        for (Future<String> f: results) {
+            assertEquals("value", f.get());
+        }
+        es.shutdown();
+        assertEquals(1, loaderCallCount.get());
+    }
+
+    @Test
+    public void asyncRefreshOfExpiredItemIsDeduplicated() throws Exception {
+        final AtomicLong loaderCallCount = new AtomicLong(0);
+        final CountDownLatch release = new CountDownLatch(1);
+        cache.setCacheLoader(identifier -> {
+            if (loaderCallCount.incrementAndGet() > 1) {
+                release.await(5, TimeUnit.SECONDS);
+            }
+            return "value" + loaderCallCount.get();
+        });
+        cache.setCacheMilliSeconds(50);
+        cache.setAsynchronousRefresh(true);
+        cache.afterPropertiesSet();
+
+        assertEquals("value1", cache.get("foo"));
+        sleep(100);
+        for (int i = 0; i < 100; i++) {
+            // Stale value served while refresh is in progress
+            assertEquals("value1", cache.get("foo"));
+        }
+        release.countDown();
+        sleep(100);
+        assertEquals(2, loaderCallCount.get());
+    }
+
 //    @Test
 //    public void sharedCaches() throws Exception {
 //        context.checking(new Expectations(){{
@@ -32,11 +32,13 @@ package vtk.util.cache;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import com.codahale.metrics.MetricRegistry;
 import net.sf.ehcache.Cache;
 import net.sf.ehcache.CacheException;
 import net.sf.ehcache.CacheManager;
@@ -204,6 +206,45 @@ public class EhContentCacheTest {
         threadSafeMockery.assertIsSatisfied();
     }
 
+    @Test
+    public void refresh_ahead_of_expiry() throws Exception {
+        CacheConfiguration cc = new CacheConfiguration("vtk.contentRefreshAhead", DEFAULT_CACHE_LIMIT);
+        cc.setTimeToLiveSeconds(2);
+        final AtomicInteger loaderCallCount = new AtomicInteger();
+        final CountDownLatch refreshLatch = new CountDownLatch(1);
+        ContentCacheLoader<String, String> loader = new ContentCacheLoader<String, String>() {
+            @Override
+            public String load(String identifier) throws Exception {
+                if (loaderCallCount.incrementAndGet() == 1) {
+                    return "b";
+                }
+                refreshLatch.await();
+                return "c";
+            }
+        };
+
+        EhContentCache<String, String> cache = new EhContentCache<>(makeCache(cc, loader), -1, true);
+        cache.setRefreshAheadFactor(0.25);
+        cache.setJitterFactor(0);
+        MetricRegistry registry = new MetricRegistry();
+        cache.setMetricRegistry(registry);
+
+        assertEquals("b", cache.get("a"));
+        sleep(700);
+        // Still fresh, served while refreshed in background
+        assertEquals("b", cache.get("a"));
+        assertEquals("b", cache.get("a"));
+        refreshLatch.countDown();
+        cache.asyncRefreshExecutor.shutdown();
+        boolean terminated = cache.asyncRefreshExecutor.awaitTermination(1, TimeUnit.SECONDS);
+        assertTrue("asyncRefreshExecutor did not terminate before timeout", terminated);
+        assertEquals("c", cache.get("a"));
+        assertEquals(2, loaderCallCount.get());
+
+        assertEquals(1, registry.timer("contentCache.vtk.contentRefreshAhead.refresh.time").getCount());
+        assertEquals(0, registry.counter("contentCache.vtk.contentRefreshAhead.staleServed").getCount());
+    }
+
     @Test
     public void return_stale_data_on_error_in_synchronous_refresh() throws Exception {
         CacheConfiguration cc = new CacheConfiguration("vtk.contentExipry", DEFAULT_CACHE_LIMIT);
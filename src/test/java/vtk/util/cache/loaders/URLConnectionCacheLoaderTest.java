@@ -0,0 +1,167 @@
+/* Copyright (c) 2017, University of Oslo, Norway
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ *  * Neither the name of the University of Oslo nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package vtk.util.cache.loaders;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import vtk.util.io.IO;
+import vtk.util.io.SizeLimitException;
+
+public class URLConnectionCacheLoaderTest {
+
+    private HttpServer server;
+    private String baseURL;
+    private final List<String> ifNoneMatch = new ArrayList<>();
+    private final AtomicInteger concurrent = new AtomicInteger(0);
+    private final AtomicInteger maxConcurrent = new AtomicInteger(0);
+
+    private final URLConnectionCacheLoader<String> loader = new URLConnectionCacheLoader<String>() {
+        @Override
+        protected String handleConnection(URLConnection connection) throws Exception {
+            return new String(IO.read(getInputStream(connection)).perform(), StandardCharsets.UTF_8);
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/etag", exchange -> {
+            String inm = exchange.getRequestHeaders().getFirst("If-None-Match");
+            synchronized (ifNoneMatch) {
+                ifNoneMatch.add(inm);
+            }
+            exchange.getResponseHeaders().add("ETag", "\"v1\"");
+            if ("\"v1\"".equals(inm)) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+            } else {
+                respond(exchange, "content");
+            }
+        });
+        server.createContext("/large", exchange -> {
+            respond(exchange, new String(new char[2000]).replace('\0', 'x'));
+        });
+        server.createContext("/slow", exchange -> {
+            int n = concurrent.incrementAndGet();
+            maxConcurrent.accumulateAndGet(n, Math::max);
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) { }
+            concurrent.decrementAndGet();
+            respond(exchange, "slow");
+        });
+        server.start();
+        baseURL = "http://127.0.0.1:" + server.getAddress().getPort();
+        loader.setConnectTimeoutSeconds(5);
+        loader.setReadTimeoutSeconds(5);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void conditionalRevalidation() throws Exception {
+        loader.setConditionalRevalidation(true);
+        String first = loader.load(baseURL + "/etag");
+        assertEquals("content", first);
+        String second = loader.load(baseURL + "/etag");
+        assertSame(first, second);
+        assertEquals(2, ifNoneMatch.size());
+        assertNull(ifNoneMatch.get(0));
+        assertEquals("\"v1\"", ifNoneMatch.get(1));
+    }
+
+    @Test
+    public void noRevalidationByDefault() throws Exception {
+        loader.load(baseURL + "/etag");
+        loader.load(baseURL + "/etag");
+        assertNull(ifNoneMatch.get(1));
+    }
+
+    @Test
+    public void responseSizeLimit() throws Exception {
+        loader.setMaxResponseSize(2000);
+        assertEquals(2000, loader.load(baseURL + "/large").length());
+        loader.setMaxResponseSize(1000);
+        try {
+            loader.load(baseURL + "/large");
+            fail("Expected size limit to be enforced");
+        } catch (SizeLimitException e) { }
+    }
+
+    @Test
+    public void concurrencyLimitedPerHost() throws Exception {
+        loader.setMaxConnectionsPerHost(2);
+        ExecutorService es = Executors.newFixedThreadPool(6);
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            results.add(es.submit(() -> loader.load(baseURL + "/slow")));
+        }
+        for (Future<String> f: results) {
+            assertEquals("slow", f.get());
+        }
+        es.shutdown();
+        assertTrue(maxConcurrent.get() <= 2);
+    }
+
+    private static void respond(HttpExchange exchange, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
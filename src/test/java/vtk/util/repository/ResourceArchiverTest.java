@@ -0,0 +1,222 @@
+/* Copyright (c) 2017, University of Oslo, Norway
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ *  * Neither the name of the University of Oslo nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package vtk.util.repository;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.jar.JarEntry;
+import java.util.jar.JarInputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import vtk.repository.AclMode;
+import vtk.repository.ContentInputSource;
+import vtk.repository.Path;
+import vtk.repository.Property;
+import vtk.repository.Repository;
+import vtk.repository.Resource;
+import vtk.util.io.IO;
+
+public class ResourceArchiverTest {
+
+    private Repository repository;
+    private Map<Path, byte[]> content = new HashMap<>();
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        repository = mock(Repository.class);
+        executor = Executors.newFixedThreadPool(4);
+
+        byte[] large = new byte[2 * 1024 * 1024 + 17];
+        for (int i = 0; i < large.length; i++) {
+            large[i] = (byte) (i % 251);
+        }
+        Resource site = collection("/site",
+                document("/site/a.txt", "a".getBytes("utf-8")),
+                collection("/site/b",
+                        document("/site/b/c.bin", large),
+                        document("/site/b/d.txt", "d".getBytes("utf-8"))),
+                document("/site/e.txt", "e".getBytes("utf-8")));
+        when(repository.retrieve(anyString(), eq(Path.fromString("/site")), anyBoolean())).thenReturn(site);
+        when(repository.getComments(anyString(), any(Resource.class))).thenReturn(Collections.emptyList());
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void sameArchiveWithExecutor() throws Exception {
+        Resource site = repository.retrieve("token", Path.fromString("/site"), false);
+
+        byte[] sequential = archive(archiver(null), site);
+        byte[] parallel = archive(archiver(executor), site);
+        assertArrayEquals(sequential, parallel);
+
+        List<String> names = new ArrayList<>();
+        try (JarInputStream in = new JarInputStream(new ByteArrayInputStream(parallel))) {
+            JarEntry entry;
+            while ((entry = in.getNextJarEntry()) != null) {
+                names.add(entry.getName());
+                if (!entry.isDirectory()) {
+                    byte[] data = IO.read(in).closeIn(false).perform();
+                    assertArrayEquals(entry.getName(), 
+                            content.get(Path.fromString("/site" + entry.getName())), data);
+                }
+            }
+        }
+        assertEquals(Arrays.asList("/", "/a.txt", "/b/", "/b/c.bin", "/b/d.txt", "/e.txt"), names);
+    }
+
+    @Test
+    public void expandWithExecutor() throws Exception {
+        Resource site = repository.retrieve("token", Path.fromString("/site"), false);
+        byte[] archive = archive(archiver(null), site);
+
+        Map<Path, byte[]> stored = new ConcurrentHashMap<>();
+        when(repository.createDocument(anyString(), any(), any(Path.class), any(ContentInputSource.class), 
+                any(AclMode.class))).thenAnswer(invocation -> {
+                    ContentInputSource source = (ContentInputSource) invocation.getArguments()[3];
+                    try (InputStream in = source.stream()) {
+                        stored.put((Path) invocation.getArguments()[2], IO.read(in).perform());
+                    }
+                    return null;
+                });
+
+        archiver(executor).expandArchive("token", new ByteArrayInputStream(archive), 
+                Path.fromString("/copy"), null);
+
+        verify(repository).createCollection(eq("token"), any(), eq(Path.fromString("/copy")), any(AclMode.class));
+        verify(repository).createCollection(eq("token"), any(), eq(Path.fromString("/copy/b")), any(AclMode.class));
+        assertEquals(4, stored.size());
+        for (Map.Entry<Path, byte[]> e : content.entrySet()) {
+            Path copy = Path.fromString("/copy" + e.getKey().toString().substring("/site".length()));
+            assertArrayEquals(copy.toString(), e.getValue(), stored.get(copy));
+        }
+    }
+
+    @Test
+    public void storeFailureInLastEntryOfSubtreeIsThrown() throws Exception {
+        Resource site = repository.retrieve("token", Path.fromString("/site"), false);
+        byte[] archive = archive(archiver(null), site);
+
+        Path failing = Path.fromString("/copy/b/d.txt");
+        ResourceArchiver.EventListener listener = new ResourceArchiver.EventListener() {
+            @Override
+            public void expanded(Path uri) {
+                if (uri.equals(failing)) {
+                    throw new IllegalStateException("Store failed: " + uri);
+                }
+            }
+            @Override
+            public void archived(Path uri) {
+            }
+            @Override
+            public void warn(Path uri, String msg) {
+            }
+        };
+        try {
+            archiver(executor).expandArchive("token", new ByteArrayInputStream(archive), 
+                    Path.fromString("/copy"), null, listener);
+            fail("Expected store failure");
+        }
+        catch (IllegalStateException e) {
+            assertEquals("Store failed: " + failing, e.getMessage());
+        }
+    }
+
+    private ResourceArchiver archiver(ExecutorService executor) {
+        ResourceArchiver archiver = new ResourceArchiver();
+        archiver.setRepository(repository);
+        archiver.setExecutor(executor);
+        archiver.setReadAhead(2);
+        return archiver;
+    }
+
+    private byte[] archive(ResourceArchiver archiver, Resource r) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        archiver.createArchive("token", r, out, null);
+        return out.toByteArray();
+    }
+
+    private Resource collection(String uri, Resource... children) throws Exception {
+        Resource r = resource(uri, true);
+        Path path = r.getURI();
+        when(repository.listChildren(anyString(), eq(path), anyBoolean())).thenReturn(children);
+        return r;
+    }
+
+    private Resource document(String uri, byte[] data) throws Exception {
+        Resource r = resource(uri, false);
+        Path path = r.getURI();
+        content.put(path, data);
+        when(r.getContentLength()).thenReturn((long) data.length);
+        when(repository.getInputStream(anyString(), eq(path), anyBoolean()))
+                .thenAnswer(invocation -> new ByteArrayInputStream(data));
+        return r;
+    }
+
+    private Resource resource(String uri, boolean collection) {
+        Resource r = mock(Resource.class);
+        when(r.getURI()).thenReturn(Path.fromString(uri));
+        when(r.isCollection()).thenReturn(collection);
+        when(r.isInheritedAcl()).thenReturn(true);
+        when(r.getLastModified()).thenReturn(new Date(1500000000000L));
+        when(r.iterator()).thenAnswer(invocation -> Collections.<Property>emptyIterator());
+        return r;
+    }
+}
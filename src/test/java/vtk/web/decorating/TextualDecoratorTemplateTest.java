@@ -0,0 +1,144 @@
+/* Copyright (c) 2017, University of Oslo, Norway
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ *  * Neither the name of the University of Oslo nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package vtk.web.decorating;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import vtk.text.html.HtmlPage;
+import vtk.text.html.HtmlPageParser;
+import vtk.util.io.InputSource;
+
+public class TextualDecoratorTemplateTest {
+
+    private static class CountingInputSource implements InputSource {
+        final AtomicInteger lastModifiedCalls = new AtomicInteger();
+        volatile String content;
+        volatile Instant lastModified = Instant.ofEpochMilli(1000);
+
+        CountingInputSource(String content) {
+            this.content = content;
+        }
+        @Override
+        public String getID() {
+            return "test-template";
+        }
+        @Override
+        public Optional<Instant> getLastModified() throws UncheckedIOException {
+            lastModifiedCalls.incrementAndGet();
+            return Optional.of(lastModified);
+        }
+        @Override
+        public Charset getCharacterEncoding() {
+            return StandardCharsets.UTF_8;
+        }
+        @Override
+        public InputStream getInputStream() throws UncheckedIOException {
+            return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private final ComponentResolver resolver = new ComponentResolver() {
+        @Override
+        public DecoratorComponent resolveComponent(String namespace, String name) {
+            return null;
+        }
+        @Override
+        public List<DecoratorComponent> listComponents() {
+            return Collections.emptyList();
+        }
+    };
+
+    @Test
+    public void checksSourceOnEveryRender() throws Exception {
+        CountingInputSource source = new CountingInputSource("first");
+        Template template = new TextualDecoratorTemplate(
+                new DollarSyntaxComponentParser(), source, resolver, 0);
+        assertEquals("first", render(template));
+
+        source.content = "second";
+        source.lastModified = Instant.ofEpochMilli(2000);
+        assertEquals("second", render(template));
+    }
+
+    @Test
+    public void staleCheckDisabled() throws Exception {
+        CountingInputSource source = new CountingInputSource("first");
+        Template template = new TextualDecoratorTemplate(
+                new DollarSyntaxComponentParser(), source, resolver, -1);
+        int calls = source.lastModifiedCalls.get();
+
+        source.content = "second";
+        source.lastModified = Instant.ofEpochMilli(2000);
+        for (int i = 0; i < 10; i++) {
+            assertEquals("first", render(template));
+        }
+        assertEquals(calls, source.lastModifiedCalls.get());
+    }
+
+    @Test
+    public void staleCheckInterval() throws Exception {
+        CountingInputSource source = new CountingInputSource("first");
+        Template template = new TextualDecoratorTemplate(
+                new DollarSyntaxComponentParser(), source, resolver, 3600);
+        int calls = source.lastModifiedCalls.get();
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals("first", render(template));
+        }
+        // Only the first render within the interval checks the source:
+        assertEquals(calls + 1, source.lastModifiedCalls.get());
+    }
+
+    private String render(Template template) throws Exception {
+        HtmlPage page = new HtmlPageParser().parse(
+                new ByteArrayInputStream("<html></html>".getBytes(StandardCharsets.UTF_8)), "utf-8");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        template.render(page, out, StandardCharsets.UTF_8, 
+                new MockHttpServletRequest("GET", "/"), 
+                Collections.emptyMap(), Collections.emptyMap());
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,175 @@
+/* Copyright (c) 2017, University of Oslo, Norway
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ *  * Neither the name of the University of Oslo nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package vtk.web.decorating.components;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockServletContext;
+
+import vtk.repository.Path;
+import vtk.repository.Repository;
+import vtk.repository.store.DefaultPrincipalMetadataDAO;
+import vtk.security.Principal;
+import vtk.security.PrincipalImpl;
+import vtk.security.SecurityContext;
+import vtk.web.RequestContext;
+import vtk.web.servlet.IncludeDispatcher;
+import vtk.web.servlet.VTKServlet;
+
+public class IncludeComponentTest {
+
+    private static final String SERVLET_NAME = "vtk";
+
+    private IncludeComponent component;
+    private List<HttpServletRequest> included;
+    private int rendered;
+    private int version;
+    private Repository repository;
+
+    @Before
+    public void setUp() throws Exception {
+        included = new ArrayList<>();
+        MockServletContext servletContext = new MockServletContext();
+        servletContext.setAttribute(IncludeDispatcher.contextAttributeName(SERVLET_NAME), 
+                (IncludeDispatcher) (req, resp) -> {
+                    included.add(req);
+                    String etag = "W/\"" + version + "\"";
+                    if (etag.equals(req.getHeader("If-None-Match"))) {
+                        resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                        return;
+                    }
+                    rendered++;
+                    resp.setHeader("ETag", etag);
+                    resp.setContentType("text/html");
+                    resp.setCharacterEncoding("utf-8");
+                    resp.getWriter().write("included:" + req.getParameter("a") + ":" + version);
+                });
+        rendered = 0;
+        version = 1;
+        repository = mock(Repository.class);
+
+        component = new IncludeComponent();
+        component.setServletContext(servletContext);
+        component.setVirtualIncludeCacheSize(10);
+    }
+
+    @Test
+    public void cachedIncludeIsRevalidated() throws Exception {
+        assertEquals("included:1:1", render("/include.html?a=1", "user"));
+        assertNull(included.get(0).getHeader("If-None-Match"));
+        assertEquals("included:1:1", render("/include.html?a=1", "user"));
+        assertEquals("W/\"1\"", included.get(1).getHeader("If-None-Match"));
+        assertEquals(1, rendered);
+
+        version = 2;
+        assertEquals("included:1:2", render("/include.html?a=1", "user"));
+        assertEquals("included:1:2", render("/include.html?a=1", "user"));
+        assertEquals(2, rendered);
+        assertEquals(4, included.size());
+    }
+
+    @Test
+    public void cacheKeyIncludesQueryAndPrincipal() throws Exception {
+        assertEquals("included:1:1", render("/include.html?a=1", "user"));
+        assertEquals("included:2:1", render("/include.html?a=2", "user"));
+        assertEquals(2, rendered);
+
+        assertEquals("included:1:1", render("/include.html?a=1", "other"));
+        assertEquals(3, rendered);
+        assertEquals("included:1:1", render("/include.html?a=1", null));
+        assertEquals(4, rendered);
+
+        render("/include.html?a=1", "other");
+        render("/include.html?a=1", null);
+        assertEquals(4, rendered);
+    }
+
+    @Test
+    public void cacheIsBounded() throws Exception {
+        component.setVirtualIncludeCacheSize(1);
+        render("/include.html?a=1", "user");
+        render("/include.html?a=2", "user");
+        render("/include.html?a=1", "user");
+        assertEquals(3, rendered);
+    }
+
+    @Test
+    public void largeIncludeIsNotCached() throws Exception {
+        component.setVirtualIncludeCacheMaxEntrySize(5);
+        assertEquals("included:1:1", render("/include.html?a=1", "user"));
+        assertEquals("included:1:1", render("/include.html?a=1", "user"));
+        assertEquals(2, rendered);
+    }
+
+    @Test
+    public void clientValidatorsAreNotPassedOn() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/index.html");
+        request.addHeader("If-None-Match", "W/\"1\"");
+        assertEquals("included:1:1", render(request, "/include.html?a=1", "user"));
+        assertNull(included.get(0).getHeader("If-None-Match"));
+        assertEquals(1, rendered);
+    }
+
+    private String render(String uri, String user) throws Exception {
+        return render(new MockHttpServletRequest("GET", "/index.html"), uri, user);
+    }
+
+    private String render(MockHttpServletRequest request, String uri, String user) throws Exception {
+        request.setAttribute(VTKServlet.SERVLET_NAME_REQUEST_ATTRIBUTE, SERVLET_NAME);
+        Principal principal = user == null ? null : new PrincipalImpl(user, Principal.Type.USER);
+        SecurityContext securityContext = new SecurityContext(user == null ? null : "token-" + user, principal);
+        RequestContext requestContext = new RequestContext(request, securityContext,
+                null, null, null, Path.fromString("/index.html"), null, false,
+                false, true, repository, new DefaultPrincipalMetadataDAO());
+        RequestContext.setRequestContext(requestContext, request);
+
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("virtual", uri);
+        MockStringDecoratorRequest decoratorRequest = 
+                new MockStringDecoratorRequest(request, "<html></html>", parameters);
+        MockDecoratorResponse response = new MockDecoratorResponse();
+        component.render(decoratorRequest, response);
+        return response.getResult();
+    }
+}
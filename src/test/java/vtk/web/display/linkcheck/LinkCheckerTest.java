@@ -32,9 +32,19 @@ package vtk.web.display.linkcheck;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jmock.Expectations;
 import org.jmock.integration.junit4.JUnitRuleMockery;
@@ -42,6 +52,8 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 
+import com.sun.net.httpserver.HttpServer;
+
 import net.sf.ehcache.Ehcache;
 import net.sf.ehcache.Element;
 import vtk.web.display.linkcheck.LinkChecker.LinkCheckRequest;
@@ -209,6 +221,197 @@ public class LinkCheckerTest {
         testValidation(new TestLinkCheckObject(url, base, Status.OK, null));
     }
 
+    @Test
+    public void concurrentValidation() throws Exception {
+        StubServer server = new StubServer(300);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            LinkChecker checker = newConcurrentChecker(executor, 2);
+            List<LinkCheckRequest> requests = new ArrayList<>();
+            for (int i = 0; i < 6; i++) {
+                requests.add(server.request("127.0.0.1", "/slow/" + i));
+                requests.add(server.request("localhost", "/fast/" + i));
+            }
+            long start = System.currentTimeMillis();
+            List<LinkCheckResult> results = checker.validate(requests, 
+                    Instant.now().plusSeconds(30));
+            long elapsed = System.currentTimeMillis() - start;
+
+            assertEquals(requests.size(), results.size());
+            for (int i = 0; i < requests.size(); i++) {
+                assertEquals(requests.get(i).href(), results.get(i).getLink());
+                assertEquals(Status.OK, results.get(i).getStatus());
+            }
+            // Six slow links checked sequentially would take 1800 ms:
+            assertTrue("Elapsed: " + elapsed, elapsed < 1500);
+            assertTrue(server.maxConcurrent("127.0.0.1") <= 2);
+        }
+        finally {
+            executor.shutdownNow();
+            server.stop();
+        }
+    }
+
+    @Test
+    public void validationDeadline() throws Exception {
+        StubServer server = new StubServer(2000);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            LinkChecker checker = newConcurrentChecker(executor, 1);
+            List<LinkCheckRequest> requests = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                requests.add(server.request("127.0.0.1", "/slow/" + i));
+                requests.add(server.request("localhost", "/fast/" + i));
+            }
+            long start = System.currentTimeMillis();
+            List<LinkCheckResult> results = checker.validate(requests, 
+                    Instant.now().plusMillis(500));
+            long elapsed = System.currentTimeMillis() - start;
+
+            // A slow host does not hold back links to other hosts:
+            for (int i = 0; i < requests.size(); i++) {
+                Status expected = i % 2 == 0 ? Status.TIMEOUT : Status.OK;
+                assertEquals(expected, results.get(i).getStatus());
+            }
+            assertTrue("Elapsed: " + elapsed, elapsed < 1500);
+        }
+        finally {
+            executor.shutdownNow();
+            server.stop();
+        }
+    }
+
+    @Test
+    public void busyHostIsGivenUpAfterPermitWait() throws Exception {
+        StubServer server = new StubServer(2000);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            LinkChecker checker = newConcurrentChecker(executor, 1);
+            checker.setPermitWaitMillis(100);
+            Thread other = new Thread(() -> {
+                try {
+                    checker.validate(Collections.singletonList(
+                            server.request("127.0.0.1", "/slow/0")), Instant.now().plusSeconds(5));
+                }
+                catch (InterruptedException e) { }
+            });
+            other.start();
+            while (server.maxConcurrent("127.0.0.1") == 0) {
+                Thread.sleep(10);
+            }
+
+            long start = System.currentTimeMillis();
+            List<LinkCheckResult> results = checker.validate(
+                    Collections.singletonList(server.request("127.0.0.1", "/slow/1")), 
+                    Instant.now().plusSeconds(5));
+            long elapsed = System.currentTimeMillis() - start;
+
+            assertEquals(Status.TIMEOUT, results.get(0).getStatus());
+            assertTrue("Elapsed: " + elapsed, elapsed < 1500);
+            other.join();
+        }
+        finally {
+            executor.shutdownNow();
+            server.stop();
+        }
+    }
+
+    @Test
+    public void hostLimitHoldsForWorkersOutlivingDeadline() throws Exception {
+        StubServer server = new StubServer(1000);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            LinkChecker checker = newConcurrentChecker(executor, 1);
+            checker.setPermitWaitMillis(3000);
+            List<LinkCheckResult> results = checker.validate(Collections.singletonList(
+                    server.request("127.0.0.1", "/slow/0")), Instant.now().plusMillis(200));
+            assertEquals(Status.TIMEOUT, results.get(0).getStatus());
+
+            // The first worker is still blocked on its request:
+            results = checker.validate(Collections.singletonList(
+                    server.request("127.0.0.1", "/slow/1")), Instant.now().plusSeconds(5));
+            assertEquals(Status.OK, results.get(0).getStatus());
+            assertEquals(1, server.maxConcurrent("127.0.0.1"));
+        }
+        finally {
+            executor.shutdownNow();
+            server.stop();
+        }
+    }
+
+    private LinkChecker newConcurrentChecker(ExecutorService executor, int maxConnectionsPerHost) {
+        // Thread safe in-memory cache
+        Map<Object, Element> elements = new ConcurrentHashMap<>();
+        Ehcache cache = (Ehcache) Proxy.newProxyInstance(getClass().getClassLoader(), 
+                new Class<?>[] { Ehcache.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "get": 
+                        return elements.get(args[0]);
+                    case "put":
+                        Element e = (Element) args[0];
+                        elements.put(e.getObjectKey(), e);
+                        return null;
+                    case "remove":
+                        return elements.remove(args[0]) != null;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        LinkChecker checker = new LinkChecker();
+        checker.setCache(cache);
+        checker.setExecutor(executor);
+        checker.setMaxConnectionsPerHost(maxConnectionsPerHost);
+        return checker;
+    }
+
+    /**
+     * Local HTTP server answering 200 OK to everything, delaying
+     * responses for paths starting with "/slow/".
+     */
+    private static class StubServer {
+        private final HttpServer server;
+        private final Map<String, AtomicInteger> current = new ConcurrentHashMap<>();
+        private final Map<String, AtomicInteger> max = new ConcurrentHashMap<>();
+        
+        StubServer(long slowDelayMillis) throws Exception {
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 50);
+            server.setExecutor(Executors.newCachedThreadPool());
+            server.createContext("/", exchange -> {
+                String host = exchange.getRequestHeaders().getFirst("Host").replaceAll(":.*", "");
+                int n = current.computeIfAbsent(host, h -> new AtomicInteger()).incrementAndGet();
+                max.computeIfAbsent(host, h -> new AtomicInteger()).accumulateAndGet(n, Math::max);
+                try {
+                    if (exchange.getRequestURI().getPath().startsWith("/slow/")) {
+                        Thread.sleep(slowDelayMillis);
+                    }
+                    exchange.sendResponseHeaders(200, -1);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                finally {
+                    current.get(host).decrementAndGet();
+                    exchange.close();
+                }
+            });
+            server.start();
+        }
+        
+        LinkCheckRequest request(String host, String path) {
+            String url = "http://" + host + ":" + server.getAddress().getPort() + path;
+            return LinkCheckRequest.builder(url, URL.parse("http://www.example.com/")).build();
+        }
+        
+        int maxConcurrent(String host) {
+            AtomicInteger n = max.get(host);
+            return n == null ? 0 : n.get();
+        }
+        
+        void stop() {
+            server.stop(0);
+        }
+    }
+
     private void testValidation(List<TestLinkCheckObject> testLinks) {
 
         for (TestLinkCheckObject testLink : testLinks) {
@@ -0,0 +1,181 @@
+/* Copyright (c) 2017, University of Oslo, Norway
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ *  * Neither the name of the University of Oslo nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package vtk.web.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Date;
+
+import javax.servlet.FilterChain;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import com.codahale.metrics.MetricRegistry;
+
+import vtk.repository.Path;
+import vtk.repository.Repository;
+import vtk.repository.RepositoryAction;
+import vtk.repository.Resource;
+import vtk.repository.store.DefaultPrincipalMetadataDAO;
+import vtk.security.SecurityContext;
+import vtk.util.web.HttpUtil;
+import vtk.web.RequestContext;
+import vtk.web.service.Service;
+
+public class ConditionalGetFilterTest {
+
+    private static final String ETAG = "W/\"abc\"";
+
+    private ConditionalGetFilter filter;
+    private Repository repository;
+    private Resource resource;
+    private Service service;
+    private int renders;
+
+    @Before
+    public void setUp() throws Exception {
+        filter = new ConditionalGetFilter(new MetricRegistry());
+        repository = mock(Repository.class);
+        resource = mock(Resource.class);
+        when(resource.getURI()).thenReturn(Path.fromString("/doc.html"));
+        when(resource.getEtag()).thenReturn("\"1\"");
+        when(resource.getLastModified()).thenReturn(new Date(1500000000000L));
+        when(repository.isAuthorized(any(Resource.class), any(RepositoryAction.class), 
+                any(), anyBoolean())).thenReturn(true);
+        service = mock(Service.class);
+        when(service.getName()).thenReturn("displayHTMLResourceService");
+        when(service.getAttribute("conditional-get")).thenReturn("true");
+        renders = 0;
+    }
+
+    @Test
+    public void revalidationIsAnsweredBeforeRendering() throws Exception {
+        MockHttpServletResponse response = filter(null, null);
+        assertEquals(1, renders);
+        String etag = response.getHeader("ETag");
+        assertTrue(etag.startsWith("W/\""));
+
+        response = filter(null, etag);
+        assertEquals(304, response.getStatus());
+        assertEquals(etag, response.getHeader("ETag"));
+        assertEquals(1, renders);
+        verify(repository, never()).retrieve(any(), any(Path.class), anyBoolean());
+    }
+
+    @Test
+    public void validatorCoversQueryAndVersion() throws Exception {
+        String etag = filter(null, null).getHeader("ETag");
+        assertNotEquals(etag, filter("page=2", null).getHeader("ETag"));
+
+        filter.incrementVersion();
+        MockHttpServletResponse response = filter(null, etag);
+        assertEquals(200, response.getStatus());
+        assertNotEquals(etag, response.getHeader("ETag"));
+        assertEquals(3, renders);
+    }
+
+    @Test
+    public void ineligibleRequestsAreRendered() throws Exception {
+        when(repository.isAuthorized(any(Resource.class), any(RepositoryAction.class), 
+                any(), anyBoolean())).thenReturn(false);
+        MockHttpServletResponse response = filter(null, "*");
+        assertEquals(200, response.getStatus());
+        assertNull(response.getHeader("ETag"));
+
+        when(repository.isAuthorized(any(Resource.class), any(RepositoryAction.class), 
+                any(), anyBoolean())).thenReturn(true);
+        when(service.getAttribute("conditional-get")).thenReturn(null);
+        response = filter(null, "*");
+        assertEquals(200, response.getStatus());
+        assertNull(response.getHeader("ETag"));
+        assertEquals(2, renders);
+    }
+
+    @Test
+    public void ifNoneMatch() {
+        assertTrue(ConditionalGetFilter.notModified(request("If-None-Match", "W/\"abc\""), ETAG, 0));
+        assertTrue(ConditionalGetFilter.notModified(request("If-None-Match", "\"abc\""), ETAG, 0));
+        assertTrue(ConditionalGetFilter.notModified(request("If-None-Match", "\"x\", W/\"abc\""), ETAG, 0));
+        assertTrue(ConditionalGetFilter.notModified(request("If-None-Match", "*"), ETAG, 0));
+        assertFalse(ConditionalGetFilter.notModified(request("If-None-Match", "\"abcd\""), ETAG, 0));
+        assertFalse(ConditionalGetFilter.notModified(new MockHttpServletRequest("GET", "/"), ETAG, 0));
+    }
+
+    @Test
+    public void ifModifiedSince() {
+        long lastModified = 1500000000500L;
+        String date = HttpUtil.getHttpDateString(new Date(1500000000000L));
+        assertTrue(ConditionalGetFilter.notModified(request("If-Modified-Since", date), ETAG, lastModified));
+        assertFalse(ConditionalGetFilter.notModified(request("If-Modified-Since", date), ETAG, 
+                lastModified + 1000));
+
+        // If-None-Match takes precedence:
+        MockHttpServletRequest request = request("If-Modified-Since", date);
+        request.addHeader("If-None-Match", "\"other\"");
+        assertFalse(ConditionalGetFilter.notModified(request, ETAG, lastModified));
+    }
+
+    private MockHttpServletResponse filter(String query, String ifNoneMatch) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/doc.html");
+        request.setQueryString(query);
+        if (ifNoneMatch != null) {
+            request.addHeader("If-None-Match", ifNoneMatch);
+        }
+        RequestContext requestContext = new RequestContext(request, new SecurityContext(null, null),
+                service, null, resource, resource.getURI(), null, false,
+                false, true, repository, new DefaultPrincipalMetadataDAO());
+        RequestContext.setRequestContext(requestContext, request);
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        FilterChain chain = (req, resp) -> renders++;
+        filter.doFilter(request, response, chain);
+        return response;
+    }
+
+    private MockHttpServletRequest request(String header, String value) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/");
+        request.addHeader(header, value);
+        return request;
+    }
+}
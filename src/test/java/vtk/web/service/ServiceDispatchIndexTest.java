@@ -0,0 +1,150 @@
+/* Copyright (c) 2017, University of Oslo, Norway
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ *  * Neither the name of the University of Oslo nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package vtk.web.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+public class ServiceDispatchIndexTest {
+
+    private ServiceImpl root, admin, edit, plain, post;
+    private ServiceDispatchIndex index;
+
+    @Before
+    public void setUp() {
+        root = service("root", null);
+        admin = service("admin", root, param("vrtx", "admin"));
+        edit = service("edit", root, param("vrtx", "edit"));
+        post = service("post", root, method("POST"));
+        plain = service("plain", root);
+
+        Map<Service, List<Service>> children = new HashMap<>();
+        children.put(root, Arrays.asList(admin, edit, post, plain));
+        index = new ServiceDispatchIndex(Collections.singletonList(root), children, 10);
+    }
+
+    @Test
+    public void parameterIndex() {
+        ServiceDispatchIndex.Dispatch dispatch = index.dispatch(request("GET", "vrtx=admin"));
+        ServiceDispatchIndex.Node rootNode = dispatch.roots().get(0);
+        assertTrue(dispatch.requestMatches(rootNode));
+        assertEquals(Arrays.asList("admin", "post", "plain"), names(dispatch.children(rootNode)));
+
+        dispatch = index.dispatch(request("GET", null));
+        assertEquals(Arrays.asList("post", "plain"), names(dispatch.children(rootNode)));
+
+        dispatch = index.dispatch(request("GET", "vrtx=unknown"));
+        assertEquals(Arrays.asList("post", "plain"), names(dispatch.children(rootNode)));
+    }
+
+    @Test
+    public void requestAssertions() {
+        ServiceDispatchIndex.Dispatch dispatch = index.dispatch(request("GET", null));
+        ServiceDispatchIndex.Node rootNode = dispatch.roots().get(0);
+        ServiceDispatchIndex.Node[] children = dispatch.children(rootNode);
+        assertFalse(dispatch.requestMatches(children[0]));
+        assertTrue(dispatch.requestMatches(children[1]));
+        assertTrue(children[1].assertions().isEmpty());
+
+        dispatch = index.dispatch(request("POST", null));
+        assertTrue(dispatch.requestMatches(dispatch.children(rootNode)[0]));
+    }
+
+    @Test
+    public void memoization() {
+        ServiceDispatchIndex.Dispatch dispatch = index.dispatch(request("GET", "vrtx=edit"));
+        ServiceDispatchIndex.Node rootNode = dispatch.roots().get(0);
+        for (ServiceDispatchIndex.Node child: dispatch.children(rootNode)) {
+            dispatch.requestMatches(child);
+        }
+        dispatch.complete();
+        assertTrue(index.report().contains("hits: 0, misses: 1"));
+
+        dispatch = index.dispatch(request("GET", "vrtx=edit"));
+        assertTrue(dispatch.requestMatches(dispatch.children(rootNode)[0]));
+        assertTrue(index.report().contains("hits: 1, misses: 1"));
+
+        // Requests with a body are not memoized:
+        index.dispatch(request("POST", "vrtx=edit")).complete();
+        assertTrue(index.report().contains("hits: 1, misses: 1"));
+    }
+
+    private List<String> names(ServiceDispatchIndex.Node[] nodes) {
+        String[] result = new String[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            result[i] = nodes[i].service().getName();
+        }
+        return Arrays.asList(result);
+    }
+
+    private MockHttpServletRequest request(String method, String query) {
+        MockHttpServletRequest request = new MockHttpServletRequest(method, "/foo");
+        request.setServerName("localhost");
+        if (query != null) {
+            request.setQueryString(query);
+            String[] kv = query.split("=");
+            request.addParameter(kv[0], kv[1]);
+        }
+        return request;
+    }
+
+    private ServiceImpl service(String name, Service parent, WebAssertion... assertions) {
+        ServiceImpl service = new ServiceImpl();
+        service.setBeanName(name);
+        service.setParent(parent);
+        service.setAssertions(Arrays.asList(assertions));
+        return service;
+    }
+
+    private RequestParameterAssertion param(String name, String value) {
+        RequestParameterAssertion assertion = new RequestParameterAssertion();
+        assertion.setParameterName(name);
+        assertion.setParameterValue(value);
+        return assertion;
+    }
+
+    private RequestMethodAssertion method(String method) {
+        RequestMethodAssertion assertion = new RequestMethodAssertion();
+        assertion.setMethod(method);
+        return assertion;
+    }
+}
@@ -0,0 +1,218 @@
+/* Copyright (c) 2017, University of Oslo, Norway
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ *  * Neither the name of the University of Oslo nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package vtk.web.servlet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+public class CompressionFilterTest {
+
+    private CompressionFilter filter;
+    private MockServlet servlet;
+
+    @Before
+    public void setUp() {
+        filter = new CompressionFilter();
+        filter.setMinSize(100);
+        servlet = new MockServlet();
+    }
+
+    @Test
+    public void compressed() throws Exception {
+        servlet.body = body(5000);
+        MockHttpServletResponse response = get(request("/a.html"));
+        assertEquals("gzip", response.getHeader("Content-Encoding"));
+        assertTrue(response.getHeaders("Vary").contains("Accept-Encoding"));
+        assertNull(response.getHeader("Content-Length"));
+        assertArrayEquals(servlet.body, gunzip(response.getContentAsByteArray()));
+    }
+
+    @Test
+    public void notCompressed() throws Exception {
+        servlet.body = body(50);
+        MockHttpServletResponse response = get(request("/small.html"));
+        assertNull(response.getHeader("Content-Encoding"));
+        assertArrayEquals(servlet.body, response.getContentAsByteArray());
+        assertEquals(50, response.getContentLength());
+
+        servlet.body = body(5000);
+        servlet.contentType = "image/png";
+        response = get(request("/image.png"));
+        assertNull(response.getHeader("Content-Encoding"));
+        assertArrayEquals(servlet.body, response.getContentAsByteArray());
+
+        servlet.contentType = "text/plain";
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/a.txt");
+        response = get(request);
+        assertNull(response.getHeader("Content-Encoding"));
+
+        request = new MockHttpServletRequest("GET", "/a.txt");
+        request.addHeader("Accept-Encoding", "gzip;q=0");
+        response = get(request);
+        assertNull(response.getHeader("Content-Encoding"));
+    }
+
+    @Test
+    public void multiStatusCompressed() throws Exception {
+        servlet.body = body(5000);
+        servlet.status = 207;
+        servlet.contentType = "application/xml;charset=utf-8";
+        MockHttpServletRequest request = request("/");
+        request.setMethod("PROPFIND");
+        MockHttpServletResponse response = get(request);
+        assertEquals(207, response.getStatus());
+        assertEquals("gzip", response.getHeader("Content-Encoding"));
+        assertArrayEquals(servlet.body, gunzip(response.getContentAsByteArray()));
+    }
+
+    @Test
+    public void rangeRequest() throws Exception {
+        servlet.body = body(5000);
+        MockHttpServletRequest request = request("/a.txt");
+        request.addHeader("Range", "bytes=0-99");
+        MockHttpServletResponse response = get(request);
+        assertNull(response.getHeader("Content-Encoding"));
+        assertArrayEquals(servlet.body, response.getContentAsByteArray());
+    }
+
+    @Test
+    public void entityTags() throws Exception {
+        servlet.body = body(5000);
+        servlet.etag = "\"abc\"";
+        MockHttpServletResponse response = get(request("/a.css"));
+        assertEquals("\"abc" + CompressionFilter.ETAG_SUFFIX + "\"", response.getHeader("ETag"));
+        assertArrayEquals(servlet.body, gunzip(response.getContentAsByteArray()));
+
+        // Conditional requests see the original entity tag:
+        MockHttpServletRequest request = request("/a.css");
+        request.addHeader("If-None-Match", "\"abc" + CompressionFilter.ETAG_SUFFIX + "\"");
+        response = get(request);
+        assertEquals(304, response.getStatus());
+        assertEquals("\"abc" + CompressionFilter.ETAG_SUFFIX + "\"", response.getHeader("ETag"));
+
+        // Except If-Range, as ranges are served in the identity encoding:
+        request = request("/a.css");
+        request.addHeader("If-Range", "\"abc" + CompressionFilter.ETAG_SUFFIX + "\"");
+        get(request);
+        assertEquals("\"abc" + CompressionFilter.ETAG_SUFFIX + "\"", servlet.ifRange);
+        assertEquals(3, servlet.invocations);
+    }
+
+    @Test
+    public void acceptEncoding() {
+        assertTrue(CompressionFilter.acceptsGzip("gzip, deflate"));
+        assertTrue(CompressionFilter.acceptsGzip("deflate, gzip;q=0.5"));
+        assertFalse(CompressionFilter.acceptsGzip("gzip;q=0"));
+        assertFalse(CompressionFilter.acceptsGzip("deflate"));
+        assertFalse(CompressionFilter.acceptsGzip(null));
+    }
+
+    private byte[] body(int size) {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < size) {
+            sb.append("<p>Lorem ipsum dolor sit amet</p>\n");
+        }
+        return sb.substring(0, size).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private MockHttpServletRequest request(String uri) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", uri);
+        request.addHeader("Accept-Encoding", "gzip, deflate");
+        return request;
+    }
+
+    private MockHttpServletResponse get(MockHttpServletRequest request) throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        new MockFilterChain(servlet, filter).doFilter(request, response);
+        return response;
+    }
+
+    private byte[] gunzip(byte[] data) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static class MockServlet extends HttpServlet {
+        byte[] body;
+        String contentType = "text/html;charset=utf-8";
+        String etag;
+        int status = HttpServletResponse.SC_OK;
+        int invocations = 0;
+        String ifRange;
+
+        @Override
+        protected void service(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            invocations++;
+            ifRange = req.getHeader("If-Range");
+            if (etag != null) {
+                resp.setHeader("ETag", etag);
+                if (etag.equals(req.getHeader("If-None-Match"))) {
+                    resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                    return;
+                }
+            }
+            resp.setStatus(status);
+            resp.setContentType(contentType);
+            resp.setContentLength(body.length);
+            resp.getOutputStream().write(body);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/* Copyright (c) 2017, University of Oslo, Norway
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ *  * Neither the name of the University of Oslo nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package vtk.web.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockServletContext;
+
+public class IncludeDispatcherTest {
+
+    private static final String SERVLET_NAME = "vtk";
+
+    @Test
+    public void registeredDispatcherIsUsed() throws Exception {
+        List<HttpServletRequest> included = new ArrayList<>();
+        List<ServletRequest> forwarded = new ArrayList<>();
+        MockServletContext servletContext = servletContext(forwarded);
+        servletContext.setAttribute(IncludeDispatcher.contextAttributeName(SERVLET_NAME), 
+                (IncludeDispatcher) (req, resp) -> {
+                    included.add(req);
+                    resp.getWriter().write("included");
+                });
+
+        MockHttpServletRequest original = originalRequest();
+        MockHttpServletRequest include = new MockHttpServletRequest("GET", "/include.html");
+        BufferedResponse response = new BufferedResponse(200);
+        IncludeDispatcher.dispatch(servletContext, original, include, response);
+
+        assertEquals(1, included.size());
+        assertSame(include, included.get(0));
+        assertEquals(0, forwarded.size());
+        assertEquals("included", response.getContentString());
+    }
+
+    @Test
+    public void fallbackToNamedDispatcher() throws Exception {
+        List<ServletRequest> forwarded = new ArrayList<>();
+        MockServletContext servletContext = servletContext(forwarded);
+
+        MockHttpServletRequest original = originalRequest();
+        MockHttpServletRequest include = new MockHttpServletRequest("GET", "/include.html");
+        IncludeDispatcher.dispatch(servletContext, original, include, new BufferedResponse(200));
+
+        assertEquals(1, forwarded.size());
+        assertSame(include, forwarded.get(0));
+    }
+
+    private MockHttpServletRequest originalRequest() {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/index.html");
+        request.setAttribute(VTKServlet.SERVLET_NAME_REQUEST_ATTRIBUTE, SERVLET_NAME);
+        return request;
+    }
+
+    private MockServletContext servletContext(List<ServletRequest> forwarded) {
+        return new MockServletContext() {
+            @Override
+            public RequestDispatcher getNamedDispatcher(String path) {
+                if (!SERVLET_NAME.equals(path)) {
+                    return null;
+                }
+                return new RequestDispatcher() {
+                    @Override
+                    public void forward(ServletRequest request, ServletResponse response)
+                            throws ServletException, IOException {
+                        forwarded.add(request);
+                    }
+                    @Override
+                    public void include(ServletRequest request, ServletResponse response)
+                            throws ServletException, IOException {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+}
@@ -0,0 +1,238 @@
+/* Copyright (c) 2017, University of Oslo, Norway
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ *  * Neither the name of the University of Oslo nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package vtk.web.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import vtk.repository.Path;
+import vtk.security.Principal;
+import vtk.security.PrincipalImpl;
+import vtk.security.SecurityContext;
+
+public class PageCacheFilterTest {
+
+    private PageCache cache;
+    private PageCacheFilter filter;
+    private MockServlet servlet;
+
+    @Before
+    public void setUp() {
+        cache = new PageCache(100000, 60, 60);
+        filter = new PageCacheFilter(cache);
+        filter.setBypassCookies(new String[] { "VRTXID" });
+        servlet = new MockServlet();
+    }
+
+    @Test
+    public void anonymousGet() throws Exception {
+        MockHttpServletResponse response = get("/a/b.html", null);
+        assertEquals("content of /a/b.html", response.getContentAsString());
+        assertEquals(1, servlet.invocations);
+
+        response = get("/a/b.html", null);
+        assertEquals(1, servlet.invocations);
+        assertEquals(200, response.getStatus());
+        assertEquals("content of /a/b.html", response.getContentAsString());
+        assertEquals("text/html;charset=utf-8", response.getContentType());
+        assertEquals("bar", response.getHeader("X-Foo"));
+        assertNotNull(response.getHeader("Age"));
+
+        MockHttpServletRequest head = request("/a/b.html");
+        head.setMethod("HEAD");
+        response = new MockHttpServletResponse();
+        new MockFilterChain(servlet, filter).doFilter(head, response);
+        assertEquals(1, servlet.invocations);
+        assertEquals(0, response.getContentAsByteArray().length);
+        assertEquals(20, response.getContentLength());
+
+        get("/a/b.html?x=y", null);
+        assertEquals(2, servlet.invocations);
+    }
+
+    @Test
+    public void varyHeaders() throws Exception {
+        MockHttpServletRequest request = request("/a");
+        request.addHeader("Accept-Language", "no");
+        new MockFilterChain(servlet, filter).doFilter(request, new MockHttpServletResponse());
+        request = request("/a");
+        request.addHeader("Accept-Language", "en");
+        new MockFilterChain(servlet, filter).doFilter(request, new MockHttpServletResponse());
+        assertEquals(2, servlet.invocations);
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void bypass() throws Exception {
+        servlet.principal = new PrincipalImpl("user@localhost", Principal.Type.USER);
+        get("/a", null);
+        get("/a", null);
+        assertEquals(2, servlet.invocations);
+        assertEquals(0, cache.size());
+
+        servlet.principal = null;
+        get("/a", null);
+        assertEquals(1, cache.size());
+
+        MockHttpServletRequest request = request("/a");
+        request.setCookies(new Cookie("VRTXID", "123"));
+        new MockFilterChain(servlet, filter).doFilter(request, new MockHttpServletResponse());
+        assertEquals(4, servlet.invocations);
+
+        request = request("/a");
+        request.addHeader("Authorization", "Basic Zm9vOmJhcg==");
+        new MockFilterChain(servlet, filter).doFilter(request, new MockHttpServletResponse());
+        assertEquals(5, servlet.invocations);
+
+        servlet.cacheControl = "private";
+        get("/b", null);
+        servlet.cacheControl = null;
+        servlet.setCookie = true;
+        get("/c", null);
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void invalidation() throws Exception {
+        get("/", null);
+        get("/a/", null);
+        get("/a/b/c.html", null);
+        get("/a/b/c.html/d", null);
+        get("/x/y.html", null);
+        assertEquals(5, cache.size());
+
+        cache.invalidate(Path.fromString("/a/b/c.html"));
+        assertEquals(1, cache.size());
+        get("/x/y.html", null);
+        assertEquals(5, servlet.invocations);
+    }
+
+    @Test
+    public void byteBudget() throws Exception {
+        cache = new PageCache(3000, 60, 60);
+        filter = new PageCacheFilter(cache);
+        for (int i = 0; i < 100; i++) {
+            get("/" + i, null);
+            assertEquals(true, cache.bytes() <= 3000);
+        }
+        assertEquals(true, cache.size() > 0);
+
+        filter.setMaxEntrySize(10);
+        cache.clear();
+        get("/large", null);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void staleWhileRevalidate() {
+        cache = new PageCache(100000, 10, 10);
+        PageCache.Entry entry = new PageCache.Entry("k", Path.fromString("/a"), 200, 
+                Collections.emptyList(), new byte[0], 0);
+        cache.put(entry);
+        assertNotNull(cache.lookup("k", 5000).serve);
+
+        // First request after expiry refreshes, others get the stale entry:
+        PageCache.Lookup lookup = cache.lookup("k", 15000);
+        assertNull(lookup.serve);
+        assertEquals(entry, lookup.refresh);
+        assertEquals(entry, cache.lookup("k", 15000).serve);
+
+        cache.release(entry);
+        assertNull(cache.lookup("k", 15000).serve);
+
+        cache.put(entry);
+        assertNull(cache.lookup("k", 25000).serve);
+        assertEquals(0, cache.size());
+    }
+
+    private MockHttpServletRequest request(String uri) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", uri);
+        int q = uri.indexOf('?');
+        if (q != -1) {
+            request.setRequestURI(uri.substring(0, q));
+            request.setQueryString(uri.substring(q + 1));
+        }
+        request.setServerName("www.example.com");
+        request.setServerPort(80);
+        return request;
+    }
+
+    private MockHttpServletResponse get(String uri, String acceptLanguage) 
+            throws IOException, ServletException {
+        MockHttpServletRequest request = request(uri);
+        if (acceptLanguage != null) {
+            request.addHeader("Accept-Language", acceptLanguage);
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        new MockFilterChain(servlet, filter).doFilter(request, response);
+        return response;
+    }
+
+    @SuppressWarnings("serial")
+    private class MockServlet extends HttpServlet {
+        int invocations = 0;
+        Principal principal = null;
+        String cacheControl = null;
+        boolean setCookie = false;
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            invocations++;
+            SecurityContext.setSecurityContext(new SecurityContext(null, principal), req);
+            resp.setContentType("text/html;charset=utf-8");
+            resp.setHeader("X-Foo", "bar");
+            if (cacheControl != null) {
+                resp.setHeader("Cache-Control", cacheControl);
+            }
+            if (setCookie) {
+                resp.addCookie(new Cookie("c", "v"));
+            }
+            resp.getWriter().write("content of " + req.getRequestURI());
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/* Copyright (c) 2017, University of Oslo, Norway
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ *  * Neither the name of the University of Oslo nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package vtk.web.view;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import vtk.repository.Resource;
+
+public class DisplayResourceViewTest {
+
+    private static final String CONTENT = "0123456789abcdefghij";
+
+    @Test
+    public void parseRanges() throws Exception {
+        List<DisplayResourceView.Range> ranges = DisplayResourceView.parseRanges("bytes=0-4", 20, 16);
+        assertEquals(1, ranges.size());
+        assertEquals(0, ranges.get(0).from);
+        assertEquals(4, ranges.get(0).to);
+
+        ranges = DisplayResourceView.parseRanges("bytes=-5", 20, 16);
+        assertEquals(15, ranges.get(0).from);
+        assertEquals(19, ranges.get(0).to);
+
+        ranges = DisplayResourceView.parseRanges("bytes=10-", 20, 16);
+        assertEquals(10, ranges.get(0).from);
+        assertEquals(19, ranges.get(0).to);
+
+        ranges = DisplayResourceView.parseRanges("bytes=10-100", 20, 16);
+        assertEquals(19, ranges.get(0).to);
+
+        ranges = DisplayResourceView.parseRanges("bytes=0-1, 5-6 ,30-40", 20, 16);
+        assertEquals(2, ranges.size());
+
+        assertNull(DisplayResourceView.parseRanges("bytes=5-1", 20, 16));
+        assertNull(DisplayResourceView.parseRanges("bytes=a-b", 20, 16));
+        assertNull(DisplayResourceView.parseRanges("items=0-1", 20, 16));
+        assertNull(DisplayResourceView.parseRanges("bytes=0-1,2-3,4-5", 20, 2));
+    }
+
+    @Test(expected = DisplayResourceView.UnsatisfiableRangeException.class)
+    public void unsatisfiable() throws Exception {
+        DisplayResourceView.parseRanges("bytes=20-30", 20, 16);
+    }
+
+    @Test
+    public void fullContent() throws Exception {
+        MockHttpServletResponse response = render(null, null, stream());
+        assertEquals(200, response.getStatus());
+        assertEquals("bytes", response.getHeader("Accept-Ranges"));
+        assertEquals("\"etag\"", response.getHeader("ETag"));
+        assertEquals(CONTENT, response.getContentAsString());
+    }
+
+    @Test
+    public void singleRange() throws Exception {
+        MockHttpServletResponse response = render("bytes=2-5", null, stream());
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes 2-5/20", response.getHeader("Content-Range"));
+        assertEquals("2345", response.getContentAsString());
+
+        response = render("bytes=40-", null, stream());
+        assertEquals(416, response.getStatus());
+        assertEquals("bytes */20", response.getHeader("Content-Range"));
+    }
+
+    @Test
+    public void ifRange() throws Exception {
+        MockHttpServletResponse response = render("bytes=2-5", "\"etag\"", stream());
+        assertEquals(206, response.getStatus());
+        response = render("bytes=2-5", "\"other\"", stream());
+        assertEquals(200, response.getStatus());
+        assertEquals(CONTENT, response.getContentAsString());
+    }
+
+    @Test
+    public void multipleRanges() throws Exception {
+        File file = File.createTempFile("display-resource-view", ".txt");
+        try {
+            Files.write(file.toPath(), CONTENT.getBytes(StandardCharsets.US_ASCII));
+            // Out of order ranges are only supported for files:
+            MockHttpServletResponse response = render("bytes=10-11,0-1", null, new FileInputStream(file));
+            assertEquals(206, response.getStatus());
+            String contentType = response.getContentType();
+            assertTrue(contentType.startsWith("multipart/byteranges; boundary="));
+            String boundary = contentType.substring(contentType.indexOf('=') + 1);
+            String expected = "\r\n--" + boundary + "\r\n"
+                    + "Content-Type: text/plain\r\n"
+                    + "Content-Range: bytes 10-11/20\r\n\r\n"
+                    + "ab"
+                    + "\r\n--" + boundary + "\r\n"
+                    + "Content-Type: text/plain\r\n"
+                    + "Content-Range: bytes 0-1/20\r\n\r\n"
+                    + "01"
+                    + "\r\n--" + boundary + "--\r\n";
+            assertEquals(expected, response.getContentAsString());
+            assertEquals(expected.length(), Integer.parseInt(response.getHeader("Content-Length")));
+
+            response = render("bytes=10-11,0-1", null, stream());
+            assertEquals(200, response.getStatus());
+            assertEquals(CONTENT, response.getContentAsString());
+
+            response = render("bytes=0-1,10-11", null, stream());
+            assertEquals(206, response.getStatus());
+            assertTrue(response.getContentAsString().contains("\r\n\r\nab\r\n"));
+        } finally {
+            file.delete();
+        }
+    }
+
+    private InputStream stream() {
+        return new ByteArrayInputStream(CONTENT.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private MockHttpServletResponse render(String range, String ifRange, InputStream content) throws Exception {
+        Resource resource = Mockito.mock(Resource.class);
+        Mockito.when(resource.getContentLength()).thenReturn((long) CONTENT.length());
+        Mockito.when(resource.getContentType()).thenReturn("text/plain");
+        Mockito.when(resource.getEtag()).thenReturn("\"etag\"");
+
+        DisplayResourceView view = new DisplayResourceView();
+        view.setSupportRangeRequests(true);
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/file.txt");
+        if (range != null) {
+            request.addHeader("Range", range);
+        }
+        if (ifRange != null) {
+            request.addHeader("If-Range", ifRange);
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        Map<String, Object> model = new HashMap<>();
+        model.put("resource", resource);
+        model.put("resourceStream", content);
+        view.renderMergedOutputModel(model, request, response);
+        return response;
+    }
+}
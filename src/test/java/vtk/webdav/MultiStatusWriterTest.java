@@ -0,0 +1,131 @@
+/* Copyright (c) 2017, University of Oslo, Norway
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ *  * Neither the name of the University of Oslo nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package vtk.webdav;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.jdom.Document;
+import org.jdom.Element;
+import org.jdom.Namespace;
+import org.jdom.input.SAXBuilder;
+import org.junit.Test;
+
+public class MultiStatusWriterTest {
+
+    private static final Namespace CUSTOM = Namespace.getNamespace("x", "http://example.com/x");
+
+    private Element response(int i) {
+        Element response = new Element("response", WebdavConstants.DAV_NAMESPACE);
+        response.addContent(new Element("href", WebdavConstants.DAV_NAMESPACE)
+                .addContent("/folder/file-" + i + ".txt"));
+        Element prop = new Element("prop", WebdavConstants.DAV_NAMESPACE);
+        prop.addContent(new Element("getcontentlength", WebdavConstants.DAV_NAMESPACE)
+                .addContent(String.valueOf(i)));
+        prop.addContent(new Element("custom", CUSTOM).addContent("a < b & c"));
+        prop.addContent(new Element("nonamespace").setAttribute("attr", "value"));
+        Element propstat = new Element("propstat", WebdavConstants.DAV_NAMESPACE);
+        propstat.addContent(prop);
+        propstat.addContent(new Element("status", WebdavConstants.DAV_NAMESPACE)
+                .addContent("HTTP/1.1 200 OK"));
+        response.addContent(propstat);
+        return response;
+    }
+
+    @Test
+    public void wellFormed() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (MultiStatusWriter writer = new MultiStatusWriter(out, 10)) {
+            writer.start();
+            writer.response(response(1));
+            writer.response(response(2));
+            writer.end();
+        }
+        String xml = new String(out.toByteArray(), StandardCharsets.UTF_8);
+        // DAV namespace is declared only on the root element:
+        assertEquals(xml.indexOf("xmlns:d="), xml.lastIndexOf("xmlns:d="));
+
+        Document doc = new SAXBuilder().build(new ByteArrayInputStream(out.toByteArray()));
+        Element root = doc.getRootElement();
+        assertEquals("multistatus", root.getName());
+        assertEquals("DAV:", root.getNamespaceURI());
+        assertEquals(2, root.getChildren("response", WebdavConstants.DAV_NAMESPACE).size());
+
+        Element prop = ((Element) root.getChildren().get(1))
+                .getChild("propstat", WebdavConstants.DAV_NAMESPACE)
+                .getChild("prop", WebdavConstants.DAV_NAMESPACE);
+        assertEquals("a < b & c", prop.getChildText("custom", CUSTOM));
+        assertEquals("value", prop.getChild("nonamespace").getAttributeValue("attr"));
+        assertEquals("2", prop.getChildText("getcontentlength", WebdavConstants.DAV_NAMESPACE));
+    }
+
+    @Test
+    public void largeCollection() throws Exception {
+        int children = 10000;
+        CountingOutputStream out = new CountingOutputStream();
+        try (MultiStatusWriter writer = new MultiStatusWriter(out, 100)) {
+            writer.start();
+            for (int i = 0; i < children; i++) {
+                writer.response(response(i));
+            }
+            writer.end();
+            assertEquals(children, writer.getWritten());
+        }
+        // Output is flushed continuously, not once at the end:
+        assertTrue(out.flushes >= children / 100);
+        assertTrue(out.bytes > children * 100);
+    }
+
+    private static class CountingOutputStream extends java.io.OutputStream {
+        long bytes = 0;
+        int flushes = 0;
+
+        @Override
+        public void write(int b) throws IOException {
+            bytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            bytes += len;
+        }
+
+        @Override
+        public void flush() {
+            flushes++;
+        }
+    }
+}